@@ -20,9 +20,13 @@
 import java.io.BufferedInputStream;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.util.IdentityHashStore;
 
 
 /**
@@ -32,7 +36,15 @@
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
 public class BufferedFSInputStream extends BufferedInputStream
-implements Seekable, PositionedReadable, HasFileDescriptor {
+implements Seekable, PositionedReadable, HasFileDescriptor,
+    HasEnhancedByteBufferAccess {
+  /**
+   * Fallback buffers handed out by the enhanced ByteBuffer read, mapped to
+   * the ByteBufferPool they came from.
+   */
+  private final IdentityHashStore<ByteBuffer, ByteBufferPool>
+      extendedReadBuffers = new IdentityHashStore<ByteBuffer, ByteBufferPool>(0);
+
   /**
    * Creates a <code>BufferedFSInputStream</code>
    * with the specified buffer size,
@@ -119,4 +131,44 @@ public FileDescriptor getFileDescriptor() throws IOException {
       return null;
     }
   }
+
+  /**
+   * Read directly from the underlying stream if it supports enhanced
+   * ByteBuffer access, skipping this stream's buffer.  Any data which has
+   * been buffered but not yet consumed is discarded and read again.
+   */
+  @Override
+  public synchronized ByteBuffer read(ByteBufferPool bufferPool,
+      int maxLength, EnumSet<ReadOption> opts)
+          throws IOException, UnsupportedOperationException {
+    if (!(in instanceof HasEnhancedByteBufferAccess)) {
+      ByteBuffer buffer = ByteBufferUtil.fallbackRead(this, bufferPool,
+          maxLength);
+      if (buffer != null) {
+        extendedReadBuffers.put(buffer, bufferPool);
+      }
+      return buffer;
+    }
+    if (pos != count) {
+      long targetPos = getPos();
+      pos = 0;
+      count = 0;
+      ((FSInputStream)in).seek(targetPos);
+    }
+    return ((HasEnhancedByteBufferAccess)in).read(bufferPool, maxLength,
+        opts);
+  }
+
+  @Override
+  public synchronized void releaseBuffer(ByteBuffer buffer) {
+    ByteBufferPool bufferPool = extendedReadBuffers.remove(buffer);
+    if (bufferPool != null) {
+      bufferPool.putBuffer(buffer);
+    } else if (in instanceof HasEnhancedByteBufferAccess) {
+      ((HasEnhancedByteBufferAccess)in).releaseBuffer(buffer);
+    } else {
+      throw new IllegalArgumentException("tried to release a buffer " +
+          "that was not created by this stream.");
+    }
+  }
 }
@@ -19,13 +19,18 @@
 package org.apache.hadoop.fs;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.Arrays;
+import java.util.EnumSet;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.IdentityHashStore;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.PureJavaCrc32;
 
@@ -116,7 +121,8 @@ private int getSumBufferSize(int bytesPerSum, int bufferSize) {
    * For open()'s FSInputStream
    * It verifies that data matches checksums.
    *******************************************************/
-  private static class ChecksumFSInputChecker extends FSInputChecker {
+  private static class ChecksumFSInputChecker extends FSInputChecker
+      implements HasEnhancedByteBufferAccess {
     private ChecksumFileSystem fs;
     private FSDataInputStream datas;
     private FSDataInputStream sums;
@@ -124,6 +130,14 @@ private static class ChecksumFSInputChecker extends FSInputChecker {
     private static final int HEADER_LENGTH = 8;
     
     private int bytesPerSum = 1;
+
+    /**
+     * Buffers handed out by the enhanced ByteBuffer read, mapped either to
+     * the buffer obtained from the data stream they are a slice of, or to
+     * the ByteBufferPool they came from.
+     */
+    private final IdentityHashStore<ByteBuffer, Object>
+        extendedReadBuffers = new IdentityHashStore<ByteBuffer, Object>(0);
     
     public ChecksumFSInputChecker(ChecksumFileSystem fs, Path file)
       throws IOException {
@@ -202,6 +216,117 @@ public void close() throws IOException {
     }
     
 
+    /**
+     * Read from the data stream's enhanced ByteBuffer read, which maps the
+     * file when it can.  Whole checksum chunks are mapped and verified
+     * against the checksum file in place; the returned buffer starts at the
+     * current position and, where maxLength allows, ends on a chunk
+     * boundary.  If verification fails, the read is retried through the
+     * regular read path, which reports the failure and looks for another
+     * source.
+     */
+    @Override
+    public synchronized ByteBuffer read(ByteBufferPool bufferPool,
+        int maxLength, EnumSet<ReadOption> opts)
+            throws IOException, UnsupportedOperationException {
+      long curPos = getPos();
+      long start = getChunkPosition(curPos);
+      int skip = (int)(curPos - start);
+      // Map whole chunks, so that all of them can be verified.
+      long mapLen = Math.min((long)maxLength + skip, Integer.MAX_VALUE);
+      mapLen = Math.min((mapLen + bytesPerSum - 1) / bytesPerSum * bytesPerSum,
+          Integer.MAX_VALUE / bytesPerSum * bytesPerSum);
+      datas.seek(start);
+      ByteBuffer data = datas.read(bufferPool, (int)mapLen, opts);
+      if (data == null) {
+        return null;
+      }
+      boolean success = false;
+      try {
+        // A buffer shorter than requested ends at the end of the file, with
+        // a partial last chunk.
+        if (data.remaining() > skip) {
+          if (needChecksum() && !opts.contains(ReadOption.SKIP_CHECKSUMS)) {
+            verifySums(data, data.remaining(), start);
+          }
+          // Hand out at most maxLength bytes, stopping at a chunk boundary
+          // if there is one in range.
+          int end = (int)Math.min((long)skip + maxLength, data.remaining());
+          if (end - end % bytesPerSum > skip) {
+            end -= end % bytesPerSum;
+          }
+          ByteBuffer buffer = data.duplicate();
+          buffer.position(data.position() + skip);
+          buffer.limit(data.position() + end);
+          buffer = buffer.slice();
+          extendedReadBuffers.put(buffer, data);
+          seek(curPos + buffer.remaining());
+          success = true;
+          return buffer;
+        }
+      } catch (ChecksumException e) {
+        if (bufferPool == null) {
+          throw e;
+        }
+        LOG.info("Checksum error in zero-copy read of " + file + " at " +
+            e.getPos() + "; retrying with a regular read");
+      } finally {
+        if (!success) {
+          datas.releaseBuffer(data);
+        }
+      }
+      if (curPos >= fs.getFileStatus(file).getLen()) {
+        return null;
+      }
+      ByteBuffer buffer = ByteBufferUtil.fallbackRead(this, bufferPool,
+          maxLength);
+      if (buffer != null) {
+        extendedReadBuffers.put(buffer, bufferPool);
+      }
+      return buffer;
+    }
+
+    /**
+     * Verify the first len bytes of data, which start at the chunk
+     * boundary pos, against the checksum file.
+     */
+    private void verifySums(ByteBuffer data, int len, long pos)
+        throws IOException {
+      int numChunks = (len + bytesPerSum - 1) / bytesPerSum;
+      byte[] checksums = new byte[numChunks * CHECKSUM_SIZE];
+      sums.seek(getChecksumFilePos(pos));
+      if (readFully(sums, checksums, 0, checksums.length) !=
+          checksums.length) {
+        throw new ChecksumException("Checksum file " +
+            fs.getChecksumFile(file) + " is too short for data at " + pos,
+            pos);
+      }
+      // Native verification needs both buffers to be direct.
+      ByteBuffer checksumBuf = data.isDirect() ?
+          ByteBuffer.allocateDirect(checksums.length) :
+          ByteBuffer.allocate(checksums.length);
+      checksumBuf.put(checksums);
+      checksumBuf.flip();
+      ByteBuffer chunks = data.duplicate();
+      chunks.limit(chunks.position() + len);
+      DataChecksum.newDataChecksum(DataChecksum.Type.CRC32, bytesPerSum)
+          .verifyChunkedSums(chunks, checksumBuf, file.toString(), pos);
+    }
+
+    @Override
+    public synchronized void releaseBuffer(ByteBuffer buffer) {
+      Object val = extendedReadBuffers.remove(buffer);
+      if (val == null) {
+        throw new IllegalArgumentException("tried to release a buffer " +
+            "that was not created by this stream, " + buffer);
+      }
+      if (val instanceof ByteBufferPool) {
+        ((ByteBufferPool)val).putBuffer(buffer);
+      } else {
+        datas.releaseBuffer((ByteBuffer)val);
+      }
+    }
+
     @Override
     public boolean seekToNewSource(long targetPos) throws IOException {
       long sumsPos = getChecksumFilePos(targetPos);
@@ -32,6 +32,9 @@
 import java.io.FileDescriptor;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.StringTokenizer;
@@ -40,7 +43,9 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.util.IdentityHashStore;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.StringUtils;
@@ -95,9 +100,17 @@ public void initialize(URI uri, Configuration conf) throws IOException {
   /*******************************************************
    * For open()'s FSInputStream.
    *******************************************************/
-  class LocalFSFileInputStream extends FSInputStream implements HasFileDescriptor {
+  class LocalFSFileInputStream extends FSInputStream
+      implements HasFileDescriptor, HasEnhancedByteBufferAccess {
     private FileInputStream fis;
     private long position;
+    /**
+     * Buffers handed out by the enhanced ByteBuffer read, mapped either to
+     * the ByteBufferPool they came from, or to themselves if they are
+     * memory-mapped.
+     */
+    private final IdentityHashStore<ByteBuffer, Object>
+        extendedReadBuffers = new IdentityHashStore<ByteBuffer, Object>(0);
 
     public LocalFSFileInputStream(Path f) throws IOException {
       fis = new FileInputStream(pathToFile(f));
@@ -125,7 +138,14 @@ public boolean seekToNewSource(long targetPos) throws IOException {
     @Override
     public int available() throws IOException { return fis.available(); }
     @Override
-    public void close() throws IOException { fis.close(); }
+    public void close() throws IOException {
+      if (!extendedReadBuffers.isEmpty()) {
+        LOG.warn("closing a local file, but there are still " +
+            extendedReadBuffers.numElements() + " unreleased ByteBuffers " +
+            "allocated by read().");
+      }
+      fis.close();
+    }
     @Override
     public boolean markSupported() { return false; }
     
@@ -185,6 +205,54 @@ public long skip(long n) throws IOException {
     public FileDescriptor getFileDescriptor() throws IOException {
       return fis.getFD();
     }
+
+    @Override
+    public ByteBuffer read(ByteBufferPool bufferPool, int maxLength,
+        EnumSet<ReadOption> opts)
+            throws IOException, UnsupportedOperationException {
+      // There are no checksums at this level, so every read can be served
+      // from a read-only mapping of the file.
+      FileChannel channel = fis.getChannel();
+      long length = Math.min(maxLength, channel.size() - position);
+      if (length <= 0) {
+        return null;
+      }
+      MappedByteBuffer mmap = null;
+      try {
+        mmap = channel.map(MapMode.READ_ONLY, position, length);
+      } catch (IOException e) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("unable to mmap " + length + " bytes at offset " +
+              position + "; falling back to a copying read", e);
+        }
+      }
+      if (mmap == null) {
+        ByteBuffer buffer = ByteBufferUtil.fallbackRead(this, bufferPool,
+            maxLength);
+        if (buffer != null) {
+          extendedReadBuffers.put(buffer, bufferPool);
+        }
+        return buffer;
+      }
+      seek(position + length);
+      statistics.incrementBytesRead(length);
+      extendedReadBuffers.put(mmap, mmap);
+      return mmap;
+    }
+
+    @Override
+    public void releaseBuffer(ByteBuffer buffer) {
+      Object val = extendedReadBuffers.remove(buffer);
+      if (val == null) {
+        throw new IllegalArgumentException("tried to release a buffer " +
+            "that was not created by this stream, " + buffer);
+      }
+      if (val instanceof ByteBufferPool) {
+        ((ByteBufferPool)val).putBuffer(buffer);
+      } else {
+        NativeIO.POSIX.munmap((MappedByteBuffer)val);
+      }
+    }
   }
   
   @Override
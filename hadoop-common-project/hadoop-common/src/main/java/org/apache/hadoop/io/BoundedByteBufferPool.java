@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+
+/**
+ * A ByteBufferPool which, like {@link ElasticByteBufferPool}, returns the
+ * smallest cached buffer with at least the capacity requested, but keeps at
+ * most a given number of bytes of released buffers.  A buffer released when
+ * the pool is full is dropped, and lowering the limit drops the largest
+ * cached buffers.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public final class BoundedByteBufferPool implements ByteBufferPool {
+  private static final class Key implements Comparable<Key> {
+    private final int capacity;
+    /** Makes the keys of buffers with the same capacity unique. */
+    private final long seqno;
+
+    Key(int capacity, long seqno) {
+      this.capacity = capacity;
+      this.seqno = seqno;
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      return ComparisonChain.start().
+          compare(capacity, other.capacity).
+          compare(seqno, other.seqno).
+          result();
+    }
+
+    @Override
+    public boolean equals(Object rhs) {
+      return rhs instanceof Key && compareTo((Key)rhs) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return capacity * 31 + (int)(seqno ^ (seqno >>> 32));
+    }
+  }
+
+  private final TreeMap<Key, ByteBuffer> buffers =
+      new TreeMap<Key, ByteBuffer>();
+
+  private final TreeMap<Key, ByteBuffer> directBuffers =
+      new TreeMap<Key, ByteBuffer>();
+
+  private long maxBytes;
+  /** The total capacity of the cached buffers. */
+  private long cachedBytes = 0;
+  private long nextSeqno = 0;
+
+  /**
+   * @param maxBytes the largest total capacity of the cached buffers
+   */
+  public BoundedByteBufferPool(long maxBytes) {
+    Preconditions.checkArgument(maxBytes >= 0);
+    this.maxBytes = maxBytes;
+  }
+
+  private TreeMap<Key, ByteBuffer> getBufferTree(boolean direct) {
+    return direct ? directBuffers : buffers;
+  }
+
+  @Override
+  public synchronized ByteBuffer getBuffer(boolean direct, int length) {
+    TreeMap<Key, ByteBuffer> tree = getBufferTree(direct);
+    Map.Entry<Key, ByteBuffer> entry =
+        tree.ceilingEntry(new Key(length, 0));
+    if (entry == null) {
+      return direct ? ByteBuffer.allocateDirect(length) :
+                      ByteBuffer.allocate(length);
+    }
+    tree.remove(entry.getKey());
+    cachedBytes -= entry.getKey().capacity;
+    return entry.getValue();
+  }
+
+  @Override
+  public synchronized void putBuffer(ByteBuffer buffer) {
+    if (cachedBytes + buffer.capacity() > maxBytes) {
+      return;
+    }
+    buffer.clear();
+    getBufferTree(buffer.isDirect()).put(
+        new Key(buffer.capacity(), nextSeqno++), buffer);
+    cachedBytes += buffer.capacity();
+  }
+
+  /**
+   * Change the largest total capacity of the cached buffers, dropping the
+   * largest ones until they fit.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    Preconditions.checkArgument(maxBytes >= 0);
+    this.maxBytes = maxBytes;
+    while (cachedBytes > maxBytes) {
+      Map.Entry<Key, ByteBuffer> heap = buffers.lastEntry();
+      Map.Entry<Key, ByteBuffer> direct = directBuffers.lastEntry();
+      if (direct == null || (heap != null &&
+          heap.getKey().capacity >= direct.getKey().capacity)) {
+        buffers.remove(heap.getKey());
+        cachedBytes -= heap.getKey().capacity;
+      } else {
+        directBuffers.remove(direct.getKey());
+        cachedBytes -= direct.getKey().capacity;
+      }
+    }
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /** @return the total capacity of the cached buffers */
+  public synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+}
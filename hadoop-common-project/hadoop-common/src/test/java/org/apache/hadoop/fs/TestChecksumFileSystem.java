@@ -22,7 +22,15 @@
 import org.apache.hadoop.fs.FSDataOutputStream;
 import static org.apache.hadoop.fs.FileSystemTestHelper.*;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Random;
 import static org.junit.Assert.*;
 
 public class TestChecksumFileSystem {
@@ -204,6 +212,112 @@ public void testCorruptedChecksum() throws Exception {
     assertEquals("testing stale checksum", str);
   }
   
+  /** Read the rest of in with zero-copy reads of at most maxLength bytes */
+  private static byte[] zeroCopyRead(FSDataInputStream in, int maxLength,
+      EnumSet<ReadOption> opts) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteBuffer buf;
+    // A null pool makes the read fail unless it is served by mmap.
+    while ((buf = in.read(null, maxLength, opts)) != null) {
+      assertTrue(buf.isDirect());
+      assertTrue(buf.remaining() > 0 && buf.remaining() <= maxLength);
+      byte[] chunk = new byte[buf.remaining()];
+      buf.get(chunk);
+      out.write(chunk);
+      in.releaseBuffer(buf);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] tail(byte[] data, int from) {
+    byte[] t = new byte[data.length - from];
+    System.arraycopy(data, from, t, 0, t.length);
+    return t;
+  }
+
+  @Test
+  public void testZeroCopyRead() throws Exception {
+    Path testPath = new Path(TEST_ROOT_DIR, "testZeroCopyRead");
+    byte[] data = new byte[100000];
+    new Random(0xBEEFL).nextBytes(data);
+    FSDataOutputStream out = localFs.create(testPath, true);
+    out.write(data);
+    out.close();
+
+    EnumSet<ReadOption> none = EnumSet.noneOf(ReadOption.class);
+    for (boolean verify : new boolean[] { true, false }) {
+      localFs.setVerifyChecksum(verify);
+      for (int maxLength : new int[] { 1, 511, 512, 7000, 1 << 20 }) {
+        FSDataInputStream in = localFs.open(testPath);
+        try {
+          if (maxLength > 1) {
+            assertArrayEquals(data, zeroCopyRead(in, maxLength, none));
+          }
+          // Start in the middle of a chunk, after some buffered reads.
+          in.seek(1234);
+          assertEquals(data[1234], (byte)in.read());
+          assertArrayEquals(tail(data, 1235),
+              zeroCopyRead(in, maxLength, none));
+          assertEquals(-1, in.read());
+        } finally {
+          in.close();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testZeroCopyReadCorrupted() throws Exception {
+    Path testPath = new Path(TEST_ROOT_DIR, "testZeroCopyReadCorrupted");
+    byte[] data = new byte[10000];
+    new Random(0xCAFEL).nextBytes(data);
+    FSDataOutputStream out = localFs.create(testPath, true);
+    out.write(data);
+    out.close();
+
+    // flip a byte in the data file, leaving the checksum file alone
+    RandomAccessFile raf = new RandomAccessFile(
+        localFs.pathToFile(testPath), "rw");
+    try {
+      raf.seek(5000);
+      raf.write(data[5000] ^ 0x1);
+    } finally {
+      raf.close();
+    }
+
+    FSDataInputStream in = localFs.open(testPath);
+    try {
+      zeroCopyRead(in, 1 << 20, EnumSet.noneOf(ReadOption.class));
+      fail("zero-copy read of a corrupted file did not fail");
+    } catch (ChecksumException e) {
+      assertEquals(4608, e.getPos());
+    } finally {
+      in.close();
+    }
+
+    // With a fallback pool, the read is retried through the regular path
+    // and still fails.
+    in = localFs.open(testPath);
+    try {
+      in.read(new ElasticByteBufferPool(), 1 << 20);
+      fail("zero-copy read of a corrupted file did not fail");
+    } catch (ChecksumException e) {
+    } finally {
+      in.close();
+    }
+
+    // Skipping checksums hands out the mapped data as it is.
+    in = localFs.open(testPath);
+    try {
+      byte[] read = zeroCopyRead(in, 1 << 20,
+          EnumSet.of(ReadOption.SKIP_CHECKSUMS));
+      assertEquals(data.length, read.length);
+      assertEquals((byte)(data[5000] ^ 0x1), read[5000]);
+    } finally {
+      in.close();
+    }
+  }
+
   @Test
   public void testRenameFileToFile() throws Exception {
     Path srcPath = new Path(TEST_ROOT_DIR, "testRenameSrc");
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestBoundedByteBufferPool {
+  @Test
+  public void testReuse() {
+    BoundedByteBufferPool pool = new BoundedByteBufferPool(1000);
+    ByteBuffer small = pool.getBuffer(false, 100);
+    ByteBuffer large = pool.getBuffer(false, 300);
+    pool.putBuffer(small);
+    pool.putBuffer(large);
+    assertEquals(400, pool.getCachedBytes());
+
+    // The smallest buffer which is large enough is handed out.
+    assertSame(large, pool.getBuffer(false, 200));
+    assertSame(small, pool.getBuffer(false, 50));
+    assertEquals(0, pool.getCachedBytes());
+    // Heap and direct buffers are kept apart.
+    pool.putBuffer(small);
+    ByteBuffer direct = pool.getBuffer(true, 50);
+    assertTrue(direct.isDirect());
+    assertNotSame(small, direct);
+  }
+
+  @Test
+  public void testBound() {
+    BoundedByteBufferPool pool = new BoundedByteBufferPool(500);
+    ByteBuffer[] buffers = new ByteBuffer[5];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.getBuffer(i % 2 == 0, 200);
+    }
+    // Only two buffers fit, the others are dropped.
+    for (ByteBuffer buffer : buffers) {
+      pool.putBuffer(buffer);
+    }
+    assertEquals(400, pool.getCachedBytes());
+
+    // Lowering the limit drops the largest buffers first.
+    pool.putBuffer(ByteBuffer.allocate(100));
+    assertEquals(500, pool.getCachedBytes());
+    pool.setMaxBytes(300);
+    assertEquals(300, pool.getCachedBytes());
+    pool.setMaxBytes(0);
+    assertEquals(0, pool.getCachedBytes());
+    pool.putBuffer(buffers[0]);
+    assertEquals(0, pool.getCachedBytes());
+  }
+}
@@ -206,11 +206,30 @@ public static WriteStableHow fromValue(int id) {
   public static final String FILE_DUMP_DIR_DEFAULT = "/tmp/.hdfs-nfs";
   public static final String ENABLE_FILE_DUMP_KEY = "dfs.nfs3.enableDump";
   public static final boolean ENABLE_FILE_DUMP_DEFAULT = true;
+  /** Memory held by out-of-order writes of all open files before dumping */
+  public static final String MAX_NONSEQUENTIAL_WRITE_MEMORY = "dfs.nfs3.max.nonsequential.write.memory";
+  public static final long MAX_NONSEQUENTIAL_WRITE_MEMORY_DEFAULT = 64 * 1024 * 1024; // 64MB
   public static final String MAX_OPEN_FILES = "dfs.nfs3.max.open.files";
   public static final int MAX_OPEN_FILES_DEFAULT = 256;
   public static final String OUTPUT_STREAM_TIMEOUT = "dfs.nfs3.stream.timeout";
   public static final long OUTPUT_STREAM_TIMEOUT_DEFAULT = 10 * 60 * 1000; // 10 minutes
   public static final long OUTPUT_STREAM_TIMEOUT_MIN_DEFAULT = 10 * 1000; //10 seconds
+  /** Max number of files and directories whose attributes are cached, and
+   * of names cached for lookups */
+  public static final String ATTR_CACHE_SIZE = "dfs.nfs3.attr.cache.size";
+  public static final int ATTR_CACHE_SIZE_DEFAULT = 4096;
+  /** Max number of names cached for lookups in a single directory */
+  public static final String ATTR_CACHE_DIR_SIZE = "dfs.nfs3.attr.cache.dir.size";
+  public static final int ATTR_CACHE_DIR_SIZE_DEFAULT = 1024;
+  /** How long cached attributes are used before asking the NameNode again */
+  public static final String ATTR_CACHE_TTL = "dfs.nfs3.attr.cache.ttl.millis";
+  public static final long ATTR_CACHE_TTL_DEFAULT = 3 * 1000; // 3 seconds
+  /** Bytes prefetched for sequential reads, 0 disables read-ahead */
+  public static final String READ_AHEAD_SIZE = "dfs.nfs3.read.ahead.size";
+  public static final int READ_AHEAD_SIZE_DEFAULT = 1024 * 1024;
+  /** Max bytes used by the read-ahead buffers of all open files together */
+  public static final String READ_AHEAD_MAX_MEMORY = "dfs.nfs3.read.ahead.max.memory";
+  public static final long READ_AHEAD_MAX_MEMORY_DEFAULT = 64 * 1024 * 1024; // 64MB
   
   public final static String UNKNOWN_USER = "nobody";
   public final static String UNKNOWN_GROUP = "nobody";
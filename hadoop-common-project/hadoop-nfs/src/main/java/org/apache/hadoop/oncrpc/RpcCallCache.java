@@ -18,12 +18,17 @@
 package org.apache.hadoop.oncrpc;
 
 import java.net.InetAddress;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
 
 /**
  * This class is used for handling the duplicate <em>non-idempotenty</em> Rpc
@@ -39,12 +44,14 @@
  * <br>
  * A request is identified by the client ID (address of the client) and
  * transaction ID (xid) from the Rpc call.
- * 
+ * <br>
+ * The cache can be used by many threads without locking. When it is full, the
+ * oldest requests are evicted first.
  */
 public class RpcCallCache {
   
   public static class CacheEntry {
-    private RpcResponse response; // null if no response has been sent
+    private volatile RpcResponse response; // null if no response has been sent
     
     public CacheEntry() {
       response = null;
@@ -103,7 +110,18 @@ public boolean equals(Object obj) {
   
   private final String program;
   
-  private final Map<ClientRequest, CacheEntry> map;
+  private final int maxEntries;
+
+  private final ConcurrentMap<ClientRequest, CacheEntry> map;
+
+  /** The cached requests, in the order they were added */
+  private final Queue<ClientRequest> order;
+
+  /**
+   * Number of requests in {@link #order}. Evicting threads claim a request
+   * by decrementing it, so that they never evict more than needed.
+   */
+  private final AtomicInteger count = new AtomicInteger();
   
   public RpcCallCache(final String program, final int maxEntries) {
     if (maxEntries <= 0) {
@@ -111,15 +129,9 @@ public RpcCallCache(final String program, final int maxEntries) {
           + ". Should be > 0");
     }
     this.program = program;
-    map = new LinkedHashMap<ClientRequest, CacheEntry>() {
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      protected boolean removeEldestEntry(
-          java.util.Map.Entry<ClientRequest, CacheEntry> eldest) {
-        return RpcCallCache.this.size() > maxEntries;
-      }
-    };
+    this.maxEntries = maxEntries;
+    map = new ConcurrentHashMap<ClientRequest, CacheEntry>(maxEntries * 4 / 3);
+    order = new ConcurrentLinkedQueue<ClientRequest>();
   }
   
   /** Return the program name */
@@ -130,11 +142,10 @@ public String getProgram() {
   /** Mark a request as completed and add corresponding response to the cache */
   public void callCompleted(InetAddress clientId, int xid, RpcResponse response) {
     ClientRequest req = new ClientRequest(clientId, xid);
-    CacheEntry e;
-    synchronized(map) {
-      e = map.get(req);
+    CacheEntry e = map.get(req);
+    if (e != null) { // null if evicted while in progress
+      e.response = response;
     }
-    e.response = response;
   }
   
   /**
@@ -143,16 +154,33 @@ public void callCompleted(InetAddress clientId, int xid, RpcResponse response) {
    */
   public CacheEntry checkOrAddToCache(InetAddress clientId, int xid) {
     ClientRequest req = new ClientRequest(clientId, xid);
-    CacheEntry e;
-    synchronized(map) {
-      e = map.get(req);
+    CacheEntry e = map.get(req);
+    if (e == null) {
+      // Add an inprogress cache entry
+      e = map.putIfAbsent(req, new CacheEntry());
       if (e == null) {
-        // Add an inprogress cache entry
-        map.put(req, new CacheEntry());
+        order.add(req);
+        count.incrementAndGet();
+        evict();
       }
     }
     return e;
   }
+
+  /** Remove the oldest requests until the cache is not over its size */
+  private void evict() {
+    while (true) {
+      int current = count.get();
+      if (current <= maxEntries) {
+        return;
+      }
+      if (count.compareAndSet(current, current - 1)) {
+        // The request is in the queue, since the count is only incremented
+        // after adding it.
+        map.remove(order.poll());
+      }
+    }
+  }
   
   /** Return number of cached entries */
   public int size() {
@@ -165,6 +193,19 @@ public int size() {
    */
   @VisibleForTesting
   public Iterator<Entry<ClientRequest, CacheEntry>> iterator() {
-    return map.entrySet().iterator();
+    final Iterator<ClientRequest> it = order.iterator();
+    return new AbstractIterator<Entry<ClientRequest, CacheEntry>>() {
+      @Override
+      protected Entry<ClientRequest, CacheEntry> computeNext() {
+        while (it.hasNext()) {
+          ClientRequest req = it.next();
+          CacheEntry e = map.get(req);
+          if (e != null) {
+            return new SimpleImmutableEntry<ClientRequest, CacheEntry>(req, e);
+          }
+        }
+        return endOfData();
+      }
+    };
   }
 }
@@ -83,6 +83,18 @@ public XDR(byte[] src) {
     this(ByteBuffer.wrap(src).asReadOnlyBuffer(), State.READING);
   }
 
+  /**
+   * Wraps the readable bytes of a ChannelBuffer as a read-only XDR message.
+   * Like {@link #XDR(byte[])}, there's no copy involved unless the
+   * ChannelBuffer is made of several parts, e.g., several RPC fragments.
+   * 
+   * @param src
+   *          the ChannelBuffer to be wrapped.
+   */
+  public XDR(ChannelBuffer src) {
+    this(src.toByteBuffer().slice().asReadOnlyBuffer(), State.READING);
+  }
+
   public XDR asReadOnlyWrap() {
     ByteBuffer b = buf.asReadOnlyBuffer();
     if (state == State.WRITING) {
@@ -230,7 +242,12 @@ static byte[] recordMark(int size, boolean last) {
     return b;
   }
 
-  /** Write an XDR message to a TCP ChannelBuffer */
+  /**
+   * Write an XDR message to a TCP ChannelBuffer. The returned buffer wraps the
+   * content of the message without copying it. Writing more data to the
+   * message afterwards does not change the returned buffer, since the message
+   * only grows beyond its current position.
+   */
   public static ChannelBuffer writeMessageTcp(XDR request, boolean last) {
     Preconditions.checkState(request.state == XDR.State.WRITING);
     ByteBuffer b = request.buf.duplicate();
@@ -238,15 +255,16 @@ public static ChannelBuffer writeMessageTcp(XDR request, boolean last) {
     byte[] fragmentHeader = XDR.recordMark(b.limit(), last);
     ByteBuffer headerBuf = ByteBuffer.wrap(fragmentHeader);
 
-    // TODO: Investigate whether making a copy of the buffer is necessary.
-    return ChannelBuffers.copiedBuffer(headerBuf, b);
+    return ChannelBuffers.wrappedBuffer(headerBuf, b);
   }
 
-  /** Write an XDR message to a UDP ChannelBuffer */
+  /**
+   * Write an XDR message to a UDP ChannelBuffer. The returned buffer wraps the
+   * content of the message without copying it.
+   */
   public static ChannelBuffer writeMessageUdp(XDR response) {
     Preconditions.checkState(response.state == XDR.State.READING);
-    // TODO: Investigate whether making a copy of the buffer is necessary.
-    return ChannelBuffers.copiedBuffer(response.buf);
+    return ChannelBuffers.wrappedBuffer(response.buf.duplicate());
   }
 
   public static int fragmentSize(byte[] mark) {
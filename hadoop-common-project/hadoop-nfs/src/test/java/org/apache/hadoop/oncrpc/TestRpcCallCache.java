@@ -27,6 +27,7 @@
 import java.net.UnknownHostException;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.oncrpc.RpcCallCache.CacheEntry;
 import org.apache.hadoop.oncrpc.RpcCallCache.ClientRequest;
@@ -134,4 +135,44 @@ public void testCacheFunctionality() throws UnknownHostException {
       }
     }
   }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final RpcCallCache cache = new RpcCallCache("Test", 100);
+    final InetAddress clientIp = InetAddress.getByName("1.1.1.1");
+    final AtomicInteger added = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          // All the threads send the same requests, each one is added once
+          for (int xid = 0; xid < 1000; xid++) {
+            if (cache.checkOrAddToCache(clientIp, xid) == null) {
+              added.incrementAndGet();
+              cache.callCompleted(clientIp, xid, mock(RpcResponse.class));
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue(added.get() >= 1000);
+    // Concurrent evictions don't remove more requests than needed
+    assertEquals(100, cache.size());
+    int queued = 0;
+    for (Iterator<Entry<ClientRequest, CacheEntry>> it = cache.iterator();
+        it.hasNext(); it.next()) {
+      queued++;
+    }
+    assertEquals(100, queued);
+
+    // The last requests are kept
+    CacheEntry e = cache.checkOrAddToCache(clientIp, 999);
+    assertNotNull(e);
+    assertTrue(e.isCompleted());
+  }
 }
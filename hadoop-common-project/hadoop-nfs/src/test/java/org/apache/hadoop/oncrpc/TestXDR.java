@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.oncrpc;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -47,4 +49,35 @@ public void testPerformance() {
     serializeInt(TEST_TIMES);
     serializeLong(TEST_TIMES);
   }
+
+  @Test
+  public void testChannelBufferWrapping() {
+    XDR w = new XDR();
+    w.writeInt(23);
+    w.writeLongAsHyper(42);
+    ChannelBuffer tcp = XDR.writeMessageTcp(w, true);
+    Assert.assertEquals(4 + 12, tcp.readableBytes());
+
+    // Data written later doesn't change the message already framed
+    w.writeInt(7);
+    Assert.assertEquals(4 + 12, tcp.readableBytes());
+
+    // Read the message back after the record mark, as a frame decoder does
+    byte[] mark = new byte[4];
+    tcp.readBytes(mark);
+    Assert.assertEquals(12, XDR.fragmentSize(mark));
+    Assert.assertTrue(XDR.isLastFragment(mark));
+    XDR r = new XDR(tcp.readSlice(12));
+    Assert.assertEquals(12, r.size());
+    Assert.assertEquals(23, r.readInt());
+    Assert.assertEquals(42, r.readHyper());
+
+    // A message made of several fragments
+    ChannelBuffer frame = ChannelBuffers.wrappedBuffer(
+        ChannelBuffers.wrappedBuffer(new byte[] { 0, 0, 0, 1 }),
+        ChannelBuffers.wrappedBuffer(new byte[] { 0, 0, 0, 2 }));
+    r = new XDR(frame);
+    Assert.assertEquals(1, r.readInt());
+    Assert.assertEquals(2, r.readInt());
+  }
 }
@@ -29,6 +29,7 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.lib.service.FileSystemAccess;
+import org.apache.hadoop.lib.util.StreamCopier;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -44,6 +45,41 @@
 @InterfaceAudience.Private
 public class FSOperations {
 
+  /**
+   * Returns the buffer size used when streaming data from/to HDFS, as set by
+   * <code>httpfs.buffer.size</code> in the HttpFSServer configuration.
+   *
+   * @return the buffer size.
+   */
+  static int getBufferSize() {
+    return HttpFSServerWebApp.get().getConfig().getInt(
+      "httpfs.buffer.size", StreamCopier.DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Copies the data of a request to a file being written and closes both
+   * streams.
+   *
+   * @param is the request data.
+   * @param os the file stream.
+   * @param bufferSize the buffer size to copy with.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  private static void copy(InputStream is, OutputStream os, int bufferSize)
+    throws IOException {
+    try {
+      StreamCopier.copy(is, os, -1, bufferSize);
+      os.close();
+      os = null;
+      is.close();
+      is = null;
+    } finally {
+      IOUtils.closeStream(os);
+      IOUtils.closeStream(is);
+    }
+  }
+
   @SuppressWarnings({"unchecked", "deprecation"})
   private static Map fileStatusToJSONRaw(FileStatus status, boolean emptyPathSuffix) {
     Map json = new LinkedHashMap();
@@ -189,10 +225,9 @@ public FSAppend(InputStream is, String path) {
      */
     @Override
     public Void execute(FileSystem fs) throws IOException {
-      int bufferSize = fs.getConf().getInt("httpfs.buffer.size", 4096);
+      int bufferSize = getBufferSize();
       OutputStream os = fs.append(path, bufferSize);
-      IOUtils.copyBytes(is, os, bufferSize, true);
-      os.close();
+      copy(is, os, bufferSize);
       return null;
     }
 
@@ -322,10 +357,9 @@ public Void execute(FileSystem fs) throws IOException {
         blockSize = fs.getDefaultBlockSize(path);
       }
       FsPermission fsPermission = new FsPermission(permission);
-      int bufferSize = fs.getConf().getInt("httpfs.buffer.size", 4096);
+      int bufferSize = getBufferSize();
       OutputStream os = fs.create(path, fsPermission, override, bufferSize, replication, blockSize, null);
-      IOUtils.copyBytes(is, os, bufferSize, true);
-      os.close();
+      copy(is, os, bufferSize);
       return null;
     }
 
@@ -570,8 +604,7 @@ public FSOpen(String path) {
      */
     @Override
     public InputStream execute(FileSystem fs) throws IOException {
-      int bufferSize = HttpFSServerWebApp.get().getConfig().getInt("httpfs.buffer.size", 4096);
-      return fs.open(path, bufferSize);
+      return fs.open(path, getBufferSize());
     }
 
   }
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.fs.http.server;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -57,6 +58,7 @@
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -64,10 +66,12 @@
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -88,6 +92,11 @@
 public class HttpFSServer {
   private static Logger AUDIT_LOG = LoggerFactory.getLogger("httpfsaudit");
 
+  private static final String RANGE_HEADER = "Range";
+  private static final String CONTENT_RANGE_HEADER = "Content-Range";
+  private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+  private static final String RANGE_BYTES_UNIT = "bytes=";
+
   /**
    * Resolves the effective user that will be used to request a FileSystemAccess filesystem.
    * <p/>
@@ -202,7 +211,104 @@ public Response getRoot(@Context Principal user,
                           @QueryParam(OperationParam.NAME) OperationParam op,
                           @Context Parameters params)
     throws IOException, FileSystemAccessException {
-    return get(user, "", op, params);
+    return get(user, "", op, null, params);
+  }
+
+  /**
+   * Parses the single byte range of an HTTP <code>Range</code> header.
+   * <p/>
+   * The <code>bytes=first-last</code>, <code>bytes=first-</code> and
+   * <code>bytes=-suffixLength</code> forms are supported. Headers with several
+   * ranges, other units or a bad syntax are ignored, as allowed by RFC 2616,
+   * and the whole file is returned instead.
+   *
+   * @param header the value of the <code>Range</code> header.
+   * @param fileLen the length of the file.
+   *
+   * @return the offset and length of the range, <code>NULL</code> if the
+   * header must be ignored, or an empty array if the range cannot be
+   * satisfied.
+   */
+  @VisibleForTesting
+  static long[] parseRange(String header, long fileLen) {
+    if (header == null) {
+      return null;
+    }
+    header = header.trim();
+    if (!header.startsWith(RANGE_BYTES_UNIT) || header.indexOf(',') != -1) {
+      return null;
+    }
+    String spec = header.substring(RANGE_BYTES_UNIT.length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash == -1) {
+      return null;
+    }
+    String first = spec.substring(0, dash).trim();
+    String last = spec.substring(dash + 1).trim();
+    long start;
+    long end;
+    try {
+      if (first.length() == 0) {
+        long suffix = Long.parseLong(last);
+        if (suffix < 0) {
+          return null;
+        }
+        if (suffix == 0 || fileLen == 0) {
+          return new long[0];
+        }
+        start = Math.max(0, fileLen - suffix);
+        end = fileLen - 1;
+      } else {
+        start = Long.parseLong(first);
+        end = (last.length() == 0) ? Long.MAX_VALUE : Long.parseLong(last);
+        if (start < 0 || end < start) {
+          return null;
+        }
+        if (start >= fileLen) {
+          return new long[0];
+        }
+        end = Math.min(end, fileLen - 1);
+      }
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+    return new long[]{start, end - start + 1};
+  }
+
+  /**
+   * Creates the response of an OPEN with a <code>Range</code> header.
+   *
+   * @param path the path of the file.
+   * @param is the stream of the file, closed if the range cannot be
+   * satisfied.
+   * @param byteRange the range as returned by {@link #parseRange}.
+   * @param fileLen the length of the file.
+   *
+   * @return a partial content response, or a range not satisfiable response.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  private Response openRange(String path, InputStream is, long[] byteRange,
+                             long fileLen) throws IOException {
+    if (byteRange.length == 0) {
+      is.close();
+      AUDIT_LOG.info("[{}] range not satisfiable", path);
+      return Response.status(
+        HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE)
+        .header(CONTENT_RANGE_HEADER, "bytes */" + fileLen).build();
+    }
+    long offset = byteRange[0];
+    long len = byteRange[1];
+    AUDIT_LOG.info("[{}] offset [{}] len [{}]",
+                   new Object[]{path, offset, len});
+    InputStreamEntity entity = new InputStreamEntity(is, offset, len,
+      FSOperations.getBufferSize());
+    return Response.status(HttpServletResponse.SC_PARTIAL_CONTENT)
+      .entity(entity).type(MediaType.APPLICATION_OCTET_STREAM)
+      .header(CONTENT_RANGE_HEADER,
+              "bytes " + offset + "-" + (offset + len - 1) + "/" + fileLen)
+      .header(HttpHeaders.CONTENT_LENGTH, len)
+      .header(ACCEPT_RANGES_HEADER, "bytes").build();
   }
 
   private String makeAbsolute(String path) {
@@ -215,6 +321,8 @@ private String makeAbsolute(String path) {
    * @param user the principal of the user making the request.
    * @param path the path for operation.
    * @param op the HttpFS operation of the request.
+   * @param range the HTTP <code>Range</code> header of the request, if any.
+   * For OPEN it takes precedence over the offset and length parameters.
    * @param params the HttpFS parameters of the request.
    *
    * @return the request response.
@@ -231,6 +339,7 @@ private String makeAbsolute(String path) {
   public Response get(@Context Principal user,
                       @PathParam("path") String path,
                       @QueryParam(OperationParam.NAME) OperationParam op,
+                      @HeaderParam(RANGE_HEADER) String range,
                       @Context Parameters params)
     throws IOException, FileSystemAccessException {
     Response response;
@@ -244,11 +353,21 @@ public Response get(@Context Principal user,
         FSOperations.FSOpen command = new FSOperations.FSOpen(path);
         FileSystem fs = createFileSystem(user, doAs);
         InputStream is = command.execute(fs);
+        if (range != null) {
+          long fileLen =
+            fs.getFileStatus(new org.apache.hadoop.fs.Path(path)).getLen();
+          long[] byteRange = parseRange(range, fileLen);
+          if (byteRange != null) {
+            response = openRange(path, is, byteRange, fileLen);
+            break;
+          }
+        }
         Long offset = params.get(OffsetParam.NAME, OffsetParam.class);
         Long len = params.get(LenParam.NAME, LenParam.class);
         AUDIT_LOG.info("[{}] offset [{}] len [{}]",
                        new Object[]{path, offset, len});
-        InputStreamEntity entity = new InputStreamEntity(is, offset, len);
+        InputStreamEntity entity = new InputStreamEntity(is, offset, len,
+          FSOperations.getBufferSize());
         response =
           Response.ok(entity).type(MediaType.APPLICATION_OCTET_STREAM).build();
         break;
@@ -82,9 +82,14 @@ public CachedFileSystem(long timeout) {
       count = 0;
     }
 
-    synchronized FileSystem getFileSytem(Configuration conf)
+    synchronized FileSystem getFileSytem(Configuration namenodeConf,
+                                         String user)
       throws IOException {
       if (fs == null) {
+        // The configuration is only needed to open a new FileSystem, a
+        // cached one is handed out as is.
+        Configuration conf = new Configuration(namenodeConf);
+        conf.set(HTTPFS_FS_USER, user);
         fs = FileSystem.get(conf);
       }
       lastUse = -1;
@@ -133,6 +138,10 @@ public FileSystemAccessService() {
 
   Configuration serviceHadoopConf;
 
+  // template for the configurations handed out by
+  // getFileSystemConfiguration(), copying it does not reload any resource
+  private Configuration fileSystemConf;
+
   private AtomicInteger unmanagedFileSystems = new AtomicInteger();
 
   private ConcurrentHashMap<String, CachedFileSystem> fsCache =
@@ -194,6 +203,10 @@ protected void init() throws ServiceException {
     }
     setRequiredServiceHadoopConf(serviceHadoopConf);
 
+    fileSystemConf = new Configuration(true);
+    ConfigurationUtils.copy(serviceHadoopConf, fileSystemConf);
+    fileSystemConf.setBoolean(FILE_SYSTEM_SERVICE_CREATED, true);
+
     nameNodeWhitelist = toLowerCase(getServiceConfig().getTrimmedStringCollection(NAME_NODE_WHITELIST));
   }
 
@@ -286,9 +299,7 @@ protected FileSystem createFileSystem(Configuration namenodeConf)
     if (cachedFS == null) {
       cachedFS = newCachedFS;
     }
-    Configuration conf = new Configuration(namenodeConf);
-    conf.set(HTTPFS_FS_USER, user);
-    return cachedFS.getFileSytem(conf);
+    return cachedFS.getFileSytem(namenodeConf, user);
   }
 
   protected void closeFileSystem(FileSystem fs) throws IOException {
@@ -392,10 +403,7 @@ public void releaseFileSystem(FileSystem fs) throws IOException {
 
   @Override
   public Configuration getFileSystemConfiguration() {
-    Configuration conf = new Configuration(true);
-    ConfigurationUtils.copy(serviceHadoopConf, conf);
-    conf.setBoolean(FILE_SYSTEM_SERVICE_CREATED, true);
-    return conf;
+    return new Configuration(fileSystemConf);
   }
 
 }
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.lib.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.BoundedByteBufferPool;
+import org.apache.hadoop.io.ByteBufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Copies streams using buffers taken from a pool shared by all requests.
+ * <p/>
+ * Large buffers make bulk transfers faster but allocating one per request
+ * puts pressure on the heap, so they are returned to the pool once the copy
+ * is done.  The pool keeps at most {@link #MAX_POOLED_BYTES} of them, so a
+ * burst of requests does not pin its buffers for the life of the server.
+ */
+@InterfaceAudience.Private
+public class StreamCopier {
+
+  /**
+   * Default size of the copy buffers, 64KB.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Largest total size of the buffers kept for reuse, 1MB.
+   */
+  public static final int MAX_POOLED_BYTES = 16 * DEFAULT_BUFFER_SIZE;
+
+  private static final ByteBufferPool BUFFERS =
+    new BoundedByteBufferPool(MAX_POOLED_BYTES);
+
+  /**
+   * Copies bytes from an input stream to an output stream. Streams are not
+   * closed.
+   *
+   * @param in the stream to read from.
+   * @param out the stream to write to.
+   * @param len the number of bytes to copy, -1 to copy until the end of the
+   * input stream. Fewer bytes are copied if the input stream ends before.
+   * @param bufferSize the size of the buffer to copy with.
+   *
+   * @return the number of bytes copied.
+   *
+   * @throws IOException thrown if an IO error occurred.
+   */
+  public static long copy(InputStream in, OutputStream out, long len,
+                          int bufferSize) throws IOException {
+    ByteBuffer buffer = BUFFERS.getBuffer(false, bufferSize);
+    try {
+      byte[] buf = buffer.array();
+      long copied = 0;
+      while (len < 0 || copied < len) {
+        int toRead = (len < 0) ? buf.length
+                               : (int) Math.min(buf.length, len - copied);
+        int read = in.read(buf, 0, toRead);
+        if (read < 0) {
+          break;
+        }
+        out.write(buf, 0, read);
+        copied += read;
+      }
+      return copied;
+    } finally {
+      BUFFERS.putBuffer(buffer);
+    }
+  }
+
+}
@@ -19,7 +19,9 @@
 package org.apache.hadoop.lib.wsrs;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.lib.util.StreamCopier;
 
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
@@ -31,11 +33,18 @@ public class InputStreamEntity implements StreamingOutput {
   private InputStream is;
   private long offset;
   private long len;
+  private int bufferSize;
 
-  public InputStreamEntity(InputStream is, long offset, long len) {
+  public InputStreamEntity(InputStream is, long offset, long len,
+                           int bufferSize) {
     this.is = is;
     this.offset = offset;
     this.len = len;
+    this.bufferSize = bufferSize;
+  }
+
+  public InputStreamEntity(InputStream is, long offset, long len) {
+    this(is, offset, len, StreamCopier.DEFAULT_BUFFER_SIZE);
   }
 
   public InputStreamEntity(InputStream is) {
@@ -44,11 +53,24 @@ public InputStreamEntity(InputStream is) {
 
   @Override
   public void write(OutputStream os) throws IOException {
-    IOUtils.skipFully(is, offset);
-    if (len == -1) {
-      IOUtils.copyBytes(is, os, 4096, true);
-    } else {
-      IOUtils.copyBytes(is, os, len, true);
+    try {
+      if (offset > 0) {
+        if (is instanceof Seekable) {
+          // Seeking lets HDFS start reading at the right block instead of
+          // reading and discarding everything before the offset.
+          ((Seekable) is).seek(offset);
+        } else {
+          IOUtils.skipFully(is, offset);
+        }
+      }
+      StreamCopier.copy(is, os, len, bufferSize);
+      os.close();
+      os = null;
+      is.close();
+      is = null;
+    } finally {
+      IOUtils.closeStream(os);
+      IOUtils.closeStream(is);
     }
   }
 }
@@ -256,6 +256,73 @@ public void testOpenOffsetLength() throws Exception {
     Assert.assertEquals(-1, is.read());
   }
 
+  @Test
+  @TestDir
+  @TestJetty
+  @TestHdfs
+  public void testOpenRange() throws Exception {
+    createHttpFSServer(false);
+
+    byte[] array = new byte[]{0, 1, 2, 3};
+    FileSystem fs = FileSystem.get(TestHdfsHelper.getHdfsConf());
+    fs.mkdirs(new Path("/tmp"));
+    OutputStream os = fs.create(new Path("/tmp/foo"));
+    os.write(array);
+    os.close();
+
+    String user = HadoopUsersConfTestHelper.getHadoopUsers()[0];
+    URL url = new URL(TestJettyHelper.getJettyURL(),
+                      MessageFormat.format("/webhdfs/v1/tmp/foo?user.name={0}&op=open", user));
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestProperty("Range", "bytes=1-2");
+    Assert.assertEquals(HttpURLConnection.HTTP_PARTIAL, conn.getResponseCode());
+    Assert.assertEquals("bytes 1-2/4", conn.getHeaderField("Content-Range"));
+    Assert.assertEquals("bytes", conn.getHeaderField("Accept-Ranges"));
+    InputStream is = conn.getInputStream();
+    Assert.assertEquals(1, is.read());
+    Assert.assertEquals(2, is.read());
+    Assert.assertEquals(-1, is.read());
+
+    // the range takes precedence over the offset and length parameters
+    url = new URL(TestJettyHelper.getJettyURL(),
+                  MessageFormat.format("/webhdfs/v1/tmp/foo?user.name={0}&op=open&offset=0&length=1", user));
+    conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestProperty("Range", "bytes=-2");
+    Assert.assertEquals(HttpURLConnection.HTTP_PARTIAL, conn.getResponseCode());
+    is = conn.getInputStream();
+    Assert.assertEquals(2, is.read());
+    Assert.assertEquals(3, is.read());
+    Assert.assertEquals(-1, is.read());
+
+    url = new URL(TestJettyHelper.getJettyURL(),
+                  MessageFormat.format("/webhdfs/v1/tmp/foo?user.name={0}&op=open", user));
+    conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestProperty("Range", "bytes=4-");
+    Assert.assertEquals(416, conn.getResponseCode());
+    Assert.assertEquals("bytes */4", conn.getHeaderField("Content-Range"));
+  }
+
+  @Test
+  public void testParseRange() {
+    Assert.assertNull(HttpFSServer.parseRange(null, 10));
+    Assert.assertNull(HttpFSServer.parseRange("items=0-1", 10));
+    Assert.assertNull(HttpFSServer.parseRange("bytes=0-1,3-4", 10));
+    Assert.assertNull(HttpFSServer.parseRange("bytes=3-1", 10));
+    Assert.assertNull(HttpFSServer.parseRange("bytes=a-1", 10));
+    Assert.assertArrayEquals(new long[]{2, 3},
+                             HttpFSServer.parseRange("bytes=2-4", 10));
+    Assert.assertArrayEquals(new long[]{2, 8},
+                             HttpFSServer.parseRange("bytes=2-", 10));
+    Assert.assertArrayEquals(new long[]{2, 8},
+                             HttpFSServer.parseRange("bytes=2-100", 10));
+    Assert.assertArrayEquals(new long[]{7, 3},
+                             HttpFSServer.parseRange("bytes=-3", 10));
+    Assert.assertArrayEquals(new long[]{0, 10},
+                             HttpFSServer.parseRange("bytes=-30", 10));
+    Assert.assertEquals(0, HttpFSServer.parseRange("bytes=10-", 10).length);
+    Assert.assertEquals(0, HttpFSServer.parseRange("bytes=-0", 10).length);
+  }
+
   @Test
   @TestDir
   @TestJetty
@@ -43,6 +43,13 @@ public void test() throws Exception {
     i.write(baos);
     baos.close();
     assertEquals(baos.toByteArray()[0], 'b');
+
+    is = new ByteArrayInputStream("abcdef".getBytes());
+    baos = new ByteArrayOutputStream();
+    i = new InputStreamEntity(is, 2, 10, 2);
+    i.write(baos);
+    baos.close();
+    assertEquals(new String(baos.toByteArray()), "cdef");
   }
 
 }
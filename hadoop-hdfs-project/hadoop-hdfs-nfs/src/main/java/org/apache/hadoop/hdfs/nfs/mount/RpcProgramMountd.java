@@ -178,9 +178,7 @@ public void handleInternal(ChannelHandlerContext ctx, RpcInfo info) {
     RpcCall rpcCall = (RpcCall) info.header();
     final MNTPROC mntproc = MNTPROC.fromValue(rpcCall.getProcedure());
     int xid = rpcCall.getXid();
-    byte[] data = new byte[info.data().readableBytes()];
-    info.data().readBytes(data);
-    XDR xdr = new XDR(data);
+    XDR xdr = new XDR(info.data());
     XDR out = new XDR();
     InetAddress client = ((InetSocketAddress) info.remoteAddress()).getAddress();
 
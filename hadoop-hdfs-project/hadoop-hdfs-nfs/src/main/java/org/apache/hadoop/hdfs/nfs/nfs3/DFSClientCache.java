@@ -35,6 +35,7 @@
 import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.io.MultipleIOException;
+import org.apache.hadoop.nfs.nfs3.Nfs3Constant;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.ShutdownHookManager;
 
@@ -61,9 +62,9 @@ class DFSClientCache {
 
   /**
    * Cache that maps <DFSClient, inode path> to the corresponding
-   * FSDataInputStream.
+   * FSDataInputStream, wrapped to read ahead for sequential reads.
    */
-  final LoadingCache<DFSInputStreamCaheKey, FSDataInputStream> inputstreamCache;
+  final LoadingCache<DFSInputStreamCaheKey, ReadAheadStream> inputstreamCache;
 
   /**
    * Time to live for a DFSClient (in seconds)
@@ -72,6 +73,9 @@ class DFSClientCache {
   final static int DEFAULT_DFS_INPUTSTREAM_CACHE_TTL = 10 * 60;
 
   private final Configuration config;
+  private final int readAheadSize;
+  private final ReadAheadStream.Budget readAheadBudget;
+  private final Nfs3Metrics metrics;
 
   private static class DFSInputStreamCaheKey {
     final String userId;
@@ -103,7 +107,17 @@ public int hashCode() {
   }
   
   DFSClientCache(Configuration config, int clientCache) {
+    this(config, clientCache, new Nfs3Metrics());
+  }
+
+  DFSClientCache(Configuration config, int clientCache, Nfs3Metrics metrics) {
     this.config = config;
+    this.readAheadSize = config.getInt(Nfs3Constant.READ_AHEAD_SIZE,
+        Nfs3Constant.READ_AHEAD_SIZE_DEFAULT);
+    this.readAheadBudget = new ReadAheadStream.Budget(config.getLong(
+        Nfs3Constant.READ_AHEAD_MAX_MEMORY,
+        Nfs3Constant.READ_AHEAD_MAX_MEMORY_DEFAULT));
+    this.metrics = metrics;
     this.clientCache = CacheBuilder.newBuilder()
         .maximumSize(clientCache)
         .removalListener(clientRemovalListener())
@@ -217,12 +231,12 @@ public void onRemoval(RemovalNotification<String, DFSClient> notification) {
     };
   }
 
-  private RemovalListener<DFSInputStreamCaheKey, FSDataInputStream> inputStreamRemovalListener() {
-    return new RemovalListener<DFSClientCache.DFSInputStreamCaheKey, FSDataInputStream>() {
+  private RemovalListener<DFSInputStreamCaheKey, ReadAheadStream> inputStreamRemovalListener() {
+    return new RemovalListener<DFSClientCache.DFSInputStreamCaheKey, ReadAheadStream>() {
 
       @Override
       public void onRemoval(
-          RemovalNotification<DFSInputStreamCaheKey, FSDataInputStream> notification) {
+          RemovalNotification<DFSInputStreamCaheKey, ReadAheadStream> notification) {
         try {
           notification.getValue().close();
         } catch (IOException e) {
@@ -231,14 +245,15 @@ public void onRemoval(
     };
   }
 
-  private CacheLoader<DFSInputStreamCaheKey, FSDataInputStream> inputStreamLoader() {
-    return new CacheLoader<DFSInputStreamCaheKey, FSDataInputStream>() {
+  private CacheLoader<DFSInputStreamCaheKey, ReadAheadStream> inputStreamLoader() {
+    return new CacheLoader<DFSInputStreamCaheKey, ReadAheadStream>() {
 
       @Override
-      public FSDataInputStream load(DFSInputStreamCaheKey key) throws Exception {
+      public ReadAheadStream load(DFSInputStreamCaheKey key) throws Exception {
         DFSClient client = getDfsClient(key.userId);
         DFSInputStream dis = client.open(key.inodePath);
-        return new FSDataInputStream(dis);
+        return new ReadAheadStream(new FSDataInputStream(dis), readAheadSize,
+            readAheadBudget, metrics);
       }
     };
   }
@@ -254,9 +269,9 @@ DFSClient getDfsClient(String userName) {
     return client;
   }
 
-  FSDataInputStream getDfsInputStream(String userName, String inodePath) {
+  ReadAheadStream getDfsInputStream(String userName, String inodePath) {
     DFSInputStreamCaheKey k = new DFSInputStreamCaheKey(userName, inodePath);
-    FSDataInputStream s = null;
+    ReadAheadStream s = null;
     try {
       s = inputstreamCache.get(k);
     } catch (ExecutionException e) {
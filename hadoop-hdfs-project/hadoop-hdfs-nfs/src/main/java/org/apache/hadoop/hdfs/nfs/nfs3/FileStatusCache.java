@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs.nfs3;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.nfs.nfs3.Nfs3Constant;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * A cache of HDFS file status and name lookups, so that GETATTR, ACCESS,
+ * LOOKUP and READ do not each need a NameNode RPC.
+ * <p>
+ * Entries are kept per DFSClient, that is per NFS user, since whether a user
+ * may see a file depends on the permissions along its path. Status entries
+ * are grouped by inode and lookup entries by parent directory, so that
+ * changing a file or directory drops everything cached about it at once.
+ * <p>
+ * The gateway invalidates the entries of every file and directory it
+ * modifies before replying, so an NFS client which opens a file after
+ * another client has closed it through this gateway always sees the new
+ * attributes (close-to-open consistency). Changes made to HDFS by other
+ * clients become visible once the entries expire, after at most
+ * {@link Nfs3Constant#ATTR_CACHE_TTL} milliseconds. A TTL of 0 disables
+ * the cache.
+ * <p>
+ * {@link Nfs3Constant#ATTR_CACHE_SIZE} bounds the number of files with a
+ * cached status, as well as the number of cached names. At most
+ * {@link Nfs3Constant#ATTR_CACHE_DIR_SIZE} names are cached per directory,
+ * so that listing a large directory does not fill the cache by itself.
+ * Names which do not fit are looked up at the NameNode.
+ */
+class FileStatusCache {
+  /** fileId -> (client name -> status) */
+  private final Cache<Long, ConcurrentMap<String, HdfsFileStatus>> statuses;
+  /** directory fileId -> ((client name, child name) -> child fileId) */
+  private final Cache<Long, DirNames> lookups;
+  /** Number of names in all the DirNames of lookups */
+  private final AtomicInteger cachedNames = new AtomicInteger();
+  private final int size;
+  private final int dirSize;
+  private final boolean enabled;
+  private final Nfs3Metrics metrics;
+
+  private static class LookupKey {
+    final String clientName;
+    final String name;
+
+    LookupKey(String clientName, String name) {
+      this.clientName = clientName;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj instanceof LookupKey) {
+        LookupKey k = (LookupKey) obj;
+        return clientName.equals(k.clientName) && name.equals(k.name);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(clientName, name);
+    }
+  }
+
+  /**
+   * The names cached for lookups in a directory. Once the directory is
+   * dropped from the cache, no more names are added, so that the count of
+   * cached names stays accurate.
+   */
+  private class DirNames {
+    private final ConcurrentMap<LookupKey, Long> names =
+        new ConcurrentHashMap<LookupKey, Long>();
+    private boolean removed = false;
+
+    Long get(LookupKey key) {
+      return names.get(key);
+    }
+
+    /** @return whether the name was cached */
+    synchronized boolean put(LookupKey key, long fileId) {
+      if (removed) {
+        return false;
+      }
+      if (!names.containsKey(key)) {
+        if (names.size() >= dirSize) {
+          return false;
+        }
+        if (cachedNames.incrementAndGet() > size) {
+          cachedNames.decrementAndGet();
+          return false;
+        }
+      }
+      names.put(key, fileId);
+      return true;
+    }
+
+    synchronized void remove() {
+      removed = true;
+      cachedNames.addAndGet(-names.size());
+    }
+  }
+
+  FileStatusCache(Configuration config, Nfs3Metrics metrics) {
+    this.size = config.getInt(Nfs3Constant.ATTR_CACHE_SIZE,
+        Nfs3Constant.ATTR_CACHE_SIZE_DEFAULT);
+    this.dirSize = config.getInt(Nfs3Constant.ATTR_CACHE_DIR_SIZE,
+        Nfs3Constant.ATTR_CACHE_DIR_SIZE_DEFAULT);
+    long ttl = config.getLong(Nfs3Constant.ATTR_CACHE_TTL,
+        Nfs3Constant.ATTR_CACHE_TTL_DEFAULT);
+    this.enabled = size > 0 && ttl > 0;
+    this.metrics = metrics;
+    this.statuses = CacheBuilder.newBuilder()
+        .maximumSize(Math.max(size, 0))
+        .expireAfterWrite(Math.max(ttl, 0), TimeUnit.MILLISECONDS)
+        .build();
+    this.lookups = CacheBuilder.newBuilder()
+        .maximumSize(Math.max(size, 0))
+        .expireAfterWrite(Math.max(ttl, 0), TimeUnit.MILLISECONDS)
+        .removalListener(new RemovalListener<Long, DirNames>() {
+          @Override
+          public void onRemoval(RemovalNotification<Long, DirNames> n) {
+            n.getValue().remove();
+          }
+        })
+        .build();
+  }
+
+  private static <K, V> ConcurrentMap<K, V> getOrCreate(
+      Cache<Long, ConcurrentMap<K, V>> cache, long fileId) {
+    try {
+      return cache.get(fileId, new Callable<ConcurrentMap<K, V>>() {
+        @Override
+        public ConcurrentMap<K, V> call() {
+          return new ConcurrentHashMap<K, V>();
+        }
+      });
+    } catch (ExecutionException e) {
+      // The loader above can't fail.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get the status of a file or directory by its fileId.
+   *
+   * @return the status, or null if the file does not exist
+   */
+  HdfsFileStatus getFileStatus(DFSClient client, long fileId)
+      throws IOException {
+    if (enabled) {
+      ConcurrentMap<String, HdfsFileStatus> byClient =
+          statuses.getIfPresent(fileId);
+      if (byClient != null) {
+        HdfsFileStatus status = byClient.get(client.getClientName());
+        if (status != null) {
+          metrics.incrAttrCacheHit();
+          return status;
+        }
+      }
+    }
+    metrics.incrAttrCacheMiss();
+    HdfsFileStatus status = Nfs3Utils.getFileStatus(client,
+        Nfs3Utils.getFileIdPath(fileId));
+    if (status != null) {
+      put(client, status);
+    }
+    return status;
+  }
+
+  /**
+   * Look up a name in a directory.
+   *
+   * @return the status of the child, or null if it does not exist
+   */
+  HdfsFileStatus lookup(DFSClient client, long dirId, String name)
+      throws IOException {
+    if (enabled) {
+      DirNames children = lookups.getIfPresent(dirId);
+      if (children != null) {
+        Long fileId = children.get(new LookupKey(client.getClientName(),
+            name));
+        if (fileId != null) {
+          metrics.incrLookupCacheHit();
+          return getFileStatus(client, fileId);
+        }
+      }
+    }
+    metrics.incrLookupCacheMiss();
+    HdfsFileStatus status = Nfs3Utils.getFileStatus(client,
+        Nfs3Utils.getFileIdPath(dirId) + "/" + name);
+    if (status != null) {
+      putChild(client, dirId, name, status);
+    }
+    return status;
+  }
+
+  /**
+   * Cache the entries of a directory listing which was just fetched, as far
+   * as they fit.
+   */
+  void putListing(DFSClient client, long dirId, HdfsFileStatus[] listing) {
+    for (HdfsFileStatus status : listing) {
+      putChild(client, dirId, status.getLocalName(), status);
+    }
+  }
+
+  private void put(DFSClient client, HdfsFileStatus status) {
+    if (enabled) {
+      getOrCreate(statuses, status.getFileId()).put(client.getClientName(),
+          status);
+    }
+  }
+
+  private void putChild(DFSClient client, long dirId, String name,
+      HdfsFileStatus status) {
+    if (enabled) {
+      if (cachedNames.get() >= size) {
+        // Drop the expired directories to make room.
+        lookups.cleanUp();
+      }
+      DirNames children;
+      try {
+        children = lookups.get(dirId, new Callable<DirNames>() {
+          @Override
+          public DirNames call() {
+            return new DirNames();
+          }
+        });
+      } catch (ExecutionException e) {
+        // The loader above can't fail.
+        throw new IllegalStateException(e);
+      }
+      if (children.put(new LookupKey(client.getClientName(), name),
+          status.getFileId())) {
+        put(client, status);
+      }
+    }
+  }
+
+  /**
+   * Drop everything cached about a file or directory, for all users. For a
+   * directory this includes the names looked up in it.
+   */
+  void invalidate(long fileId) {
+    statuses.invalidate(fileId);
+    lookups.invalidate(fileId);
+  }
+
+  @VisibleForTesting
+  int getCachedNames() {
+    return cachedNames.get();
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs.nfs3;
+
+import static org.apache.hadoop.metrics2.lib.Interns.info;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Metrics of the NFS gateway caches: how often file attributes, name lookups
+ * and READ requests were served without going to HDFS.
+ */
+@InterfaceAudience.Private
+public class Nfs3Metrics implements MetricsSource {
+  private final MetricsRegistry registry = new MetricsRegistry("Nfs3Metrics")
+      .setContext("dfs");
+
+  private final MutableCounterLong attrCacheHits = registry.newCounter(
+      "AttrCacheHits", "File attributes served from the cache", 0L);
+  private final MutableCounterLong attrCacheMisses = registry.newCounter(
+      "AttrCacheMisses", "File attributes fetched from the NameNode", 0L);
+  private final MutableCounterLong lookupCacheHits = registry.newCounter(
+      "LookupCacheHits", "Name lookups served from the cache", 0L);
+  private final MutableCounterLong lookupCacheMisses = registry.newCounter(
+      "LookupCacheMisses", "Name lookups sent to the NameNode", 0L);
+  private final MutableCounterLong readAheadHits = registry.newCounter(
+      "ReadAheadHits", "READ requests served from read-ahead buffers", 0L);
+  private final MutableCounterLong readAheadMisses = registry.newCounter(
+      "ReadAheadMisses", "READ requests which had to read from HDFS", 0L);
+
+  /**
+   * Create Nfs3Metrics and register them with the metrics system.
+   */
+  public static Nfs3Metrics create() {
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    DefaultMetricsSystem.instance().register("Nfs3Metrics",
+        "NFS gateway cache metrics", metrics);
+    return metrics;
+  }
+
+  @VisibleForTesting
+  Nfs3Metrics() {
+  }
+
+  void incrAttrCacheHit() {
+    attrCacheHits.incr();
+  }
+
+  void incrAttrCacheMiss() {
+    attrCacheMisses.incr();
+  }
+
+  void incrLookupCacheHit() {
+    lookupCacheHits.incr();
+  }
+
+  void incrLookupCacheMiss() {
+    lookupCacheMisses.incr();
+  }
+
+  void incrReadAheadHit() {
+    readAheadHits.incr();
+  }
+
+  void incrReadAheadMiss() {
+    readAheadMisses.incr();
+  }
+
+  @VisibleForTesting
+  long getAttrCacheHits() {
+    return attrCacheHits.value();
+  }
+
+  @VisibleForTesting
+  long getAttrCacheMisses() {
+    return attrCacheMisses.value();
+  }
+
+  @VisibleForTesting
+  long getLookupCacheHits() {
+    return lookupCacheHits.value();
+  }
+
+  @VisibleForTesting
+  long getLookupCacheMisses() {
+    return lookupCacheMisses.value();
+  }
+
+  @VisibleForTesting
+  long getReadAheadHits() {
+    return readAheadHits.value();
+  }
+
+  @VisibleForTesting
+  long getReadAheadMisses() {
+    return readAheadMisses.value();
+  }
+
+  private static float hitRate(MutableCounterLong hits,
+      MutableCounterLong misses) {
+    long total = hits.value() + misses.value();
+    return total == 0 ? 0f : (float) hits.value() / total;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info());
+    registry.snapshot(rb, all);
+    rb.addGauge(info("AttrCacheHitRate", "Fraction of attribute requests " +
+        "served from the cache"), hitRate(attrCacheHits, attrCacheMisses))
+      .addGauge(info("LookupCacheHitRate", "Fraction of name lookups " +
+        "served from the cache"), hitRate(lookupCacheHits, lookupCacheMisses))
+      .addGauge(info("ReadAheadHitRate", "Fraction of READ requests served " +
+        "from read-ahead buffers"), hitRate(readAheadHits, readAheadMisses));
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs.nfs3;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The memory held by non-sequential writes, shared by all the
+ * {@link OpenFileCtx} of the gateway. Once the total goes over the limit, the
+ * files dump their non-sequential writes to local disk, or refuse new ones if
+ * they can't be dumped.
+ */
+class NonSequentialWriteBudget {
+  private final long limit;
+  private final AtomicLong used = new AtomicLong(0);
+
+  NonSequentialWriteBudget(long limit) {
+    this.limit = limit;
+  }
+
+  /** Increase or decrease the memory in use, and return the new value */
+  long update(long count) {
+    return used.addAndGet(count);
+  }
+
+  long getUsed() {
+    return used.get();
+  }
+
+  long getLimit() {
+    return limit;
+  }
+
+  boolean isExceeded() {
+    return used.get() >= limit;
+  }
+}
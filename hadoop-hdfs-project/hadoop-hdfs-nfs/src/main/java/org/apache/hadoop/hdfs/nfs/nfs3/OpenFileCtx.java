@@ -29,6 +29,7 @@
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -60,14 +61,14 @@
 import com.google.common.base.Preconditions;
 
 /**
- * OpenFileCtx saves the context of one HDFS file output stream. Access to it is
- * synchronized by its member lock.
+ * OpenFileCtx saves the context of one HDFS file output stream. New writes are
+ * added to {@link #pendingWrites} without taking the member lock, and a single
+ * write-back task, guarded by {@link #asyncStatus}, flushes the contiguous
+ * writes to HDFS. Commits, write-back hand-off and cleanup are synchronized by
+ * the member lock.
  */
 class OpenFileCtx {
   public static final Log LOG = LogFactory.getLog(OpenFileCtx.class);
-  
-  // Pending writes water mark for dump, 1MB
-  private static long DUMP_WRITE_WATER_MARK = 1024 * 1024;
 
   static enum COMMIT_STATUS {
     COMMIT_FINISHED,
@@ -84,8 +85,7 @@ static enum COMMIT_STATUS {
   // The stream status. False means the stream is closed.
   private volatile boolean activeState;
   // The stream write-back status. True means one thread is doing write back.
-  private volatile boolean asyncStatus;
-  private volatile long asyncWriteBackStartOffset;
+  private final AtomicBoolean asyncStatus;
 
   /**
    * The current offset of the file in HDFS. All the content before this offset
@@ -153,6 +153,8 @@ public String toString() {
   private volatile boolean enabledDump;
   private FileOutputStream dumpOut;
   private AtomicLong nonSequentialWriteInMemory;
+  // Memory of non-sequential writes of all open files
+  private final NonSequentialWriteBudget writeBudget;
   private RandomAccessFile raf;
   private final String dumpFilePath;
   private Daemon dumpThread;
@@ -183,6 +185,7 @@ boolean hasPendingWork() {
   
   // Increase or decrease the memory occupation of non-sequential writes
   private long updateNonSequentialWriteInMemory(long count) {
+    writeBudget.update(count);
     long newValue = nonSequentialWriteInMemory.addAndGet(count);
     if (LOG.isDebugEnabled()) {
       LOG.debug("Update nonSequentialWriteInMemory by " + count + " new value:"
@@ -197,6 +200,14 @@ private long updateNonSequentialWriteInMemory(long count) {
   
   OpenFileCtx(HdfsDataOutputStream fos, Nfs3FileAttributes latestAttr,
       String dumpFilePath, DFSClient client, IdUserGroup iug) {
+    this(fos, latestAttr, dumpFilePath, client, iug,
+        new NonSequentialWriteBudget(
+            Nfs3Constant.MAX_NONSEQUENTIAL_WRITE_MEMORY_DEFAULT));
+  }
+
+  OpenFileCtx(HdfsDataOutputStream fos, Nfs3FileAttributes latestAttr,
+      String dumpFilePath, DFSClient client, IdUserGroup iug,
+      NonSequentialWriteBudget writeBudget) {
     this.fos = fos;
     this.latestAttr = latestAttr;
     // We use the ReverseComparatorOnMin as the comparator of the map. In this
@@ -209,11 +220,11 @@ private long updateNonSequentialWriteInMemory(long count) {
     
     updateLastAccessTime();
     activeState = true;
-    asyncStatus = false;
-    asyncWriteBackStartOffset = 0;
+    asyncStatus = new AtomicBoolean(false);
     dumpOut = null;
     raf = null;
     nonSequentialWriteInMemory = new AtomicLong(0);
+    this.writeBudget = writeBudget;
   
     this.dumpFilePath = dumpFilePath;  
     enabledDump = dumpFilePath == null ? false: true;
@@ -234,6 +245,16 @@ private long getFlushedOffset() {
     return fos.getPos();
   }
   
+  /**
+   * The writes of this file are dumped when the non-sequential writes of all
+   * the open files take more memory than the limit. The file which gets the
+   * write going over the limit dumps its own writes, with the larger offsets
+   * first, until the total is below the limit again.
+   */
+  private boolean needDump() {
+    return nonSequentialWriteInMemory.get() > 0 && writeBudget.isExceeded();
+  }
+
   // Check if need to dump the new writes
   private void checkDump() {
     if (!enabledDump) {
@@ -243,13 +264,13 @@ private void checkDump() {
       return;
     }
 
-    if (nonSequentialWriteInMemory.get() < DUMP_WRITE_WATER_MARK) {
+    if (!needDump()) {
       return;
     }
 
     // wake up the dumper thread to dump the data
     synchronized (this) {
-      if (nonSequentialWriteInMemory.get() >= DUMP_WRITE_WATER_MARK) {
+      if (needDump()) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Asking dumper to dump...");
         }
@@ -309,8 +330,7 @@ private void dump() {
       }
 
       Iterator<OffsetRange> it = pendingWrites.keySet().iterator();
-      while (activeState && it.hasNext()
-          && nonSequentialWriteInMemory.get() > 0) {
+      while (activeState && it.hasNext() && needDump()) {
         OffsetRange key = it.next();
         WriteCtx writeCtx = pendingWrites.get(key);
         if (writeCtx == null) {
@@ -341,11 +361,11 @@ private void dump() {
     public void run() {
       while (activeState && enabledDump) {
         try {
-          if (nonSequentialWriteInMemory.get() >= DUMP_WRITE_WATER_MARK) {
+          if (needDump()) {
             dump();
           }
           synchronized (OpenFileCtx.this) {
-            if (nonSequentialWriteInMemory.get() < DUMP_WRITE_WATER_MARK) {
+            if (!needDump()) {
               try {
                 OpenFileCtx.this.wait();
                 if (LOG.isDebugEnabled()) {
@@ -459,13 +479,15 @@ public static void alterWriteRequest(WRITE3Request request, long cachedOffset) {
   }
   
   /**
-   * Creates and adds a WriteCtx into the pendingWrites map. This is a
-   * synchronized method to handle concurrent writes.
+   * Creates and adds a WriteCtx into the pendingWrites map. Concurrent writes
+   * to the same file don't take the member lock here: the write-back task only
+   * moves nextOffset over the writes which are already in pendingWrites, so a
+   * write at or after the nextOffset read below stays ahead of it.
    * 
    * @return A non-null {@link WriteCtx} instance if the incoming write
    *         request's offset >= nextOffset. Otherwise null.
    */
-  private synchronized WriteCtx addWritesToCache(WRITE3Request request,
+  private WriteCtx addWritesToCache(WRITE3Request request,
       Channel channel, int xid) {
     long offset = request.getOffset();
     int count = request.getCount();
@@ -520,17 +542,22 @@ private synchronized WriteCtx addWritesToCache(WRITE3Request request,
         LOG.debug("Add new write to the list with nextOffset " + cachedOffset
             + " and requesed offset=" + offset);
       }
-      if (writeCtx.getDataState() == WriteCtx.DataState.ALLOW_DUMP) {
-        // update the memory size
-        updateNonSequentialWriteInMemory(count);
-      }
       // check if there is a WriteCtx with the same range in pendingWrites
-      WriteCtx oldWriteCtx = checkRepeatedWriteRequest(request, channel, xid);
+      WriteCtx oldWriteCtx = addWrite(writeCtx);
       if (oldWriteCtx == null) {
-        addWrite(writeCtx);
+        if (writeCtx.getDataState() == WriteCtx.DataState.ALLOW_DUMP) {
+          // update the memory size
+          updateNonSequentialWriteInMemory(count);
+        }
+        if (!activeState
+            && pendingWrites.remove(new OffsetRange(offset, offset + count),
+                writeCtx)) {
+          // cleanup() has already run, don't leave the memory accounted
+          releaseWriteMemory(writeCtx);
+        }
       } else {
         LOG.warn("Got a repeated request, same range, with xid:"
-            + writeCtx.getXid());
+            + writeCtx.getXid() + " xid in old request:" + oldWriteCtx.getXid());
       }
       return writeCtx;
     }
@@ -572,17 +599,18 @@ private void processOverWrite(DFSClient dfsClient, WRITE3Request request,
    * @return True if the new write is sequencial and we can start writing
    *         (including the case that there is already a thread writing).
    */
-  private synchronized boolean checkAndStartWrite(
-      AsyncDataService asyncDataService, WriteCtx writeCtx) {
-    
-    if (writeCtx.getOffset() == nextOffset.get()) {
-      if (!asyncStatus) {
+  private boolean checkAndStartWrite(AsyncDataService asyncDataService,
+      WriteCtx writeCtx) {
+    long offset = nextOffset.get();
+    if (writeCtx.getOffset() < offset) {
+      // The running write back task has already taken this write
+      return true;
+    } else if (writeCtx.getOffset() == offset) {
+      if (asyncStatus.compareAndSet(false, true)) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Trigger the write back task. Current nextOffset: "
-              + nextOffset.get());
+              + offset);
         }
-        asyncStatus = true;
-        asyncWriteBackStartOffset = writeCtx.getOffset();
         asyncDataService.execute(new AsyncDataService.WriteBackTask(this));
       } else {
         if (LOG.isDebugEnabled()) {
@@ -602,6 +630,22 @@ private void receivedNewWriteInternal(DFSClient dfsClient,
     WccAttr preOpAttr = latestAttr.getWccAttr();
     int count = request.getCount();
 
+    if (!enabledDump && request.getOffset() > nextOffset.get()
+        && writeBudget.isExceeded()) {
+      // The non-sequential write can neither stay in memory nor be dumped.
+      // Ask the client to send it again after the writes before it arrive.
+      LOG.info("Non-sequential writes take " + writeBudget.getUsed()
+          + " bytes and can't be dumped, tell client to retry write at offset "
+          + request.getOffset());
+      WccData fileWcc = new WccData(preOpAttr, latestAttr);
+      WRITE3Response response = new WRITE3Response(Nfs3Status.NFS3ERR_JUKEBOX,
+          fileWcc, 0, stableHow, Nfs3Constant.WRITE_COMMIT_VERF);
+      Nfs3Utils.writeChannel(channel,
+          response.writeHeaderAndResponse(new XDR(), xid, new VerifierNone()),
+          xid);
+      return;
+    }
+
     WriteCtx writeCtx = addWritesToCache(request, channel, xid);
     if (writeCtx == null) {
       // offset < nextOffset
@@ -809,11 +853,30 @@ synchronized COMMIT_STATUS checkCommitInternal(long commitOffset,
     }
   }
   
-  private void addWrite(WriteCtx writeCtx) {
+  /**
+   * Add the write to {@link #pendingWrites} unless a write with the same range
+   * is already there.
+   * 
+   * @return The write which was already there, or null if the write is added.
+   */
+  private WriteCtx addWrite(WriteCtx writeCtx) {
     long offset = writeCtx.getOffset();
     int count = writeCtx.getCount();
     // For the offset range (min, max), min is inclusive, and max is exclusive
-    pendingWrites.put(new OffsetRange(offset, offset + count), writeCtx);
+    return pendingWrites.putIfAbsent(new OffsetRange(offset, offset + count),
+        writeCtx);
+  }
+
+  /** Give back the memory of a write which will not be dumped any more */
+  private void releaseWriteMemory(WriteCtx writeCtx) {
+    if (writeCtx.getDataState() == WriteCtx.DataState.ALLOW_DUMP) {
+      synchronized (writeCtx) {
+        if (writeCtx.getDataState() == WriteCtx.DataState.ALLOW_DUMP) {
+          writeCtx.setDataState(WriteCtx.DataState.NO_DUMP);
+          updateNonSequentialWriteInMemory(-writeCtx.getCount());
+        }
+      }
+    }
   }
   
   /**
@@ -840,50 +903,58 @@ public synchronized boolean streamCleanup(long fileId, long streamTimeout) {
   
   /**
    * Get (and remove) the next WriteCtx from {@link #pendingWrites} if possible.
+   * When there is nothing to write, the write-back is given up, i.e.,
+   * asyncStatus is set to false.
    * 
    * @return Null if {@link #pendingWrites} is null, or the next WriteCtx's
    *         offset is larger than nextOffSet.
    */
   private synchronized WriteCtx offerNextToWrite() {
-    if (pendingWrites.isEmpty()) {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("The asyn write task has no pending writes, fileId: "
-            + latestAttr.getFileId());
-      }
-      // process pending commit again to handle this race: a commit is added
-      // to pendingCommits map just after the last doSingleWrite returns.
-      // There is no pending write and the commit should be handled by the
-      // last doSingleWrite. Due to the race, the commit is left along and
-      // can't be processed until cleanup. Therefore, we should do another
-      // processCommits to fix the race issue.
-      processCommits(nextOffset.get()); // nextOffset has same value as
-                                        // flushedOffset
-      this.asyncStatus = false;
-      return null;
-    } 
-    
+    while (true) {
       Entry<OffsetRange, WriteCtx> lastEntry = pendingWrites.lastEntry();
+      if (lastEntry == null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("The asyn write task has no pending writes, fileId: "
+              + latestAttr.getFileId());
+        }
+        // process pending commit again to handle this race: a commit is added
+        // to pendingCommits map just after the last doSingleWrite returns.
+        // There is no pending write and the commit should be handled by the
+        // last doSingleWrite. Due to the race, the commit is left along and
+        // can't be processed until cleanup. Therefore, we should do another
+        // processCommits to fix the race issue.
+        processCommits(nextOffset.get()); // nextOffset has same value as
+                                          // flushedOffset
+        if (stopWriteBack()) {
+          return null;
+        }
+        continue;
+      }
+
       OffsetRange range = lastEntry.getKey();
       WriteCtx toWrite = lastEntry.getValue();
-      
+
       if (LOG.isTraceEnabled()) {
         LOG.trace("range.getMin()=" + range.getMin() + " nextOffset="
             + nextOffset);
       }
-      
+
       long offset = nextOffset.get();
       if (range.getMin() > offset) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("The next sequencial write has not arrived yet");
         }
         processCommits(nextOffset.get()); // handle race
-        this.asyncStatus = false;
-      } else if (range.getMin() < offset && range.getMax() > offset) {
-        // shouldn't happen since we do sync for overlapped concurrent writers
+        if (stopWriteBack()) {
+          return null;
+        }
+      } else if (range.getMin() < offset) {
+        // An overlapping write, whose start has been written by others
         LOG.warn("Got a overlapping write (" + range.getMin() + ","
             + range.getMax() + "), nextOffset=" + offset
             + ". Silently drop it now");
         pendingWrites.remove(range);
+        releaseWriteMemory(toWrite);
         processCommits(nextOffset.get()); // handle race
       } else {
         if (LOG.isDebugEnabled()) {
@@ -899,15 +970,30 @@ private synchronized WriteCtx offerNextToWrite() {
         }
         return toWrite;
       }
-    
-    return null;
+    }
   }
-  
+
+  /**
+   * Reset asyncStatus to false. A new write could have been added at
+   * nextOffset after we checked pendingWrites, by a thread which saw
+   * asyncStatus still being true and so didn't start another write-back.
+   * Check again after the reset and go on writing in that case.
+   * 
+   * @return True if the write-back is stopped.
+   */
+  private boolean stopWriteBack() {
+    asyncStatus.set(false);
+    OffsetRange next = pendingWrites.isEmpty() ? null : pendingWrites
+        .lastKey();
+    return next == null || next.getMin() > nextOffset.get()
+        || !asyncStatus.compareAndSet(false, true);
+  }
+
   /** Invoked by AsynDataService to write back to HDFS */
   void executeWriteBack() {
-    Preconditions.checkState(asyncStatus,
+    Preconditions.checkState(asyncStatus.get(),
         "openFileCtx has false asyncStatus, fileId:" + latestAttr.getFileid());
-    final long startOffset = asyncWriteBackStartOffset;  
+    boolean stopped = false;
     try {
       while (activeState) {
         // asyncStatus could be changed to false in offerNextToWrite()
@@ -917,6 +1003,7 @@ void executeWriteBack() {
           doSingleWrite(toWrite);
           updateLastAccessTime();
         } else {
+          stopped = true;
           break;
         }
       }
@@ -926,17 +1013,10 @@ void executeWriteBack() {
             + latestAttr.getFileId());
       }
     } finally {
-      // Make sure to reset asyncStatus to false unless a race happens
-      synchronized (this) {
-        if (startOffset == asyncWriteBackStartOffset) {
-          asyncStatus = false;
-        } else {
-          LOG.info("Another asyn task is already started before this one"
-              + " is finalized. fileId:" + latestAttr.getFileid()
-              + " asyncStatus:" + asyncStatus + " original startOffset:"
-              + startOffset + " new startOffset:" + asyncWriteBackStartOffset
-              + ". Won't change asyncStatus here.");
-        }
+      // Once offerNextToWrite() gives up the write-back, another task could
+      // have started already, so only reset asyncStatus if it didn't.
+      if (!stopped) {
+        asyncStatus.set(false);
       }
     }
   }
@@ -1032,18 +1112,11 @@ private void doSingleWrite(final WriteCtx writeCtx) {
       
 
       // Reduce memory occupation size if request was allowed dumped
-      if (writeCtx.getDataState() == WriteCtx.DataState.ALLOW_DUMP) {
-        synchronized (writeCtx) {
-          if (writeCtx.getDataState() == WriteCtx.DataState.ALLOW_DUMP) {
-            writeCtx.setDataState(WriteCtx.DataState.NO_DUMP);
-            updateNonSequentialWriteInMemory(-count);
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("After writing " + handle.getFileId() + " at offset "
-                  + offset + ", updated the memory count, new value:"
-                  + nonSequentialWriteInMemory.get());
-            }
-          }
-        }
+      releaseWriteMemory(writeCtx);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("After writing " + handle.getFileId() + " at offset "
+            + offset + ", the memory count is "
+            + nonSequentialWriteInMemory.get());
       }
       
       if (!writeCtx.getReplied()) {
@@ -1131,6 +1204,7 @@ synchronized void cleanup() {
           + "), nextOffset=" + nextOffset.get());
       
       WriteCtx writeCtx = pendingWrites.remove(key);
+      releaseWriteMemory(writeCtx);
       if (!writeCtx.getReplied()) {
         WccData fileWcc = new WccData(preOpAttr, latestAttr);
         WRITE3Response response = new WRITE3Response(Nfs3Status.NFS3ERR_IO,
@@ -1190,6 +1264,6 @@ void setActiveStatusForTest(boolean activeState) {
   @Override
   public String toString() {
     return String.format("activeState: %b asyncStatus: %b nextOffset: %d",
-        activeState, asyncStatus, nextOffset.get());
+        activeState, asyncStatus.get(), nextOffset.get());
   }
 }
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs.nfs3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * A cached HDFS input stream which prefetches data for sequential READ
+ * requests.
+ * <p>
+ * NFS clients read files in chunks of at most rsize bytes (64KB for this
+ * gateway), and every positional read of a DFSInputStream sets up a new
+ * block reader. When a READ starts where the previous one ended, the next
+ * readAheadSize bytes are fetched with a single positional read and later
+ * READs are copied out of that buffer. Random reads go straight to HDFS.
+ * <p>
+ * Since HDFS files can only be appended to, bytes in the buffer never go
+ * stale. Only a buffer which stopped short at the end of the file has to be
+ * refilled to see data appended afterwards.
+ * <p>
+ * NFS clients keep several READs of a file in flight, so they arrive out of
+ * order. A READ within a quarter of the read-ahead size of where the stream
+ * got to still counts as sequential; only one further away drops the buffer.
+ * Misses, including the read which fills the buffer, go to HDFS without
+ * holding the stream lock, so concurrent READs of a file do not wait for
+ * each other.
+ * <p>
+ * The buffers of all the streams are taken out of a shared {@link Budget}.
+ * When the budget is used up, sequential reads go straight to HDFS like
+ * random ones. A stream gives its buffer back when it is closed or turns to
+ * random reads.
+ */
+class ReadAheadStream implements Closeable {
+  /**
+   * The number of bytes which the read-ahead buffers of all streams may
+   * use together.
+   */
+  static class Budget {
+    private final long capacity;
+    private final AtomicLong used = new AtomicLong();
+
+    Budget(long capacity) {
+      this.capacity = capacity;
+    }
+
+    /** @return whether the bytes were reserved */
+    boolean reserve(int bytes) {
+      while (true) {
+        long current = used.get();
+        if (current + bytes > capacity) {
+          return false;
+        }
+        if (used.compareAndSet(current, current + bytes)) {
+          return true;
+        }
+      }
+    }
+
+    void release(int bytes) {
+      used.addAndGet(-bytes);
+    }
+
+    long getUsed() {
+      return used.get();
+    }
+  }
+
+  private final FSDataInputStream in;
+  private final int readAheadSize;
+  /** How far a READ may be from nextOffset and still count as sequential */
+  private final int reorderWindow;
+  private final Budget budget;
+  private final Nfs3Metrics metrics;
+
+  private byte[] buffer;
+  /** File offset of buffer[0] */
+  private long bufferOffset;
+  /** Number of valid bytes in the buffer */
+  private int bufferLength;
+  /** Whether a read is filling the buffer outside the lock */
+  private boolean filling = false;
+  /**
+   * The furthest offset read so far, to detect sequential reads. A read from
+   * the start of the file is taken to be sequential too.
+   */
+  private long nextOffset = 0;
+
+  ReadAheadStream(FSDataInputStream in, int readAheadSize, Budget budget,
+      Nfs3Metrics metrics) {
+    this.in = in;
+    this.readAheadSize = readAheadSize;
+    this.reorderWindow = readAheadSize / 4;
+    this.budget = budget;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Read up to length bytes starting at the given file offset.
+   *
+   * @return the number of bytes read, or -1 at the end of the file
+   */
+  int read(long offset, byte[] b, int off, int length) throws IOException {
+    byte[] fillBuffer = null;
+    synchronized (this) {
+      if (isBuffered(offset, length)) {
+        metrics.incrReadAheadHit();
+        int n = copyFromBuffer(offset, b, off, length);
+        advance(offset, n);
+        return n;
+      }
+      metrics.incrReadAheadMiss();
+      if (!isSequential(offset)) {
+        freeBuffer();
+      } else if (offset >= nextOffset && length < readAheadSize && !filling
+          && allocate()) {
+        // Nobody reads the buffer while it is filled outside the lock.
+        filling = true;
+        bufferLength = 0;
+        fillBuffer = buffer;
+      }
+    }
+
+    if (fillBuffer == null) {
+      int n = in.read(offset, b, off, length);
+      synchronized (this) {
+        advance(offset, n);
+      }
+      return n;
+    }
+
+    int filled = 0;
+    try {
+      filled = fill(fillBuffer, offset);
+    } finally {
+      synchronized (this) {
+        filling = false;
+        // The buffer is dropped if the stream was closed or turned random.
+        if (buffer == fillBuffer) {
+          bufferOffset = offset;
+          bufferLength = filled;
+        }
+      }
+    }
+    if (filled == 0) {
+      return -1;
+    }
+    int n = Math.min(length, filled);
+    System.arraycopy(fillBuffer, 0, b, off, n);
+    synchronized (this) {
+      advance(offset, n);
+    }
+    return n;
+  }
+
+  private boolean isSequential(long offset) {
+    return Math.abs(offset - nextOffset) <= reorderWindow;
+  }
+
+  private void advance(long offset, int n) {
+    if (n <= 0) {
+      return;
+    }
+    if (isSequential(offset)) {
+      nextOffset = Math.max(nextOffset, offset + n);
+    } else {
+      nextOffset = offset + n;
+    }
+  }
+
+  /**
+   * Whether the buffer holds all the requested bytes. A read running past the
+   * end of the buffer is not served from it, since the file may have grown
+   * since the buffer was filled.
+   */
+  private boolean isBuffered(long offset, int length) {
+    return buffer != null && offset >= bufferOffset
+        && offset + length <= bufferOffset + bufferLength;
+  }
+
+  private int copyFromBuffer(long offset, byte[] b, int off, int length) {
+    int start = (int) (offset - bufferOffset);
+    int n = Math.min(length, bufferLength - start);
+    System.arraycopy(buffer, start, b, off, n);
+    return n;
+  }
+
+  /** @return whether the stream has a buffer to read ahead into */
+  private boolean allocate() {
+    if (buffer == null && budget.reserve(readAheadSize)) {
+      buffer = new byte[readAheadSize];
+    }
+    return buffer != null;
+  }
+
+  private void freeBuffer() {
+    if (buffer != null) {
+      budget.release(buffer.length);
+      buffer = null;
+      bufferLength = 0;
+    }
+  }
+
+  /** @return the number of bytes read into the buffer */
+  private int fill(byte[] buf, long offset) throws IOException {
+    int filled = 0;
+    while (filled < buf.length) {
+      int n = in.read(offset + filled, buf, filled, buf.length - filled);
+      if (n <= 0) {
+        break;
+      }
+      filled += n;
+    }
+    return filled;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    freeBuffer();
+    in.close();
+  }
+}
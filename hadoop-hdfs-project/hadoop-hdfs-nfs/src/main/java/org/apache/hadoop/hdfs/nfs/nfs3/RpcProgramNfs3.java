@@ -31,7 +31,6 @@
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.DirectoryListingStartAfterNotFoundException;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem.Statistics;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.FsStatus;
@@ -145,6 +144,8 @@ public class RpcProgramNfs3 extends RpcProgram implements Nfs3Interface {
   private final WriteManager writeManager;
   private final IdUserGroup iug;
   private final DFSClientCache clientCache;
+  private final FileStatusCache attrCache;
+  private final Nfs3Metrics metrics;
 
   private final NfsExports exports;
   
@@ -172,8 +173,11 @@ public RpcProgramNfs3(Configuration config) throws IOException {
     iug = new IdUserGroup();
     
     exports = NfsExports.getInstance(config);
-    writeManager = new WriteManager(iug, config);
-    clientCache = new DFSClientCache(config);
+    metrics = Nfs3Metrics.create();
+    attrCache = new FileStatusCache(config, metrics);
+    writeManager = new WriteManager(iug, config, attrCache);
+    clientCache = new DFSClientCache(config,
+        DFSClientCache.DEFAULT_DFS_CLIENT_CACHE_SIZE, metrics);
     superUserClient = new DFSClient(NameNode.getAddress(config), config);
     replication = (short) config.getInt(DFSConfigKeys.DFS_REPLICATION_KEY,
         DFSConfigKeys.DFS_REPLICATION_DEFAULT);
@@ -211,6 +215,17 @@ private void clearDirectory(String writeDumpDir) throws IOException {
     }
   }
   
+  /**
+   * Get the attributes of a file or directory, possibly from the attribute
+   * cache. Unlike {@link WriteManager#getFileAttr}, the size of a file being
+   * written is not adjusted.
+   */
+  private Nfs3FileAttributes getCachedFileAttr(DFSClient dfsClient,
+      long fileId) throws IOException {
+    HdfsFileStatus fs = attrCache.getFileStatus(dfsClient, fileId);
+    return fs == null ? null : Nfs3Utils.getNfs3FileAttrFromFileStatus(fs, iug);
+  }
+
   @Override
   public void startDaemons() {
      writeManager.startAsyncDataSerivce();
@@ -363,7 +378,11 @@ public SETATTR3Response setattr(XDR xdr, SecurityHandler securityHandler,
             preOpWcc, preOpAttr));
       }
 
-      setattrInternal(dfsClient, fileIdPath, request.getAttr(), true);
+      try {
+        setattrInternal(dfsClient, fileIdPath, request.getAttr(), true);
+      } finally {
+        attrCache.invalidate(handle.getFileId());
+      }
       Nfs3FileAttributes postOpAttr = Nfs3Utils.getFileAttr(dfsClient,
           fileIdPath, iug);
       WccData wccData = new WccData(preOpWcc, postOpAttr);
@@ -417,7 +436,6 @@ public LOOKUP3Response lookup(XDR xdr, SecurityHandler securityHandler,
     }
 
     try {
-      String dirFileIdPath = Nfs3Utils.getFileIdPath(dirHandle);
       Nfs3FileAttributes postOpObjAttr = writeManager.getFileAttr(dfsClient,
           dirHandle, fileName);
       if (postOpObjAttr == null) {
@@ -425,14 +443,14 @@ public LOOKUP3Response lookup(XDR xdr, SecurityHandler securityHandler,
           LOG.debug("NFS LOOKUP fileId: " + dirHandle.getFileId() + " name:"
               + fileName + " does not exist");
         }
-        Nfs3FileAttributes postOpDirAttr = Nfs3Utils.getFileAttr(dfsClient,
-            dirFileIdPath, iug);
+        Nfs3FileAttributes postOpDirAttr = getCachedFileAttr(dfsClient,
+            dirHandle.getFileId());
         return new LOOKUP3Response(Nfs3Status.NFS3ERR_NOENT, null, null,
             postOpDirAttr);
       }
 
-      Nfs3FileAttributes postOpDirAttr = Nfs3Utils.getFileAttr(dfsClient,
-          dirFileIdPath, iug);
+      Nfs3FileAttributes postOpDirAttr = getCachedFileAttr(dfsClient,
+          dirHandle.getFileId());
       if (postOpDirAttr == null) {
         LOG.info("Can't get path for dir fileId:" + dirHandle.getFileId());
         return new LOOKUP3Response(Nfs3Status.NFS3ERR_STALE);
@@ -648,11 +666,11 @@ public READ3Response read(XDR xdr, SecurityHandler securityHandler,
        * Retry exactly once because the DFSInputStream can be stale.
        */
       for (int i = 0; i < 1; ++i) {
-        FSDataInputStream fis = clientCache.getDfsInputStream(userName,
+        ReadAheadStream fis = clientCache.getDfsInputStream(userName,
             Nfs3Utils.getFileIdPath(handle));
 
         try {
-          readCount = fis.read(offset, readbuffer, 0, count);
+          readCount = fis.read(offset, readbuffer, 0, buffSize);
         } catch (IOException e) {
           // TODO: A cleaner way is to throw a new type of exception
           // which requires incompatible changes.
@@ -666,8 +684,17 @@ public READ3Response read(XDR xdr, SecurityHandler securityHandler,
         }
       }
 
-      attrs = Nfs3Utils.getFileAttr(dfsClient, Nfs3Utils.getFileIdPath(handle),
-          iug);
+      attrs = getCachedFileAttr(dfsClient, handle.getFileId());
+      if (attrs != null && offset + readCount >= attrs.getSize()) {
+        // The cached size says this is the end of the file. Make sure the
+        // file has not grown before telling the client so.
+        attrCache.invalidate(handle.getFileId());
+        attrs = getCachedFileAttr(dfsClient, handle.getFileId());
+      }
+      if (attrs == null) {
+        LOG.info("Can't get path for fileId:" + handle.getFileId());
+        return new READ3Response(Nfs3Status.NFS3ERR_STALE);
+      }
       if (readCount < count) {
         LOG.info("Partical read. Asked offset:" + offset + " count:" + count
             + " and read back:" + readCount + "file size:" + attrs.getSize());
@@ -743,6 +770,7 @@ public WRITE3Response write(XDR xdr, Channel channel, int xid,
       }
 
       writeManager.handleWrite(dfsClient, request, channel, xid, preOpAttr);
+      attrCache.invalidate(handle.getFileId());
 
     } catch (IOException e) {
       LOG.info("Error writing to fileId " + handle.getFileId() + " at offset "
@@ -831,6 +859,7 @@ preOpDirAttr, new WccData(Nfs3Utils.getWccAttr(preOpDirAttr),
       fos = new HdfsDataOutputStream(dfsClient.create(fileIdPath, permission,
           flag, false, replication, blockSize, null, bufferSize, null),
           statistics);
+      attrCache.invalidate(dirHandle.getFileId());
       
       if ((createMode == Nfs3Constant.CREATE_UNCHECKED)
           || (createMode == Nfs3Constant.CREATE_GUARDED)) {
@@ -944,7 +973,9 @@ public MKDIR3Response mkdir(XDR xdr, SecurityHandler securityHandler,
           SetAttrField.MODE) ? new FsPermission((short) setAttr3.getMode())
           : FsPermission.getDefault().applyUMask(umask);
 
-      if (!dfsClient.mkdirs(fileIdPath, permission, false)) {
+      boolean created = dfsClient.mkdirs(fileIdPath, permission, false);
+      attrCache.invalidate(dirHandle.getFileId());
+      if (!created) {
         WccData dirWcc = Nfs3Utils.createWccData(
             Nfs3Utils.getWccAttr(preOpDirAttr), dfsClient, dirFileIdPath, iug);
         return new MKDIR3Response(Nfs3Status.NFS3ERR_IO, null, null, dirWcc);
@@ -1038,6 +1069,8 @@ public REMOVE3Response remove(XDR xdr,
       }
 
       boolean result = dfsClient.delete(fileIdPath, false);
+      attrCache.invalidate(dirHandle.getFileId());
+      attrCache.invalidate(fstat.getFileId());
       WccData dirWcc = Nfs3Utils.createWccData(
           Nfs3Utils.getWccAttr(preOpDirAttr), dfsClient, dirFileIdPath, iug);
 
@@ -1120,6 +1153,8 @@ public RMDIR3Response rmdir(XDR xdr, SecurityHandler securityHandler,
       }
 
       boolean result = dfsClient.delete(fileIdPath, false);
+      attrCache.invalidate(dirHandle.getFileId());
+      attrCache.invalidate(fstat.getFileId());
       WccData dirWcc = Nfs3Utils.createWccData(
           Nfs3Utils.getWccAttr(preOpDirAttr), dfsClient, dirFileIdPath, iug);
       if (!result) {
@@ -1206,6 +1241,8 @@ public RENAME3Response rename(XDR xdr, SecurityHandler securityHandler,
       String dst = toDirFileIdPath + "/" + toName;
 
       dfsClient.rename(src, dst, Options.Rename.NONE);
+      attrCache.invalidate(fromHandle.getFileId());
+      attrCache.invalidate(toHandle.getFileId());
 
       // Assemble the reply
       fromDirWcc = Nfs3Utils.createWccData(Nfs3Utils.getWccAttr(fromPreOpAttr),
@@ -1276,6 +1313,7 @@ public SYMLINK3Response symlink(XDR xdr, SecurityHandler securityHandler,
       dirWcc.setPreOpAttr(preOpAttr);
 
       dfsClient.createSymlink(symData, linkIdPath, false);
+      attrCache.invalidate(dirHandle.getFileId());
       // Set symlink attr is considered as to change the attr of the target
       // file. So no need to set symlink attr here after it's created.
 
@@ -1409,6 +1447,8 @@ public READDIR3Response readdir(XDR xdr, SecurityHandler securityHandler,
       }
       
       dlisting = listPaths(dfsClient, dirFileIdPath, startAfter);
+      attrCache.putListing(dfsClient, handle.getFileId(),
+          dlisting.getPartialListing());
       postOpAttr = Nfs3Utils.getFileAttr(dfsClient, dirFileIdPath, iug);
       if (postOpAttr == null) {
         LOG.error("Can't get path for fileId:" + handle.getFileId());
@@ -1551,6 +1591,8 @@ public READDIRPLUS3Response readdirplus(XDR xdr,
       }
       
       dlisting = listPaths(dfsClient, dirFileIdPath, startAfter);
+      attrCache.putListing(dfsClient, handle.getFileId(),
+          dlisting.getPartialListing());
       postOpDirAttr = Nfs3Utils.getFileAttr(dfsClient, dirFileIdPath, iug);
       if (postOpDirAttr == null) {
         LOG.info("Can't get path for fileId:" + handle.getFileId());
@@ -1820,6 +1862,7 @@ public COMMIT3Response commit(XDR xdr, Channel channel, int xid,
       // Insert commit as an async request
       writeManager.handleCommit(dfsClient, handle, commitOffset, channel, xid,
           preOpAttr);
+      attrCache.invalidate(handle.getFileId());
       return null;
     } catch (IOException e) {
       LOG.warn("Exception ", e);
@@ -1851,9 +1894,7 @@ public void handleInternal(ChannelHandlerContext ctx, RpcInfo info) {
     RpcCall rpcCall = (RpcCall) info.header();
     final NFSPROC3 nfsproc3 = NFSPROC3.fromValue(rpcCall.getProcedure());
     int xid = rpcCall.getXid();
-    byte[] data = new byte[info.data().readableBytes()];
-    info.data().readBytes(data);
-    XDR xdr = new XDR(data);
+    XDR xdr = new XDR(info.data());
     XDR out = new XDR();
     InetAddress client = ((InetSocketAddress) info.remoteAddress())
         .getAddress();
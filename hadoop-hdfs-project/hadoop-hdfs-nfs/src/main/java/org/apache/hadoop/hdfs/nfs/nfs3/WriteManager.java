@@ -27,6 +27,7 @@
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.nfs.nfs3.OpenFileCtx.COMMIT_STATUS;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.nfs.NfsFileType;
 import org.apache.hadoop.nfs.nfs3.FileHandle;
@@ -66,6 +67,10 @@ public class WriteManager {
 
   private final OpenFileCtxCache fileContextCache;
 
+  private final FileStatusCache attrCache;
+
+  private final NonSequentialWriteBudget writeBudget;
+
   static public class MultipleCachedStreamException extends IOException {
     private static final long serialVersionUID = 1L;
 
@@ -79,8 +84,14 @@ boolean addOpenFileStream(FileHandle h, OpenFileCtx ctx) {
   }
   
   WriteManager(IdUserGroup iug, final Configuration config) {
+    this(iug, config, new FileStatusCache(config, new Nfs3Metrics()));
+  }
+
+  WriteManager(IdUserGroup iug, final Configuration config,
+      FileStatusCache attrCache) {
     this.iug = iug;
     this.config = config;
+    this.attrCache = attrCache;
     streamTimeout = config.getLong(Nfs3Constant.OUTPUT_STREAM_TIMEOUT,
         Nfs3Constant.OUTPUT_STREAM_TIMEOUT_DEFAULT);
     LOG.info("Stream timeout is " + streamTimeout + "ms.");
@@ -92,6 +103,11 @@ boolean addOpenFileStream(FileHandle h, OpenFileCtx ctx) {
     maxStreams = config.getInt(Nfs3Constant.MAX_OPEN_FILES,
         Nfs3Constant.MAX_OPEN_FILES_DEFAULT);
     LOG.info("Maximum open streams is "+ maxStreams);
+    long maxWriteMemory = config.getLong(
+        Nfs3Constant.MAX_NONSEQUENTIAL_WRITE_MEMORY,
+        Nfs3Constant.MAX_NONSEQUENTIAL_WRITE_MEMORY_DEFAULT);
+    LOG.info("Maximum memory for non-sequential writes is " + maxWriteMemory);
+    this.writeBudget = new NonSequentialWriteBudget(maxWriteMemory);
     this.fileContextCache = new OpenFileCtxCache(config, streamTimeout);
   }
 
@@ -174,7 +190,7 @@ void handleWrite(DFSClient dfsClient, WRITE3Request request, Channel channel,
       String writeDumpDir = config.get(Nfs3Constant.FILE_DUMP_DIR_KEY,
           Nfs3Constant.FILE_DUMP_DIR_DEFAULT);
       openFileCtx = new OpenFileCtx(fos, latestAttr, writeDumpDir + "/"
-          + fileHandle.getFileId(), dfsClient, iug);
+          + fileHandle.getFileId(), dfsClient, iug, writeBudget);
 
       if (!addOpenFileStream(fileHandle, openFileCtx)) {
         LOG.info("Can't add new stream. Close it. Tell client to retry.");
@@ -298,32 +314,44 @@ void handleCommit(DFSClient dfsClient, FileHandle fileHandle,
   }
 
   /**
-   * If the file is in cache, update the size based on the cached data size
+   * If the file is in cache, update the size based on the cached data size.
+   * Otherwise the attributes may come from the attribute cache.
    */
   Nfs3FileAttributes getFileAttr(DFSClient client, FileHandle fileHandle,
       IdUserGroup iug) throws IOException {
+    OpenFileCtx openFileCtx = fileContextCache.get(fileHandle);
+    if (openFileCtx == null) {
+      HdfsFileStatus fs = attrCache.getFileStatus(client,
+          fileHandle.getFileId());
+      return fs == null ? null : Nfs3Utils.getNfs3FileAttrFromFileStatus(fs,
+          iug);
+    }
+    // The file is being written, so its status keeps changing. Don't cache
+    // it, the cached copy would be stale once the stream is closed.
     String fileIdPath = Nfs3Utils.getFileIdPath(fileHandle);
     Nfs3FileAttributes attr = Nfs3Utils.getFileAttr(client, fileIdPath, iug);
     if (attr != null) {
-      OpenFileCtx openFileCtx = fileContextCache.get(fileHandle);
-      if (openFileCtx != null) {
-        attr.setSize(openFileCtx.getNextOffset());
-        attr.setUsed(openFileCtx.getNextOffset());
-      }
+      attr.setSize(openFileCtx.getNextOffset());
+      attr.setUsed(openFileCtx.getNextOffset());
     }
     return attr;
   }
 
   Nfs3FileAttributes getFileAttr(DFSClient client, FileHandle dirHandle,
       String fileName) throws IOException {
-    String fileIdPath = Nfs3Utils.getFileIdPath(dirHandle) + "/" + fileName;
-    Nfs3FileAttributes attr = Nfs3Utils.getFileAttr(client, fileIdPath, iug);
+    HdfsFileStatus fs = attrCache.lookup(client, dirHandle.getFileId(),
+        fileName);
+    if (fs == null) {
+      return null;
+    }
+    Nfs3FileAttributes attr = Nfs3Utils.getNfs3FileAttrFromFileStatus(fs, iug);
 
-    if ((attr != null) && (attr.getType() == NfsFileType.NFSREG.toValue())) {
+    if (attr.getType() == NfsFileType.NFSREG.toValue()) {
       OpenFileCtx openFileCtx = fileContextCache.get(new FileHandle(attr
           .getFileId()));
 
       if (openFileCtx != null) {
+        attrCache.invalidate(attr.getFileId());
         attr.setSize(openFileCtx.getNextOffset());
         attr.setUsed(openFileCtx.getNextOffset());
       }
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.nfs.nfs3.Nfs3;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.nfs.nfs3.FileHandle;
+import org.apache.hadoop.nfs.nfs3.IdUserGroup;
+import org.apache.hadoop.nfs.nfs3.Nfs3Constant;
+import org.apache.hadoop.nfs.nfs3.Nfs3Constant.WriteStableHow;
+import org.apache.hadoop.nfs.nfs3.Nfs3Status;
+import org.apache.hadoop.nfs.nfs3.request.READ3Request;
+import org.apache.hadoop.nfs.nfs3.request.WRITE3Request;
+import org.apache.hadoop.oncrpc.RpcCall;
+import org.apache.hadoop.oncrpc.RpcReply;
+import org.apache.hadoop.oncrpc.XDR;
+import org.apache.hadoop.oncrpc.security.CredentialsSys;
+import org.apache.hadoop.oncrpc.security.VerifierNone;
+import org.apache.hadoop.security.authorize.ProxyUsers;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * This class benchmarks NFS READ and WRITE through the gateway over the
+ * loopback interface. It starts a MiniDFSCluster and an NFS gateway, writes a
+ * file with sequential WRITE calls and reads it back with READ calls, one call
+ * at a time over a single TCP connection, and prints the throughput of both.
+ * Since the client side only frames and parses the RPC messages, the numbers
+ * are mostly decided by the gateway's RPC and XDR handling.
+ */
+public class BenchmarkNfsReadWrite extends Configured implements Tool {
+  private static final String FILE_NAME = "/benchmarkNfsReadWrite";
+
+  private Socket socket;
+  private DataInputStream in;
+  private OutputStream out;
+  private CredentialsSys credentials;
+  private int xid = 1;
+
+  /** Send an NFS call and return its reply, positioned after the status */
+  private XDR call(int procedure, XDR request) throws IOException {
+    XDR call = new XDR(request.size() + 128);
+    RpcCall.getInstance(xid++, Nfs3Constant.PROGRAM, Nfs3Constant.VERSION,
+        procedure, credentials, new VerifierNone()).write(call);
+    ByteBuffer body = request.asReadOnlyWrap().buffer();
+    byte[] b = new byte[body.remaining()];
+    body.get(b);
+    call.writeFixedOpaque(b);
+    ByteBuffer message = XDR.writeMessageTcp(call, true).toByteBuffer();
+    out.write(message.array(), message.arrayOffset() + message.position(),
+        message.remaining());
+    out.flush();
+
+    // Read all the fragments of the reply
+    XDR reply = new XDR();
+    boolean last = false;
+    while (!last) {
+      byte[] mark = new byte[4];
+      in.readFully(mark);
+      byte[] fragment = new byte[XDR.fragmentSize(mark)];
+      in.readFully(fragment);
+      reply.writeFixedOpaque(fragment);
+      last = XDR.isLastFragment(mark);
+    }
+    XDR rsp = reply.asReadOnlyWrap();
+    RpcReply.read(rsp);
+    int status = rsp.readInt();
+    if (status != Nfs3Status.NFS3_OK) {
+      throw new IOException("NFS call " + procedure + " failed with status "
+          + status);
+    }
+    return rsp;
+  }
+
+  private long write(FileHandle handle, long fileSize, int chunkSize)
+      throws IOException {
+    byte[] data = new byte[chunkSize];
+    long start = Time.monotonicNow();
+    for (long offset = 0; offset < fileSize; offset += chunkSize) {
+      WriteStableHow stableHow = offset + chunkSize < fileSize ?
+          WriteStableHow.UNSTABLE : WriteStableHow.FILE_SYNC;
+      XDR request = new XDR(chunkSize + 64);
+      new WRITE3Request(handle, offset, chunkSize, stableHow,
+          ByteBuffer.wrap(data)).serialize(request);
+      call(Nfs3Constant.NFSPROC3.WRITE.getValue(), request);
+    }
+    return Time.monotonicNow() - start;
+  }
+
+  private long read(FileHandle handle, long fileSize, int chunkSize)
+      throws IOException {
+    long start = Time.monotonicNow();
+    for (long offset = 0; offset < fileSize; offset += chunkSize) {
+      XDR request = new XDR();
+      new READ3Request(handle, offset, chunkSize).serialize(request);
+      call(Nfs3Constant.NFSPROC3.READ.getValue(), request);
+    }
+    return Time.monotonicNow() - start;
+  }
+
+  private static void printThroughput(String op, long bytes, long millis) {
+    System.out.println(String.format("%s: %d MB in %d ms, %.2f MB/s", op,
+        bytes >> 20, millis, (bytes / 1048576.0) / (millis / 1000.0)));
+  }
+
+  private static int getFreePort() throws IOException {
+    ServerSocket s = new ServerSocket(0);
+    try {
+      return s.getLocalPort();
+    } finally {
+      s.close();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: BenchmarkNfsReadWrite <file size in MB> "
+          + "<chunk size in KB>");
+      return 1;
+    }
+    long fileSize = Long.parseLong(args[0]) << 20;
+    int chunkSize = Integer.parseInt(args[1]) << 10;
+
+    HdfsConfiguration config = new HdfsConfiguration();
+    String user = System.getProperty("user.name");
+    config.set(ProxyUsers.getProxySuperuserGroupConfKey(user), "*");
+    config.set(ProxyUsers.getProxySuperuserIpConfKey(user), "*");
+    ProxyUsers.refreshSuperUserGroupsConfiguration(config);
+    int port = getFreePort();
+    config.setInt("nfs3.mountd.port", 0);
+    config.setInt("nfs3.server.port", port);
+
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(config)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      FSDataOutputStream create = fs.create(new Path(FILE_NAME));
+      create.close();
+      HdfsFileStatus status = cluster.getFileSystem().getClient()
+          .getFileInfo(FILE_NAME);
+      FileHandle handle = new FileHandle(status.getFileId());
+
+      Nfs3 nfs3 = new Nfs3(config);
+      nfs3.startServiceInternal(false);
+
+      IdUserGroup iug = new IdUserGroup();
+      credentials = new CredentialsSys();
+      credentials.setUID(iug.getUidAllowingUnknown(user));
+      credentials.setGID(iug.getGidAllowingUnknown(user));
+      socket = new Socket();
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress("localhost", port));
+      in = new DataInputStream(socket.getInputStream());
+      out = socket.getOutputStream();
+      try {
+        printThroughput("WRITE", fileSize, write(handle, fileSize, chunkSize));
+        printThroughput("READ", fileSize, read(handle, fileSize, chunkSize));
+      } finally {
+        socket.close();
+      }
+    } finally {
+      cluster.shutdown();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new BenchmarkNfsReadWrite(), args));
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs.nfs3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.nfs.nfs3.Nfs3Constant;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestFileStatusCache {
+  private static final long DIR_ID = 1000;
+  private static final long FILE_ID = 1001;
+  private static final long OTHER_DIR_ID = 1100;
+
+  private static HdfsFileStatus status(long fileId, String name, long len) {
+    return new HdfsFileStatus(len, false, 1, 1024, 0, 0,
+        FsPermission.getDefault(), "user", "group", null,
+        DFSUtil.string2Bytes(name), fileId, 0);
+  }
+
+  private static DFSClient mockClient(String clientName) throws IOException {
+    DFSClient client = Mockito.mock(DFSClient.class);
+    Mockito.when(client.getClientName()).thenReturn(clientName);
+    Mockito.when(client.getFileLinkInfo(Nfs3Utils.getFileIdPath(FILE_ID)))
+        .thenReturn(status(FILE_ID, "", 10));
+    Mockito.when(client.getFileLinkInfo(
+        Nfs3Utils.getFileIdPath(DIR_ID) + "/file"))
+        .thenReturn(status(FILE_ID, "", 10));
+    return client;
+  }
+
+  @Test
+  public void testGetFileStatus() throws IOException {
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    FileStatusCache cache = new FileStatusCache(new Configuration(), metrics);
+    DFSClient client = mockClient("client1");
+    String path = Nfs3Utils.getFileIdPath(FILE_ID);
+
+    assertEquals(FILE_ID, cache.getFileStatus(client, FILE_ID).getFileId());
+    assertEquals(FILE_ID, cache.getFileStatus(client, FILE_ID).getFileId());
+    Mockito.verify(client, Mockito.times(1)).getFileLinkInfo(path);
+    assertEquals(1, metrics.getAttrCacheHits());
+    assertEquals(1, metrics.getAttrCacheMisses());
+
+    // Entries are kept per user.
+    DFSClient client2 = mockClient("client2");
+    cache.getFileStatus(client2, FILE_ID);
+    Mockito.verify(client2, Mockito.times(1)).getFileLinkInfo(path);
+
+    // Invalidation drops the entries of all users.
+    cache.invalidate(FILE_ID);
+    cache.getFileStatus(client, FILE_ID);
+    cache.getFileStatus(client2, FILE_ID);
+    Mockito.verify(client, Mockito.times(2)).getFileLinkInfo(path);
+    Mockito.verify(client2, Mockito.times(2)).getFileLinkInfo(path);
+
+    // Missing files are not cached.
+    assertNull(cache.getFileStatus(client, 2000));
+    assertNull(cache.getFileStatus(client, 2000));
+    Mockito.verify(client, Mockito.times(2)).getFileLinkInfo(
+        Nfs3Utils.getFileIdPath(2000));
+  }
+
+  @Test
+  public void testLookup() throws IOException {
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    FileStatusCache cache = new FileStatusCache(new Configuration(), metrics);
+    DFSClient client = mockClient("client1");
+    String path = Nfs3Utils.getFileIdPath(DIR_ID) + "/file";
+
+    assertEquals(FILE_ID, cache.lookup(client, DIR_ID, "file").getFileId());
+    assertEquals(FILE_ID, cache.lookup(client, DIR_ID, "file").getFileId());
+    Mockito.verify(client, Mockito.times(1)).getFileLinkInfo(path);
+    assertEquals(1, metrics.getLookupCacheHits());
+    assertEquals(1, metrics.getLookupCacheMisses());
+    // The lookup also cached the status of the file itself.
+    cache.getFileStatus(client, FILE_ID);
+    Mockito.verify(client, Mockito.never()).getFileLinkInfo(
+        Nfs3Utils.getFileIdPath(FILE_ID));
+
+    // Changing the directory drops its lookups.
+    cache.invalidate(DIR_ID);
+    cache.lookup(client, DIR_ID, "file");
+    Mockito.verify(client, Mockito.times(2)).getFileLinkInfo(path);
+
+    // Entries of a directory listing can be looked up without the NameNode.
+    DFSClient client2 = mockClient("client2");
+    cache.putListing(client2, DIR_ID, new HdfsFileStatus[] {
+        status(FILE_ID, "file", 10), status(1002, "other", 20) });
+    assertEquals(1002, cache.lookup(client2, DIR_ID, "other").getFileId());
+    assertEquals(20, cache.getFileStatus(client2, 1002).getLen());
+    Mockito.verify(client2, Mockito.never()).getFileLinkInfo(
+        Mockito.anyString());
+  }
+
+  @Test
+  public void testDisabled() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setLong(Nfs3Constant.ATTR_CACHE_TTL, 0);
+    FileStatusCache cache = new FileStatusCache(conf, new Nfs3Metrics());
+    DFSClient client = mockClient("client1");
+    cache.getFileStatus(client, FILE_ID);
+    cache.getFileStatus(client, FILE_ID);
+    Mockito.verify(client, Mockito.times(2)).getFileLinkInfo(
+        Nfs3Utils.getFileIdPath(FILE_ID));
+  }
+
+  @Test
+  public void testLimits() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(Nfs3Constant.ATTR_CACHE_SIZE, 5);
+    conf.setInt(Nfs3Constant.ATTR_CACHE_DIR_SIZE, 3);
+    FileStatusCache cache = new FileStatusCache(conf, new Nfs3Metrics());
+    DFSClient client = mockClient("client1");
+    HdfsFileStatus[] listing = new HdfsFileStatus[10];
+    for (int i = 0; i < listing.length; i++) {
+      listing[i] = status(2000 + i, "f" + i, 0);
+    }
+
+    // Only the first names of a large listing are cached.
+    cache.putListing(client, DIR_ID, listing);
+    assertEquals(3, cache.getCachedNames());
+    assertEquals(2002, cache.lookup(client, DIR_ID, "f2").getFileId());
+    assertNull(cache.lookup(client, DIR_ID, "f3"));
+    Mockito.verify(client).getFileLinkInfo(
+        Nfs3Utils.getFileIdPath(DIR_ID) + "/f3");
+
+    // The names of all directories together are bounded too.
+    cache.putListing(client, OTHER_DIR_ID, listing);
+    assertEquals(5, cache.getCachedNames());
+    assertNull(cache.lookup(client, OTHER_DIR_ID, "f2"));
+
+    // Dropping a directory makes room for others.
+    cache.invalidate(DIR_ID);
+    assertEquals(2, cache.getCachedNames());
+    cache.putListing(client, OTHER_DIR_ID, listing);
+    assertEquals(3, cache.getCachedNames());
+    assertEquals(2002, cache.lookup(client, OTHER_DIR_ID, "f2").getFileId());
+  }
+}
@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.nfs.nfs3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestReadAheadStream {
+  private static final int FILE_SIZE = 1000;
+  private static final byte[] DATA = new byte[FILE_SIZE];
+  static {
+    for (int i = 0; i < DATA.length; i++) {
+      DATA[i] = (byte) i;
+    }
+  }
+
+  /** A stream whose positional reads return DATA. */
+  private static FSDataInputStream mockStream() throws IOException {
+    FSDataInputStream in = Mockito.mock(FSDataInputStream.class);
+    Mockito.when(in.read(Mockito.anyLong(), Mockito.any(byte[].class),
+        Mockito.anyInt(), Mockito.anyInt())).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        long pos = (Long) args[0];
+        byte[] b = (byte[]) args[1];
+        int off = (Integer) args[2];
+        int len = (Integer) args[3];
+        if (pos >= FILE_SIZE) {
+          return -1;
+        }
+        int n = (int) Math.min(len, FILE_SIZE - pos);
+        System.arraycopy(DATA, (int) pos, b, off, n);
+        return n;
+      }
+    });
+    return in;
+  }
+
+  private static void checkRead(ReadAheadStream stream, long offset,
+      int length, int expected) throws IOException {
+    byte[] b = new byte[length];
+    assertEquals(expected, stream.read(offset, b, 0, length));
+    assertArrayEquals(Arrays.copyOfRange(DATA, (int) offset,
+        (int) offset + expected), Arrays.copyOf(b, expected));
+  }
+
+  @Test
+  public void testSequentialRead() throws IOException {
+    FSDataInputStream in = mockStream();
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    ReadAheadStream stream = new ReadAheadStream(in, 400,
+        new ReadAheadStream.Budget(1000), metrics);
+
+    // The first read fills the buffer, the next three are served from it.
+    for (int offset = 0; offset < 400; offset += 100) {
+      checkRead(stream, offset, 100, 100);
+    }
+    Mockito.verify(in, Mockito.times(1)).read(Mockito.anyLong(),
+        Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+    assertEquals(3, metrics.getReadAheadHits());
+    assertEquals(1, metrics.getReadAheadMisses());
+
+    // Continue up to the end of the file.
+    for (int offset = 400; offset < FILE_SIZE; offset += 100) {
+      checkRead(stream, offset, 100, 100);
+    }
+    checkRead(stream, 950, 100, 50);
+    assertEquals(-1, stream.read(FILE_SIZE, new byte[100], 0, 100));
+  }
+
+  @Test
+  public void testRandomRead() throws IOException {
+    FSDataInputStream in = mockStream();
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    ReadAheadStream stream = new ReadAheadStream(in, 400,
+        new ReadAheadStream.Budget(1000), metrics);
+
+    // Reads which don't follow the previous one go straight to the stream.
+    checkRead(stream, 500, 100, 100);
+    checkRead(stream, 200, 100, 100);
+    Mockito.verify(in).read(Mockito.eq(500L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(100));
+    Mockito.verify(in).read(Mockito.eq(200L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(100));
+
+    // A sequential read after that starts read-ahead.
+    checkRead(stream, 300, 100, 100);
+    checkRead(stream, 400, 100, 100);
+    Mockito.verify(in).read(Mockito.eq(300L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(400));
+    assertEquals(1, metrics.getReadAheadHits());
+  }
+
+  @Test
+  public void testReorderedRead() throws IOException {
+    FSDataInputStream in = mockStream();
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    ReadAheadStream stream = new ReadAheadStream(in, 400,
+        new ReadAheadStream.Budget(1000), metrics);
+
+    for (int offset = 0; offset < 400; offset += 50) {
+      checkRead(stream, offset, 50, 50);
+    }
+    // The READ for 450 overtakes the one for 400. It still counts as
+    // sequential and refills the buffer, and the late READ for 400 keeps it.
+    checkRead(stream, 450, 50, 50);
+    checkRead(stream, 400, 50, 50);
+    Mockito.verify(in).read(Mockito.eq(450L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(400));
+    Mockito.verify(in).read(Mockito.eq(400L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(50));
+    checkRead(stream, 500, 50, 50);
+    checkRead(stream, 550, 50, 50);
+    assertEquals(9, metrics.getReadAheadHits());
+    assertEquals(3, metrics.getReadAheadMisses());
+    stream.close();
+  }
+
+  /** Serves DATA, holding reads of offset 500 until released. */
+  private static class BlockingStream extends InputStream
+      implements Seekable, PositionedReadable {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int length)
+        throws IOException {
+      if (position == 500) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      int n = (int) Math.min(length, FILE_SIZE - position);
+      System.arraycopy(DATA, (int) position, buffer, offset, n);
+      return n;
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset,
+        int length) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int read() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+      return 0;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) throws IOException {
+      return false;
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testMissesDoNotHoldLock() throws Exception {
+    BlockingStream in = new BlockingStream();
+    final ReadAheadStream stream = new ReadAheadStream(
+        new FSDataInputStream(in), 400, new ReadAheadStream.Budget(1000),
+        new Nfs3Metrics());
+
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          checkRead(stream, 500, 100, 100);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    reader.start();
+    in.started.await();
+    // The READ for 500 is stuck in HDFS. Others still go through.
+    checkRead(stream, 800, 100, 100);
+    checkRead(stream, 0, 100, 100);
+    in.release.countDown();
+    reader.join();
+    stream.close();
+  }
+
+  @Test
+  public void testMemoryBudget() throws IOException {
+    Nfs3Metrics metrics = new Nfs3Metrics();
+    ReadAheadStream.Budget budget = new ReadAheadStream.Budget(600);
+    FSDataInputStream in1 = mockStream();
+    FSDataInputStream in2 = mockStream();
+    ReadAheadStream stream1 = new ReadAheadStream(in1, 400, budget, metrics);
+    ReadAheadStream stream2 = new ReadAheadStream(in2, 400, budget, metrics);
+
+    // The first stream takes a buffer, which leaves too little for the
+    // second one, so that one reads straight from HDFS.
+    checkRead(stream1, 0, 100, 100);
+    assertEquals(400, budget.getUsed());
+    checkRead(stream2, 0, 100, 100);
+    checkRead(stream2, 100, 100, 100);
+    Mockito.verify(in2).read(Mockito.eq(0L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(100));
+    Mockito.verify(in2).read(Mockito.eq(100L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(100));
+    assertEquals(400, budget.getUsed());
+
+    // A random read gives the buffer back, and the second stream can use it.
+    checkRead(stream1, 700, 100, 100);
+    assertEquals(0, budget.getUsed());
+    checkRead(stream2, 200, 100, 100);
+    checkRead(stream2, 300, 100, 100);
+    Mockito.verify(in2).read(Mockito.eq(200L), Mockito.any(byte[].class),
+        Mockito.eq(0), Mockito.eq(400));
+    assertEquals(400, budget.getUsed());
+
+    // So does closing the stream.
+    stream2.close();
+    assertEquals(0, budget.getUsed());
+    stream1.close();
+  }
+}
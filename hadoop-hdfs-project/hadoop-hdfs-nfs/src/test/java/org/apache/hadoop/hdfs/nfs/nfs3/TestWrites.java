@@ -26,6 +26,7 @@
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSClient;
@@ -55,6 +56,8 @@
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class TestWrites {
   @Test
@@ -381,4 +384,114 @@ public void testWriteStableHow() throws IOException, InterruptedException {
       }
     }
   }
+
+  @Test
+  // Out-of-order writes of all the open files share one memory limit. Without
+  // a dump file, the writes over the limit are refused.
+  public void testNonSequentialWriteBudget() throws IOException {
+    DFSClient dfsClient = Mockito.mock(DFSClient.class);
+    Nfs3FileAttributes attr = new Nfs3FileAttributes();
+    HdfsDataOutputStream fos = Mockito.mock(HdfsDataOutputStream.class);
+    Mockito.when(fos.getPos()).thenReturn((long) 0);
+    IdUserGroup iug = new IdUserGroup();
+    NonSequentialWriteBudget budget = new NonSequentialWriteBudget(10);
+
+    OpenFileCtx ctx1 = new OpenFileCtx(fos, attr, null, dfsClient, iug,
+        budget);
+    OpenFileCtx ctx2 = new OpenFileCtx(fos, attr, null, dfsClient, iug,
+        budget);
+    FileHandle handle = new FileHandle(1);
+
+    ctx1.receivedNewWrite(dfsClient, new WRITE3Request(handle, 10, 8,
+        WriteStableHow.UNSTABLE, ByteBuffer.wrap(new byte[8])), null, 1,
+        null, iug);
+    assertEquals(8, budget.getUsed());
+    ctx2.receivedNewWrite(dfsClient, new WRITE3Request(handle, 10, 8,
+        WriteStableHow.UNSTABLE, ByteBuffer.wrap(new byte[8])), null, 2,
+        null, iug);
+    assertEquals(16, budget.getUsed());
+
+    // The limit is reached, the next out-of-order write is refused
+    ctx1.receivedNewWrite(dfsClient, new WRITE3Request(handle, 30, 8,
+        WriteStableHow.UNSTABLE, ByteBuffer.wrap(new byte[8])), null, 3,
+        null, iug);
+    assertEquals(16, budget.getUsed());
+    assertEquals(1, ctx1.getPendingWritesForTest().size());
+
+    // The memory is given back when the files are closed
+    ctx1.cleanup();
+    assertEquals(8, budget.getUsed());
+    ctx2.cleanup();
+    assertEquals(0, budget.getUsed());
+  }
+
+  @Test
+  // Writes arriving in any order from several threads are all written back
+  // to the stream in order.
+  public void testConcurrentOutOfOrderWrites() throws Exception {
+    DFSClient dfsClient = Mockito.mock(DFSClient.class);
+    Nfs3FileAttributes attr = new Nfs3FileAttributes();
+    HdfsDataOutputStream fos = Mockito.mock(HdfsDataOutputStream.class);
+    final AtomicLong pos = new AtomicLong(0);
+    Mockito.when(fos.getPos()).thenAnswer(new Answer<Long>() {
+      @Override
+      public Long answer(InvocationOnMock invocation) {
+        return pos.get();
+      }
+    });
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        pos.addAndGet((Integer) invocation.getArguments()[2]);
+        return null;
+      }
+    }).when(fos).write(Mockito.any(byte[].class), Mockito.anyInt(),
+        Mockito.anyInt());
+    final IdUserGroup iug = new IdUserGroup();
+    final NonSequentialWriteBudget budget = new NonSequentialWriteBudget(
+        Long.MAX_VALUE);
+    final OpenFileCtx ctx = new OpenFileCtx(fos, attr, null, dfsClient, iug,
+        budget);
+    final AsyncDataService asyncDataService = new AsyncDataService();
+    final DFSClient client = dfsClient;
+
+    final int numThreads = 4;
+    final int writesPerThread = 100;
+    final int count = 10;
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          // Each thread sends its writes with the larger offsets first
+          for (int i = writesPerThread - 1; i >= 0; i--) {
+            long offset = ((long) i * numThreads + id) * count;
+            WRITE3Request request = new WRITE3Request(new FileHandle(1),
+                offset, count, WriteStableHow.UNSTABLE,
+                ByteBuffer.wrap(new byte[count]));
+            ctx.receivedNewWrite(client, request, null, (int) offset,
+                asyncDataService, iug);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    long total = (long) numThreads * writesPerThread * count;
+    try {
+      for (int i = 0; i < 100 && ctx.getNextOffsetForTest() < total; i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(total, ctx.getNextOffsetForTest());
+      assertEquals(total, pos.get());
+      assertTrue(ctx.getPendingWritesForTest().isEmpty());
+      assertEquals(0, budget.getUsed());
+    } finally {
+      asyncDataService.shutdown();
+    }
+  }
 }
@@ -18,8 +18,13 @@
 package org.apache.hadoop.hdfs;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,6 +33,9 @@
 import org.apache.hadoop.hdfs.client.ShortCircuitCache;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BoundedByteBufferPool;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 
 /**
  * ClientContext contains context information for a client.
@@ -70,6 +78,37 @@ public class ClientContext {
    */
   private final DomainSocketFactory domainSocketFactory;
 
+  /**
+   * Recycles the buffers backing DFSOutputStream packets once they have been
+   * acknowledged by the pipeline.  It keeps at most the packet windows of the
+   * output streams which are open, so that the buffers of a burst of writers
+   * are dropped once they are closed.
+   */
+  private final BoundedByteBufferPool packetBufferPool =
+      new BoundedByteBufferPool(0);
+
+  /**
+   * The total size of the packet windows of the open output streams.
+   */
+  private long packetWindowBytes = 0;
+
+  /**
+   * Recycles the segment buffers filled by parallel readahead.
+   */
+  private final ByteBufferPool readaheadBufferPool =
+      new ElasticByteBufferPool();
+
+  /**
+   * Runs the segment fetches of parallel readahead.  Threads are created on
+   * demand and exit when idle.
+   */
+  private final ThreadPoolExecutor readaheadExecutor;
+
+  /**
+   * The read latency and errors seen from each DataNode.
+   */
+  private final DatanodeLatencyTracker datanodeLatencyTracker;
+
   /**
    * True if we should use the legacy BlockReaderLocal.
    */
@@ -99,11 +138,21 @@ private ClientContext(String name, Conf conf) {
         conf.shortCircuitMmapCacheSize,
         conf.shortCircuitMmapCacheExpiryMs,
         conf.shortCircuitMmapCacheRetryTimeout,
-        conf.shortCircuitCacheStaleThresholdMs);
+        conf.shortCircuitCacheStaleThresholdMs,
+        conf.shortCircuitCacheShards);
     this.peerCache =
           new PeerCache(conf.socketCacheCapacity, conf.socketCacheExpiry);
     this.useLegacyBlockReaderLocal = conf.useLegacyBlockReaderLocal;
     this.domainSocketFactory = new DomainSocketFactory(conf);
+    int readaheadThreads = Math.max(conf.parallelReadaheadThreads, 1);
+    this.readaheadExecutor = new ThreadPoolExecutor(readaheadThreads,
+        readaheadThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("DFSClient readahead " + name + " #%d").build());
+    this.readaheadExecutor.allowCoreThreadTimeOut(true);
+    this.datanodeLatencyTracker = new DatanodeLatencyTracker(
+        conf.latencySortHalfLifeMs, conf.latencySortSlowThresholdMs);
   }
 
   public static String confAsString(Conf conf) {
@@ -120,6 +169,8 @@ public static String confAsString(Conf conf) {
       append(conf.shortCircuitMmapCacheRetryTimeout).
       append(", shortCircuitCacheStaleThresholdMs = ").
       append(conf.shortCircuitCacheStaleThresholdMs).
+      append(", shortCircuitCacheShards = ").
+      append(conf.shortCircuitCacheShards).
       append(", socketCacheCapacity = ").
       append(conf.socketCacheCapacity).
       append(", socketCacheExpiry = ").
@@ -129,7 +180,13 @@ public static String confAsString(Conf conf) {
       append(", useLegacyBlockReaderLocal = ").
       append(conf.useLegacyBlockReaderLocal).
       append(", domainSocketDataTraffic = ").
-      append(conf.domainSocketDataTraffic);
+      append(conf.domainSocketDataTraffic).
+      append(", parallelReadaheadThreads = ").
+      append(conf.parallelReadaheadThreads).
+      append(", latencySortHalfLifeMs = ").
+      append(conf.latencySortHalfLifeMs).
+      append(", latencySortSlowThresholdMs = ").
+      append(conf.latencySortSlowThresholdMs);
 
     return builder.toString();
   }
@@ -186,6 +243,45 @@ public PeerCache getPeerCache() {
     return peerCache;
   }
 
+  public ByteBufferPool getPacketBufferPool() {
+    return packetBufferPool;
+  }
+
+  /**
+   * Let the packet pool keep the packet window of an output stream which is
+   * being opened.
+   */
+  public synchronized void addPacketWindow(long bytes) {
+    packetWindowBytes += bytes;
+    packetBufferPool.setMaxBytes(packetWindowBytes);
+  }
+
+  /**
+   * Shrink the packet pool by the packet window of an output stream which
+   * was closed.
+   */
+  public synchronized void removePacketWindow(long bytes) {
+    packetWindowBytes -= bytes;
+    packetBufferPool.setMaxBytes(packetWindowBytes);
+  }
+
+  @VisibleForTesting
+  public long getPacketPoolCachedBytes() {
+    return packetBufferPool.getCachedBytes();
+  }
+
+  public ByteBufferPool getReadaheadBufferPool() {
+    return readaheadBufferPool;
+  }
+
+  public ExecutorService getReadaheadExecutor() {
+    return readaheadExecutor;
+  }
+
+  public DatanodeLatencyTracker getDatanodeLatencyTracker() {
+    return datanodeLatencyTracker;
+  }
+
   public boolean getUseLegacyBlockReaderLocal() {
     return useLegacyBlockReaderLocal;
   }
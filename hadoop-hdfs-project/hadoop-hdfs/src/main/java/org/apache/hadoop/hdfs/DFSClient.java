@@ -51,7 +51,11 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_USE_DN_HOSTNAME_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_EXCLUDE_NODES_CACHE_EXPIRY_INTERVAL_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_REPLICATION_DEFAULT;
@@ -139,6 +143,8 @@
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportIterator;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferEncryptor;
@@ -237,6 +243,8 @@ public static class Conf {
     final int ioBufferSize;
     final ChecksumOpt defaultChecksumOpt;
     final int writePacketSize;
+    final int writeMaxOutstandingPackets;
+    final boolean writePacketPoolEnabled;
     final int socketTimeout;
     final int socketCacheCapacity;
     final long socketCacheExpiry;
@@ -272,6 +280,14 @@ public static class Conf {
     final long shortCircuitMmapCacheExpiryMs;
     final long shortCircuitMmapCacheRetryTimeout;
     final long shortCircuitCacheStaleThresholdMs;
+    final int shortCircuitCacheShards;
+
+    final int parallelReadaheadSegments;
+    final int parallelReadaheadSegmentSize;
+    final int parallelReadaheadThreads;
+    final boolean latencySortEnabled;
+    final long latencySortHalfLifeMs;
+    final long latencySortSlowThresholdMs;
 
     public Conf(Configuration conf) {
       // The hdfsTimeout is currently the same as the ipc timeout 
@@ -304,6 +320,12 @@ public Conf(Configuration conf) {
       /** dfs.write.packet.size is an internal config variable */
       writePacketSize = conf.getInt(DFS_CLIENT_WRITE_PACKET_SIZE_KEY,
           DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT);
+      writeMaxOutstandingPackets = conf.getInt(
+          DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_KEY,
+          DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_DEFAULT);
+      writePacketPoolEnabled = conf.getBoolean(
+          DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_KEY,
+          DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_DEFAULT);
       defaultBlockSize = conf.getLongBytes(DFS_BLOCK_SIZE_KEY,
           DFS_BLOCK_SIZE_DEFAULT);
       defaultReplication = (short) conf.getInt(
@@ -400,6 +422,28 @@ public Conf(Configuration conf) {
       shortCircuitCacheStaleThresholdMs = conf.getLong(
           DFSConfigKeys.DFS_CLIENT_SHORT_CIRCUIT_REPLICA_STALE_THRESHOLD_MS,
           DFSConfigKeys.DFS_CLIENT_SHORT_CIRCUIT_REPLICA_STALE_THRESHOLD_MS_DEFAULT);
+      shortCircuitCacheShards = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_DEFAULT);
+
+      parallelReadaheadSegments = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENTS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENTS_DEFAULT);
+      parallelReadaheadSegmentSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENT_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENT_SIZE_DEFAULT);
+      parallelReadaheadThreads = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_THREADS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_THREADS_DEFAULT);
+      latencySortEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_ENABLED_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_ENABLED_DEFAULT);
+      latencySortHalfLifeMs = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_HALF_LIFE_MS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_HALF_LIFE_MS_DEFAULT);
+      latencySortSlowThresholdMs = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_SLOW_THRESHOLD_MS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_SLOW_THRESHOLD_MS_DEFAULT);
     }
 
     private DataChecksum.Type getChecksumType(Configuration conf) {
@@ -2281,6 +2325,20 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotDir,
     }
   }
 
+  /**
+   * Get the difference between two snapshots, or between a snapshot and the
+   * current tree of a directory, fetching it from the namenode in pages.
+   * @see ClientProtocol#getSnapshotDiffReportListing(String, String, String,
+   *      byte[])
+   */
+  public RemoteIterator<DiffReportEntry> listSnapshotDiffReport(
+      String snapshotDir, String fromSnapshot, String toSnapshot)
+      throws IOException {
+    checkOpen();
+    return new SnapshotDiffReportIterator(namenode, snapshotDir,
+        fromSnapshot, toSnapshot);
+  }
+
   public long addCacheDirective(
       CacheDirectiveInfo info, EnumSet<CacheFlag> flags) throws IOException {
     checkOpen();
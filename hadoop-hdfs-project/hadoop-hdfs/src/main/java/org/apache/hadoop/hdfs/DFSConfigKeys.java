@@ -49,6 +49,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_CHECKSUM_TYPE_DEFAULT = "CRC32C";
   public static final String  DFS_CLIENT_WRITE_PACKET_SIZE_KEY = "dfs.client-write-packet-size";
   public static final int     DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT = 64*1024;
+  public static final String  DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_KEY = "dfs.client.write.max-outstanding-packets";
+  public static final int     DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_DEFAULT = 80;
+  public static final String  DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_KEY = "dfs.client.write.packet-pool.enabled";
+  public static final boolean DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_DEFAULT = true;
   public static final String  DFS_CLIENT_WRITE_REPLACE_DATANODE_ON_FAILURE_ENABLE_KEY = "dfs.client.block.write.replace-datanode-on-failure.enable";
   public static final boolean DFS_CLIENT_WRITE_REPLACE_DATANODE_ON_FAILURE_ENABLE_DEFAULT = true;
   public static final String  DFS_CLIENT_WRITE_REPLACE_DATANODE_ON_FAILURE_POLICY_KEY = "dfs.client.block.write.replace-datanode-on-failure.policy";
@@ -101,6 +105,11 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_BACKUP_SERVICE_RPC_ADDRESS_KEY = "dfs.namenode.backup.dnrpc-address";
   public static final String  DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY = "dfs.datanode.balance.bandwidthPerSec";
   public static final long    DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT = 1024*1024;
+  public static final String  DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY = "dfs.datanode.balance.max.concurrent.moves";
+  public static final int     DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT = 5;
+  public static final String  DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY = "dfs.datanode.io.qos.bandwidthPerSec";
+  public static final long    DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_DEFAULT = 0; // disabled
+  public static final String  DFS_DATANODE_IO_QOS_WEIGHT_KEY_PREFIX = "dfs.datanode.io.qos.weight.";
   public static final String  DFS_DATANODE_READAHEAD_BYTES_KEY = "dfs.datanode.readahead.bytes";
   public static final long    DFS_DATANODE_READAHEAD_BYTES_DEFAULT = 4 * 1024 * 1024; // 4MB
   public static final String  DFS_DATANODE_DROP_CACHE_BEHIND_WRITES_KEY = "dfs.datanode.drop.cache.behind.writes";
@@ -166,6 +175,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT = 3600000;
   public static final String  DFS_NAMENODE_REPLICATION_CONSIDERLOAD_KEY = "dfs.namenode.replication.considerLoad";
   public static final boolean DFS_NAMENODE_REPLICATION_CONSIDERLOAD_DEFAULT = true;
+  public static final String  DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_KEY = "dfs.namenode.replication.considerLoad.candidates";
+  public static final int     DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_DEFAULT = 2;
+  public static final String  DFS_NAMENODE_REPLICATION_CONSIDERLOAD_WRITE_LATENCY_WEIGHT_KEY = "dfs.namenode.replication.considerLoad.write.latency.weight";
+  public static final float   DFS_NAMENODE_REPLICATION_CONSIDERLOAD_WRITE_LATENCY_WEIGHT_DEFAULT = 1.0f;
   public static final String  DFS_NAMENODE_REPLICATION_INTERVAL_KEY = "dfs.namenode.replication.interval";
   public static final int     DFS_NAMENODE_REPLICATION_INTERVAL_DEFAULT = 3;
   public static final String  DFS_NAMENODE_REPLICATION_MIN_KEY = "dfs.namenode.replication.min";
@@ -182,6 +195,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_WEBHDFS_ENABLED_DEFAULT = true;
   public static final String  DFS_WEBHDFS_USER_PATTERN_KEY = "dfs.webhdfs.user.provider.user.pattern";
   public static final String  DFS_WEBHDFS_USER_PATTERN_DEFAULT = "^[A-Za-z_][A-Za-z0-9._-]*[$]?$";
+  public static final String  DFS_WEBHDFS_PARALLEL_READ_CONNECTIONS_KEY = "dfs.webhdfs.parallel.read.connections";
+  public static final int     DFS_WEBHDFS_PARALLEL_READ_CONNECTIONS_DEFAULT = 1;
+  public static final String  DFS_WEBHDFS_PARALLEL_READ_CHUNK_SIZE_KEY = "dfs.webhdfs.parallel.read.chunk.size";
+  public static final int     DFS_WEBHDFS_PARALLEL_READ_CHUNK_SIZE_DEFAULT = 8*1024*1024;
+  public static final String  DFS_WEBHDFS_PARALLEL_WRITE_CONNECTIONS_KEY = "dfs.webhdfs.parallel.write.connections";
+  public static final int     DFS_WEBHDFS_PARALLEL_WRITE_CONNECTIONS_DEFAULT = 1;
   public static final String  DFS_PERMISSIONS_ENABLED_KEY = "dfs.permissions.enabled";
   public static final boolean DFS_PERMISSIONS_ENABLED_DEFAULT = true;
   public static final String  DFS_PERMISSIONS_SUPERUSERGROUP_KEY = "dfs.permissions.superusergroup";
@@ -211,6 +230,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final float   DFS_NAMENODE_EDIT_LOG_AUTOROLL_MULTIPLIER_THRESHOLD_DEFAULT = 2.0f;
   public static final String  DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS = "dfs.namenode.edit.log.autoroll.check.interval.ms";
   public static final int     DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS_DEFAULT = 5*60*1000;
+  public static final String  DFS_NAMENODE_BLOCK_DELETION_ASYNC_KEY = "dfs.namenode.block.deletion.async";
+  public static final boolean DFS_NAMENODE_BLOCK_DELETION_ASYNC_DEFAULT = false;
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
@@ -218,7 +239,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
   public static final String  DFS_CONTENT_SUMMARY_LIMIT_KEY = "dfs.content-summary.limit";
-  public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 0;
+  public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
+  public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
+  public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
@@ -235,9 +258,15 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_LIST_CACHE_DIRECTIVES_NUM_RESPONSES =
       "dfs.namenode.list.cache.directives.num.responses";
   public static final int     DFS_NAMENODE_LIST_CACHE_DIRECTIVES_NUM_RESPONSES_DEFAULT = 100;
+  public static final String  DFS_NAMENODE_LIST_SNAPSHOT_DIFF_NUM_RESPONSES =
+      "dfs.namenode.list.snapshot.diff.num.responses";
+  public static final int     DFS_NAMENODE_LIST_SNAPSHOT_DIFF_NUM_RESPONSES_DEFAULT = 1000;
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS =
       "dfs.namenode.path.based.cache.refresh.interval.ms";
   public static final long    DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT = 300000L;
+  public static final String  DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS =
+      "dfs.namenode.path.based.cache.hits.half-life.ms";
+  public static final long    DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS_DEFAULT = 1800000L;
 
   // Whether to enable datanode's stale state detection and usage for reads
   public static final String DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_READ_KEY = "dfs.namenode.avoid.read.stale.datanode";
@@ -299,6 +328,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_EDITS_DIR_REQUIRED_KEY = "dfs.namenode.edits.dir.required";
   public static final String  DFS_NAMENODE_EDITS_DIR_DEFAULT = "file:///tmp/hadoop/dfs/name";
   public static final String  DFS_CLIENT_READ_PREFETCH_SIZE_KEY = "dfs.client.read.prefetch.size"; 
+  public static final String  DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENTS_KEY = "dfs.client.read.parallel-readahead.segments";
+  public static final int     DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENTS_DEFAULT = 0;
+  public static final String  DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENT_SIZE_KEY = "dfs.client.read.parallel-readahead.segment.size";
+  public static final int     DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENT_SIZE_DEFAULT = 4 * 1024 * 1024;
+  public static final String  DFS_CLIENT_READ_PARALLEL_READAHEAD_THREADS_KEY = "dfs.client.read.parallel-readahead.threads";
+  public static final int     DFS_CLIENT_READ_PARALLEL_READAHEAD_THREADS_DEFAULT = 16;
+  public static final String  DFS_CLIENT_READ_LATENCY_SORT_ENABLED_KEY = "dfs.client.read.latency-sort.enabled";
+  public static final boolean DFS_CLIENT_READ_LATENCY_SORT_ENABLED_DEFAULT = false;
+  public static final String  DFS_CLIENT_READ_LATENCY_SORT_HALF_LIFE_MS_KEY = "dfs.client.read.latency-sort.half-life.ms";
+  public static final long    DFS_CLIENT_READ_LATENCY_SORT_HALF_LIFE_MS_DEFAULT = 60 * 1000;
+  public static final String  DFS_CLIENT_READ_LATENCY_SORT_SLOW_THRESHOLD_MS_KEY = "dfs.client.read.latency-sort.slow-threshold.ms";
+  public static final long    DFS_CLIENT_READ_LATENCY_SORT_SLOW_THRESHOLD_MS_DEFAULT = 500;
   public static final String  DFS_CLIENT_RETRY_WINDOW_BASE= "dfs.client.retry.window.base";
   public static final String  DFS_METRICS_SESSION_ID_KEY = "dfs.metrics.session-id";
   public static final String  DFS_METRICS_PERCENTILES_INTERVALS_KEY = "dfs.metrics.percentiles.intervals";
@@ -335,6 +376,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BALANCER_MOVERTHREADS_DEFAULT = 1000;
   public static final String  DFS_BALANCER_DISPATCHERTHREADS_KEY = "dfs.balancer.dispatcherThreads";
   public static final int     DFS_BALANCER_DISPATCHERTHREADS_DEFAULT = 200;
+  public static final String  DFS_BALANCER_FETCHERTHREADS_KEY = "dfs.balancer.fetcherThreads";
+  public static final int     DFS_BALANCER_FETCHERTHREADS_DEFAULT = 20;
+  public static final String  DFS_BALANCER_PROGRESS_REPORT_INTERVAL_KEY = "dfs.balancer.progressReportInterval";
+  public static final long    DFS_BALANCER_PROGRESS_REPORT_INTERVAL_DEFAULT = 10*1000L;
   public static final String  DFS_DATANODE_ADDRESS_KEY = "dfs.datanode.address";
   public static final int     DFS_DATANODE_DEFAULT_PORT = 50010;
   public static final String  DFS_DATANODE_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_DEFAULT_PORT;
@@ -344,6 +389,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT = 21600;
   public static final String  DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY = "dfs.datanode.directoryscan.threads";
   public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 1;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY = "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY = "dfs.datanode.directoryscan.incremental";
+  public static final boolean DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT = false;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_PERIOD_KEY = "dfs.datanode.directoryscan.full.scan.period";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_PERIOD_DEFAULT = 10;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -428,6 +479,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_SIZE_DEFAULT = 256;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY = "dfs.client.read.shortcircuit.streams.cache.expiry.ms";
   public static final long DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_DEFAULT = 5 * 60 * 1000;
+  public static final String DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_KEY = "dfs.client.read.shortcircuit.cache.shards";
+  public static final int DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_DEFAULT = 1;
   public static final int DFS_CLIENT_READ_SHORTCIRCUIT_BUFFER_SIZE_DEFAULT = 1024 * 1024;
   public static final String DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC = "dfs.client.domain.socket.data.traffic";
   public static final boolean DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC_DEFAULT = false;
@@ -447,6 +500,13 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
                                    "dfs.image.compression.codec";
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
+  public static final String DFS_NAMENODE_EDITS_COMPRESS_KEY =
+      "dfs.namenode.edits.compress";
+  public static final boolean DFS_NAMENODE_EDITS_COMPRESS_DEFAULT = false;
+  public static final String DFS_NAMENODE_EDITS_COMPRESSION_CODEC_KEY =
+      "dfs.namenode.edits.compression.codec";
+  public static final String DFS_NAMENODE_EDITS_COMPRESSION_CODEC_DEFAULT =
+      "org.apache.hadoop.io.compress.DefaultCodec";
 
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
@@ -456,6 +516,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_TRANSFER_TIMEOUT_KEY = "dfs.image.transfer.timeout";
   public static final int DFS_IMAGE_TRANSFER_TIMEOUT_DEFAULT = 10 * 60 * 1000;
 
+  // Streaming of the image to the active NN while the standby saves it
+  public static final String DFS_IMAGE_TRANSFER_STREAMING_KEY =
+      "dfs.image.transfer.streaming";
+  public static final boolean DFS_IMAGE_TRANSFER_STREAMING_DEFAULT = true;
+  public static final String DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY =
+      "dfs.image.transfer.chunksize";
+  public static final int DFS_IMAGE_TRANSFER_CHUNKSIZE_DEFAULT = 64 * 1024;
+
   //Keys with no defaults
   public static final String  DFS_DATANODE_PLUGINS_KEY = "dfs.datanode.plugins";
   public static final String  DFS_DATANODE_FSDATASET_FACTORY_KEY = "dfs.datanode.fsdataset.factory";
@@ -507,6 +575,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY = "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
   public static final String DFS_HA_AUTO_FAILOVER_ENABLED_KEY = "dfs.ha.automatic-failover.enabled";
   public static final boolean DFS_HA_AUTO_FAILOVER_ENABLED_DEFAULT = false;
@@ -531,6 +601,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_JOURNALNODE_HTTPS_ADDRESS_KEY = "dfs.journalnode.https-address";
   public static final int     DFS_JOURNALNODE_HTTPS_PORT_DEFAULT = 8481;
   public static final String  DFS_JOURNALNODE_HTTPS_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_JOURNALNODE_HTTPS_PORT_DEFAULT;
+  public static final String  DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY = "dfs.journalnode.edit-cache-size.bytes";
+  public static final int     DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT = 1024 * 1024;
 
   public static final String  DFS_JOURNALNODE_KEYTAB_FILE_KEY = "dfs.journalnode.keytab.file";
   public static final String  DFS_JOURNALNODE_USER_NAME_KEY = "dfs.journalnode.kerberos.principal";
@@ -539,6 +611,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // Journal-node related configs for the client side.
   public static final String  DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY = "dfs.qjournal.queued-edits.limit.mb";
   public static final int     DFS_QJOURNAL_QUEUE_SIZE_LIMIT_DEFAULT = 10;
+  public static final String  DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY = "dfs.qjournal.max-outstanding-batches";
+  public static final int     DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_DEFAULT = 1;
+  public static final String  DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_KEY = "dfs.qjournal.tail-edits.max-txns";
+  public static final int     DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_DEFAULT = 5000;
   
   // Quorum-journal timeouts for various operations. Unlikely to need
   // to be tweaked, but configurable just in case.
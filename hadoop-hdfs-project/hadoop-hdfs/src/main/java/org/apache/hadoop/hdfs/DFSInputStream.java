@@ -19,6 +19,7 @@
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -28,11 +29,15 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -66,6 +71,7 @@
 import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.IdentityHashStore;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -207,8 +213,23 @@ void addZeroCopyBytes(long amt) {
   
   private final byte[] oneByteBuf = new byte[1]; // used for 'int read()'
 
+  // fetches ahead of sequential reads, or null if disabled
+  private final ParallelReadahead parallelReadahead;
+
+  // orders replicas by the latency seen from them, or null if disabled
+  private final DatanodeLatencyTracker latencyTracker;
+
   void addToDeadNodes(DatanodeInfo dnInfo) {
     deadNodes.put(dnInfo, dnInfo);
+    if (latencyTracker != null) {
+      latencyTracker.recordError(dnInfo);
+    }
+  }
+
+  private void recordLatency(DatanodeInfo dnInfo, long startTime) {
+    if (latencyTracker != null) {
+      latencyTracker.recordLatency(dnInfo, Time.monotonicNow() - startTime);
+    }
   }
   
   DFSInputStream(DFSClient dfsClient, String src, int buffersize, boolean verifyChecksum
@@ -219,6 +240,12 @@ void addToDeadNodes(DatanodeInfo dnInfo) {
     this.src = src;
     this.cachingStrategy =
         dfsClient.getDefaultReadCachingStrategy();
+    final DFSClient.Conf conf = dfsClient.getConf();
+    this.parallelReadahead = conf.parallelReadaheadSegments > 0 ?
+        new ParallelReadahead(conf.parallelReadaheadSegments,
+            conf.parallelReadaheadSegmentSize) : null;
+    this.latencyTracker = conf.latencySortEnabled ?
+        dfsClient.getClientContext().getDatanodeLatencyTracker() : null;
     openInfo();
   }
 
@@ -562,6 +589,7 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
       try {
         ExtendedBlock blk = targetBlock.getBlock();
         Token<BlockTokenIdentifier> accessToken = targetBlock.getBlockToken();
+        final long startTime = Time.monotonicNow();
         blockReader = new BlockReaderFactory(dfsClient.getConf()).
             setInetSocketAddress(targetAddr).
             setRemotePeerFactory(dfsClient).
@@ -579,6 +607,7 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
             setUserGroupInformation(dfsClient.ugi).
             setConfiguration(dfsClient.getConfiguration()).
             build();
+        recordLatency(chosenNode, startTime);
         if(connectFailedOnce) {
           DFSClient.LOG.info("Successfully connected to " + targetAddr +
                              " for " + blk);
@@ -634,6 +663,9 @@ public void accept(ByteBuffer k, Object v) {
       blockReader.close();
       blockReader = null;
     }
+    if (parallelReadahead != null) {
+      parallelReadahead.discardAll();
+    }
     super.close();
     closed = true;
   }
@@ -651,6 +683,11 @@ public synchronized int read() throws IOException {
   private interface ReaderStrategy {
     public int doRead(BlockReader blockReader, int off, int len,
         ReadStatistics readStatistics) throws ChecksumException, IOException;
+
+    /**
+     * Copy all remaining bytes of an already verified buffer.
+     */
+    public void copyFrom(ByteBuffer src, int off);
   }
 
   private static void updateReadStatistics(ReadStatistics readStatistics, 
@@ -685,6 +722,11 @@ public int doRead(BlockReader blockReader, int off, int len,
         updateReadStatistics(readStatistics, nRead, blockReader);
         return nRead;
     }
+
+    @Override
+    public void copyFrom(ByteBuffer src, int off) {
+      src.get(buf, off, src.remaining());
+    }
   }
 
   /**
@@ -715,6 +757,11 @@ public int doRead(BlockReader blockReader, int off, int len,
         }
       } 
     }
+
+    @Override
+    public void copyFrom(ByteBuffer src, int off) {
+      buf.put(src);
+    }
   }
 
   /* This is a used by regular read() and handles ChecksumExceptions.
@@ -782,6 +829,17 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
       = new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
     failures = 0;
     if (pos < getFileLength()) {
+      if (parallelReadahead != null) {
+        int result = parallelReadahead.read(strategy, off, len);
+        if (result > 0) {
+          pos += result;
+          parallelReadahead.readEnded(pos);
+          if (dfsClient.stats != null) {
+            dfsClient.stats.incrementBytesRead(result);
+          }
+          return result;
+        }
+      }
       int retries = 2;
       while (retries > 0) {
         try {
@@ -798,6 +856,9 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
           
           if (result >= 0) {
             pos += result;
+            if (parallelReadahead != null) {
+              parallelReadahead.readEnded(pos);
+            }
           } else {
             // got a EOS from reader though we expect more data on it.
             throw new IOException("Unexpected EOS from the reader");
@@ -869,7 +930,8 @@ private DNAddrPair chooseDataNode(LocatedBlock block)
     while (true) {
       DatanodeInfo[] nodes = block.getLocations();
       try {
-        DatanodeInfo chosenNode = bestNode(nodes, deadNodes);
+        DatanodeInfo chosenNode = bestNode(latencyTracker == null ? nodes :
+            latencyTracker.sortByLatency(nodes), deadNodes);
         final String dnAddr =
             chosenNode.getXferAddr(dfsClient.getConf().connectToDnViaHostname);
         if (DFSClient.LOG.isDebugEnabled()) {
@@ -945,6 +1007,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       try {
         Token<BlockTokenIdentifier> blockToken = block.getBlockToken();
         int len = (int) (end - start + 1);
+        final long startTime = Time.monotonicNow();
         reader = new BlockReaderFactory(dfsClient.getConf()).
             setInetSocketAddress(targetAddr).
             setRemotePeerFactory(dfsClient).
@@ -962,6 +1025,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
             setUserGroupInformation(dfsClient.ugi).
             setConfiguration(dfsClient.getConfiguration()).
             build();
+        recordLatency(chosenNode, startTime);
         int nread = reader.readAll(buf, offset, len);
         if (nread != len) {
           throw new IOException("truncated return from reader.read(): " +
@@ -1278,6 +1342,289 @@ static DatanodeInfo bestNode(DatanodeInfo nodes[],
     throw new IOException("No live nodes contain current block");
   }
 
+  /**
+   * Reads ahead of a sequential reader in fixed-size segments, several of
+   * them in parallel on the client context's readahead threads.  Segments
+   * never span a block boundary, and successive segments start from
+   * different replicas, so that a single stream draws on more than one
+   * DataNode even while it is still inside one block.  At most maxSegments
+   * segment buffers, fetched or in flight, are held per stream.
+   *
+   * Readahead only starts once a read continues exactly where the previous
+   * one ended, and any seek away from the prefetched range discards it.  A
+   * segment that cannot be fetched is simply dropped: the regular read path
+   * then takes over for that range and handles retries, dead nodes and
+   * corrupt replica reporting as usual.
+   *
+   * All state is guarded by the DFSInputStream lock; the fetch tasks never
+   * take that lock.
+   */
+  private class ParallelReadahead {
+    private final int maxSegments;
+    private final int segmentSize;
+    private final ByteBufferPool bufferPool;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    /** Position at which the last successful read ended. */
+    private long lastReadEnd = -1;
+    /** Offset just past the last scheduled segment. */
+    private long nextOffset = -1;
+    /** Picks the first replica tried for the next segment. */
+    private int replicaRotation = 0;
+
+    ParallelReadahead(int maxSegments, int segmentSize) {
+      this.maxSegments = maxSegments;
+      this.segmentSize = segmentSize;
+      this.bufferPool = dfsClient.getClientContext().getReadaheadBufferPool();
+    }
+
+    void readEnded(long newPos) {
+      lastReadEnd = newPos;
+    }
+
+    /**
+     * Copy prefetched bytes at the current stream position.
+     *
+     * @return the number of bytes copied, or -1 if the regular read path
+     *         should serve this read.
+     */
+    int read(ReaderStrategy strategy, int off, int len) throws IOException {
+      if (len <= 0) {
+        return -1;
+      }
+      Segment head = segments.peekFirst();
+      if (head == null || head.offset + head.consumed != pos) {
+        boolean sequential = (pos == lastReadEnd);
+        discardAll();
+        if (!sequential) {
+          return -1;
+        }
+        nextOffset = pos;
+        schedule();
+        head = segments.peekFirst();
+        if (head == null) {
+          return -1;
+        }
+      }
+      ByteBuffer buf = head.await();
+      if (buf == null) {
+        discardAll();
+        return -1;
+      }
+      if (blockReader != null) {
+        // Readahead has taken over; make the regular path reconnect at the
+        // right offset should it be needed again.
+        closeCurrentBlockReader();
+        blockEnd = -1;
+      }
+      int n = Math.min(len, head.length - head.consumed);
+      ByteBuffer src = buf.duplicate();
+      src.limit(head.consumed + n);
+      src.position(head.consumed);
+      strategy.copyFrom(src, off);
+      head.countBytesRead(n);
+      head.consumed += n;
+      if (head.consumed == head.length) {
+        segments.removeFirst();
+        bufferPool.putBuffer(buf);
+        schedule();
+      }
+      return n;
+    }
+
+    /**
+     * Start fetching segments until the window is full or the end of the
+     * finalized data is reached.
+     */
+    private void schedule() throws IOException {
+      // Do not read ahead into a block which is still being written.
+      long limit = locatedBlocks.isLastBlockComplete() ?
+          getFileLength() : locatedBlocks.getFileLength();
+      while (segments.size() < maxSegments && nextOffset < limit) {
+        LocatedBlock blk = getBlockAt(nextOffset, false);
+        long end = Math.min(limit, blk.getStartOffset() + blk.getBlockSize());
+        int length = (int) Math.min(segmentSize, end - nextOffset);
+        if (length <= 0) {
+          break;
+        }
+        Segment segment = new Segment(blk, nextOffset, length,
+            replicaRotation++, cachingStrategy, !shortCircuitForbidden());
+        segment.future =
+            dfsClient.getClientContext().getReadaheadExecutor().submit(segment);
+        segments.addLast(segment);
+        nextOffset += length;
+      }
+    }
+
+    /**
+     * Drop all segments, returning the buffers of those already fetched.
+     */
+    void discardAll() {
+      for (Segment segment : segments) {
+        segment.discard();
+      }
+      segments.clear();
+      nextOffset = -1;
+    }
+
+    private class Segment implements Callable<ByteBuffer> {
+      private final LocatedBlock block;
+      private final long offset;
+      private final int length;
+      private final int rotation;
+      private final CachingStrategy segmentCachingStrategy;
+      private final boolean allowShortCircuitLocalReads;
+      private Future<ByteBuffer> future;
+      private int consumed = 0;
+      private volatile boolean discarded = false;
+      private volatile boolean isLocal = false;
+      private volatile boolean isShortCircuit = false;
+
+      Segment(LocatedBlock block, long offset, int length, int rotation,
+          CachingStrategy cachingStrategy,
+          boolean allowShortCircuitLocalReads) {
+        this.block = block;
+        this.offset = offset;
+        this.length = length;
+        this.rotation = rotation;
+        this.segmentCachingStrategy = cachingStrategy;
+        this.allowShortCircuitLocalReads = allowShortCircuitLocalReads;
+      }
+
+      @Override
+      public ByteBuffer call() throws IOException {
+        ByteBuffer buf = bufferPool.getBuffer(false, length);
+        boolean success = false;
+        try {
+          fetch(buf);
+          success = true;
+        } finally {
+          if (!success) {
+            bufferPool.putBuffer(buf);
+          }
+        }
+        if (discarded) {
+          bufferPool.putBuffer(buf);
+          return null;
+        }
+        return buf;
+      }
+
+      private void fetch(ByteBuffer buf) throws IOException {
+        final long startInBlock = offset - block.getStartOffset();
+        DatanodeInfo[] nodes = block.getLocations();
+        // rotate across the replicas which are not slow, if there are any
+        int rotated = nodes.length;
+        if (latencyTracker != null) {
+          nodes = latencyTracker.sortByLatency(nodes);
+          while (rotated > 1 && latencyTracker.isSlow(nodes[rotated - 1])) {
+            rotated--;
+          }
+        }
+        IOException lastException = null;
+        for (int i = 0; i < nodes.length && !discarded; i++) {
+          DatanodeInfo node = i < rotated ?
+              nodes[(rotation + i) % rotated] : nodes[i];
+          if (deadNodes.containsKey(node)) {
+            continue;
+          }
+          InetSocketAddress targetAddr = NetUtils.createSocketAddr(
+              node.getXferAddr(dfsClient.getConf().connectToDnViaHostname));
+          BlockReader reader = null;
+          try {
+            final long startTime = Time.monotonicNow();
+            reader = new BlockReaderFactory(dfsClient.getConf()).
+                setInetSocketAddress(targetAddr).
+                setRemotePeerFactory(dfsClient).
+                setDatanodeInfo(node).
+                setFileName(src).
+                setBlock(block.getBlock()).
+                setBlockToken(block.getBlockToken()).
+                setStartOffset(startInBlock).
+                setVerifyChecksum(verifyChecksum).
+                setClientName(dfsClient.clientName).
+                setLength(length).
+                setCachingStrategy(segmentCachingStrategy).
+                setAllowShortCircuitLocalReads(allowShortCircuitLocalReads).
+                setClientCacheContext(dfsClient.getClientContext()).
+                setUserGroupInformation(dfsClient.ugi).
+                setConfiguration(dfsClient.getConfiguration()).
+                build();
+            recordLatency(node, startTime);
+            int nread = reader.readAll(buf.array(), buf.arrayOffset(), length);
+            if (nread != length) {
+              throw new IOException("truncated return from reader.read(): " +
+                  "excpected " + length + ", got " + nread);
+            }
+            isLocal = reader.isLocal();
+            isShortCircuit = reader.isShortCircuit();
+            return;
+          } catch (IOException e) {
+            if (DFSClient.LOG.isDebugEnabled()) {
+              DFSClient.LOG.debug("Readahead of " + block.getBlock() + " at " +
+                  startInBlock + " from " + targetAddr + " failed", e);
+            }
+            if (latencyTracker != null && !discarded) {
+              latencyTracker.recordError(node);
+            }
+            lastException = e;
+          } finally {
+            if (reader != null) {
+              reader.close();
+            }
+          }
+        }
+        throw lastException != null ? lastException :
+            new IOException("No live nodes contain " + block.getBlock());
+      }
+
+      /**
+       * Wait for this segment to be fetched.
+       *
+       * @return the filled buffer, or null if the fetch failed.
+       */
+      ByteBuffer await() throws IOException {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException(
+              "Interrupted while waiting for readahead of " + src);
+        } catch (ExecutionException e) {
+          DFSClient.LOG.info("Readahead of " + src + " at offset " + offset +
+              " failed, falling back to a regular read: " + e.getCause());
+          return null;
+        }
+      }
+
+      void discard() {
+        discarded = true;
+        if (!future.isDone()) {
+          // If it is still running, the task itself recycles its buffer,
+          // or leaves it to the garbage collector if it loses the race.
+          future.cancel(false);
+          return;
+        }
+        try {
+          ByteBuffer buf = future.get();
+          if (buf != null) {
+            bufferPool.putBuffer(buf);
+          }
+        } catch (Exception e) {
+          // the buffer of a failed fetch has already been recycled
+        }
+      }
+
+      void countBytesRead(int n) {
+        if (isShortCircuit) {
+          readStatistics.addShortCircuitBytes(n);
+        } else if (isLocal) {
+          readStatistics.addLocalBytes(n);
+        } else {
+          readStatistics.addRemoteBytes(n);
+        }
+      }
+    }
+  }
+
   /** Utility class to encapsulate data node info and its address. */
   static class DNAddrPair {
     DatanodeInfo info;
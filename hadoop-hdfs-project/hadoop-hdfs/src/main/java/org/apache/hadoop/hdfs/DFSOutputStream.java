@@ -30,6 +30,7 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -75,6 +76,7 @@
 import org.apache.hadoop.hdfs.server.datanode.CachingStrategy;
 import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.RemoteException;
@@ -101,6 +103,8 @@
  * this stream. Data is broken up into packets, each packet is
  * typically 64K in size. A packet comprises of chunks. Each chunk
  * is typically 512 bytes and has an associated checksum with it.
+ * Packet buffers are taken from a pool shared through the
+ * {@link ClientContext} and returned to it once acknowledged.
  *
  * When a client application fills up the currentPacket, it is
  * enqueued into dataQueue.  The DataStreamer thread picks up
@@ -119,7 +123,6 @@
 @InterfaceAudience.Private
 public class DFSOutputStream extends FSOutputSummer
     implements Syncable, CanSetDropBehind {
-  private static final int MAX_PACKETS = 80; // each packet 64K, total 5MB
   private final DFSClient dfsClient;
   private Socket s;
   // closed is accessed by different threads under different locks.
@@ -152,6 +155,13 @@ public class DFSOutputStream extends FSOutputSummer
   private boolean shouldSyncBlock = false; // force blocks to disk upon close
   private AtomicReference<CachingStrategy> cachingStrategy;
   private boolean failPacket = false;
+  // maximum number of packets queued or awaiting acks, each typically 64K
+  private final int maxOutstandingPackets;
+  // source of packet buffers, or null if every packet allocates its own
+  private final ByteBufferPool packetBufferPool;
+  // the bytes of packet buffers this stream lets the pool keep while it is
+  // open, or 0 once they were given back
+  private long packetWindowBytes = 0;
   
   private static class Packet {
     private static final long HEART_BEAT_SEQNO = -1L;
@@ -161,6 +171,8 @@ private static class Packet {
     int numChunks; // number of chunks currently in packet
     final int maxChunks; // max chunks in packet
     byte[]  buf;
+    private ByteBuffer pooledBuf; // backs buf if it was taken from a pool
+    private ByteBufferPool pool; // the pool pooledBuf must be returned to
     private boolean lastPacketInBlock; // is this the last packet in block?
 
     /**
@@ -186,7 +198,7 @@ private static class Packet {
      * Create a heartbeat packet.
      */
     Packet(int checksumSize) {
-      this(0, 0, 0, HEART_BEAT_SEQNO, checksumSize);
+      this(0, 0, 0, HEART_BEAT_SEQNO, checksumSize, null);
     }
     
     /**
@@ -196,15 +208,27 @@ private static class Packet {
      *                including checksum data and actual data.
      * @param chunksPerPkt maximum number of chunks per packet.
      * @param offsetInBlock offset in bytes into the HDFS block.
+     * @param pool pool to take the packet buffer from, or null to
+     *             allocate a new buffer.
      */
     Packet(int pktSize, int chunksPerPkt, long offsetInBlock, 
-                              long seqno, int checksumSize) {
+        long seqno, int checksumSize, ByteBufferPool pool) {
       this.lastPacketInBlock = false;
       this.numChunks = 0;
       this.offsetInBlock = offsetInBlock;
       this.seqno = seqno;
       
-      buf = new byte[PacketHeader.PKT_MAX_HEADER_LEN + pktSize];
+      final int bufLen = PacketHeader.PKT_MAX_HEADER_LEN + pktSize;
+      if (pool != null && pktSize > 0) {
+        // The pool may hand back a larger buffer than we asked for; the
+        // layout below only depends on the start of the array.
+        this.pool = pool;
+        pooledBuf = pool.getBuffer(false, bufLen);
+        assert pooledBuf.hasArray() && pooledBuf.arrayOffset() == 0;
+        buf = pooledBuf.array();
+      } else {
+        buf = new byte[bufLen];
+      }
       
       checksumStart = PacketHeader.PKT_MAX_HEADER_LEN;
       checksumPos = checksumStart;
@@ -255,10 +279,10 @@ void writeTo(DataOutputStream stm) throws IOException {
       assert headerStart >= 0;
       assert headerStart + header.getSerializedSize() == checksumStart;
       
-      // Copy the header data into the buffer immediately preceding the checksum
-      // data.
-      System.arraycopy(header.getBytes(), 0, buf, headerStart,
-          header.getSerializedSize());
+      // Serialize the header into the buffer immediately preceding the
+      // checksum data.
+      header.putInBuffer(
+          ByteBuffer.wrap(buf, headerStart, header.getSerializedSize()));
       
       // corrupt the data for testing.
       if (DFSClientFaultInjector.get().corruptPacket()) {
@@ -274,6 +298,21 @@ void writeTo(DataOutputStream stm) throws IOException {
       }
     }
     
+    /**
+     * Return the packet buffer to its pool, if it came from one. This must
+     * only be called once the packet has been acknowledged by the pipeline,
+     * since the buffer may be handed out to another packet immediately.
+     */
+    void releaseBuffer() {
+      if (pooledBuf != null) {
+        pooledBuf.clear();
+        pool.putBuffer(pooledBuf);
+        pooledBuf = null;
+        pool = null;
+        buf = null;
+      }
+    }
+
     // get the packet's last byte's offset in the block
     long getLastByteOffsetBlock() {
       return offsetInBlock + dataPos - dataStart;
@@ -769,6 +808,9 @@ public void run() {
             synchronized (dataQueue) {
               lastAckedSeqno = seqno;
               ackQueue.removeFirst();
+              // recycle the buffer before waking up the writer, which is
+              // likely to need a new one
+              one.releaseBuffer();
               dataQueue.notifyAll();
             }
           } catch (Exception e) {
@@ -1380,6 +1422,9 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
     this.progress = progress;
     this.cachingStrategy = new AtomicReference<CachingStrategy>(
         dfsClient.getDefaultWriteCachingStrategy());
+    this.maxOutstandingPackets = dfsClient.getConf().writeMaxOutstandingPackets;
+    this.packetBufferPool = dfsClient.getConf().writePacketPoolEnabled ?
+        dfsClient.getClientContext().getPacketBufferPool() : null;
     if ((progress != null) && DFSClient.LOG.isDebugEnabled()) {
       DFSClient.LOG.debug(
           "Set non-null progress callback on DFSOutputStream " + src);
@@ -1394,6 +1439,20 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
                             
     }
     this.checksum = checksum;
+    if (packetBufferPool != null) {
+      // the queue may overrun by one packet, plus the packet being filled
+      packetWindowBytes = (maxOutstandingPackets + 2L) *
+          (PacketHeader.PKT_MAX_HEADER_LEN +
+              dfsClient.getConf().writePacketSize);
+      dfsClient.getClientContext().addPacketWindow(packetWindowBytes);
+    }
+  }
+
+  private void removePacketWindow() {
+    if (packetWindowBytes > 0) {
+      dfsClient.getClientContext().removePacketWindow(packetWindowBytes);
+      packetWindowBytes = 0;
+    }
   }
 
   /** Construct a new output stream for creating a file. */
@@ -1474,6 +1533,13 @@ static DFSOutputStream newStreamForAppend(DFSClient dfsClient, String src,
     return out;
   }
 
+  /** Create a data packet, drawing its buffer from the packet pool. */
+  private Packet createPacket(int pktSize, int chunksPerPkt,
+      long offsetInBlock, long seqno) {
+    return new Packet(pktSize, chunksPerPkt, offsetInBlock, seqno,
+        checksum.getChecksumSize(), packetBufferPool);
+  }
+
   private void computePacketChunkSize(int psize, int csize) {
     int chunkSize = csize + checksum.getChecksumSize();
     chunksPerPacket = Math.max(psize/chunkSize, 1);
@@ -1503,7 +1569,8 @@ private void waitAndQueueCurrentPacket() throws IOException {
     synchronized (dataQueue) {
       try {
       // If queue is full, then wait till we have enough space
-      while (!closed && dataQueue.size() + ackQueue.size()  > MAX_PACKETS) {
+      while (!closed &&
+          dataQueue.size() + ackQueue.size() > maxOutstandingPackets) {
         try {
           dataQueue.wait();
         } catch (InterruptedException e) {
@@ -1513,7 +1580,7 @@ private void waitAndQueueCurrentPacket() throws IOException {
           //
           // Rather than wait around for space in the queue, we should instead try to
           // return to the caller as soon as possible, even though we slightly overrun
-          // the MAX_PACKETS length.
+          // the maxOutstandingPackets length.
           Thread.currentThread().interrupt();
           break;
         }
@@ -1546,8 +1613,8 @@ protected synchronized void writeChunk(byte[] b, int offset, int len, byte[] che
     }
 
     if (currentPacket == null) {
-      currentPacket = new Packet(packetSize, chunksPerPacket, 
-          bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+      currentPacket = createPacket(packetSize, chunksPerPacket, 
+          bytesCurBlock, currentSeqno++);
       if (DFSClient.LOG.isDebugEnabled()) {
         DFSClient.LOG.debug("DFSClient writeChunk allocating new packet seqno=" + 
             currentPacket.seqno +
@@ -1594,8 +1661,8 @@ protected synchronized void writeChunk(byte[] b, int offset, int len, byte[] che
       // indicate the end of block and reset bytesCurBlock.
       //
       if (bytesCurBlock == blockSize) {
-        currentPacket = new Packet(0, 0, bytesCurBlock, 
-            currentSeqno++, this.checksum.getChecksumSize());
+        currentPacket = createPacket(0, 0, bytesCurBlock, 
+            currentSeqno++);
         currentPacket.lastPacketInBlock = true;
         currentPacket.syncBlock = shouldSyncBlock;
         waitAndQueueCurrentPacket();
@@ -1689,8 +1756,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
             // Nothing to send right now,
             // but sync was requested.
             // Send an empty packet
-            currentPacket = new Packet(packetSize, chunksPerPacket,
-                bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+            currentPacket = createPacket(packetSize, chunksPerPacket,
+                bytesCurBlock, currentSeqno++);
           }
         } else {
           // We already flushed up to this offset.
@@ -1706,8 +1773,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
             // and the block was partially written,
             // and sync was requested.
             // So send an empty sync packet.
-            currentPacket = new Packet(packetSize, chunksPerPacket,
-                bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+            currentPacket = createPacket(packetSize, chunksPerPacket,
+                bytesCurBlock, currentSeqno++);
           } else {
             // just discard the current packet since it is already been sent.
             currentPacket = null;
@@ -1878,6 +1945,7 @@ private void closeThreads(boolean force) throws IOException {
       streamer = null;
       s = null;
       closed = true;
+      removePacketWindow();
     }
   }
   
@@ -1904,8 +1972,8 @@ public synchronized void close() throws IOException {
 
       if (bytesCurBlock != 0) {
         // send an empty packet to mark the end of the block
-        currentPacket = new Packet(0, 0, bytesCurBlock, 
-            currentSeqno++, this.checksum.getChecksumSize());
+        currentPacket = createPacket(0, 0, bytesCurBlock, 
+            currentSeqno++);
         currentPacket.lastPacketInBlock = true;
         currentPacket.syncBlock = shouldSyncBlock;
       }
@@ -1919,6 +1987,7 @@ public synchronized void close() throws IOException {
     } catch (ClosedChannelException e) {
     } finally {
       closed = true;
+      removePacketWindow();
     }
   }
 
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Keeps an exponentially decayed score of the read latency and read errors
+ * that a client has seen from each DataNode.
+ *
+ * Every time a block reader is set up, the time it took is folded into the
+ * DataNode's score as a moving average; a failed read counts as a sample of
+ * ten times the slow threshold.  Between samples the score decays by half
+ * every half-life, so a DataNode which is no longer read from is eventually
+ * tried again.  A DataNode whose score is above the slow threshold is slow.
+ *
+ * The tracker is shared by all streams of a {@link ClientContext}.
+ */
+@InterfaceAudience.Private
+public class DatanodeLatencyTracker {
+  /** Weight of a new sample in the moving average. */
+  private static final double ALPHA = 0.3;
+  /** A read error counts as this many times the slow threshold. */
+  private static final int ERROR_PENALTY = 10;
+  /** Forget the least recently updated DataNodes beyond this many. */
+  private static final int MAX_TRACKED_DATANODES = 4096;
+
+  private static class Score {
+    private double value;
+    private long lastUpdate;
+  }
+
+  private final long halfLifeMs;
+  private final long slowThresholdMs;
+  private final Map<String, Score> scores =
+      new LinkedHashMap<String, Score>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Score> e) {
+          return size() > MAX_TRACKED_DATANODES;
+        }
+      };
+
+  public DatanodeLatencyTracker(long halfLifeMs, long slowThresholdMs) {
+    this.halfLifeMs = halfLifeMs;
+    this.slowThresholdMs = slowThresholdMs;
+  }
+
+  @VisibleForTesting
+  long monotonicNow() {
+    return Time.monotonicNow();
+  }
+
+  /** Record the time it took to start reading from the given DataNode. */
+  public void recordLatency(DatanodeInfo dn, long millis) {
+    update(dn, millis);
+  }
+
+  /** Record that reading from the given DataNode failed. */
+  public void recordError(DatanodeInfo dn) {
+    update(dn, (double)ERROR_PENALTY * slowThresholdMs);
+  }
+
+  private synchronized void update(DatanodeInfo dn, double sample) {
+    final long now = monotonicNow();
+    Score score = scores.get(dn.getXferAddr());
+    if (score == null) {
+      score = new Score();
+      scores.put(dn.getXferAddr(), score);
+    } else {
+      score.value = decay(score, now);
+    }
+    score.value += ALPHA * (sample - score.value);
+    score.lastUpdate = now;
+  }
+
+  private double decay(Score score, long now) {
+    if (halfLifeMs <= 0) {
+      return score.value;
+    }
+    return score.value *
+        Math.pow(0.5, (double)(now - score.lastUpdate) / halfLifeMs);
+  }
+
+  /** @return the current score of the given DataNode, in milliseconds. */
+  public synchronized double getScore(DatanodeInfo dn) {
+    final Score score = scores.get(dn.getXferAddr());
+    return score == null ? 0 : decay(score, monotonicNow());
+  }
+
+  public boolean isSlow(DatanodeInfo dn) {
+    return getScore(dn) > slowThresholdMs;
+  }
+
+  /**
+   * Order the given replicas for reading.  DataNodes which are not slow keep
+   * the order they were given in, which is their network distance from the
+   * client; slow DataNodes follow them, the least slow first.
+   *
+   * @return the given array if no DataNode is slow, otherwise a new array.
+   */
+  public DatanodeInfo[] sortByLatency(DatanodeInfo[] nodes) {
+    if (nodes == null || nodes.length == 0) {
+      return nodes;
+    }
+    final List<DatanodeInfo> healthy =
+        new ArrayList<DatanodeInfo>(nodes.length);
+    final List<DatanodeInfo> slow = new ArrayList<DatanodeInfo>(0);
+    final Map<DatanodeInfo, Double> slowScores =
+        new HashMap<DatanodeInfo, Double>();
+    for (DatanodeInfo dn : nodes) {
+      final double score = getScore(dn);
+      if (score > slowThresholdMs) {
+        slow.add(dn);
+        slowScores.put(dn, score);
+      } else {
+        healthy.add(dn);
+      }
+    }
+    if (slow.isEmpty()) {
+      return nodes;
+    }
+    Collections.sort(slow, new Comparator<DatanodeInfo>() {
+      @Override
+      public int compare(DatanodeInfo a, DatanodeInfo b) {
+        return Double.compare(slowScores.get(a), slowScores.get(b));
+      }
+    });
+    healthy.addAll(slow);
+    return healthy.toArray(new DatanodeInfo[nodes.length]);
+  }
+}
@@ -74,6 +74,7 @@
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.security.token.block.InvalidBlockTokenException;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
@@ -1556,6 +1557,43 @@ public SnapshotDiffReport next(final FileSystem fs, final Path p)
     }.resolve(this, absF);
   }
  
+  /**
+   * Get the difference between two snapshots, or between a snapshot and the
+   * current tree of a directory.  Unlike
+   * {@link #getSnapshotDiffReport(Path, String, String)}, the entries are
+   * fetched from the namenode in pages as the iterator advances, so a large
+   * difference does not hold the namenode lock for long; the entries are
+   * grouped by directory instead of being sorted.
+   * 
+   * @see DFSClient#listSnapshotDiffReport(String, String, String)
+   */
+  public RemoteIterator<DiffReportEntry> listSnapshotDiffReport(
+      final Path snapshotDir, final String fromSnapshot,
+      final String toSnapshot) throws IOException {
+    Path absF = fixRelativePart(snapshotDir);
+    return new FileSystemLinkResolver<RemoteIterator<DiffReportEntry>>() {
+      @Override
+      public RemoteIterator<DiffReportEntry> doCall(final Path p)
+          throws IOException, UnresolvedLinkException {
+        return dfs.listSnapshotDiffReport(getPathName(p), fromSnapshot,
+            toSnapshot);
+      }
+
+      @Override
+      public RemoteIterator<DiffReportEntry> next(final FileSystem fs,
+          final Path p) throws IOException {
+        if (fs instanceof DistributedFileSystem) {
+          DistributedFileSystem myDfs = (DistributedFileSystem)fs;
+          return myDfs.listSnapshotDiffReport(p, fromSnapshot, toSnapshot);
+        } else {
+          throw new UnsupportedOperationException("Cannot perform snapshot"
+              + " operations on a symlink to a non-DistributedFileSystem: "
+              + snapshotDir + " -> " + p);
+        }
+      }
+    }.resolve(this, absF);
+  }
+ 
   /**
    * Get the close status of a file
    * @param src The path to the file
@@ -21,6 +21,9 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -209,6 +212,11 @@ public void close() throws IOException {
    */
   private final CloseableReferenceCount refCount = new CloseableReferenceCount();
 
+  /**
+   * The index of the slot where the next search for a free slot starts.
+   */
+  private final AtomicInteger nextSlotHint = new AtomicInteger(0);
+
   public ShortCircuitSharedMemorySegment(FileInputStream stream)
         throws IOException {
     if (!NativeIO.isAvailable()) {
@@ -266,25 +274,54 @@ private boolean allocateSlot(long address) {
    *                slots.
    */
   public Slot allocateNextSlot() throws IOException {
-    ShortCircuitSharedMemorySegment.this.refCount.reference();
-    Slot slot = null;
+    List<Slot> slots = allocateSlots(1);
+    return slots.isEmpty() ? null : slots.get(0);
+  }
+
+  /**
+   * Allocate several new Slots in this shared memory segment at once.
+   *
+   * The search for free slots starts after the slot which was allocated
+   * last, and goes over the segment at most once, so allocating many slots
+   * does not rescan the slots which are already in use.
+   *
+   * @param count   The number of slots to allocate.
+   * @return        The newly allocated Slots.  There are fewer than count
+   *                of them if the segment ran out of available slots.
+   */
+  public List<Slot> allocateSlots(int count) throws IOException {
+    List<Slot> slots = new ArrayList<Slot>(count);
+    final int numSlots = length / BYTES_PER_SLOT;
+    // Hold a reference on behalf of the next slot we allocate.
+    refCount.reference();
     try {
-      final int numSlots = length / BYTES_PER_SLOT;
-      for (int i = 0; i < numSlots; i++) {
-        long address = this.baseAddress + (i * BYTES_PER_SLOT);
+      int idx = nextSlotHint.get();
+      for (int i = 0; i < numSlots && slots.size() < count; i++) {
+        long address = this.baseAddress + (idx * BYTES_PER_SLOT);
+        idx = (idx + 1) % numSlots;
         if (allocateSlot(address)) {
-          slot = new Slot(address);
-          break;
+          slots.add(new Slot(address));
+          nextSlotHint.set(idx);
+          if (slots.size() < count) {
+            refCount.reference();
+          } else {
+            return slots;
+          }
         }
       }
-    } finally {
-      if (slot == null) {
-        if (refCount.unreference()) {
-          free();
-        }
+    } catch (IOException e) {
+      // The segment was closed while we were allocating.  Give back the
+      // slots we got so far.
+      for (Slot slot : slots) {
+        slot.close();
       }
+      throw e;
+    }
+    // We ran out of slots: drop the reference held for the next one.
+    if (refCount.unreference()) {
+      free();
     }
-    return slot;
+    return slots;
   }
 
   @Override
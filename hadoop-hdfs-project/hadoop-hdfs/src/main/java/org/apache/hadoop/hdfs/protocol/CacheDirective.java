@@ -49,6 +49,21 @@ public final class CacheDirective implements IntrusiveCollection.Element {
   private long filesNeeded;
   private long filesCached;
 
+  /**
+   * Recent reads served from the cached blocks of this directive, as of
+   * the last rescan.  Unlike the other statistics, this is kept between
+   * rescans, since it decides the order of the next one.
+   */
+  private float hits;
+
+  /**
+   * Hits credited to this directive on top of the reads of its blocks, so
+   * that a new directive is not ranked below directives which went cold.
+   * It starts at one read, which a directive keeps until it gets cached, and
+   * decays like the hits of cached blocks from then on.
+   */
+  private float seedHits = 1.0f;
+
   private Element prev;
   private Element next;
 
@@ -211,6 +226,22 @@ public void addFilesCached(long files) {
     pool.addFilesCached(files);
   }
 
+  public float getHits() {
+    return hits;
+  }
+
+  public void setHits(float hits) {
+    this.hits = hits;
+  }
+
+  public float getSeedHits() {
+    return seedHits;
+  }
+
+  public void setSeedHits(float seedHits) {
+    this.seedHits = seedHits;
+  }
+
   //
   // IntrusiveCollection.Element implementation
   //
@@ -1101,6 +1101,32 @@ public void disallowSnapshot(String snapshotRoot)
   public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
       String fromSnapshot, String toSnapshot) throws IOException;
 
+  /**
+   * Get a page of the difference between two snapshots, or between a
+   * snapshot and the current tree of a directory.  Unlike
+   * {@link #getSnapshotDiffReport(String, String, String)}, the namenode
+   * computes only enough of the difference to fill a page, so that the
+   * namesystem lock is not held for the whole computation.
+   * 
+   * @param snapshotRoot
+   *          full path of the directory where snapshots are taken
+   * @param fromSnapshot
+   *          snapshot name of the from point. Null indicates the current
+   *          tree
+   * @param toSnapshot
+   *          snapshot name of the to point. Null indicates the current
+   *          tree.
+   * @param startAfter
+   *          {@link SnapshotDiffReportListing#getLastPath()} of the previous
+   *          page, or null to get the first page.
+   * @return A page of the difference report.
+   * @throws IOException on error
+   */
+  @Idempotent
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String fromSnapshot, String toSnapshot,
+      byte[] startAfter) throws IOException;
+
   /**
    * Add a CacheDirective to the CacheManager.
    * 
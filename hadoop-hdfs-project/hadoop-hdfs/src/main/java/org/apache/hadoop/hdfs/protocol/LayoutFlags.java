@@ -20,22 +20,36 @@
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Set;
 
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.Text;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
 
 /**
  * LayoutFlags represent features which the FSImage and edit logs can either
  * support or not, independently of layout version.
  * 
+ * The flags are written as their number followed by their names.  Software
+ * which finds a flag it does not know refuses to read the file.
+ *
  * Note: all flags starting with 'test' are reserved for unit test purposes.
  */
 @InterfaceAudience.Private
 public class LayoutFlags {
+  /**
+   * The edits following the header of the edit log are compressed.  See
+   * EditLogCompression for the format.
+   */
+  public static final String COMPRESSED_EDITS = "compressed-edits";
+
+  private static final Set<String> SUPPORTED_FLAGS =
+      ImmutableSet.of(COMPRESSED_EDITS);
+
+  private final Set<String> flags;
+
   /**
    * Load a LayoutFlags object from a stream.
    *
@@ -47,18 +61,39 @@ public static LayoutFlags read(DataInputStream in)
     int length = in.readInt();
     if (length < 0) {
       throw new IOException("The length of the feature flag section " +
-          "was negative at " + length + " bytes.");
-    } else if (length > 0) {
-      throw new IOException("Found feature flags which we can't handle. " +
-          "Please upgrade your software.");
+          "was negative at " + length + ".");
+    }
+    ImmutableSet.Builder<String> flags = ImmutableSet.builder();
+    for (int i = 0; i < length; i++) {
+      String flag = Text.readString(in);
+      if (!SUPPORTED_FLAGS.contains(flag)) {
+        throw new IOException("Found feature flag " + flag + " which we " +
+            "can't handle. Please upgrade your software.");
+      }
+      flags.add(flag);
     }
-    return new LayoutFlags();
+    return new LayoutFlags(flags.build());
   }
 
-  private LayoutFlags() {
+  private LayoutFlags(Set<String> flags) {
+    this.flags = flags;
   }
 
-  public static void write(DataOutputStream out) throws IOException {
-    out.writeInt(0);
+  /** @return true if the given flag is set. */
+  public boolean contains(String flag) {
+    return flags.contains(flag);
+  }
+
+  @Override
+  public String toString() {
+    return "LayoutFlags[" + Joiner.on(", ").join(flags) + "]";
+  }
+
+  public static void write(DataOutputStream out, String... flags)
+      throws IOException {
+    out.writeInt(flags.length);
+    for (String flag : flags) {
+      Text.writeString(out, flag);
+    }
   }
 }
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.BatchedRemoteIterator;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+
+/**
+ * SnapshotDiffReportIterator is a remote iterator that iterates the entries
+ * of a snapshot diff report, fetching them from the namenode one page at a
+ * time.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SnapshotDiffReportIterator
+    extends BatchedRemoteIterator<byte[], DiffReportEntry> {
+
+  private final ClientProtocol namenode;
+  private final String snapshotRoot;
+  private final String fromSnapshot;
+  private final String toSnapshot;
+  private byte[] lastPath;
+
+  public SnapshotDiffReportIterator(ClientProtocol namenode,
+      String snapshotRoot, String fromSnapshot, String toSnapshot) {
+    super(null);
+    this.namenode = namenode;
+    this.snapshotRoot = snapshotRoot;
+    this.fromSnapshot = fromSnapshot;
+    this.toSnapshot = toSnapshot;
+  }
+
+  @Override
+  public BatchedEntries<DiffReportEntry> makeRequest(byte[] prevKey)
+      throws IOException {
+    final SnapshotDiffReportListing listing =
+        namenode.getSnapshotDiffReportListing(snapshotRoot, fromSnapshot,
+            toSnapshot, prevKey);
+    lastPath = listing.getLastPath();
+    return listing;
+  }
+
+  /**
+   * The next page starts after the last inode visited for the current page,
+   * which is not necessarily the one of the given entry.
+   */
+  @Override
+  public byte[] elementToPrevKey(DiffReportEntry entry) {
+    return lastPath;
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.BatchedRemoteIterator.BatchedListEntries;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+
+/**
+ * A page of the difference between two snapshots of a directory, as returned
+ * by {@link ClientProtocol#getSnapshotDiffReportListing}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SnapshotDiffReportListing
+    extends BatchedListEntries<DiffReportEntry> {
+  private final byte[] lastPath;
+
+  /**
+   * @param entries the entries of this page
+   * @param lastPath the path, relative to the snapshot root, of the last
+   *          inode visited for this page; null if there are no more entries
+   * @param hasMore whether there are more entries after this page
+   */
+  public SnapshotDiffReportListing(List<DiffReportEntry> entries,
+      byte[] lastPath, boolean hasMore) {
+    super(entries, hasMore);
+    if (hasMore && lastPath == null) {
+      throw new IllegalArgumentException(
+          "A partial listing must have the last path");
+    }
+    this.lastPath = lastPath;
+  }
+
+  /**
+   * Get the path, relative to the snapshot root, to continue the listing
+   * after; components are separated by '/' and the empty path stands for the
+   * snapshot root itself.
+   * @return the last path, or null if there are no more entries
+   */
+  public byte[] getLastPath() {
+    return lastPath;
+  }
+}
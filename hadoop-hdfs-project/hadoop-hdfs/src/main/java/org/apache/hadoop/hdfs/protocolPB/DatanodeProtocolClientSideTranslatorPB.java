@@ -157,8 +157,8 @@ public DatanodeRegistration registerDatanode(DatanodeRegistration registration
   @Override
   public HeartbeatResponse sendHeartbeat(DatanodeRegistration registration,
       StorageReport[] reports, long cacheCapacity, long cacheUsed,
-          int xmitsInProgress, int xceiverCount, int failedVolumes)
-              throws IOException {
+          int xmitsInProgress, int xceiverCount, int failedVolumes,
+          long writeLatencyMicros) throws IOException {
     HeartbeatRequestProto.Builder builder = HeartbeatRequestProto.newBuilder()
         .setRegistration(PBHelper.convert(registration))
         .setXmitsInProgress(xmitsInProgress).setXceiverCount(xceiverCount)
@@ -172,6 +172,9 @@ public HeartbeatResponse sendHeartbeat(DatanodeRegistration registration,
     if (cacheUsed != 0) {
       builder.setCacheUsed(cacheUsed);
     }
+    if (writeLatencyMicros != 0) {
+      builder.setWriteLatencyMicros(writeLatencyMicros);
+    }
     HeartbeatResponseProto resp;
     try {
       resp = rpcProxy.sendHeartbeat(NULL_CONTROLLER, builder.build());
@@ -214,7 +217,8 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
 
   @Override
   public DatanodeCommand cacheReport(DatanodeRegistration registration,
-      String poolId, List<Long> blockIds) throws IOException {
+      String poolId, List<Long> blockIds, List<Long> hitCounts)
+      throws IOException {
     CacheReportRequestProto.Builder builder =
         CacheReportRequestProto.newBuilder()
         .setRegistration(PBHelper.convert(registration))
@@ -222,6 +226,9 @@ public DatanodeCommand cacheReport(DatanodeRegistration registration,
     for (Long blockId : blockIds) {
       builder.addBlocks(blockId);
     }
+    if (hitCounts != null) {
+      builder.addAllHitCounts(hitCounts);
+    }
     
     CacheReportResponseProto resp;
     try {
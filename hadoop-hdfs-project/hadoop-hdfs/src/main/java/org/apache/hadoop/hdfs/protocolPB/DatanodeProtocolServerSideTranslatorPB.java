@@ -106,7 +106,8 @@ public HeartbeatResponseProto sendHeartbeat(RpcController controller,
       response = impl.sendHeartbeat(PBHelper.convert(request.getRegistration()),
           report, request.getCacheCapacity(), request.getCacheUsed(),
           request.getXmitsInProgress(),
-          request.getXceiverCount(), request.getFailedVolumes());
+          request.getXceiverCount(), request.getFailedVolumes(),
+          request.getWriteLatencyMicros());
     } catch (IOException e) {
       throw new ServiceException(e);
     }
@@ -163,7 +164,9 @@ public CacheReportResponseProto cacheReport(RpcController controller,
       cmd = impl.cacheReport(
           PBHelper.convert(request.getRegistration()),
           request.getBlockPoolId(),
-          request.getBlocksList());
+          request.getBlocksList(),
+          request.getHitCountsCount() == request.getBlocksCount() ?
+              request.getHitCountsList() : null);
     } catch (IOException e) {
       throw new ServiceException(e);
     }
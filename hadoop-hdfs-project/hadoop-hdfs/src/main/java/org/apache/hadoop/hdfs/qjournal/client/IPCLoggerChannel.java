@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.qjournal.client;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -27,6 +28,8 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -39,6 +42,7 @@
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -62,6 +66,7 @@
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncaughtExceptionHandlers;
 
@@ -80,6 +85,19 @@ public class IPCLoggerChannel implements AsyncLogger {
   private QJournalProtocol proxy;
 
   private final ListeningExecutorService executor;
+
+  /**
+   * Runs the journal RPCs when more than one batch may be in flight, or null
+   * if every batch is sent by the executor above.
+   */
+  private final ExecutorService journalExecutor;
+
+  /**
+   * The journal batches which are in flight hold a permit each.
+   */
+  private final int maxOutstandingBatches;
+  private final Semaphore outstandingBatches;
+
   private long ipcSerial = 0;
   private long epoch = -1;
   private long committedTxId = HdfsConstants.INVALID_TXID;
@@ -162,6 +180,13 @@ public IPCLoggerChannel(Configuration conf,
     
     executor = MoreExecutors.listeningDecorator(
         createExecutor());
+
+    this.maxOutstandingBatches = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_DEFAULT));
+    this.outstandingBatches = new Semaphore(maxOutstandingBatches);
+    this.journalExecutor = maxOutstandingBatches > 1 ?
+        createJournalExecutor() : null;
     
     metrics = IPCLoggerChannelMetrics.create(this);
   }
@@ -185,6 +210,9 @@ public void close() {
     QuorumJournalManager.LOG.info("Closing", new Exception());
     // No more tasks may be submitted after this point.
     executor.shutdown();
+    if (journalExecutor != null) {
+      journalExecutor.shutdown();
+    }
     if (proxy != null) {
       // TODO: this can hang for quite some time if the client
       // is currently in the middle of a call to a downed JN.
@@ -241,6 +269,42 @@ protected ExecutorService createExecutor() {
           .build());
   }
   
+  private ExecutorService createJournalExecutor() {
+    return Executors.newFixedThreadPool(maxOutstandingBatches,
+        new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("Logger channel writer %d to " + addr)
+          .setUncaughtExceptionHandler(
+              UncaughtExceptionHandlers.systemExit())
+          .build());
+  }
+
+  /**
+   * Run the given call on the executor once all the batches sent before it
+   * have been acknowledged. Calls other than journal() are never pipelined,
+   * so the remote node sees them in the order of their IPC serial numbers.
+   */
+  private <T> ListenableFuture<T> submit(final Callable<T> call) {
+    return executor.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        waitForOutstandingBatches();
+        return call.call();
+      }
+    });
+  }
+
+  private void waitForOutstandingBatches() throws InterruptedIOException {
+    try {
+      outstandingBatches.acquire(maxOutstandingBatches);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while waiting for batches sent to " + this);
+    }
+    outstandingBatches.release(maxOutstandingBatches);
+  }
+
   @Override
   public URL buildURLToFetchLogs(long segmentTxId) {
     Preconditions.checkArgument(segmentTxId > 0,
@@ -271,6 +335,14 @@ synchronized long getNextIpcSerial() {
   public synchronized int getQueuedEditsSize() {
     return queuedEditsSizeBytes;
   }
+
+  /**
+   * @return the number of batches which were sent to the remote node and
+   * have not been acknowledged yet.
+   */
+  public int getOutstandingBatches() {
+    return maxOutstandingBatches - outstandingBatches.availablePermits();
+  }
   
   public InetSocketAddress getRemoteAddress() {
     return addr;
@@ -288,9 +360,10 @@ public synchronized boolean isOutOfSync() {
   @VisibleForTesting
   void waitForAllPendingCalls() throws InterruptedException {
     try {
-      executor.submit(new Runnable() {
+      submit(new Callable<Void>() {
         @Override
-        public void run() {
+        public Void call() {
+          return null;
         }
       }).get();
     } catch (ExecutionException e) {
@@ -301,7 +374,7 @@ public void run() {
 
   @Override
   public ListenableFuture<Boolean> isFormatted() {
-    return executor.submit(new Callable<Boolean>() {
+    return submit(new Callable<Boolean>() {
       @Override
       public Boolean call() throws IOException {
         return getProxy().isFormatted(journalId);
@@ -311,7 +384,7 @@ public Boolean call() throws IOException {
 
   @Override
   public ListenableFuture<GetJournalStateResponseProto> getJournalState() {
-    return executor.submit(new Callable<GetJournalStateResponseProto>() {
+    return submit(new Callable<GetJournalStateResponseProto>() {
       @Override
       public GetJournalStateResponseProto call() throws IOException {
         GetJournalStateResponseProto ret =
@@ -325,7 +398,7 @@ public GetJournalStateResponseProto call() throws IOException {
   @Override
   public ListenableFuture<NewEpochResponseProto> newEpoch(
       final long epoch) {
-    return executor.submit(new Callable<NewEpochResponseProto>() {
+    return submit(new Callable<NewEpochResponseProto>() {
       @Override
       public NewEpochResponseProto call() throws IOException {
         return getProxy().newEpoch(journalId, nsInfo, epoch);
@@ -349,47 +422,20 @@ public ListenableFuture<Void> sendEdits(
     
     ListenableFuture<Void> ret = null;
     try {
-      ret = executor.submit(new Callable<Void>() {
-        @Override
-        public Void call() throws IOException {
-          throwIfOutOfSync();
-
-          long rpcSendTimeNanos = System.nanoTime();
-          try {
-            getProxy().journal(createReqInfo(),
-                segmentTxId, firstTxnId, numTxns, data);
-          } catch (IOException e) {
-            QuorumJournalManager.LOG.warn(
-                "Remote journal " + IPCLoggerChannel.this + " failed to " +
-                "write txns " + firstTxnId + "-" + (firstTxnId + numTxns - 1) +
-                ". Will try to write to this JN again after the next " +
-                "log roll.", e); 
-            synchronized (IPCLoggerChannel.this) {
-              outOfSync = true;
-            }
-            throw e;
-          } finally {
-            long now = System.nanoTime();
-            long rpcTime = TimeUnit.MICROSECONDS.convert(
-                now - rpcSendTimeNanos, TimeUnit.NANOSECONDS);
-            long endToEndTime = TimeUnit.MICROSECONDS.convert(
-                now - submitNanos, TimeUnit.NANOSECONDS);
-            metrics.addWriteEndToEndLatency(endToEndTime);
-            metrics.addWriteRpcLatency(rpcTime);
-            if (rpcTime / 1000 > WARN_JOURNAL_MILLIS_THRESHOLD) {
-              QuorumJournalManager.LOG.warn(
-                  "Took " + (rpcTime / 1000) + "ms to send a batch of " +
-                  numTxns + " edits (" + data.length + " bytes) to " +
-                  "remote journal " + IPCLoggerChannel.this);
-            }
-          }
-          synchronized (IPCLoggerChannel.this) {
-            highestAckedTxId = firstTxnId + numTxns - 1;
-            lastAckNanos = submitNanos;
+      if (journalExecutor == null) {
+        ret = executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            throwIfOutOfSync();
+            journal(createReqInfo(), segmentTxId, firstTxnId, numTxns, data,
+                submitNanos);
+            return null;
           }
-          return null;
-        }
-      });
+        });
+      } else {
+        ret = sendEditsPipelined(segmentTxId, firstTxnId, numTxns, data,
+            submitNanos);
+      }
     } finally {
       if (ret == null) {
         // it didn't successfully get submitted,
@@ -415,6 +461,97 @@ public void onSuccess(Void t) {
     return ret;
   }
 
+  /**
+   * Send the batch from the executor thread without waiting for the
+   * batches before it to be acknowledged, as long as fewer than
+   * maxOutstandingBatches are in flight. The remote node puts batches which
+   * arrive out of order back in order.
+   */
+  private ListenableFuture<Void> sendEditsPipelined(final long segmentTxId,
+      final long firstTxnId, final int numTxns, final byte[] data,
+      final long submitNanos) {
+    final SettableFuture<Void> ret = SettableFuture.create();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final RequestInfo reqInfo;
+        try {
+          throwIfOutOfSync();
+          outstandingBatches.acquire();
+          reqInfo = createReqInfo();
+        } catch (Throwable t) {
+          ret.setException(t);
+          return;
+        }
+        try {
+          journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                journal(reqInfo, segmentTxId, firstTxnId, numTxns, data,
+                    submitNanos);
+                ret.set(null);
+              } catch (Throwable t) {
+                ret.setException(t);
+              } finally {
+                outstandingBatches.release();
+              }
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          outstandingBatches.release();
+          ret.setException(e);
+        }
+      }
+    });
+    return ret;
+  }
+
+  private void journal(RequestInfo reqInfo, long segmentTxId,
+      long firstTxnId, int numTxns, byte[] data, long submitNanos)
+      throws IOException {
+    long rpcSendTimeNanos = System.nanoTime();
+    try {
+      getProxy().journal(reqInfo,
+          segmentTxId, firstTxnId, numTxns, data);
+    } catch (IOException e) {
+      QuorumJournalManager.LOG.warn(
+          "Remote journal " + IPCLoggerChannel.this + " failed to " +
+          "write txns " + firstTxnId + "-" + (firstTxnId + numTxns - 1) +
+          ". Will try to write to this JN again after the next " +
+          "log roll.", e); 
+      synchronized (IPCLoggerChannel.this) {
+        outOfSync = true;
+      }
+      throw e;
+    } finally {
+      long now = System.nanoTime();
+      long rpcTime = TimeUnit.MICROSECONDS.convert(
+          now - rpcSendTimeNanos, TimeUnit.NANOSECONDS);
+      long endToEndTime = TimeUnit.MICROSECONDS.convert(
+          now - submitNanos, TimeUnit.NANOSECONDS);
+      metrics.addWriteEndToEndLatency(endToEndTime);
+      metrics.addWriteRpcLatency(rpcTime);
+      metrics.addWriteQueueLatency(TimeUnit.MICROSECONDS.convert(
+          rpcSendTimeNanos - submitNanos, TimeUnit.NANOSECONDS));
+      if (rpcTime / 1000 > WARN_JOURNAL_MILLIS_THRESHOLD) {
+        QuorumJournalManager.LOG.warn(
+            "Took " + (rpcTime / 1000) + "ms to send a batch of " +
+            numTxns + " edits (" + data.length + " bytes) to " +
+            "remote journal " + IPCLoggerChannel.this);
+      }
+    }
+    synchronized (IPCLoggerChannel.this) {
+      // With pipelining, acks of consecutive batches may be processed
+      // out of order.
+      long lastTxnId = firstTxnId + numTxns - 1;
+      if (lastTxnId > highestAckedTxId) {
+        highestAckedTxId = lastTxnId;
+        lastAckNanos = submitNanos;
+      }
+    }
+  }
+
   private void throwIfOutOfSync()
       throws JournalOutOfSyncException, IOException {
     if (isOutOfSync()) {
@@ -439,6 +576,7 @@ private void throwIfOutOfSync()
   private void heartbeatIfNecessary() throws IOException {
     if (lastHeartbeatStopwatch.elapsedMillis() > HEARTBEAT_INTERVAL_MILLIS ||
         !lastHeartbeatStopwatch.isRunning()) {
+      waitForOutstandingBatches();
       try {
         getProxy().heartbeat(createReqInfo());
       } finally {
@@ -466,7 +604,7 @@ private synchronized void unreserveQueueSpace(int size) {
 
   @Override
   public ListenableFuture<Void> format(final NamespaceInfo nsInfo) {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
         getProxy().format(journalId, nsInfo);
@@ -477,7 +615,7 @@ public Void call() throws Exception {
   
   @Override
   public ListenableFuture<Void> startLogSegment(final long txid) {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         getProxy().startLogSegment(createReqInfo(), txid);
@@ -498,7 +636,7 @@ public Void call() throws IOException {
   @Override
   public ListenableFuture<Void> finalizeLogSegment(
       final long startTxId, final long endTxId) {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         throwIfOutOfSync();
@@ -511,7 +649,7 @@ public Void call() throws IOException {
   
   @Override
   public ListenableFuture<Void> purgeLogsOlderThan(final long minTxIdToKeep) {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
         getProxy().purgeLogsOlderThan(createReqInfo(), minTxIdToKeep);
@@ -523,7 +661,7 @@ public Void call() throws Exception {
   @Override
   public ListenableFuture<RemoteEditLogManifest> getEditLogManifest(
       final long fromTxnId, final boolean inProgressOk) {
-    return executor.submit(new Callable<RemoteEditLogManifest>() {
+    return submit(new Callable<RemoteEditLogManifest>() {
       @Override
       public RemoteEditLogManifest call() throws IOException {
         GetEditLogManifestResponseProto ret = getProxy().getEditLogManifest(
@@ -536,10 +674,21 @@ public RemoteEditLogManifest call() throws IOException {
     });
   }
 
+  @Override
+  public ListenableFuture<GetJournaledEditsResponseProto> getJournaledEdits(
+      final long fromTxnId, final int maxTxns) {
+    return submit(new Callable<GetJournaledEditsResponseProto>() {
+      @Override
+      public GetJournaledEditsResponseProto call() throws IOException {
+        return getProxy().getJournaledEdits(journalId, fromTxnId, maxTxns);
+      }
+    });
+  }
+
   @Override
   public ListenableFuture<PrepareRecoveryResponseProto> prepareRecovery(
       final long segmentTxId) {
-    return executor.submit(new Callable<PrepareRecoveryResponseProto>() {
+    return submit(new Callable<PrepareRecoveryResponseProto>() {
       @Override
       public PrepareRecoveryResponseProto call() throws IOException {
         if (!hasHttpServerEndPoint()) {
@@ -557,7 +706,7 @@ public PrepareRecoveryResponseProto call() throws IOException {
   @Override
   public ListenableFuture<Void> acceptRecovery(
       final SegmentStateProto log, final URL url) {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         getProxy().acceptRecovery(createReqInfo(), log, url);
@@ -568,7 +717,7 @@ public Void call() throws IOException {
   
   @Override
   public ListenableFuture<Void> doPreUpgrade() {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         getProxy().doPreUpgrade(journalId);
@@ -579,7 +728,7 @@ public Void call() throws IOException {
   
   @Override
   public ListenableFuture<Void> doUpgrade(final StorageInfo sInfo) {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         getProxy().doUpgrade(journalId, sInfo);
@@ -590,7 +739,7 @@ public Void call() throws IOException {
   
   @Override
   public ListenableFuture<Void> doFinalize() {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         getProxy().doFinalize(journalId);
@@ -602,7 +751,7 @@ public Void call() throws IOException {
   @Override
   public ListenableFuture<Boolean> canRollBack(final StorageInfo storage,
       final StorageInfo prevStorage, final int targetLayoutVersion) {
-    return executor.submit(new Callable<Boolean>() {
+    return submit(new Callable<Boolean>() {
       @Override
       public Boolean call() throws IOException {
         return getProxy().canRollBack(journalId, storage, prevStorage,
@@ -613,7 +762,7 @@ public Boolean call() throws IOException {
 
   @Override
   public ListenableFuture<Void> doRollback() {
-    return executor.submit(new Callable<Void>() {
+    return submit(new Callable<Void>() {
       @Override
       public Void call() throws IOException {
         getProxy().doRollback(journalId);
@@ -624,7 +773,7 @@ public Void call() throws IOException {
   
   @Override
   public ListenableFuture<Long> getJournalCTime() {
-    return executor.submit(new Callable<Long>() {
+    return submit(new Callable<Long>() {
       @Override
       public Long call() throws IOException {
         return getProxy().getJournalCTime(journalId);
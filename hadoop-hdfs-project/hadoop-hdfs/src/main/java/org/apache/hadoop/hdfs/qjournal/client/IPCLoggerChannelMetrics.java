@@ -42,6 +42,7 @@ class IPCLoggerChannelMetrics {
   
   private final MutableQuantiles[] writeEndToEndLatencyQuantiles;
   private final MutableQuantiles[] writeRpcLatencyQuantiles;
+  private final MutableQuantiles[] writeQueueLatencyQuantiles;
 
   
   /**
@@ -67,6 +68,7 @@ private IPCLoggerChannelMetrics(IPCLoggerChannel ch) {
     if (intervals != null) {
       writeEndToEndLatencyQuantiles = new MutableQuantiles[intervals.length];
       writeRpcLatencyQuantiles = new MutableQuantiles[intervals.length];
+      writeQueueLatencyQuantiles = new MutableQuantiles[intervals.length];
       for (int i = 0; i < writeEndToEndLatencyQuantiles.length; i++) {
         int interval = intervals[i];
         writeEndToEndLatencyQuantiles[i] = registry.newQuantiles(
@@ -75,10 +77,15 @@ private IPCLoggerChannelMetrics(IPCLoggerChannel ch) {
         writeRpcLatencyQuantiles[i] = registry.newQuantiles(
             "writesRpc" + interval + "s",
             "RPC RTT for write operations", "ops", "LatencyMicros", interval);
+        writeQueueLatencyQuantiles[i] = registry.newQuantiles(
+            "writesQueued" + interval + "s",
+            "Time write operations spent queued before being sent", "ops",
+            "LatencyMicros", interval);
       }
     } else {
       writeEndToEndLatencyQuantiles = null;
       writeRpcLatencyQuantiles = null;
+      writeQueueLatencyQuantiles = null;
     }
   }
   
@@ -136,6 +143,12 @@ public int getQueuedEditsSize() {
     return ch.getQueuedEditsSize();
   }
 
+  @Metric("The number of batches sent to the remote node and not yet " +
+          "acknowledged")
+  public int getOutstandingBatches() {
+    return ch.getOutstandingBatches();
+  }
+
   public void addWriteEndToEndLatency(long micros) {
     if (writeEndToEndLatencyQuantiles != null) {
       for (MutableQuantiles q : writeEndToEndLatencyQuantiles) {
@@ -151,4 +164,12 @@ public void addWriteRpcLatency(long micros) {
       }
     }
   }
+
+  public void addWriteQueueLatency(long micros) {
+    if (writeQueueLatencyQuantiles != null) {
+      for (MutableQuantiles q : writeQueueLatencyQuantiles) {
+        q.add(micros);
+      }
+    }
+  }
 }
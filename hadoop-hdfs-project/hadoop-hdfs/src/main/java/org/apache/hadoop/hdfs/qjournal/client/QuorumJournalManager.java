@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -77,6 +78,9 @@ public class QuorumJournalManager implements JournalManager {
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
 
+  /** The maximum number of txns to fetch from the edit cache at once */
+  private final int tailEditsMaxTxns;
+
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
   // configurable.
@@ -141,6 +145,9 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.tailEditsMaxTxns = conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_DEFAULT);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -462,6 +469,31 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    selectInputStreams(streams, fromTxnId, inProgressOk, false);
+  }
+
+  /**
+   * Select input streams as {@link #selectInputStreams(Collection, long,
+   * boolean)} does. If onlyDurableTxns is set, the edits of the in-progress
+   * segment are only read up to the highest transaction which a majority of
+   * the JournalNodes have written, and they are fetched from the in-memory
+   * edit cache of the JournalNodes if it still holds fromTxnId. Otherwise
+   * the edit log files are read over HTTP.
+   */
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    if (inProgressOk && onlyDurableTxns) {
+      try {
+        selectCachedInputStreams(streams, fromTxnId);
+        return;
+      } catch (IOException ioe) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Could not read txid " + fromTxnId + " from the edit " +
+              "cache of " + loggers + ", reading the edit log files", ioe);
+        }
+      }
+    }
 
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId, inProgressOk);
@@ -471,6 +503,19 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     
     LOG.debug("selectInputStream manifests:\n" +
         Joiner.on("\n").withKeyValueSeparator(": ").join(resps));
+
+    long durableTxId = Long.MAX_VALUE;
+    if (inProgressOk && onlyDurableTxns) {
+      List<Long> highestTxIds = Lists.newArrayList();
+      for (RemoteEditLogManifest manifest : resps.values()) {
+        long highest = fromTxnId - 1;
+        for (RemoteEditLog remoteLog : manifest.getLogs()) {
+          highest = Math.max(highest, remoteLog.getEndTxId());
+        }
+        highestTxIds.add(highest);
+      }
+      durableTxId = getMajorityTxId(highestTxIds);
+    }
     
     final PriorityQueue<EditLogInputStream> allStreams = 
         new PriorityQueue<EditLogInputStream>(64,
@@ -480,16 +525,82 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
       RemoteEditLogManifest manifest = e.getValue();
       
       for (RemoteEditLog remoteLog : manifest.getLogs()) {
+        long endTxId = remoteLog.getEndTxId();
+        if (remoteLog.isInProgress() && endTxId > durableTxId) {
+          endTxId = durableTxId;
+          if (endTxId < remoteLog.getStartTxId()) {
+            continue;
+          }
+        }
         URL url = logger.buildURLToFetchLogs(remoteLog.getStartTxId());
 
         EditLogInputStream elis = EditLogFileInputStream.fromUrl(
             connectionFactory, url, remoteLog.getStartTxId(),
-            remoteLog.getEndTxId(), remoteLog.isInProgress());
+            endTxId, remoteLog.isInProgress());
         allStreams.add(elis);
       }
     }
     JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
   }
+
+  /**
+   * Fetch the edits starting at fromTxnId from the edit cache of the
+   * JournalNodes, up to the highest transaction which a majority of them
+   * returned.
+   * @throws IOException if a majority of the JournalNodes could not serve
+   *         the edits from their cache
+   */
+  private void selectCachedInputStreams(
+      Collection<EditLogInputStream> streams, long fromTxnId)
+      throws IOException {
+    QuorumCall<AsyncLogger, GetJournaledEditsResponseProto> q =
+        loggers.getJournaledEdits(fromTxnId, tailEditsMaxTxns);
+    Map<AsyncLogger, GetJournaledEditsResponseProto> resps =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectCachedInputStreams");
+
+    List<Long> lastTxIds = Lists.newArrayListWithCapacity(resps.size());
+    AsyncLogger bestLogger = null;
+    GetJournaledEditsResponseProto best = null;
+    long bestLastTxId = fromTxnId - 1;
+    for (Map.Entry<AsyncLogger, GetJournaledEditsResponseProto> e
+        : resps.entrySet()) {
+      GetJournaledEditsResponseProto resp = e.getValue();
+      long lastTxId = resp.getTxnCount() == 0 ? fromTxnId - 1 :
+          resp.getFromTxId() + resp.getTxnCount() - 1;
+      lastTxIds.add(lastTxId);
+      if (lastTxId > bestLastTxId) {
+        bestLogger = e.getKey();
+        best = resp;
+        bestLastTxId = lastTxId;
+      }
+    }
+    long durableTxId = getMajorityTxId(lastTxIds);
+    if (durableTxId < fromTxnId) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("No durable edits after txid " + fromTxnId + " in the " +
+            "edit cache of " + loggers);
+      }
+      return;
+    }
+
+    final PriorityQueue<EditLogInputStream> allStreams =
+        new PriorityQueue<EditLogInputStream>(1,
+            JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+    allStreams.add(EditLogFileInputStream.fromByteString(
+        "edit cache of " + bestLogger, best.getEditLog(),
+        best.getFromTxId(), durableTxId, true));
+    JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
+  }
+
+  /**
+   * @return the highest of the given txids which a majority of the loggers
+   *         have reached. There must be at least a majority of txids.
+   */
+  private long getMajorityTxId(List<Long> txIds) {
+    Collections.sort(txIds, Collections.reverseOrder());
+    return txIds.get(loggers.getMajoritySize() - 1);
+  }
   
   @Override
   public String toString() {
@@ -22,6 +22,7 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.security.PrivilegedExceptionAction;
@@ -33,11 +34,13 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PersistedRecoveryPaxosData;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -60,11 +63,13 @@
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Range;
 import com.google.common.collect.Ranges;
@@ -84,6 +89,20 @@ public class Journal implements Closeable {
   private long curSegmentTxId = HdfsConstants.INVALID_TXID;
   private long nextTxId = HdfsConstants.INVALID_TXID;
   private long highestWrittenTxId = 0;
+
+  /**
+   * The highest txid known to be durable in the current segment. A batch
+   * whose fsync was left to the batch after it waits until this covers it.
+   */
+  private long syncedTxId = HdfsConstants.INVALID_TXID;
+
+  /**
+   * First txids of the batches which have arrived and are waiting to be, or
+   * are being, written. This is updated outside of the lock, so that a batch
+   * can see that the next one is already queued behind it.
+   */
+  private final ConcurrentHashMultiset<Long> pendingBatches =
+      ConcurrentHashMultiset.create();
   
   private final String journalId;
   
@@ -132,11 +151,25 @@ public class Journal implements Closeable {
 
   private final JournalMetrics metrics;
 
+  /**
+   * Recently written edits, served to readers tailing the in-progress
+   * segment, or null if the cache is disabled.
+   */
+  private final JournaledEditsCache cache;
+
   /**
    * Time threshold for sync calls, beyond which a warning should be logged to the console.
    */
   private static final int WARN_SYNC_MILLIS_THRESHOLD = 1000;
 
+  /**
+   * How long a batch which arrived ahead of the batches before it waits for
+   * them before it is rejected as out of sync. Writers may have more than one
+   * batch in flight, see
+   * {@link org.apache.hadoop.hdfs.DFSConfigKeys#DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY}.
+   */
+  private static final int MAX_REORDER_WAIT_MILLIS = 1000;
+
   Journal(Configuration conf, File logDir, String journalId,
       StorageErrorReporter errorReporter) throws IOException {
     storage = new JNStorage(conf, logDir, errorReporter);
@@ -147,6 +180,11 @@ public class Journal implements Closeable {
     this.fjm = storage.getJournalManager();
     
     this.metrics = JournalMetrics.create(this);
+
+    int cacheSize = conf.getInt(
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT);
+    this.cache = cacheSize > 0 ? new JournaledEditsCache(cacheSize) : null;
     
     EditLogFile latest = scanStorageForLatestEdits();
     if (latest != null) {
@@ -215,6 +253,9 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    if (cache != null) {
+      cache.clear();
+    }
   }
 
   /**
@@ -327,16 +368,37 @@ private void abortCurSegment() throws IOException {
     curSegment.abort();
     curSegment = null;
     curSegmentTxId = HdfsConstants.INVALID_TXID;
+    // The edits which were not committed may be replaced by recovery.
+    if (cache != null) {
+      cache.clear();
+    }
   }
 
   /**
    * Write a batch of edits to the journal.
    * {@see QJournalProtocol#journal(RequestInfo, long, long, int, byte[])}
    */
-  synchronized void journal(RequestInfo reqInfo,
+  void journal(RequestInfo reqInfo,
+      long segmentTxId, long firstTxnId,
+      int numTxns, byte[] records) throws IOException {
+    pendingBatches.add(firstTxnId);
+    try {
+      journalInternal(reqInfo, segmentTxId, firstTxnId, numTxns, records);
+    } finally {
+      pendingBatches.remove(firstTxnId);
+      synchronized (this) {
+        // A batch waiting for this one to sync it has to sync itself now.
+        notifyAll();
+      }
+    }
+  }
+
+  private synchronized void journalInternal(RequestInfo reqInfo,
       long segmentTxId, long firstTxnId,
       int numTxns, byte[] records) throws IOException {
     checkFormatted();
+    Stopwatch writeSw = new Stopwatch().start();
+    waitForEarlierBatches(reqInfo, segmentTxId, firstTxnId);
     checkWriteRequest(reqInfo);
 
     checkSync(curSegment != null,
@@ -369,19 +431,23 @@ synchronized void journal(RequestInfo reqInfo,
     // "catching up" with the rest. Hence we do not need to fsync.
     boolean isLagging = lastTxnId <= committedTxnId.get();
     boolean shouldFsync = !isLagging;
-    
+
     curSegment.writeRaw(records, 0, records.length);
-    curSegment.setReadyToFlush();
-    Stopwatch sw = new Stopwatch();
-    sw.start();
-    curSegment.flush(shouldFsync);
-    sw.stop();
-    
-    metrics.addSync(sw.elapsedTime(TimeUnit.MICROSECONDS));
-    if (sw.elapsedTime(TimeUnit.MILLISECONDS) > WARN_SYNC_MILLIS_THRESHOLD) {
-      LOG.warn("Sync of transaction range " + firstTxnId + "-" + lastTxnId +
-               " took " + sw.elapsedTime(TimeUnit.MILLISECONDS) + "ms");
+    if (cache != null) {
+      cache.storeEdits(records, firstTxnId, lastTxnId);
+    }
+    if (shouldFsync && pendingBatches.contains(lastTxnId + 1)) {
+      // The next batch has already arrived. Leave these edits in the
+      // buffer so that it writes and syncs both batches at once.
+      nextTxId = lastTxnId + 1;
+      metrics.batchesGroupSynced.incr(1);
+      notifyAll();
+      waitForSync(lastTxnId);
+    } else {
+      flushCurSegment(shouldFsync, firstTxnId, lastTxnId);
+      nextTxId = lastTxnId + 1;
     }
+    metrics.addWrite(writeSw.stop().elapsedTime(TimeUnit.MICROSECONDS));
 
     if (isLagging) {
       // This batch of edits has already been committed on a quorum of other
@@ -392,9 +458,82 @@ synchronized void journal(RequestInfo reqInfo,
     metrics.batchesWritten.incr(1);
     metrics.bytesWritten.incr(records.length);
     metrics.txnsWritten.incr(numTxns);
+    notifyAll();
+  }
+
+  /**
+   * Flush all the edits written to the current segment, including those of
+   * batches which left their fsync to this one.
+   */
+  private void flushCurSegment(boolean shouldFsync, long firstTxnId,
+      long lastTxnId) throws IOException {
+    curSegment.setReadyToFlush();
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    curSegment.flush(shouldFsync);
+    sw.stop();
     
+    metrics.addSync(sw.elapsedTime(TimeUnit.MICROSECONDS));
+    if (sw.elapsedTime(TimeUnit.MILLISECONDS) > WARN_SYNC_MILLIS_THRESHOLD) {
+      LOG.warn("Sync of transaction range " + firstTxnId + "-" + lastTxnId +
+               " took " + sw.elapsedTime(TimeUnit.MILLISECONDS) + "ms");
+    }
     highestWrittenTxId = lastTxnId;
-    nextTxId = lastTxnId + 1;
+    if (shouldFsync) {
+      syncedTxId = lastTxnId;
+    }
+    if (cache != null) {
+      cache.setFlushedTxId(lastTxnId);
+    }
+  }
+
+  /**
+   * A writer may have several batches in flight, which can reach the
+   * handlers out of order. Wait for a bounded time for the batches in front
+   * of this one to be written.
+   */
+  private void waitForEarlierBatches(RequestInfo reqInfo, long segmentTxId,
+      long firstTxnId) throws IOException {
+    long deadline = Time.monotonicNow() + MAX_REORDER_WAIT_MILLIS;
+    while (curSegment != null && curSegmentTxId == segmentTxId &&
+        firstTxnId > nextTxId &&
+        reqInfo.getEpoch() == lastPromisedEpoch.get() &&
+        reqInfo.getIpcSerialNumber() > currentEpochIpcSerial + 1) {
+      long remaining = deadline - Time.monotonicNow();
+      if (remaining <= 0) {
+        return;
+      }
+      try {
+        wait(remaining);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while waiting for txid " + nextTxId);
+      }
+    }
+  }
+
+  /**
+   * Wait for a later batch to write and sync the given txid. If no batch
+   * that would do so is pending anymore, sync it here.
+   */
+  private void waitForSync(long txid) throws IOException {
+    final EditLogOutputStream segment = curSegment;
+    while (syncedTxId < txid) {
+      checkSync(curSegment == segment,
+          "Segment was closed before txid %s was synced", txid);
+      if (!pendingBatches.contains(nextTxId)) {
+        flushCurSegment(true, txid, nextTxId - 1);
+        return;
+      }
+      try {
+        wait(MAX_REORDER_WAIT_MILLIS);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while waiting for txid " + txid + " to be synced");
+      }
+    }
   }
 
   public void heartbeat(RequestInfo reqInfo) throws IOException {
@@ -542,6 +681,7 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid)
     curSegment = fjm.startLogSegment(txid);
     curSegmentTxId = txid;
     nextTxId = txid;
+    syncedTxId = txid - 1;
   }
   
   /**
@@ -656,6 +796,28 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId,
     return new RemoteEditLogManifest(logs);
   }
 
+  /**
+   * @see QJournalProtocol#getJournaledEdits(String, long, int)
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    // Like getEditLogManifest(), this is open to any reader.
+    checkFormatted();
+    if (cache == null) {
+      throw new IOException("The edit cache of journal " + journalId +
+          " is disabled");
+    }
+    try {
+      GetJournaledEditsResponseProto response =
+          cache.retrieveEdits(sinceTxId, maxTxns);
+      metrics.editCacheHits.incr(1);
+      return response;
+    } catch (IOException e) {
+      metrics.editCacheMisses.incr(1);
+      throw e;
+    }
+  }
+
   /**
    * @return the current state of the given segment, or null if the
    * segment does not exist.
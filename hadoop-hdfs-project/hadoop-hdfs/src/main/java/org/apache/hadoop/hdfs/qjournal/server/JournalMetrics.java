@@ -45,6 +45,15 @@ class JournalMetrics {
   
   @Metric("Number of batches written where this node was lagging")
   MutableCounterLong batchesWrittenWhileLagging;
+
+  @Metric("Number of batches synced together with the batch after them")
+  MutableCounterLong batchesGroupSynced;
+
+  @Metric("Number of reads served from the edit cache")
+  MutableCounterLong editCacheHits;
+
+  @Metric("Number of reads of edits which were not in the edit cache")
+  MutableCounterLong editCacheMisses;
   
   private final int[] QUANTILE_INTERVALS = new int[] {
       1*60, // 1m
@@ -53,6 +62,8 @@ class JournalMetrics {
   };
   
   MutableQuantiles[] syncsQuantiles;
+
+  MutableQuantiles[] writesQuantiles;
   
   private final Journal journal;
 
@@ -66,6 +77,14 @@ class JournalMetrics {
           "syncs" + interval + "s",
           "Journal sync time", "ops", "latencyMicros", interval);
     }
+    writesQuantiles = new MutableQuantiles[QUANTILE_INTERVALS.length];
+    for (int i = 0; i < writesQuantiles.length; i++) {
+      int interval = QUANTILE_INTERVALS[i];
+      writesQuantiles[i] = registry.newQuantiles(
+          "writes" + interval + "s",
+          "Journal write time, including waits for earlier batches and " +
+          "for group syncs", "ops", "latencyMicros", interval);
+    }
   }
   
   public static JournalMetrics create(Journal j) {
@@ -115,4 +134,10 @@ void addSync(long us) {
       q.add(us);
     }
   }
+
+  void addWrite(long us) {
+    for (MutableQuantiles q : writesQuantiles) {
+      q.add(us);
+    }
+  }
 }
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.ByteString;
+
+/**
+ * An in-memory cache of the batches of edits most recently written to a
+ * {@link Journal}, which lets readers that tail the in-progress segment
+ * fetch new edits with an RPC rather than reading the edit log file over
+ * HTTP.
+ *
+ * The batches are kept as the serialized records that the writer sent,
+ * keyed by their first transaction ID, and the oldest batches are evicted
+ * once the cache holds more than its capacity in bytes. A batch only
+ * becomes visible to readers once the Journal has flushed it to disk.
+ * Cached edits are always contiguous: a batch which does not follow the
+ * newest cached one clears the cache.
+ */
+class JournaledEditsCache {
+  private static final Log LOG = LogFactory.getLog(JournaledEditsCache.class);
+
+  /** The header which starts every returned edit log. */
+  private static final byte[] HEADER;
+  static {
+    DataOutputBuffer buf = new DataOutputBuffer();
+    try {
+      EditLogFileOutputStream.writeHeader(buf);
+    } catch (IOException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+    HEADER = new byte[buf.getLength()];
+    System.arraycopy(buf.getData(), 0, HEADER, 0, buf.getLength());
+  }
+
+  private final int capacity;
+
+  /** The cached batches of records, by their first transaction ID */
+  private final NavigableMap<Long, byte[]> batches =
+      new TreeMap<Long, byte[]>();
+  private int size = 0;
+
+  /** The last transaction of the newest cached batch */
+  private long highestTxId = HdfsConstants.INVALID_TXID;
+
+  /** The last transaction which has been flushed and may be returned */
+  private long highestFlushedTxId = HdfsConstants.INVALID_TXID;
+
+  JournaledEditsCache(int capacity) {
+    Preconditions.checkArgument(capacity > 0,
+        "Bad edit cache capacity: %s", capacity);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a batch of edits which has just been written to the journal. The
+   * batch is not returned to readers before {@link #setFlushedTxId(long)}
+   * is called with its last transaction ID or a later one.
+   */
+  synchronized void storeEdits(byte[] records, long firstTxId,
+      long lastTxId) {
+    if (!batches.isEmpty() && firstTxId != highestTxId + 1) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Clearing the edit cache: batch " + firstTxId + "-" +
+            lastTxId + " does not follow the cached edits up to " +
+            highestTxId);
+      }
+      clear();
+    }
+    batches.put(firstTxId, records);
+    size += records.length;
+    highestTxId = lastTxId;
+    // Always keep the newest batch, even if it is larger than the capacity.
+    while (size > capacity && batches.size() > 1) {
+      size -= batches.pollFirstEntry().getValue().length;
+    }
+  }
+
+  /**
+   * Make the cached edits up to the given transaction ID visible to readers.
+   */
+  synchronized void setFlushedTxId(long txid) {
+    highestFlushedTxId = Math.min(txid, highestTxId);
+  }
+
+  /**
+   * Drop all the cached edits, e.g. because the edits which have not been
+   * committed yet may be replaced by recovery.
+   */
+  synchronized void clear() {
+    batches.clear();
+    size = 0;
+    highestTxId = HdfsConstants.INVALID_TXID;
+    highestFlushedTxId = HdfsConstants.INVALID_TXID;
+  }
+
+  /**
+   * Return the cached batches starting with the one which contains the given
+   * transaction, prefixed by an edit log header. Whole batches are returned
+   * until at least maxTxns transactions, or all the flushed edits, have
+   * been added. If the cache holds no edit at or after sinceTxId yet, the
+   * response contains no transactions.
+   *
+   * @throws IOException if sinceTxId is older than the oldest cached edit,
+   *         or if the cache is empty, so that it cannot tell whether the
+   *         edits exist.
+   */
+  synchronized GetJournaledEditsResponseProto retrieveEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    if (batches.isEmpty()) {
+      throw new IOException("No edits are cached");
+    }
+    long lowestTxId = batches.firstKey();
+    if (sinceTxId < lowestTxId) {
+      throw new IOException("Transaction " + sinceTxId +
+          " is no longer cached; the oldest cached transaction is " +
+          lowestTxId);
+    }
+    GetJournaledEditsResponseProto.Builder response =
+        GetJournaledEditsResponseProto.newBuilder();
+    if (sinceTxId > highestFlushedTxId) {
+      return response.setTxnCount(0).build();
+    }
+
+    NavigableMap<Long, byte[]> tail =
+        batches.tailMap(batches.floorKey(sinceTxId), true);
+    long fromTxId = tail.firstKey();
+    long nextTxId = fromTxId;
+    int length = HEADER.length;
+    for (Map.Entry<Long, byte[]> e : tail.entrySet()) {
+      if (e.getKey() > highestFlushedTxId
+          || nextTxId - sinceTxId >= maxTxns) {
+        break;
+      }
+      Map.Entry<Long, byte[]> next = batches.higherEntry(e.getKey());
+      nextTxId = next == null ? highestTxId + 1 : next.getKey();
+      length += e.getValue().length;
+    }
+
+    ByteString.Output out = ByteString.newOutput(length);
+    out.write(HEADER);
+    for (byte[] records : tail.headMap(nextTxId, false).values()) {
+      out.write(records);
+    }
+    return response
+        .setTxnCount((int)(nextTxId - fromTxId))
+        .setFromTxId(fromTxId)
+        .setEditLog(out.toByteString())
+        .build();
+  }
+
+  @VisibleForTesting
+  synchronized int getSize() {
+    return size;
+  }
+
+  @VisibleForTesting
+  synchronized long getLowestTxId() {
+    return batches.isEmpty() ?
+        HdfsConstants.INVALID_TXID : batches.firstKey();
+  }
+}
@@ -26,6 +26,7 @@
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
@@ -35,6 +36,7 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.HashMap;
@@ -43,10 +45,13 @@
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -138,6 +143,12 @@
  * administrator changes the value of this property in the configuration 
  * file, the change is observed when HDFS is next restarted.
  * 
+ * <p>The number of block moves that a datanode runs concurrently for
+ * balancing is limited by dfs.datanode.balance.max.concurrent.moves. The
+ * balancer keeps up to that many moves in flight at every source and
+ * target, and fetches more blocks of a source from the namenode in the
+ * background before the ones it knows of run out.
+ * 
  * <p>MONITERING BALANCER PROGRESS
  * <p>After the balancer is started, an output file name where the balancer 
  * progress will be recorded is printed on the screen.  The administrator 
@@ -149,6 +160,9 @@
  * to be balanced, and the number of bytes that are being moved in this 
  * iteration. Normally "Bytes Already Moved" is increasing while "Bytes Left 
  * To Move" is decreasing.
+ * Within an iteration, the number of bytes moved so far and the current
+ * and average rate of moving them are logged every
+ * dfs.balancer.progressReportInterval milliseconds.
  * 
  * <p>Running multiple instances of the balancer in an HDFS cluster is 
  * prohibited by the tool.
@@ -185,10 +199,6 @@ public class Balancer {
   final private static long MAX_BLOCKS_SIZE_TO_FETCH = 2*1024*1024*1024L; //2GB
   private static long WIN_WIDTH = 5400*1000L; // 1.5 hour
 
-  /** The maximum number of concurrent blocks moves for 
-   * balancing purpose at a datanode
-   */
-  public static final int MAX_NUM_CONCURRENT_MOVES = 5;
   private static final int MAX_NO_PENDING_BLOCK_ITERATIONS = 5;
   
   private static final String USAGE = "Usage: java "
@@ -201,6 +211,9 @@ public class Balancer {
   private final NameNodeConnector nnc;
   private final BalancingPolicy policy;
   private final double threshold;
+  /** The maximum number of concurrent block moves at a datanode */
+  private final int maxConcurrentMovesPerNode;
+  private final long progressReportInterval;
   
   // all data node lists
   private Collection<Source> overUtilizedDatanodes
@@ -228,6 +241,7 @@ public class Balancer {
 
   private final ExecutorService moverExecutor;
   private final ExecutorService dispatcherExecutor;
+  private final ExecutorService fetcherExecutor;
 
   /* This class keeps track of a scheduled block move */
   private class PendingBlockMove {
@@ -498,8 +512,8 @@ private static class BalancerDatanode {
     final long maxSize2Move;
     private long scheduledSize = 0L;
     //  blocks being moved but not confirmed yet
-    private List<PendingBlockMove> pendingBlocks = 
-      new ArrayList<PendingBlockMove>(MAX_NUM_CONCURRENT_MOVES); 
+    private final List<PendingBlockMove> pendingBlocks;
+    private final int maxConcurrentMoves;
     
     @Override
     public String toString() {
@@ -510,8 +524,11 @@ public String toString() {
     /* Constructor 
      * Depending on avgutil & threshold, calculate maximum bytes to move 
      */
-    private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy, double threshold) {
+    private BalancerDatanode(DatanodeInfo node, BalancingPolicy policy,
+        double threshold, int maxConcurrentMoves) {
       datanode = node;
+      this.maxConcurrentMoves = maxConcurrentMoves;
+      this.pendingBlocks = new ArrayList<PendingBlockMove>(maxConcurrentMoves);
       utilization = policy.getUtilization(node);
       final double avgUtil = policy.getAvgUtilization();
       long maxSizeToMove;
@@ -576,7 +593,7 @@ protected synchronized void setScheduledSize(long size){
     
     /* Check if the node can schedule more blocks to move */
     synchronized private boolean isPendingQNotFull() {
-      if ( pendingBlocks.size() < MAX_NUM_CONCURRENT_MOVES ) {
+      if ( pendingBlocks.size() < maxConcurrentMoves ) {
         return true;
       }
       return false;
@@ -623,10 +640,15 @@ public void run() {
      */
     private List<BalancerBlock> srcBlockList
             = new ArrayList<BalancerBlock>();
+    /* an outstanding getBlocks call issued ahead of need, if any */
+    private Future<BlockWithLocations[]> blockFetch;
+    /* set by chooseNextBlockToMove */
+    private boolean allTargetsBusy;
     
     /* constructor */
-    private Source(DatanodeInfo node, BalancingPolicy policy, double threshold) {
-      super(node, policy, threshold);
+    private Source(DatanodeInfo node, BalancingPolicy policy, double threshold,
+        int maxConcurrentMoves) {
+      super(node, policy, threshold, maxConcurrentMoves);
     }
     
     /** Add a node task */
@@ -642,13 +664,53 @@ private Iterator<BalancerBlock> getBlockIterator() {
       return srcBlockList.iterator();
     }
     
-    /* fetch new blocks of this source from namenode and
-     * update this source's block list & the global block list
-     * Return the total size of the received blocks in the number of bytes.
+    /* ask the namenode for more blocks of this source in the background,
+     * so that block moves keep being scheduled while the call is served.
+     */
+    private void prefetchBlockList() {
+      final long size = Math.min(MAX_BLOCKS_SIZE_TO_FETCH, blocksToReceive);
+      blockFetch = fetcherExecutor.submit(new Callable<BlockWithLocations[]>() {
+        @Override
+        public BlockWithLocations[] call() throws IOException {
+          return nnc.namenode.getBlocks(datanode, size).getBlocks();
+        }
+      });
+    }
+
+    /* If the outstanding getBlocks call has completed, or if wait is true,
+     * add its blocks to this source's block list & the global block list.
+     */
+    private void collectBlockList(boolean wait) throws IOException {
+      if (blockFetch == null || (!wait && !blockFetch.isDone())) {
+        return;
+      }
+      final Future<BlockWithLocations[]> fetch = blockFetch;
+      blockFetch = null;
+      final BlockWithLocations[] newBlocks;
+      try {
+        newBlocks = fetch.get();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while getting blocks of "
+            + getDisplayName());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException)e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+      if (newBlocks.length == 0) {
+        // the namenode has no more blocks to offer for this source
+        blocksToReceive = 0;
+      } else {
+        blocksToReceive -= addBlocks(newBlocks);
+      }
+    }
+
+    /* Update this source's block list & the global block list with the
+     * given blocks.
+     * Return the total size of the blocks in the number of bytes.
      */
-    private long getBlockList() throws IOException {
-      BlockWithLocations[] newBlocks = nnc.namenode.getBlocks(datanode, 
-        Math.min(MAX_BLOCKS_SIZE_TO_FETCH, blocksToReceive)).getBlocks();
+    private long addBlocks(BlockWithLocations[] newBlocks) {
       long bytesReceived = 0;
       for (BlockWithLocations blk : newBlocks) {
         bytesReceived += blk.getBlock().getNumBytes();
@@ -666,7 +728,7 @@ private long getBlockList() throws IOException {
             // update locations
             for (String datanodeUuid : blk.getDatanodeUuids()) {
               final BalancerDatanode d = datanodeMap.get(datanodeUuid);
-              if (datanode != null) { // not an unknown datanode
+              if (d != null) { // not an unknown datanode
                 block.addLocation(d);
               }
             }
@@ -696,14 +758,18 @@ private boolean isGoodBlockCandidate(BalancerBlock block) {
      * has been considered. They are chosen only when they have the capacity
      * to support this block move.
      * The block should be dispatched immediately after this method is returned.
+     * If null is returned, allTargetsBusy tells whether that was only because
+     * every target already had its maximum number of moves in flight.
      */
     private PendingBlockMove chooseNextBlockToMove() {
+      allTargetsBusy = !nodeTasks.isEmpty();
       for ( Iterator<NodeTask> tasks=nodeTasks.iterator(); tasks.hasNext(); ) {
         NodeTask task = tasks.next();
         BalancerDatanode target = task.getDatanode();
         PendingBlockMove pendingBlock = new PendingBlockMove();
         if (target.addPendingBlock(pendingBlock)) { 
           // target is not busy, so do a tentative block allocation
+          allTargetsBusy = false;
           pendingBlock.source = this;
           pendingBlock.target = target;
           if ( pendingBlock.chooseBlockAndProxy() ) {
@@ -734,17 +800,26 @@ private void filterMovedBlocks() {
     }
     
     private static final int SOURCE_BLOCK_LIST_MIN_SIZE=5;
+    private static final int SOURCE_BLOCK_LIST_PREFETCH_SIZE=50;
     /* Return if should fetch more blocks from namenode */
     private boolean shouldFetchMoreBlocks() {
       return srcBlockList.size()<SOURCE_BLOCK_LIST_MIN_SIZE &&
                  blocksToReceive>0;
     }
+
+    /* Return if should start fetching more blocks ahead of need */
+    private boolean shouldPrefetchBlocks() {
+      return blockFetch == null && blocksToReceive>0 &&
+          srcBlockList.size()<SOURCE_BLOCK_LIST_PREFETCH_SIZE;
+    }
     
     /* This method iteratively does the following:
      * it first selects a block to move,
      * then sends a request to the proxy source to start the block move
      * when the source's block list falls below a threshold, it asks
-     * the namenode for more blocks.
+     * the namenode for more blocks. The next getBlocks call is issued in
+     * the background well before the list runs out, so that the source
+     * and its targets are kept busy while the namenode serves it.
      * It terminates when it has dispatch enough block move tasks or
      * it has received enough blocks from the namenode, or 
      * the elapsed time of the iteration has exceeded the max time limit.
@@ -756,53 +831,69 @@ private void dispatchBlocks() {
       this.blocksToReceive = 2*scheduledSize;
       boolean isTimeUp = false;
       int noPendingBlockIteration = 0;
-      while(!isTimeUp && getScheduledSize()>0 &&
-          (!srcBlockList.isEmpty() || blocksToReceive>0)) {
-        PendingBlockMove pendingBlock = chooseNextBlockToMove();
-        if (pendingBlock != null) {
-          // move the block
-          pendingBlock.scheduleBlockMove();
-          continue;
-        }
-        
-        /* Since we can not schedule any block to move,
-         * filter any moved blocks from the source block list and
-         * check if we should fetch more blocks from the namenode
-         */
-        filterMovedBlocks(); // filter already moved blocks
-        if (shouldFetchMoreBlocks()) {
-          // fetch new blocks
-          try {
-            blocksToReceive -= getBlockList();
+      try {
+        while(!isTimeUp && getScheduledSize()>0 &&
+            (!srcBlockList.isEmpty() || blocksToReceive>0
+                || blockFetch != null)) {
+          // pick up blocks fetched in the background and keep the next
+          // getBlocks call in flight
+          collectBlockList(false);
+          if (shouldPrefetchBlocks()) {
+            prefetchBlockList();
+          }
+
+          PendingBlockMove pendingBlock = chooseNextBlockToMove();
+          if (pendingBlock != null) {
+            // move the block
+            pendingBlock.scheduleBlockMove();
+            noPendingBlockIteration = 0;
             continue;
-          } catch (IOException e) {
-            LOG.warn("Exception while getting block list", e);
-            return;
           }
-        } else {
-          // source node cannot find a pendingBlockToMove, iteration +1
-          noPendingBlockIteration++;
-          // in case no blocks can be moved for source node's task,
-          // jump out of while-loop after 5 iterations.
-          if (noPendingBlockIteration >= MAX_NO_PENDING_BLOCK_ITERATIONS) {
-            setScheduledSize(0);
+
+          /* Since we can not schedule any block to move,
+           * filter any moved blocks from the source block list and
+           * check if we should wait for more blocks from the namenode
+           */
+          filterMovedBlocks(); // filter already moved blocks
+          if (shouldFetchMoreBlocks()) {
+            // fetch new blocks
+            if (blockFetch == null) {
+              prefetchBlockList();
+            }
+            collectBlockList(true);
+            continue;
+          } else if (!allTargetsBusy) {
+            // source node cannot find a pendingBlockToMove, iteration +1
+            noPendingBlockIteration++;
+            // in case no blocks can be moved for source node's task,
+            // jump out of while-loop after 5 iterations.
+            if (noPendingBlockIteration >= MAX_NO_PENDING_BLOCK_ITERATIONS) {
+              setScheduledSize(0);
+            }
           }
-        }
-        
-        // check if time is up or not
-        if (Time.now()-startTime > MAX_ITERATION_TIME) {
-          isTimeUp = true;
-          continue;
-        }
-        
-        /* Now we can not schedule any block to move and there are
-         * no new blocks added to the source block list, so we wait. 
-         */
-        try {
-          synchronized(Balancer.this) {
-            Balancer.this.wait(1000);  // wait for targets/sources to be idle
+
+          // check if time is up or not
+          if (Time.now()-startTime > MAX_ITERATION_TIME) {
+            isTimeUp = true;
+            continue;
+          }
+
+          /* Now we can not schedule any block to move and there are
+           * no new blocks added to the source block list, so we wait. 
+           */
+          try {
+            synchronized(Balancer.this) {
+              Balancer.this.wait(1000);  // wait for targets/sources to be idle
+            }
+          } catch (InterruptedException ignored) {
           }
-        } catch (InterruptedException ignored) {
+        }
+      } catch (IOException e) {
+        LOG.warn("Exception while getting block list", e);
+      } finally {
+        if (blockFetch != null) {
+          blockFetch.cancel(true);
+          blockFetch = null;
         }
       }
     }
@@ -839,6 +930,15 @@ private static void checkReplicationPolicyCompatibility(Configuration conf
     this.dispatcherExecutor = Executors.newFixedThreadPool(
             conf.getInt(DFSConfigKeys.DFS_BALANCER_DISPATCHERTHREADS_KEY,
                         DFSConfigKeys.DFS_BALANCER_DISPATCHERTHREADS_DEFAULT));
+    this.fetcherExecutor = Executors.newFixedThreadPool(
+            conf.getInt(DFSConfigKeys.DFS_BALANCER_FETCHERTHREADS_KEY,
+                        DFSConfigKeys.DFS_BALANCER_FETCHERTHREADS_DEFAULT));
+    this.maxConcurrentMovesPerNode = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
+        DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT);
+    this.progressReportInterval = conf.getLong(
+        DFSConfigKeys.DFS_BALANCER_PROGRESS_REPORT_INTERVAL_KEY,
+        DFSConfigKeys.DFS_BALANCER_PROGRESS_REPORT_INTERVAL_DEFAULT);
   }
   
   /* Given a data node set, build a network topology and decide
@@ -878,7 +978,8 @@ private long initNodes(DatanodeInfo[] datanodes) {
       BalancerDatanode datanodeS;
       final double avg = policy.getAvgUtilization();
       if (policy.getUtilization(datanode) >= avg) {
-        datanodeS = new Source(datanode, policy, threshold);
+        datanodeS = new Source(datanode, policy, threshold,
+            maxConcurrentMovesPerNode);
         if (isAboveAvgUtilized(datanodeS)) {
           this.aboveAvgUtilizedDatanodes.add((Source)datanodeS);
         } else {
@@ -889,7 +990,8 @@ private long initNodes(DatanodeInfo[] datanodes) {
               -threshold)*datanodeS.datanode.getCapacity()/100.0);
         }
       } else {
-        datanodeS = new BalancerDatanode(datanode, policy, threshold);
+        datanodeS = new BalancerDatanode(datanode, policy, threshold,
+            maxConcurrentMovesPerNode);
         if ( isBelowOrEqualAvgUtilized(datanodeS)) {
           this.belowAvgUtilizedDatanodes.add(datanodeS);
         } else {
@@ -904,6 +1006,16 @@ assert isUnderUtilized(datanodeS) : "isUnderUtilized("
       datanodeMap.put(datanode.getDatanodeUuid(), datanodeS);
     }
 
+    /* Plan the most imbalanced nodes first: the matching in chooseNodes
+     * then pairs the fullest sources with the emptiest targets across the
+     * whole cluster. Sorting is stable, so nodes of equal utilization keep
+     * their shuffled order.
+     */
+    sortByUtilization(overUtilizedDatanodes, true);
+    sortByUtilization(aboveAvgUtilizedDatanodes, true);
+    sortByUtilization(belowAvgUtilizedDatanodes, false);
+    sortByUtilization(underUtilizedDatanodes, false);
+
     //logging
     logNodes();
     
@@ -916,6 +1028,20 @@ assert isUnderUtilized(datanodeS) : "isUnderUtilized("
     return Math.max(overLoadedBytes, underLoadedBytes);
   }
 
+  private static <T extends BalancerDatanode> void sortByUtilization(
+      Collection<T> nodes, final boolean descending) {
+    final List<T> sorted = new ArrayList<T>(nodes);
+    Collections.sort(sorted, new Comparator<T>() {
+      @Override
+      public int compare(T left, T right) {
+        final int c = Double.compare(left.utilization, right.utilization);
+        return descending? -c: c;
+      }
+    });
+    nodes.clear();
+    nodes.addAll(sorted);
+  }
+
   /* log the over utilized & under utilized nodes */
   private void logNodes() {
     logNodes("over-utilized", overUtilizedDatanodes);
@@ -1093,6 +1219,34 @@ private synchronized long get() {
     }
   };
   private BytesMoved bytesMoved = new BytesMoved();
+
+  /* Periodically log how many bytes this iteration has moved so far and
+   * the rate at which they are being moved.
+   */
+  private class ProgressReporter implements Runnable {
+    private final long startTime = Time.monotonicNow();
+    private final long startBytes = bytesMoved.get();
+    private long lastTime = startTime;
+    private long lastBytes = startBytes;
+
+    @Override
+    public void run() {
+      final long now = Time.monotonicNow();
+      final long bytes = bytesMoved.get();
+      LOG.info("Moved " + StringUtils.byteDesc(bytes - startBytes) + " in "
+          + time2Str(now - startTime) + ": "
+          + StringUtils.byteDesc(rate(bytes - lastBytes, now - lastTime))
+          + "/s currently, "
+          + StringUtils.byteDesc(rate(bytes - startBytes, now - startTime))
+          + "/s on average");
+      lastTime = now;
+      lastBytes = bytes;
+    }
+
+    private long rate(long bytes, long millis) {
+      return millis <= 0? 0: bytes*1000L/millis;
+    }
+  }
   
   /* Start a thread to dispatch block moves for each source. 
    * The thread selects blocks to move & sends request to proxy source to
@@ -1102,6 +1256,24 @@ private synchronized long get() {
    */
   private long dispatchBlockMoves() throws InterruptedException {
     long bytesLastMoved = bytesMoved.get();
+    ScheduledExecutorService reporter = null;
+    if (progressReportInterval > 0) {
+      reporter = Executors.newSingleThreadScheduledExecutor();
+      reporter.scheduleAtFixedRate(new ProgressReporter(),
+          progressReportInterval, progressReportInterval,
+          TimeUnit.MILLISECONDS);
+    }
+    try {
+      dispatchAndWait();
+    } finally {
+      if (reporter != null) {
+        reporter.shutdownNow();
+      }
+    }
+    return bytesMoved.get()-bytesLastMoved;
+  }
+
+  private void dispatchAndWait() throws InterruptedException {
     Future<?>[] futures = new Future<?>[sources.size()];
     int i=0;
     for (Source source : sources) {
@@ -1119,8 +1291,6 @@ private long dispatchBlockMoves() throws InterruptedException {
     
     // wait for all block moving to be done
     waitForMoveCompletion();
-    
-    return bytesMoved.get()-bytesLastMoved;
   }
   
   // The sleeping period before checking if block move is completed again
@@ -1132,21 +1302,26 @@ static void setBlockMoveWaitTime(long time) {
   }
   
   /* wait for all block move confirmations 
-   * by checking each target's pendingMove queue 
+   * by checking each target's pendingMove queue.
+   * Every finished move notifies this balancer, so the check is repeated as
+   * soon as a move completes, or after blockMoveWaitTime at the latest.
    */
   private void waitForMoveCompletion() {
     boolean shouldWait;
     do {
       shouldWait = false;
-      for (BalancerDatanode target : targets) {
-        if (!target.isPendingQEmpty()) {
-          shouldWait = true;
+      synchronized (this) {
+        for (BalancerDatanode target : targets) {
+          if (!target.isPendingQEmpty()) {
+            shouldWait = true;
+            break;
+          }
         }
-      }
-      if (shouldWait) {
-        try {
-          Thread.sleep(blockMoveWaitTime);
-        } catch (InterruptedException ignored) {
+        if (shouldWait) {
+          try {
+            wait(blockMoveWaitTime);
+          } catch (InterruptedException ignored) {
+          }
         }
       }
     } while (shouldWait);
@@ -1409,6 +1584,7 @@ private ReturnStatus run(int iteration, Formatter formatter,
     } finally {
       // shutdown thread pools
       dispatcherExecutor.shutdownNow();
+      fetcherExecutor.shutdownNow();
       moverExecutor.shutdownNow();
     }
   }
@@ -116,6 +116,7 @@ public class BlockManager {
   private volatile long corruptReplicaBlocksCount = 0L;
   private volatile long underReplicatedBlocksCount = 0L;
   private volatile long scheduledReplicationBlocksCount = 0L;
+  private volatile long replicationEtaSeconds = -1L;
   private AtomicLong excessBlocksCount = new AtomicLong(0L);
   private AtomicLong postponedMisreplicatedBlocksCount = new AtomicLong(0L);
   
@@ -135,6 +136,15 @@ public long getCorruptReplicaBlocksCount() {
   public long getScheduledReplicationBlocksCount() {
     return scheduledReplicationBlocksCount;
   }
+  /**
+   * Used by metrics.
+   * @return the estimated number of seconds until all the under-replicated
+   *         blocks which can be replicated have been, based on the rate at
+   *         which replications have recently completed, or -1 if unknown
+   */
+  public long getReplicationEtaSeconds() {
+    return replicationEtaSeconds;
+  }
   /** Used by metrics */
   public long getPendingDeletionBlocksCount() {
     return invalidateBlocks.numBlocks();
@@ -154,6 +164,13 @@ public int getPendingDataNodeMessageCount() {
 
   /**replicationRecheckInterval is how often namenode checks for new replication work*/
   private final long replicationRecheckInterval;
+
+  /** Weight of a new sample of the replication completion rate */
+  private static final double REPLICATION_RATE_ALPHA = 0.1;
+  /** Smoothed replicas completed per second; updated by ReplicationMonitor */
+  private double replicationRate = 0;
+  private long lastCompletedReplications = 0;
+  private long lastReplicationRateUpdate = 0;
   
   /**
    * Mapping: Block -> { BlockCollection, datanodes, self ref }
@@ -1344,7 +1361,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
           // Move the block-replication into a "pending" state.
           // The reason we use 'pending' is so we can retry
           // replications that fail after an appropriate amount of time.
-          pendingReplications.increment(block,
+          pendingReplications.increment(block, rw.srcNode,
               DatanodeStorageInfo.toDatanodeDescriptors(targets));
           if(blockLog.isDebugEnabled()) {
             blockLog.debug(
@@ -1441,10 +1458,11 @@ List<DatanodeDescriptor> getDatanodeDescriptors(List<String> nodes) {
    * We prefer nodes that are in DECOMMISSION_INPROGRESS state to other nodes
    * since the former do not have write traffic and hence are less busy.
    * We do not use already decommissioned nodes as a source.
-   * Otherwise we choose a random node among those that did not reach their
-   * replication limits.  However, if the replication is of the highest priority
-   * and all nodes have reached their replication limits, we will choose a
-   * random node despite the replication limit.
+   * Otherwise we choose the node with the least replication work in flight
+   * relative to its observed replication throughput among those that did not
+   * reach their replication limits, breaking ties randomly.  However, if the
+   * replication is of the highest priority and all nodes have reached their
+   * replication limits, we will choose a node despite the replication limit.
    *
    * In addition form a list of all nodes containing the block
    * and calculate its replication numbers.
@@ -1520,10 +1538,13 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
       }
       if(srcNode.isDecommissionInProgress())
         continue;
-      // switch to a different node randomly
-      // this to prevent from deterministically selecting the same node even
-      // if the node failed to replicate the block on previous iterations
-      if(DFSUtil.getRandom().nextBoolean())
+      // prefer the node which is expected to get through its replication
+      // work soonest.  Among equally loaded nodes switch randomly, to
+      // prevent from deterministically selecting the same node even if the
+      // node failed to replicate the block on previous iterations
+      int cmp = Double.compare(getReplicationCost(node),
+          getReplicationCost(srcNode));
+      if(cmp < 0 || (cmp == 0 && DFSUtil.getRandom().nextBoolean()))
         srcNode = node;
     }
     if(numReplicas != null)
@@ -1531,6 +1552,63 @@ else if (excessBlocks != null && excessBlocks.contains(block)) {
     return srcNode;
   }
 
+  /**
+   * @return the expected time for the node to work through its in-flight
+   *         replications plus one more, in arbitrary units.  If no
+   *         throughput is known at all, this is just the number of
+   *         replications.
+   */
+  private double getReplicationCost(DatanodeDescriptor node) {
+    double throughput = pendingReplications.getThroughput(node);
+    return (pendingReplications.getInFlight(node) + 1)
+        / (throughput > 0 ? throughput : 1);
+  }
+
+  /**
+   * Choose how many under-replicated blocks to process in one iteration.
+   * Blocks for which every source has reached its replication limit are
+   * skipped until the under-replicated queues come round to them again, so
+   * there is no point in choosing many more blocks than the sources have
+   * free replication streams.  The result is between the number of live
+   * nodes and the number of live nodes times the work multiplier.
+   */
+  private int getReplicationBatchSize(int numlive) {
+    long freeStreams = 0;
+    for (DatanodeDescriptor node : heartbeatManager.getDatanodes()) {
+      freeStreams += Math.max(0,
+          maxReplicationStreams - node.getNumberOfBlocksToBeReplicated());
+    }
+    long maxBatch = (long) numlive * blocksReplWorkMultiplier;
+    return (int) Math.max(numlive, Math.min(maxBatch, freeStreams));
+  }
+
+  /**
+   * Update the smoothed rate at which replications complete, and the
+   * estimated time to replicate all the under-replicated blocks.
+   */
+  private void updateReplicationEta() {
+    final long now = Time.monotonicNow();
+    final long completed = pendingReplications.getCompletedReplications();
+    if (lastReplicationRateUpdate > 0 && now > lastReplicationRateUpdate) {
+      double sample = (completed - lastCompletedReplications) * 1000.0
+          / (now - lastReplicationRateUpdate);
+      replicationRate += REPLICATION_RATE_ALPHA * (sample - replicationRate);
+    }
+    lastReplicationRateUpdate = now;
+    lastCompletedReplications = completed;
+
+    final long remaining = getUnderReplicatedNotMissingBlocks()
+        + pendingReplications.size();
+    if (remaining == 0) {
+      replicationEtaSeconds = 0;
+    } else if (replicationRate * 3600 * 24 * 365 < remaining) {
+      // more than a year at this rate is no meaningful estimate
+      replicationEtaSeconds = -1;
+    } else {
+      replicationEtaSeconds = (long) Math.ceil(remaining / replicationRate);
+    }
+  }
+
   /**
    * If there were any replication requests that timed out, reap them
    * and put them back into the neededReplication queue
@@ -3275,8 +3353,7 @@ int computeDatanodeWork() {
     }
 
     final int numlive = heartbeatManager.getLiveDatanodeCount();
-    final int blocksToProcess = numlive
-        * this.blocksReplWorkMultiplier;
+    final int blocksToProcess = getReplicationBatchSize(numlive);
     final int nodesToProcess = (int) Math.ceil(numlive
         * this.blocksInvalidateWorkPct);
 
@@ -3286,6 +3363,7 @@ int computeDatanodeWork() {
     namesystem.writeLock();
     try {
       this.updateState();
+      this.updateReplicationEta();
       this.scheduledReplicationBlocksCount = workFound;
     } finally {
       namesystem.writeUnlock();
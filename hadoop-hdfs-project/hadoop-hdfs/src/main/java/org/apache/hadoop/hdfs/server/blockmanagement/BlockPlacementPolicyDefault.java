@@ -593,7 +593,7 @@ private static void logNodeIsNotChosen(DatanodeStorageInfo storage, String reaso
    *         does not have too much load, 
    *         and the rack does not have too many nodes.
    */
-  private boolean isGoodTarget(DatanodeStorageInfo storage,
+  boolean isGoodTarget(DatanodeStorageInfo storage,
                                long blockSize, int maxTargetPerRack,
                                boolean considerLoad,
                                List<DatanodeStorageInfo> results,
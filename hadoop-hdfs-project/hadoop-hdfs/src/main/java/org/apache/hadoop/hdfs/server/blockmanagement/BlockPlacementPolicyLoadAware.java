@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.server.namenode.FSClusterStats;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A block placement policy which keeps the rack constraints of
+ * {@link BlockPlacementPolicyDefault} but steers new replicas away from
+ * busy datanodes.
+ *
+ * Whenever the default policy would pick a random datanode within a scope,
+ * this policy samples a few good candidates in that scope instead (see
+ * {@link DFSConfigKeys#DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_KEY})
+ * and chooses the one with the least load. The load of a storage combines
+ * the active transfers that its datanode reported in the last heartbeat and
+ * the blocks scheduled to it since, relative to the cluster average; how
+ * full the storage is; and the packet write latency that its datanode
+ * reported, relative to the average of the reporting datanodes (see
+ * {@link DFSConfigKeys#DFS_NAMENODE_REPLICATION_CONSIDERLOAD_WRITE_LATENCY_WEIGHT_KEY}).
+ * Blocks scheduled are updated as targets are chosen, so the load of a
+ * datanode reacts to placements immediately rather than one heartbeat later.
+ */
+public class BlockPlacementPolicyLoadAware extends BlockPlacementPolicyDefault {
+
+  private FSClusterStats stats;
+  private int numCandidates;
+  private double writeLatencyWeight;
+
+  protected BlockPlacementPolicyLoadAware(Configuration conf,
+      FSClusterStats stats, NetworkTopology clusterMap) {
+    initialize(conf, stats, clusterMap);
+  }
+
+  protected BlockPlacementPolicyLoadAware() {
+  }
+
+  @Override
+  public void initialize(Configuration conf, FSClusterStats stats,
+      NetworkTopology clusterMap) {
+    super.initialize(conf, stats, clusterMap);
+    this.stats = stats;
+    this.numCandidates = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_DEFAULT);
+    if (numCandidates < 1) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_KEY
+          + " = " + numCandidates + " < 1");
+    }
+    this.writeLatencyWeight = conf.getFloat(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_WRITE_LATENCY_WEIGHT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_WRITE_LATENCY_WEIGHT_DEFAULT);
+    if (writeLatencyWeight < 0) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_WRITE_LATENCY_WEIGHT_KEY
+          + " = " + writeLatencyWeight + " < 0");
+    }
+  }
+
+  /**
+   * Choose <i>numOfReplicas</i> targets from the given <i>scope</i>, each
+   * one the least loaded of a random sample of good candidates.
+   * @return the first chosen node, if there is any.
+   */
+  @Override
+  protected DatanodeStorageInfo chooseRandom(int numOfReplicas,
+                            String scope,
+                            Set<Node> excludedNodes,
+                            long blocksize,
+                            int maxNodesPerRack,
+                            List<DatanodeStorageInfo> results,
+                            boolean avoidStaleNodes,
+                            StorageType storageType)
+                                throws NotEnoughReplicasException {
+    DatanodeStorageInfo firstChosen = null;
+    for(; numOfReplicas > 0; numOfReplicas--) {
+      final DatanodeStorageInfo chosen = chooseLeastLoaded(scope,
+          excludedNodes, blocksize, maxNodesPerRack, results,
+          avoidStaleNodes, storageType);
+      if (chosen == null) {
+        throw new NotEnoughReplicasException("Not able to place "
+            + numOfReplicas + " more replica(s) in " + scope);
+      }
+      results.add(chosen);
+      addToExcludedNodes(chosen.getDatanodeDescriptor(), excludedNodes);
+      if (firstChosen == null) {
+        firstChosen = chosen;
+      }
+    }
+    return firstChosen;
+  }
+
+  /**
+   * Sample up to numCandidates datanodes with a good storage in the given
+   * scope and return the least loaded of those storages. Datanodes without
+   * a good storage are added to excludedNodes, as the default policy does.
+   * @return the chosen storage, or null if there is no good storage left.
+   */
+  private DatanodeStorageInfo chooseLeastLoaded(String scope,
+      Set<Node> excludedNodes, long blocksize, int maxNodesPerRack,
+      List<DatanodeStorageInfo> results, boolean avoidStaleNodes,
+      StorageType storageType) {
+    final double avgLoad = getAvgLoad();
+    final long avgWriteLatency = stats == null? 0
+        : stats.getAvgWriteLatencyMicros();
+    int numOfAvailableNodes = clusterMap.countNumOfAvailableNodes(
+        scope, excludedNodes);
+    final Set<Node> sampled = new HashSet<Node>();
+    DatanodeStorageInfo best = null;
+    double bestLoad = Double.MAX_VALUE;
+    int candidates = 0;
+    while (candidates < numCandidates && numOfAvailableNodes > 0) {
+      final DatanodeDescriptor node =
+          (DatanodeDescriptor)clusterMap.chooseRandom(scope);
+      if (excludedNodes.contains(node) || !sampled.add(node)) {
+        continue;
+      }
+      numOfAvailableNodes--;
+
+      boolean hasGoodStorage = false;
+      for (DatanodeStorageInfo storage
+          : DFSUtil.shuffle(node.getStorageInfos())) {
+        if (isGoodTarget(storage, blocksize, maxNodesPerRack, considerLoad,
+            results, avoidStaleNodes, storageType)) {
+          hasGoodStorage = true;
+          final double load = getLoad(storage, avgLoad, avgWriteLatency,
+              writeLatencyWeight);
+          if (load < bestLoad) {
+            best = storage;
+            bestLoad = load;
+          }
+        }
+      }
+      if (hasGoodStorage) {
+        candidates++;
+      } else {
+        excludedNodes.add(node);
+      }
+    }
+    return best;
+  }
+
+  private double getAvgLoad() {
+    if (stats != null) {
+      final int size = stats.getNumDatanodesInService();
+      if (size != 0) {
+        return (double)stats.getTotalLoad()/size;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @return the load of the given storage; lower is better.
+   * @param avgWriteLatency the mean write latency of the datanodes which
+   *        reported one, or 0 if none did
+   * @param writeLatencyWeight the weight of the write latency relative to
+   *        the other parts of the load
+   */
+  @VisibleForTesting
+  static double getLoad(DatanodeStorageInfo storage, double avgLoad,
+      long avgWriteLatency, double writeLatencyWeight) {
+    final DatanodeDescriptor node = storage.getDatanodeDescriptor();
+    final double transfers = node.getXceiverCount()
+        + node.getBlocksScheduled();
+    final long capacity = storage.getCapacity();
+    final double usedRatio = capacity <= 0? 1.0
+        : 1.0 - (double)storage.getRemaining()/capacity;
+    double load = transfers/(avgLoad + 1) + usedRatio;
+    if (avgWriteLatency > 0) {
+      // A datanode which has not reported a latency counts as average.
+      final long latency = node.getWriteLatencyMicros();
+      load += writeLatencyWeight
+          * (latency > 0? (double)latency/avgWriteLatency : 1.0);
+    }
+    return load;
+  }
+}
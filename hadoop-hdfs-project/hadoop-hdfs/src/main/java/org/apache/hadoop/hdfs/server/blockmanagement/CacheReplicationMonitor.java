@@ -23,6 +23,8 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -86,6 +88,16 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
    */
   private final long intervalMs;
 
+  /**
+   * The half-life of the block hit counts, or 0 if hit counts are ignored.
+   */
+  private final long hitsHalfLifeMs;
+
+  /**
+   * When the block hit counts were last decayed.
+   */
+  private long lastHitsDecayMs = Time.monotonicNow();
+
   /**
    * The CacheReplicationMonitor (CRM) lock. Used to synchronize starting and
    * waiting for rescan operations.
@@ -140,12 +152,14 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
   private long scannedBlocks;
 
   public CacheReplicationMonitor(FSNamesystem namesystem,
-      CacheManager cacheManager, long intervalMs, ReentrantLock lock) {
+      CacheManager cacheManager, long intervalMs, long hitsHalfLifeMs,
+      ReentrantLock lock) {
     this.namesystem = namesystem;
     this.blockManager = namesystem.getBlockManager();
     this.cacheManager = cacheManager;
     this.cachedBlocks = cacheManager.getCachedBlocks();
     this.intervalMs = intervalMs;
+    this.hitsHalfLifeMs = hitsHalfLifeMs;
     this.lock = lock;
     this.doRescan = this.lock.newCondition();
     this.scanFinished = this.lock.newCondition();
@@ -287,6 +301,9 @@ private void rescan() throws InterruptedException {
         throw new InterruptedException("CacheReplicationMonitor was " +
             "shut down.");
       }
+      // Decay before the statistics are reset, since the seed hits of a
+      // directive start to decay once it had cached blocks in a rescan.
+      decayHits();
       resetStatistics();
       rescanCacheDirectives();
       rescanCachedBlockMap();
@@ -305,6 +322,58 @@ private void resetStatistics() {
     }
   }
 
+  /**
+   * Halve the hit counts of the cached blocks, and the seed hits of the
+   * directives which have been cached, for every half-life which has
+   * passed since the last time they were decayed.
+   */
+  private void decayHits() {
+    if (hitsHalfLifeMs <= 0) {
+      return;
+    }
+    long now = Time.monotonicNow();
+    float factor =
+        (float)Math.pow(0.5, (double)(now - lastHitsDecayMs) / hitsHalfLifeMs);
+    lastHitsDecayMs = now;
+    for (Iterator<CachedBlock> it = cachedBlocks.iterator(); it.hasNext(); ) {
+      it.next().decayHits(factor);
+    }
+    for (CacheDirective directive : cacheManager.getCacheDirectives()) {
+      // Seed hits below one mean the directive was cached before.  They keep
+      // decaying after it gets uncached, so that it does not win back its
+      // place from the directive which displaced it.
+      if (directive.getBytesCached() > 0 || directive.getSeedHits() < 1.0f) {
+        directive.setSeedHits(directive.getSeedHits() * factor);
+      }
+    }
+  }
+
+  /**
+   * Get the CacheDirectives in the order they should be applied.  Since the
+   * directives which are applied first get to use a cache pool's limit
+   * first, the directives whose blocks were read the most recently come
+   * first.  Directives with the same hits keep the order they were added in.
+   *
+   * Every directive is also credited with its seed hits.  A directive which
+   * has not been cached yet thus ranks above the directives whose blocks
+   * served less than one read recently, rather than waiting behind them
+   * until they are removed.
+   */
+  private List<CacheDirective> getDirectivesByHits() {
+    List<CacheDirective> directives =
+        new ArrayList<CacheDirective>(cacheManager.getCacheDirectives());
+    if (hitsHalfLifeMs > 0) {
+      Collections.sort(directives, new Comparator<CacheDirective>() {
+        @Override
+        public int compare(CacheDirective a, CacheDirective b) {
+          return Float.compare(b.getHits() + b.getSeedHits(),
+              a.getHits() + a.getSeedHits());
+        }
+      });
+    }
+    return directives;
+  }
+
   /**
    * Scan all CacheDirectives.  Use the information to figure out
    * what cache replication factor each block should have.
@@ -312,7 +381,8 @@ private void resetStatistics() {
   private void rescanCacheDirectives() {
     FSDirectory fsDir = namesystem.getFSDirectory();
     final long now = new Date().getTime();
-    for (CacheDirective directive : cacheManager.getCacheDirectives()) {
+    for (CacheDirective directive : getDirectivesByHits()) {
+      directive.setHits(0);
       // Skip processing this entry if it has expired
       if (LOG.isTraceEnabled()) {
         LOG.trace("Directive expiry is at " + directive.getExpiryTime());
@@ -392,6 +462,7 @@ private void rescanFile(CacheDirective directive, INodeFile file) {
     }
 
     long cachedTotal = 0;
+    float hits = 0;
     for (BlockInfo blockInfo : blockInfos) {
       if (!blockInfo.getBlockUCState().equals(BlockUCState.COMPLETE)) {
         // We don't try to cache blocks that are under construction.
@@ -415,6 +486,7 @@ private void rescanFile(CacheDirective directive, INodeFile file) {
         long cachedByBlock = Math.min(cachedOn.size(),
             directive.getReplication()) * blockInfo.getNumBytes();
         cachedTotal += cachedByBlock;
+        hits += ocblock.getHits();
 
         if ((mark != ocblock.getMark()) ||
             (ocblock.getReplication() < directive.getReplication())) {
@@ -436,6 +508,7 @@ private void rescanFile(CacheDirective directive, INodeFile file) {
     }
     // Increment the "cached" statistics
     directive.addBytesCached(cachedTotal);
+    directive.setHits(directive.getHits() + hits);
     if (cachedTotal == neededTotal) {
       directive.addFilesCached(1);
     }
@@ -576,14 +649,27 @@ private void addNewPendingUncached(int neededUncached,
         possibilities.add(datanode);
       }
     }
+    // Uncache the replicas which served the fewest reads first, choosing
+    // at random among equally read replicas.
+    Collections.shuffle(possibilities, random);
+    if (hitsHalfLifeMs > 0) {
+      final long blockId = cachedBlock.getBlockId();
+      Collections.sort(possibilities, new Comparator<DatanodeDescriptor>() {
+        @Override
+        public int compare(DatanodeDescriptor a, DatanodeDescriptor b) {
+          long hitsA = a.getCacheHits(blockId);
+          long hitsB = b.getCacheHits(blockId);
+          return hitsA < hitsB ? -1 : (hitsA == hitsB ? 0 : 1);
+        }
+      });
+    }
     while (neededUncached > 0) {
       if (possibilities.isEmpty()) {
         LOG.warn("Logic error: we're trying to uncache more replicas than " +
             "actually exist for " + cachedBlock);
         return;
       }
-      DatanodeDescriptor datanode =
-        possibilities.remove(random.nextInt(possibilities.size()));
+      DatanodeDescriptor datanode = possibilities.remove();
       pendingUncached.add(datanode);
       boolean added = datanode.getPendingUncached().add(cachedBlock);
       assert added;
@@ -156,6 +156,14 @@ public Type getType() {
   private final CachedBlocksList pendingUncached = 
       new CachedBlocksList(this, CachedBlocksList.Type.PENDING_UNCACHED);
 
+  /**
+   * The number of reads served from each block cached on this datanode
+   * during the last cache report interval.  Blocks which were not read are
+   * left out.  Like the cached block lists, this is protected by the FSN
+   * lock.
+   */
+  private Map<Long, Long> cacheHits = Collections.emptyMap();
+
   public CachedBlocksList getPendingCached() {
     return pendingCached;
   }
@@ -168,6 +176,19 @@ public CachedBlocksList getPendingUncached() {
     return pendingUncached;
   }
 
+  /**
+   * @return The number of reads served from the given block in this
+   * datanode's cache during the last cache report interval.
+   */
+  public long getCacheHits(long blockId) {
+    Long hits = cacheHits.get(blockId);
+    return hits == null ? 0 : hits;
+  }
+
+  public void setCacheHits(Map<Long, Long> cacheHits) {
+    this.cacheHits = cacheHits;
+  }
+
   /**
    * The time when the last batch of caching directives was sent, in
    * monotonic milliseconds.
@@ -206,6 +227,8 @@ public CachedBlocksList getPendingUncached() {
   private long lastBlocksScheduledRollTime = 0;
   private static final int BLOCKS_SCHEDULED_ROLL_INTERVAL = 600*1000; //10min
   private int volumeFailures = 0;
+  /** Mean packet write latency reported in the last heartbeat, 0 if unknown */
+  private long writeLatencyMicros = 0L;
   
   /** 
    * When set to true, the node is not in include list and is not allowed
@@ -322,11 +345,13 @@ public void resetBlocks() {
     setXceiverCount(0);
     this.invalidateBlocks.clear();
     this.volumeFailures = 0;
+    this.writeLatencyMicros = 0L;
     // pendingCached, cached, and pendingUncached are protected by the
     // FSN lock.
     this.pendingCached.clear();
     this.cached.clear();
     this.pendingUncached.clear();
+    this.cacheHits = Collections.emptyMap();
   }
   
   public void clearBlockQueues() {
@@ -340,6 +365,7 @@ public void clearBlockQueues() {
     this.pendingCached.clear();
     this.cached.clear();
     this.pendingUncached.clear();
+    this.cacheHits = Collections.emptyMap();
   }
 
   public int numBlocks() {
@@ -355,6 +381,16 @@ public int numBlocks() {
    */
   public void updateHeartbeat(StorageReport[] reports, long cacheCapacity,
       long cacheUsed, int xceiverCount, int volFailures) {
+    updateHeartbeat(reports, cacheCapacity, cacheUsed, xceiverCount,
+        volFailures, 0L);
+  }
+
+  /**
+   * Updates stats from datanode heartbeat.
+   */
+  public void updateHeartbeat(StorageReport[] reports, long cacheCapacity,
+      long cacheUsed, int xceiverCount, int volFailures,
+      long writeLatencyMicros) {
     long totalCapacity = 0;
     long totalRemaining = 0;
     long totalBlockPoolUsed = 0;
@@ -365,6 +401,7 @@ public void updateHeartbeat(StorageReport[] reports, long cacheCapacity,
     setXceiverCount(xceiverCount);
     setLastUpdate(Time.now());    
     this.volumeFailures = volFailures;
+    this.writeLatencyMicros = writeLatencyMicros;
     for (StorageReport report : reports) {
       DatanodeStorageInfo storage = storageMap.get(report.getStorage().getStorageID());
       if (storage == null) {
@@ -616,6 +653,14 @@ public int getVolumeFailures() {
     return volumeFailures;
   }
 
+  /**
+   * @return the mean time in microseconds the datanode recently took to
+   * write a packet to disk, or 0 if it did not report one.
+   */
+  public long getWriteLatencyMicros() {
+    return writeLatencyMicros;
+  }
+
   /**
    * @param nodeReg DatanodeID to update registration for.
    */
@@ -52,6 +52,12 @@ public interface DatanodeStatistics {
   /** @return the xceiver count */
   public int getXceiverCount();
 
+  /**
+   * @return the mean of the packet write latencies, in microseconds, of the
+   * DataNodes which reported one, or 0 if none did
+   */
+  public long getAvgWriteLatencyMicros();
+
   /**
    * @return the total used space by data nodes for non-DFS purposes
    * such as storing temporary files on the local file system
@@ -150,6 +150,12 @@ public synchronized int getXceiverCount() {
     return stats.xceiverCount;
   }
   
+  @Override
+  public synchronized long getAvgWriteLatencyMicros() {
+    return stats.writeLatencyNodes == 0? 0L
+        : stats.writeLatencyMicros / stats.writeLatencyNodes;
+  }
+
   @Override
   public synchronized long getCacheCapacity() {
     return stats.cacheCapacity;
@@ -205,10 +211,10 @@ synchronized void removeDatanode(DatanodeDescriptor node) {
 
   synchronized void updateHeartbeat(final DatanodeDescriptor node,
       StorageReport[] reports, long cacheCapacity, long cacheUsed,
-      int xceiverCount, int failedVolumes) {
+      int xceiverCount, int failedVolumes, long writeLatencyMicros) {
     stats.subtract(node);
     node.updateHeartbeat(reports, cacheCapacity, cacheUsed,
-      xceiverCount, failedVolumes);
+      xceiverCount, failedVolumes, writeLatencyMicros);
     stats.add(node);
   }
 
@@ -322,6 +328,9 @@ private static class Stats {
     private int xceiverCount = 0;
     private long cacheCapacity = 0L;
     private long cacheUsed = 0L;
+    /** Sum and number of the write latencies reported by datanodes */
+    private long writeLatencyMicros = 0L;
+    private int writeLatencyNodes = 0;
 
     private int expiredHeartbeats = 0;
 
@@ -337,6 +346,10 @@ private void add(final DatanodeDescriptor node) {
       }
       cacheCapacity += node.getCacheCapacity();
       cacheUsed += node.getCacheUsed();
+      if (node.getWriteLatencyMicros() > 0) {
+        writeLatencyMicros += node.getWriteLatencyMicros();
+        writeLatencyNodes++;
+      }
     }
 
     private void subtract(final DatanodeDescriptor node) {
@@ -351,6 +364,10 @@ private void subtract(final DatanodeDescriptor node) {
       }
       cacheCapacity -= node.getCacheCapacity();
       cacheUsed -= node.getCacheUsed();
+      if (node.getWriteLatencyMicros() > 0) {
+        writeLatencyMicros -= node.getWriteLatencyMicros();
+        writeLatencyNodes--;
+      }
     }
     
     /** Increment expired heartbeat counter. */
@@ -41,6 +41,8 @@
  * 2)  a coarse grain timer to track age of replication request
  * 3)  a thread that periodically identifies replication-requests
  *     that never made it.
+ * 4)  the number of replications in flight from each source DataNode,
+ *     and the throughput observed for them.
  *
  ***************************************************/
 class PendingReplicationBlocks {
@@ -48,6 +50,13 @@ class PendingReplicationBlocks {
 
   private Map<Block, PendingBlockInfo> pendingReplications;
   private ArrayList<Block> timedOutItems;
+  private final Map<DatanodeDescriptor, SourceLoad> sourceLoads =
+      new HashMap<DatanodeDescriptor, SourceLoad>();
+  /** Sum and number of the known per-source throughputs */
+  private double throughputSum = 0;
+  private int throughputCount = 0;
+  /** Number of replicas reported as replicated so far */
+  private long completedReplications = 0;
   Daemon timerThread = null;
   private volatile boolean fsRunning = true;
 
@@ -77,14 +86,30 @@ void start() {
    * @param targets The DataNodes where replicas of the block should be placed
    */
   void increment(Block block, DatanodeDescriptor[] targets) {
+    increment(block, null, targets);
+  }
+
+  /**
+   * Add a block to the list of pending Replications
+   * @param block The corresponding block
+   * @param source The DataNode the block is copied from, or null if unknown
+   * @param targets The DataNodes where replicas of the block should be placed
+   */
+  void increment(Block block, DatanodeDescriptor source,
+      DatanodeDescriptor[] targets) {
     synchronized (pendingReplications) {
       PendingBlockInfo found = pendingReplications.get(block);
       if (found == null) {
-        pendingReplications.put(block, new PendingBlockInfo(targets));
+        found = new PendingBlockInfo(targets);
+        pendingReplications.put(block, found);
       } else {
         found.incrementReplicas(targets);
         found.setTimeStamp();
       }
+      if (source != null) {
+        found.sources.add(source);
+        getSourceLoad(source).inFlight++;
+      }
     }
   }
 
@@ -102,9 +127,13 @@ void decrement(Block block, DatanodeDescriptor dn) {
         if(LOG.isDebugEnabled()) {
           LOG.debug("Removing pending replication for " + block);
         }
-        found.decrementReplicas(dn);
+        if (found.decrementReplicas(dn)) {
+          completedReplications++;
+          observe(found, block.getNumBytes(), now() - found.getTimeStamp());
+        }
         if (found.getNumReplicas() <= 0) {
           pendingReplications.remove(block);
+          releaseSources(found);
         }
       }
     }
@@ -117,7 +146,7 @@ void decrement(Block block, DatanodeDescriptor dn) {
    */
   void remove(Block block) {
     synchronized (pendingReplications) {
-      pendingReplications.remove(block);
+      releaseSources(pendingReplications.remove(block));
     }
   }
 
@@ -125,6 +154,91 @@ public void clear() {
     synchronized (pendingReplications) {
       pendingReplications.clear();
       timedOutItems.clear();
+      sourceLoads.clear();
+      throughputSum = 0;
+      throughputCount = 0;
+    }
+  }
+
+  private SourceLoad getSourceLoad(DatanodeDescriptor source) {
+    SourceLoad load = sourceLoads.get(source);
+    if (load == null) {
+      load = new SourceLoad();
+      sourceLoads.put(source, load);
+    }
+    return load;
+  }
+
+  /** The block is no longer being copied from any of its sources */
+  private void releaseSources(PendingBlockInfo info) {
+    if (info == null) {
+      return;
+    }
+    for (DatanodeDescriptor source : info.sources) {
+      SourceLoad load = sourceLoads.get(source);
+      if (load != null && load.inFlight > 0) {
+        load.inFlight--;
+      }
+    }
+    info.sources.clear();
+  }
+
+  /**
+   * Record that the most recently scheduled copy of a block took the given
+   * time.  The time includes waiting for the source's next heartbeat and
+   * for a free transfer thread on it, so it is the effective rate at which
+   * the source works through replication requests.
+   */
+  private void observe(PendingBlockInfo info, long bytes, long elapsedMs) {
+    if (info.sources.isEmpty()) {
+      return;
+    }
+    SourceLoad load = getSourceLoad(
+        info.sources.get(info.sources.size() - 1));
+    double sample = (double)Math.max(bytes, 1) / Math.max(elapsedMs, 1);
+    if (load.throughput > 0) {
+      throughputSum -= load.throughput;
+      load.throughput += SourceLoad.ALPHA * (sample - load.throughput);
+    } else {
+      throughputCount++;
+      load.throughput = sample;
+    }
+    throughputSum += load.throughput;
+  }
+
+  /**
+   * @return the number of blocks currently being copied from the given
+   *         DataNode
+   */
+  int getInFlight(DatanodeDescriptor source) {
+    synchronized (pendingReplications) {
+      SourceLoad load = sourceLoads.get(source);
+      return load == null ? 0 : load.inFlight;
+    }
+  }
+
+  /**
+   * @return the smoothed replication throughput of the given DataNode in
+   *         bytes per millisecond.  If none has been observed for it, the
+   *         average of all the other DataNodes, or 0 if there is none.
+   */
+  double getThroughput(DatanodeDescriptor source) {
+    synchronized (pendingReplications) {
+      SourceLoad load = sourceLoads.get(source);
+      if (load != null && load.throughput > 0) {
+        return load.throughput;
+      }
+      return throughputCount == 0 ? 0 : throughputSum / throughputCount;
+    }
+  }
+
+  /**
+   * @return the number of replicas which have been reported as replicated
+   *         since this object was created
+   */
+  long getCompletedReplications() {
+    synchronized (pendingReplications) {
+      return completedReplications;
     }
   }
 
@@ -175,6 +289,9 @@ Block[] getTimedOutBlocks() {
   static class PendingBlockInfo {
     private long timeStamp;
     private final List<DatanodeDescriptor> targets;
+    /** The sources of the replications scheduled, in order */
+    private final List<DatanodeDescriptor> sources =
+        new ArrayList<DatanodeDescriptor>(1);
 
     PendingBlockInfo(DatanodeDescriptor[] targets) {
       this.timeStamp = now();
@@ -198,8 +315,8 @@ void incrementReplicas(DatanodeDescriptor... newTargets) {
       }
     }
 
-    void decrementReplicas(DatanodeDescriptor dn) {
-      targets.remove(dn);
+    boolean decrementReplicas(DatanodeDescriptor dn) {
+      return targets.remove(dn);
     }
 
     int getNumReplicas() {
@@ -207,6 +324,19 @@ int getNumReplicas() {
     }
   }
 
+  /**
+   * The replication load on a source DataNode.
+   */
+  static class SourceLoad {
+    /** Weight of a new throughput sample */
+    static final double ALPHA = 0.25;
+
+    /** Number of blocks being copied from the node */
+    private int inFlight = 0;
+    /** Smoothed bytes per millisecond, or 0 if not observed yet */
+    private double throughput = 0;
+  }
+
   /*
    * A periodic thread that scans for blocks that never finished
    * their replication request.
@@ -248,6 +378,10 @@ void pendingReplicationCheck() {
             }
             LOG.warn("PendingReplicationMonitor timed out " + block);
             iter.remove();
+            // count the failed copy as one which took the whole timeout
+            observe(pendingBlock, block.getNumBytes(),
+                now - pendingBlock.getTimeStamp());
+            releaseSources(pendingBlock);
           }
         }
       }
@@ -91,6 +91,11 @@ class BPServiceActor implements Runnable {
   DatanodeProtocolClientSideTranslatorPB bpNamenode;
   private volatile long lastHeartbeat = 0;
   private volatile boolean initialized = false;
+
+  /** The datanode's packet write totals at the previous heartbeat */
+  private long lastPacketsWritten = 0;
+  private long lastPacketWriteNanos = 0;
+  private long writeLatencyMicros = 0;
   
   /**
    * Between block reports (which happen on the order of once an hour) the
@@ -545,9 +550,16 @@ DatanodeCommand cacheReport() throws IOException {
 
       String bpid = bpos.getBlockPoolId();
       List<Long> blockIds = dn.getFSDataset().getCacheReport(bpid);
+      Map<Long, Long> hits = dn.getFSDataset().getAndResetCacheHits(bpid);
+      List<Long> hitCounts = new ArrayList<Long>(blockIds.size());
+      for (Long blockId : blockIds) {
+        Long count = hits.get(blockId);
+        hitCounts.add(count == null ? 0L : count);
+      }
       long createTime = Time.monotonicNow();
 
-      cmd = bpNamenode.cacheReport(bpRegistration, bpid, blockIds);
+      cmd = bpNamenode.cacheReport(bpRegistration, bpid, blockIds,
+          hitCounts);
       long sendTime = Time.monotonicNow();
       long createCost = createTime - startTime;
       long sendCost = sendTime - createTime;
@@ -573,7 +585,26 @@ HeartbeatResponse sendHeartBeat() throws IOException {
         dn.getFSDataset().getCacheUsed(),
         dn.getXmitsInProgress(),
         dn.getXceiverCount(),
-        dn.getFSDataset().getNumFailedVolumes());
+        dn.getFSDataset().getNumFailedVolumes(),
+        getWriteLatencyMicros());
+  }
+
+  /**
+   * @return the mean time to write a packet to disk since the previous
+   * heartbeat, or the previous mean if no packet was written since.
+   */
+  private long getWriteLatencyMicros() {
+    final long packets = dn.getPacketsWritten();
+    final long nanos = dn.getPacketWriteNanos();
+    if (packets > lastPacketsWritten) {
+      final long latency = (nanos - lastPacketWriteNanos)
+          / (packets - lastPacketsWritten) / 1000;
+      // 0 means unknown, so round anything faster up to 1us.
+      writeLatencyMicros = Math.max(1, latency);
+    }
+    lastPacketsWritten = packets;
+    lastPacketWriteNanos = nanos;
+    return writeLatencyMicros;
   }
   
   //This must be called only by BPOfferService
@@ -23,14 +23,22 @@
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
@@ -40,10 +48,10 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
-import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
+import org.apache.hadoop.hdfs.server.datanode.DataTransferQos.TrafficClass;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RollingLogs;
@@ -55,12 +63,19 @@
 import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Scans the block files under a block pool and verifies that the
  * files are not corrupt.
  * This keeps track of blocks and their last verification times.
  * Currently it does not modify the metadata for block.
+ * <p>
+ * The blocks on each volume are verified by a thread of their own, so that
+ * the volumes are scanned in parallel.  Each volume is scanned at the highest
+ * rate while no client reads or writes its replicas, and otherwise only as
+ * fast as needed to finish the current period.
  */
 
 class BlockPoolSliceScanner {
@@ -75,6 +90,12 @@ class BlockPoolSliceScanner {
 
   private static final String VERIFICATION_PREFIX = "dncp_block_verification.log";
 
+  /**
+   * The scan time given to the suspect blocks.  It sorts them before the
+   * blocks which have been scanned.
+   */
+  private static final long SUSPECT_SCAN_TIME = 0;
+
   private final String blockPoolId;
   private final long scanPeriod;
   private final AtomicLong lastScanTime = new AtomicLong();
@@ -82,19 +103,20 @@ class BlockPoolSliceScanner {
   private final DataNode datanode;
   private final FsDatasetSpi<? extends FsVolumeSpi> dataset;
   
-  private final SortedSet<BlockScanInfo> blockInfoSet
-      = new TreeSet<BlockScanInfo>(BlockScanInfo.LAST_SCAN_TIME_COMPARATOR);
+  /** The blocks on each volume, by storage ID */
+  private final Map<String, VolumeScanner> volumeScanners
+      = new HashMap<String, VolumeScanner>();
   private final GSet<Block, BlockScanInfo> blockMap
       = new LightWeightGSet<Block, BlockScanInfo>(
           LightWeightGSet.computeCapacity(0.5, "BlockMap"));
   
   // processedBlocks keeps track of which blocks are scanned
   // since the last run.
-  private volatile HashMap<Long, Integer> processedBlocks;
+  private volatile ConcurrentMap<Long, Integer> processedBlocks;
   
-  private long totalScans = 0;
-  private long totalScanErrors = 0;
-  private long totalTransientErrors = 0;
+  private final AtomicLong totalScans = new AtomicLong();
+  private final AtomicLong totalScanErrors = new AtomicLong();
+  private final AtomicLong totalTransientErrors = new AtomicLong();
   private final AtomicInteger totalBlocksScannedInLastRun = new AtomicInteger(); // Used for test only
   
   private long currentPeriodStart = Time.now();
@@ -104,8 +126,11 @@ class BlockPoolSliceScanner {
   
   private final LogFileHandler verificationLog;
   
-  private final DataTransferThrottler throttler = new DataTransferThrottler(
-       200, MAX_SCAN_RATE);
+  /** How often the scan rate follows the client load, in milliseconds. */
+  private static final long ADJUST_THROTTLER_INTERVAL_MS = 1000;
+
+  /** Runs the scans of the volumes */
+  private final ExecutorService volumeScanExecutor;
   
   private static enum ScanType {
     VERIFICATION_SCAN,     // scanned as part of periodic verfication
@@ -137,6 +162,8 @@ public int compare(BlockScanInfo left, BlockScanInfo right) {
     long lastScanTime = 0;
     ScanType lastScanType = ScanType.NONE; 
     boolean lastScanOk = true;
+    /** The volume holding the block */
+    VolumeScanner volume;
     private LinkedElement next;
     
     BlockScanInfo(Block block) {
@@ -170,6 +197,37 @@ public LinkedElement getNext() {
       return next;
     }
   }
+
+  /**
+   * The blocks of the block pool on one volume, sorted by their last scan
+   * time, and the rate at which they are verified.
+   */
+  private class VolumeScanner {
+    /** The storage ID of the volume, or null if unknown */
+    private final String storageUuid;
+    private final SortedSet<BlockScanInfo> blockInfoSet
+        = new TreeSet<BlockScanInfo>(BlockScanInfo.LAST_SCAN_TIME_COMPARATOR);
+    private long bytesLeft = 0; // Bytes to scan in this period
+    private long totalBytesToScan = 0;
+    private long lastThrottlerAdjustment = 0;
+
+    private final DataTransferThrottler throttler = new DataTransferThrottler(
+        200, MAX_SCAN_RATE) {
+      @Override
+      public void throttle(long numOfBytes) {
+        // Follow the client load while a large block is being verified.
+        if (Time.monotonicNow() - getLastThrottlerAdjustment(VolumeScanner.this)
+            >= ADJUST_THROTTLER_INTERVAL_MS) {
+          adjustThrottler(VolumeScanner.this);
+        }
+        super.throttle(numOfBytes);
+      }
+    };
+
+    VolumeScanner(String storageUuid) {
+      this.storageUuid = storageUuid;
+    }
+  }
   
   BlockPoolSliceScanner(String bpid, DataNode datanode,
       FsDatasetSpi<? extends FsVolumeSpi> dataset, Configuration conf) {
@@ -191,9 +249,11 @@ public LinkedElement getNext() {
     Collections.shuffle(arr);
     
     long scanTime = -1;
-    for (Block block : arr) {
-      BlockScanInfo info = new BlockScanInfo( block );
+    for (FinalizedReplica replica : arr) {
+      BlockScanInfo info = new BlockScanInfo(replica);
       info.lastScanTime = scanTime--; 
+      info.volume = getVolumeScanner(
+          replica.getVolume() == null ? null : replica.getStorageUuid());
       //still keep 'info.lastScanType' to NONE.
       addBlockInfo(info);
     }
@@ -206,37 +266,54 @@ public LinkedElement getNext() {
                "Verification times are not stored.");
     }
     verificationLog = rollingLogs == null? null: new LogFileHandler(rollingLogs);
+    volumeScanExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("BlockPoolSliceScanner-" + bpid + "-%d")
+        .build());
   }
   
   String getBlockPoolId() {
     return blockPoolId;
   }
   
-  private void updateBytesToScan(long len, long lastScanTime) {
+  /** @return the blocks on a storage, which are added if needed. */
+  private synchronized VolumeScanner getVolumeScanner(String storageUuid) {
+    VolumeScanner volume = volumeScanners.get(storageUuid);
+    if (volume == null) {
+      volume = new VolumeScanner(storageUuid);
+      volumeScanners.put(storageUuid, volume);
+    }
+    return volume;
+  }
+
+  private void updateBytesToScan(VolumeScanner volume, long len,
+      long lastScanTime) {
     // len could be negative when a block is deleted.
     totalBytesToScan += len;
+    volume.totalBytesToScan += len;
     if ( lastScanTime < currentPeriodStart ) {
       bytesLeft += len;
+      volume.bytesLeft += len;
     }
     // Should we change throttler bandwidth every time bytesLeft changes?
     // not really required.
   }
   
   private synchronized void addBlockInfo(BlockScanInfo info) {
-    boolean added = blockInfoSet.add(info);
+    boolean added = info.volume.blockInfoSet.add(info);
     blockMap.put(info);
     
     if (added) {
-      updateBytesToScan(info.getNumBytes(), info.lastScanTime);
+      updateBytesToScan(info.volume, info.getNumBytes(), info.lastScanTime);
     }
   }
   
   private synchronized void delBlockInfo(BlockScanInfo info) {
-    boolean exists = blockInfoSet.remove(info);
+    boolean exists = info.volume.blockInfoSet.remove(info);
     blockMap.remove(info);
 
     if (exists) {
-      updateBytesToScan(-info.getNumBytes(), info.lastScanTime);
+      updateBytesToScan(info.volume, -info.getNumBytes(), info.lastScanTime);
     }
   }
   
@@ -245,6 +322,7 @@ private synchronized void updateBlockInfo(LogEntry e) {
     BlockScanInfo info = blockMap.get(new Block(e.blockId, 0, e.genStamp));
     
     if(info != null && e.verificationTime > 0 && 
+        info.lastScanTime != SUSPECT_SCAN_TIME &&
         info.lastScanTime < e.verificationTime) {
       delBlockInfo(info);
       info.lastScanTime = e.verificationTime;
@@ -253,19 +331,20 @@ private synchronized void updateBlockInfo(LogEntry e) {
     }
   }
 
-  private synchronized long getNewBlockScanTime() {
-    /* If there are a lot of blocks, this returns a random time with in 
-     * the scan period. Otherwise something sooner.
-     */
-    long period = Math.min(scanPeriod, 
-                           Math.max(blockMap.size(),1) * 600 * 1000L);
-    int periodInt = Math.abs((int)period);
-    return Time.now() - scanPeriod + 
-        DFSUtil.getRandom().nextInt(periodInt);
+  /**
+   * A new block is due for verification right away, after the blocks which
+   * are already overdue, since a fresh replica is the likeliest to have
+   * been written to a bad disk.
+   */
+  private long getNewBlockScanTime() {
+    return Time.now() - scanPeriod;
   }
 
-  /** Adds block to list of blocks */
-  synchronized void addBlock(ExtendedBlock block) {
+  /**
+   * Adds block to list of blocks
+   * @param storageUuid the storage of the replica, or null if unknown.
+   */
+  synchronized void addBlock(ExtendedBlock block, String storageUuid) {
     BlockScanInfo info = blockMap.get(block.getLocalBlock());
     if ( info != null ) {
       LOG.warn("Adding an already existing block " + block);
@@ -274,9 +353,24 @@ synchronized void addBlock(ExtendedBlock block) {
     
     info = new BlockScanInfo(block.getLocalBlock());    
     info.lastScanTime = getNewBlockScanTime();
+    info.volume = getVolumeScanner(storageUuid);
     
     addBlockInfo(info);
-    adjustThrottler();
+    adjustThrottler(info.volume);
+  }
+
+  /**
+   * Verify a block before any other, for example because reading it failed.
+   */
+  synchronized void markSuspectBlock(Block block) {
+    BlockScanInfo info = blockMap.get(block);
+    if (info == null || info.lastScanTime == SUSPECT_SCAN_TIME) {
+      return;
+    }
+    LOG.info("Marking suspect " + block + " for verification");
+    delBlockInfo(info);
+    info.lastScanTime = SUSPECT_SCAN_TIME;
+    addBlockInfo(info);
   }
   
   /** Deletes the block from internal structures */
@@ -289,7 +383,7 @@ synchronized void deleteBlock(Block block) {
 
   @VisibleForTesting
   long getTotalScans() {
-    return totalScans;
+    return totalScans.get();
   }
 
   /** @return the last scan time for the block pool. */
@@ -311,6 +405,7 @@ void deleteBlocks(Block[] blocks) {
   }
   
   private synchronized void updateScanStatus(Block block, 
+                                             VolumeScanner volume,
                                              ScanType type,
                                              boolean scanOk) {
     BlockScanInfo info = blockMap.get(block);
@@ -320,6 +415,7 @@ private synchronized void updateScanStatus(Block block,
     } else {
       // It might already be removed. Thats ok, it will be caught next time.
       info = new BlockScanInfo(block);
+      info.volume = volume;
     }
     
     long now = Time.now();
@@ -364,10 +460,13 @@ static private class LogEntry {
     private static Pattern entryPattern = 
       Pattern.compile("\\G\\s*([^=\\p{Space}]+)=\"(.*?)\"\\s*");
     
-    static String toString(long verificationTime, long genStamp, long blockId,
-        DateFormat dateFormat) {
-      return "\ndate=\"" + dateFormat.format(new Date(verificationTime))
-          + "\"\t time=\"" + verificationTime
+    /**
+     * Older versions also wrote the time as a date, which is skipped when
+     * the entry is parsed.
+     */
+    static String toString(long verificationTime, long genStamp,
+        long blockId) {
+      return "\ntime=\"" + verificationTime
           + "\"\t genstamp=\"" + genStamp
           + "\"\t id=\"" + blockId + "\"";
     }
@@ -398,14 +497,50 @@ static LogEntry parseEntry(String line) {
     }
   }
   
-  private synchronized void adjustThrottler() {
-    long timeLeft = currentPeriodStart+scanPeriod - Time.now();
-    long bw = Math.max(bytesLeft*1000/timeLeft, MIN_SCAN_RATE);
-    throttler.setBandwidth(Math.min(bw, MAX_SCAN_RATE));
+  /**
+   * Scan a volume at the highest rate while no client reads or writes its
+   * replicas, and otherwise only as fast as needed to finish the volume in
+   * the current period.
+   */
+  private synchronized void adjustThrottler(VolumeScanner volume) {
+    long bw = MAX_SCAN_RATE;
+    if (datanode.getTransferQos().getClientTransfers(volume.storageUuid) > 0) {
+      long timeLeft = Math.max(currentPeriodStart+scanPeriod - Time.now(), 1);
+      bw = Math.max(volume.bytesLeft*1000/timeLeft, MIN_SCAN_RATE);
+    }
+    volume.throttler.setBandwidth(Math.min(bw, MAX_SCAN_RATE));
+    volume.lastThrottlerAdjustment = Time.monotonicNow();
+  }
+
+  private synchronized long getLastThrottlerAdjustment(VolumeScanner volume) {
+    return volume.lastThrottlerAdjustment;
+  }
+
+  /**
+   * @return the scan rate of the volume of a storage after following the
+   *         client load, in bytes per second, or 0 if it holds no blocks.
+   */
+  @VisibleForTesting
+  synchronized long getScanRate(String storageUuid) {
+    VolumeScanner volume = volumeScanners.get(storageUuid);
+    if (volume == null) {
+      return 0;
+    }
+    adjustThrottler(volume);
+    return volume.throttler.getBandwidth();
   }
   
   @VisibleForTesting
   void verifyBlock(ExtendedBlock block) {
+    VolumeScanner volume;
+    synchronized (this) {
+      BlockScanInfo info = blockMap.get(block.getLocalBlock());
+      volume = info != null ? info.volume : getVolumeScanner(null);
+    }
+    verifyBlock(block, volume);
+  }
+
+  private void verifyBlock(ExtendedBlock block, VolumeScanner volume) {
     BlockSender blockSender = null;
 
     /* In case of failure, attempt to read second time to reduce
@@ -416,7 +551,7 @@ void verifyBlock(ExtendedBlock block) {
       boolean second = (i > 0);
       
       try {
-        adjustThrottler();
+        adjustThrottler(volume);
         
         blockSender = new BlockSender(block, 0, -1, false, true, true, 
             datanode, null, CachingStrategy.newDropBehind());
@@ -424,20 +559,29 @@ void verifyBlock(ExtendedBlock block) {
         DataOutputStream out = 
                 new DataOutputStream(new IOUtils.NullOutputStream());
         
-        blockSender.sendBlock(out, null, throttler);
+        final DataTransferQos qos = datanode.getTransferQos();
+        final DataTransferThrottler t =
+            qos.startTransfer(TrafficClass.SCANNING, volume.throttler);
+        try {
+          blockSender.sendBlock(out, null, t);
+        } finally {
+          qos.endTransfer(TrafficClass.SCANNING);
+        }
 
         LOG.info((second ? "Second " : "") +
                  "Verification succeeded for " + block);
         
         if ( second ) {
-          totalTransientErrors++;
+          totalTransientErrors.incrementAndGet();
         }
         
-        updateScanStatus(block.getLocalBlock(), ScanType.VERIFICATION_SCAN, true);
+        updateScanStatus(block.getLocalBlock(), volume,
+            ScanType.VERIFICATION_SCAN, true);
 
         return;
       } catch (IOException e) {
-        updateScanStatus(block.getLocalBlock(), ScanType.VERIFICATION_SCAN, false);
+        updateScanStatus(block.getLocalBlock(), volume,
+            ScanType.VERIFICATION_SCAN, false);
 
         // If the block does not exists anymore, then its not an error
         if (!dataset.contains(block)) {
@@ -463,7 +607,7 @@ void verifyBlock(ExtendedBlock block) {
             + block, e);
         
         if (second) {
-          totalScanErrors++;
+          totalScanErrors.incrementAndGet();
           datanode.getMetrics().incrBlockVerificationFailures();
           handleScanFailure(block);
           return;
@@ -471,21 +615,25 @@ void verifyBlock(ExtendedBlock block) {
       } finally {
         IOUtils.closeStream(blockSender);
         datanode.getMetrics().incrBlocksVerified();
-        totalScans++;
+        totalScans.incrementAndGet();
       }
     }
   }
   
-  private synchronized long getEarliestScanTime() {
-    if (!blockInfoSet.isEmpty()) {
-      return blockInfoSet.first().lastScanTime;
+  private synchronized long getEarliestScanTime(VolumeScanner volume) {
+    if (!volume.blockInfoSet.isEmpty()) {
+      return volume.blockInfoSet.first().lastScanTime;
     }
     return Long.MAX_VALUE; 
   }
+
+  private synchronized boolean isEmpty(VolumeScanner volume) {
+    return volume.blockInfoSet.isEmpty();
+  }
   
-  private synchronized boolean isFirstBlockProcessed() {
-    if (!blockInfoSet.isEmpty()) {
-      long blockId = blockInfoSet.first().getBlockId();
+  private synchronized boolean isFirstBlockProcessed(VolumeScanner volume) {
+    if (!volume.blockInfoSet.isEmpty()) {
+      long blockId = volume.blockInfoSet.first().getBlockId();
       if ((processedBlocks.get(blockId) != null)
           && (processedBlocks.get(blockId) == 1)) {
         return true;
@@ -494,16 +642,16 @@ private synchronized boolean isFirstBlockProcessed() {
     return false;
   }
   
-  // Picks one block and verifies it
-  private void verifyFirstBlock() {
+  // Picks one block of a volume and verifies it
+  private void verifyFirstBlock(VolumeScanner volume) {
     Block block = null;
     synchronized (this) {
-      if (!blockInfoSet.isEmpty()) {
-        block = blockInfoSet.first();
+      if (!volume.blockInfoSet.isEmpty()) {
+        block = volume.blockInfoSet.first();
       }
     }
     if ( block != null ) {
-      verifyBlock(new ExtendedBlock(blockPoolId, block));
+      verifyBlock(new ExtendedBlock(blockPoolId, block), volume);
       processedBlocks.put(block.getBlockId(), 1);
     }
   }
@@ -542,7 +690,7 @@ private boolean assignInitialVerificationTimes() {
               if (info != null) {
                 if (processedBlocks.get(entry.blockId) == null) {
                   if (isNewPeriod) {
-                    updateBytesLeft(-info.getNumBytes());
+                    updateBytesLeft(info.volume, -info.getNumBytes());
                   }
                   processedBlocks.put(entry.blockId, 1);
                 }
@@ -570,19 +718,22 @@ private boolean assignInitialVerificationTimes() {
      * lastModificationTime > 0.
      */    
     synchronized (this) {
-      final int numBlocks = Math.max(blockMap.size(), 1);
-      // Initially spread the block reads over half of scan period
-      // so that we don't keep scanning the blocks too quickly when restarted.
-      long verifyInterval = Math.min(scanPeriod/(2L * numBlocks), 10*60*1000L);
-      long lastScanTime = Time.now() - scanPeriod;
-
-      if (!blockInfoSet.isEmpty()) {
-        BlockScanInfo info;
-        while ((info =  blockInfoSet.first()).lastScanTime < 0) {
-          delBlockInfo(info);        
-          info.lastScanTime = lastScanTime;
-          lastScanTime += verifyInterval;
-          addBlockInfo(info);
+      for (VolumeScanner volume : volumeScanners.values()) {
+        final int numBlocks = Math.max(volume.blockInfoSet.size(), 1);
+        // Initially spread the block reads over half of scan period
+        // so that we don't keep scanning the blocks too quickly when restarted.
+        long verifyInterval =
+            Math.min(scanPeriod/(2L * numBlocks), 10*60*1000L);
+        long lastScanTime = Time.now() - scanPeriod;
+
+        if (!volume.blockInfoSet.isEmpty()) {
+          BlockScanInfo info;
+          while ((info =  volume.blockInfoSet.first()).lastScanTime < 0) {
+            delBlockInfo(info);        
+            info.lastScanTime = lastScanTime;
+            lastScanTime += verifyInterval;
+            addBlockInfo(info);
+          }
         }
       }
     }
@@ -590,8 +741,9 @@ private boolean assignInitialVerificationTimes() {
     return true;
   }
   
-  private synchronized void updateBytesLeft(long len) {
+  private synchronized void updateBytesLeft(VolumeScanner volume, long len) {
     bytesLeft += len;
+    volume.bytesLeft += len;
   }
   
   private synchronized void startNewPeriod() {
@@ -601,6 +753,9 @@ private synchronized void startNewPeriod() {
 
     // reset the byte counts :
     bytesLeft = totalBytesToScan;
+    for (VolumeScanner volume : volumeScanners.values()) {
+      volume.bytesLeft = volume.totalBytesToScan;
+    }
     currentPeriodStart = Time.now();
     isNewPeriod = true;
   }
@@ -624,7 +779,7 @@ void scanBlockPoolSlice() {
     }
 
     // Create a new processedBlocks structure
-    processedBlocks = new HashMap<Long, Integer>();
+    processedBlocks = new ConcurrentHashMap<Long, Integer>();
     if (!assignInitialVerificationTimes()) {
       return;
     }
@@ -641,41 +796,42 @@ void scanBlockPoolSlice() {
    * Shuts down this BlockPoolSliceScanner and releases any internal resources.
    */
   void shutdown() {
+    volumeScanExecutor.shutdownNow();
     if (verificationLog != null) {
       verificationLog.close();
     }
   }
   
+  /** Scan all the volumes in parallel, and wait for them to finish. */
   private void scan() {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Starting to scan blockpool: " + blockPoolId);
     }
+    final List<Future<?>> scans = new ArrayList<Future<?>>();
     try {
-      adjustThrottler();
-        
-      while (datanode.shouldRun
-          && !datanode.blockScanner.blockScannerThread.isInterrupted()
-          && datanode.isBPServiceAlive(blockPoolId)) {
-        long now = Time.now();
-        synchronized (this) {
-          if ( now >= (currentPeriodStart + scanPeriod)) {
-            startNewPeriod();
-          }
-        }
-        if (((now - getEarliestScanTime()) >= scanPeriod)
-            || ((!blockInfoSet.isEmpty()) && !(this.isFirstBlockProcessed()))) {
-          verifyFirstBlock();
-        } else {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("All remaining blocks were processed recently, "
-                + "so this run is complete");
-          }
-          break;
+      synchronized (this) {
+        for (final VolumeScanner volume : volumeScanners.values()) {
+          scans.add(volumeScanExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+              scanVolume(volume);
+            }
+          }));
         }
       }
-    } catch (RuntimeException e) {
-      LOG.warn("RuntimeException during BlockPoolScanner.scan()", e);
-      throw e;
+      for (Future<?> scan : scans) {
+        scan.get();
+      }
+    } catch (InterruptedException e) {
+      // Stop the volume scans, and keep the interrupt status for the caller.
+      cancel(scans);
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.warn("RuntimeException during BlockPoolScanner.scan()",
+          e.getCause());
+      // Do not leave the other volume scans running behind the caller.
+      cancel(scans);
+      throw Throwables.propagate(e.getCause());
     } finally {
       rollVerificationLogs();
       if (LOG.isDebugEnabled()) {
@@ -684,6 +840,38 @@ private void scan() {
     }
   }
   
+  private static void cancel(List<Future<?>> scans) {
+    for (Future<?> scan : scans) {
+      scan.cancel(true);
+    }
+  }
+
+  private void scanVolume(VolumeScanner volume) {
+    adjustThrottler(volume);
+
+    while (datanode.shouldRun
+        && !datanode.blockScanner.blockScannerThread.isInterrupted()
+        && !Thread.currentThread().isInterrupted()
+        && datanode.isBPServiceAlive(blockPoolId)) {
+      long now = Time.now();
+      synchronized (this) {
+        if ( now >= (currentPeriodStart + scanPeriod)) {
+          startNewPeriod();
+        }
+      }
+      if (((now - getEarliestScanTime(volume)) >= scanPeriod)
+          || (!isEmpty(volume) && !isFirstBlockProcessed(volume))) {
+        verifyFirstBlock(volume);
+      } else {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("All remaining blocks on " + volume.storageUuid
+              + " were processed recently, so this run is complete");
+        }
+        break;
+      }
+    }
+  }
+  
   private synchronized void rollVerificationLogs() {
     if (verificationLog != null) {
       try {
@@ -712,13 +900,21 @@ synchronized void printBlockReport(StringBuilder buffer,
     
     DateFormat dateFormat = new SimpleDateFormat(DATA_FORMAT);
     
-    int total = blockInfoSet.size();
+    int total = 0;
+    long bandwidth = 0;
+    List<BlockScanInfo> infos = new ArrayList<BlockScanInfo>();
+    for (VolumeScanner volume : volumeScanners.values()) {
+      total += volume.blockInfoSet.size();
+      bandwidth += volume.throttler.getBandwidth();
+      infos.addAll(volume.blockInfoSet);
+    }
+    Collections.sort(infos, BlockScanInfo.LAST_SCAN_TIME_COMPARATOR);
     
     long now = Time.now();
     
     Date date = new Date();
     
-    for(Iterator<BlockScanInfo> it = blockInfoSet.iterator(); it.hasNext();) {
+    for(Iterator<BlockScanInfo> it = infos.iterator(); it.hasNext();) {
       BlockScanInfo info = it.next();
       
       long scanTime = info.getLastScanTime();
@@ -767,9 +963,10 @@ synchronized void printBlockReport(StringBuilder buffer,
                                 "%n", 
                                 total, inOneHour, inOneDay, inOneWeek,
                                 inFourWeeks, inScanPeriod, neverScanned,
-                                totalScans, totalScans, 
-                                totalScanErrors, totalTransientErrors, 
-                                Math.round(throttler.getBandwidth()/1024.0),
+                                totalScans.get(), totalScans.get(), 
+                                totalScanErrors.get(),
+                                totalTransientErrors.get(), 
+                                Math.round(bandwidth/1024.0),
                                 pctProgress, pctPeriodLeft));
   }
   
@@ -778,8 +975,6 @@ synchronized void printBlockReport(StringBuilder buffer,
    * times of the blocks.
    */
   private static class LogFileHandler {
-    private final DateFormat dateFormat = new SimpleDateFormat(DATA_FORMAT);
-
     private final RollingLogs logs;
 
     private LogFileHandler(RollingLogs logs)  {
@@ -787,8 +982,7 @@ private LogFileHandler(RollingLogs logs)  {
     }
 
     void append(long verificationTime, long genStamp, long blockId) {
-      final String m = LogEntry.toString(verificationTime, genStamp, blockId,
-          dateFormat);
+      final String m = LogEntry.toString(verificationTime, genStamp, blockId);
       try {
         logs.appender().append(m);
       } catch (IOException e) {
@@ -569,6 +569,7 @@ private int receivePacket() throws IOException {
           int numBytesToDisk = (int)(offsetInBlock-onDiskLen);
           
           // Write data to disk.
+          long writeStartNanos = System.nanoTime();
           out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
 
           // If this is a partial chunk, then verify that this is the only
@@ -602,6 +603,7 @@ private int receivePacket() throws IOException {
           }
           /// flush entire packet, sync if requested
           flushOrSync(syncBlock);
+          datanode.addPacketWrite(System.nanoTime() - writeStartNanos);
           
           replicaInfo.setLastChecksumAndDataLen(
             offsetInBlock, lastChunkChecksum
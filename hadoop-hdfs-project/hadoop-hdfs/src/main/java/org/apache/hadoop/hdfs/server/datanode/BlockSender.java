@@ -104,6 +104,8 @@ class BlockSender implements java.io.Closeable {
   
   /** the block to read from */
   private final ExtendedBlock block;
+  /** The storage of the replica */
+  private String storageUuid;
   /** Stream to read block data from */
   private InputStream blockIn;
   /** updated while using transferTo() */
@@ -130,6 +132,8 @@ class BlockSender implements java.io.Closeable {
   private final boolean transferToAllowed;
   /** Set to true once entire requested byte range has been sent to the client */
   private boolean sentEntireByteRange;
+  /** Set to true if reading the replica or its checksum failed */
+  private boolean replicaReadFailed;
   /** When true, verify checksum while reading from checksum file */
   private final boolean verifyChecksum;
   /** Format used to print client trace log messages */
@@ -228,6 +232,7 @@ class BlockSender implements java.io.Closeable {
         replica = getReplica(block, datanode);
         replicaVisibleLength = replica.getVisibleLength();
       }
+      storageUuid = replica.getStorageUuid();
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
       if (replica instanceof ReplicaBeingWritten) {
@@ -511,27 +516,32 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     int checksumOff = pkt.position();
     byte[] buf = pkt.array();
     
-    if (checksumSize > 0 && checksumIn != null) {
-      readChecksum(buf, checksumOff, checksumDataLen);
+    int dataOff = checksumOff + checksumDataLen;
+    try {
+      if (checksumSize > 0 && checksumIn != null) {
+        readChecksum(buf, checksumOff, checksumDataLen);
 
-      // write in progress that we need to use to get last checksum
-      if (lastDataPacket && lastChunkChecksum != null) {
-        int start = checksumOff + checksumDataLen - checksumSize;
-        byte[] updatedChecksum = lastChunkChecksum.getChecksum();
-        
-        if (updatedChecksum != null) {
-          System.arraycopy(updatedChecksum, 0, buf, start, checksumSize);
+        // write in progress that we need to use to get last checksum
+        if (lastDataPacket && lastChunkChecksum != null) {
+          int start = checksumOff + checksumDataLen - checksumSize;
+          byte[] updatedChecksum = lastChunkChecksum.getChecksum();
+
+          if (updatedChecksum != null) {
+            System.arraycopy(updatedChecksum, 0, buf, start, checksumSize);
+          }
         }
       }
-    }
-    
-    int dataOff = checksumOff + checksumDataLen;
-    if (!transferTo) { // normal transfer
-      IOUtils.readFully(blockIn, buf, dataOff, dataLen);
 
-      if (verifyChecksum) {
-        verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+      if (!transferTo) { // normal transfer
+        IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+
+        if (verifyChecksum) {
+          verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+        }
       }
+    } catch (IOException e) {
+      replicaReadFailed = true;
+      throw e;
     }
     
     try {
@@ -807,6 +817,14 @@ boolean didSendEntireByteRange() {
     return sentEntireByteRange;
   }
 
+  /**
+   * @return true if sending failed while reading the replica or its
+   *         checksum, rather than while writing to the client
+   */
+  boolean didReplicaReadFail() {
+    return replicaReadFailed;
+  }
+
   /**
    * @return the checksum type that will be used with this block transfer.
    */
@@ -821,4 +839,9 @@ DataChecksum getChecksum() {
   long getOffset() {
     return offset;
   }
+
+  /** @return the storage of the replica being read. */
+  String getStorageUuid() {
+    return storageUuid;
+  }
 }
@@ -187,16 +187,31 @@ private synchronized String[] getBpIdList() {
         new String[blockPoolScannerMap.keySet().size()]);
   }
   
-  public void addBlock(ExtendedBlock block) {
+  /**
+   * Add a new block to be verified.
+   * @param storageUuid the storage of the replica, or null if unknown.
+   */
+  public void addBlock(ExtendedBlock block, String storageUuid) {
     BlockPoolSliceScanner bpScanner = getBPScanner(block.getBlockPoolId());
     if (bpScanner != null) {
-      bpScanner.addBlock(block);
+      bpScanner.addBlock(block, storageUuid);
     } else {
       LOG.warn("No block pool scanner found for block pool id: "
           + block.getBlockPoolId());
     }
   }
   
+  /**
+   * Verify a block before the others, for example because reading it
+   * failed.
+   */
+  public void markSuspectBlock(ExtendedBlock block) {
+    BlockPoolSliceScanner bpScanner = getBPScanner(block.getBlockPoolId());
+    if (bpScanner != null) {
+      bpScanner.markSuspectBlock(block.getLocalBlock());
+    }
+  }
+
   boolean isInitialized(String bpid) {
     return getBPScanner(bpid) != null;
   }
@@ -49,6 +49,7 @@
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
 
@@ -56,7 +57,9 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.ReconfigurableBase;
+import org.apache.hadoop.conf.ReconfigurationException;
+import org.apache.hadoop.conf.ReconfigurationServlet;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
@@ -104,6 +107,7 @@
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
 import org.apache.hadoop.hdfs.server.common.JspHelper;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
+import org.apache.hadoop.hdfs.server.datanode.DataTransferQos.TrafficClass;
 import org.apache.hadoop.hdfs.server.datanode.SecureDataNodeStarter.SecureResources;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -117,6 +121,7 @@
 import org.apache.hadoop.hdfs.server.protocol.InterDatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.hdfs.web.resources.Param;
 import org.apache.hadoop.http.HttpConfig;
@@ -187,7 +192,7 @@
  *
  **********************************************************/
 @InterfaceAudience.Private
-public class DataNode extends Configured 
+public class DataNode extends ReconfigurableBase
     implements InterDatanodeProtocol, ClientDatanodeProtocol,
     DataNodeMXBean {
   public static final Log LOG = LogFactory.getLog(DataNode.class);
@@ -228,6 +233,9 @@ public static InetSocketAddress createSocketAddr(String target) {
 
   public final static String EMPTY_DEL_HINT = "";
   AtomicInteger xmitsInProgress = new AtomicInteger();
+  /** Packets written to disk by BlockReceivers, and the time it took */
+  private final AtomicLong packetsWritten = new AtomicLong();
+  private final AtomicLong packetWriteNanos = new AtomicLong();
   Daemon dataXceiverServer = null;
   Daemon localDataXceiverServer = null;
   ThreadGroup threadGroup = null;
@@ -252,6 +260,7 @@ public static InetSocketAddress createSocketAddr(String target) {
   
   volatile DataBlockScanner blockScanner = null;
   private DirectoryScanner directoryScanner = null;
+  private final DataTransferQos transferQos;
   
   /** Activated plug-ins. */
   private List<ServicePlugin> plugins;
@@ -280,6 +289,7 @@ public static InetSocketAddress createSocketAddr(String target) {
            final List<StorageLocation> dataDirs,
            final SecureResources resources) throws IOException {
     super(conf);
+    this.transferQos = new DataTransferQos(conf);
     this.maxNumberOfBlocksToLog = conf.getLong(DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
         DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
 
@@ -404,6 +414,11 @@ private void startInfoServer(Configuration conf) throws IOException {
     this.infoServer.setAttribute(JspHelper.CURRENT_CONF, conf);
     this.infoServer.addServlet(null, "/blockScannerReport", 
                                DataBlockScanner.Servlet.class);
+    this.infoServer.setAttribute(
+        ReconfigurationServlet.CONF_SERVLET_RECONFIGURABLE_PREFIX + "/reconf",
+        this);
+    this.infoServer.addInternalServlet(null, "/reconf",
+        ReconfigurationServlet.class, true);
 
     if (WebHdfsFileSystem.isEnabled(conf, LOG)) {
       infoServer.addJerseyResourcePackage(DatanodeWebHdfsMethods.class
@@ -1166,6 +1181,7 @@ FileInputStream[] requestShortCircuitFdsForRead(final ExtendedBlock blk,
     try {
       fis[0] = (FileInputStream)data.getBlockInputStream(blk, 0);
       fis[1] = (FileInputStream)data.getMetaDataInputStream(blk).getWrappedStream();
+      data.onBlockRead(blk);
     } catch (ClassCastException e) {
       LOG.debug("requestShortCircuitFdsForRead failed", e);
       throw new ShortCircuitFdsUnsupportedException("This DataNode's " +
@@ -1404,6 +1420,20 @@ public int getXceiverCount() {
   int getXmitsInProgress() {
     return xmitsInProgress.get();
   }
+
+  /** Account for a packet that took the given time to write to disk. */
+  void addPacketWrite(long nanos) {
+    packetWriteNanos.addAndGet(nanos);
+    packetsWritten.incrementAndGet();
+  }
+
+  long getPacketsWritten() {
+    return packetsWritten.get();
+  }
+
+  long getPacketWriteNanos() {
+    return packetWriteNanos.get();
+  }
     
   private void transferBlock(ExtendedBlock block, DatanodeInfo xferTargets[])
       throws IOException {
@@ -1639,7 +1669,15 @@ public void run() {
             stage, 0, 0, 0, 0, blockSender.getChecksum(), cachingStrategy);
 
         // send data & checksum
-        blockSender.sendBlock(out, unbufOut, null);
+        final TrafficClass trafficClass = isClient ?
+            TrafficClass.CLIENT_WRITE : TrafficClass.REPLICATION;
+        final DataTransferThrottler throttler =
+            transferQos.startTransfer(trafficClass, null);
+        try {
+          blockSender.sendBlock(out, unbufOut, throttler);
+        } finally {
+          transferQos.endTransfer(trafficClass);
+        }
 
         // no response necessary
         LOG.info(getClass().getSimpleName() + ": Transmitted " + b
@@ -1699,7 +1737,7 @@ void closeBlock(ExtendedBlock block, String delHint, String storageUuid) {
           + block.getBlockPoolId());
     }
     if (blockScanner != null) {
-      blockScanner.addBlock(block);
+      blockScanner.addBlock(block, storageUuid);
     }
   }
 
@@ -1961,6 +1999,27 @@ public DataBlockScanner getBlockScanner() {
     return blockScanner;
   }
 
+  /** @return the bandwidth sharing between the block transfers. */
+  DataTransferQos getTransferQos() {
+    return transferQos;
+  }
+
+  @Override
+  public Collection<String> getReconfigurableProperties() {
+    return DataTransferQos.getReconfigurableProperties();
+  }
+
+  @Override
+  protected void reconfigurePropertyImpl(String property, String newVal)
+      throws ReconfigurationException {
+    try {
+      transferQos.reconfigure(property, newVal);
+    } catch (IllegalArgumentException e) {
+      throw new ReconfigurationException(property, newVal,
+          getConf().get(property), e);
+    }
+  }
+
 
   public static void secureMain(String args[], SecureResources resources) {
     try {
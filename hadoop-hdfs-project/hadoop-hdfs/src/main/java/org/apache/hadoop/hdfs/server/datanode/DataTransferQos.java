@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_IO_QOS_WEIGHT_KEY_PREFIX;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Shares the bandwidth of the block transfers of a datanode between classes
+ * of traffic.
+ *
+ * Every transfer belongs to a {@link TrafficClass}.  When a total bandwidth
+ * is set, the classes with transfers in progress share it in proportion to
+ * their weights, and the transfers of a class share the bandwidth of their
+ * class.  The share of an idle class goes to the active ones, so a class
+ * which runs alone gets the whole bandwidth.  Without a total bandwidth the
+ * transfers are not throttled.
+ *
+ * The bandwidth and the weights can be changed while transfers are running;
+ * the change applies to them within a throttling period.
+ *
+ * The client transfers are also counted per storage, so that background
+ * work on a volume, such as block scanning, can make way for them.  They are
+ * only counted while the block scanner is enabled.
+ *
+ * Without a total bandwidth, starting and ending a transfer only updates
+ * atomic counters and takes no lock.
+ */
+@InterfaceAudience.Private
+class DataTransferQos {
+  static final Log LOG = LogFactory.getLog(DataTransferQos.class);
+
+  /** The classes of the block transfers. */
+  enum TrafficClass {
+    CLIENT_READ("client.read", 40),
+    CLIENT_WRITE("client.write", 40),
+    REPLICATION("replication", 10),
+    BALANCING("balancing", 5),
+    SCANNING("scanning", 5);
+
+    private final String weightKey;
+    private final int defaultWeight;
+
+    private TrafficClass(String name, int defaultWeight) {
+      this.weightKey = DFS_DATANODE_IO_QOS_WEIGHT_KEY_PREFIX + name;
+      this.defaultWeight = defaultWeight;
+    }
+
+    /** @return whether the transfers of the class serve clients. */
+    boolean isClient() {
+      return this == CLIENT_READ || this == CLIENT_WRITE;
+    }
+
+    /** @return the configuration key of the weight of the class. */
+    String getWeightKey() {
+      return weightKey;
+    }
+
+    int getDefaultWeight() {
+      return defaultWeight;
+    }
+  }
+
+  /** The lowest bandwidth given to a class, in bytes per second. */
+  static final long MIN_CLASS_BANDWIDTH = 1024;
+
+  /** Throttles the transfers of a class, unless the sharing is disabled. */
+  private static class ClassThrottler extends DataTransferThrottler {
+    private volatile boolean enabled = false;
+
+    ClassThrottler() {
+      super(MIN_CLASS_BANDWIDTH);
+    }
+
+    @Override
+    public void throttle(long numOfBytes) {
+      if (enabled) {
+        super.throttle(numOfBytes);
+      }
+    }
+  }
+
+  /** Throttles a transfer against two throttlers. */
+  private static class ChainedThrottler extends DataTransferThrottler {
+    private final DataTransferThrottler first;
+    private final DataTransferThrottler second;
+
+    ChainedThrottler(DataTransferThrottler first,
+        DataTransferThrottler second) {
+      super(MIN_CLASS_BANDWIDTH);
+      this.first = first;
+      this.second = second;
+    }
+
+    /** @return the bandwidth of the first throttler. */
+    @Override
+    public long getBandwidth() {
+      return first.getBandwidth();
+    }
+
+    /** Sets the bandwidth of the first throttler. */
+    @Override
+    public void setBandwidth(long bytesPerSecond) {
+      first.setBandwidth(bytesPerSecond);
+    }
+
+    @Override
+    public void throttle(long numOfBytes) {
+      first.throttle(numOfBytes);
+      second.throttle(numOfBytes);
+    }
+  }
+
+  private static final TrafficClass[] CLASSES = TrafficClass.values();
+
+  private final ClassThrottler[] throttlers =
+      new ClassThrottler[CLASSES.length];
+  private final int[] weights = new int[CLASSES.length];
+  /** The number of transfers in progress in each class. */
+  private final AtomicIntegerArray transfers =
+      new AtomicIntegerArray(CLASSES.length);
+  /** Whether the client transfers are counted per storage. */
+  private final boolean countStorageTransfers;
+  /** The number of client transfers in progress on each storage. */
+  private final ConcurrentMap<String, AtomicInteger> clientTransfers =
+      new ConcurrentHashMap<String, AtomicInteger>();
+  /** The total bandwidth in bytes per second, 0 if disabled. */
+  private volatile long bandwidth;
+
+  DataTransferQos(Configuration conf) {
+    bandwidth = conf.getLong(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY,
+        DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_DEFAULT);
+    if (bandwidth < 0) {
+      throw new IllegalArgumentException(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY
+          + " = " + bandwidth + " < 0");
+    }
+    for (TrafficClass c : CLASSES) {
+      final int w = conf.getInt(c.getWeightKey(), c.getDefaultWeight());
+      if (w <= 0) {
+        throw new IllegalArgumentException(c.getWeightKey() + " = " + w
+            + " <= 0");
+      }
+      weights[c.ordinal()] = w;
+      throttlers[c.ordinal()] = new ClassThrottler();
+    }
+    // The block scanner is the only reader of the per-storage counts.
+    countStorageTransfers = conf.getInt(DFS_DATANODE_SCAN_PERIOD_HOURS_KEY,
+        DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT) >= 0;
+    updateShares();
+  }
+
+  /** @return the properties which {@link #reconfigure} can change. */
+  static Collection<String> getReconfigurableProperties() {
+    final List<String> properties = new ArrayList<String>();
+    properties.add(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY);
+    for (TrafficClass c : CLASSES) {
+      properties.add(c.getWeightKey());
+    }
+    return Collections.unmodifiableList(properties);
+  }
+
+  /**
+   * Start a transfer.  The caller must call {@link #endTransfer} when the
+   * transfer is over.
+   *
+   * @param c the class of the transfer.
+   * @param limit a throttler which also limits the transfer, or null.
+   * @return the throttler of the transfer.
+   */
+  DataTransferThrottler startTransfer(TrafficClass c,
+      DataTransferThrottler limit) {
+    return startTransfer(c, limit, null);
+  }
+
+  /**
+   * Start a transfer of a replica on the given storage.  The caller must
+   * call {@link #endTransfer(TrafficClass, String)} when the transfer is
+   * over.
+   *
+   * @param c the class of the transfer.
+   * @param limit a throttler which also limits the transfer, or null.
+   * @param storageUuid the storage of the replica, or null if unknown.
+   * @return the throttler of the transfer.
+   */
+  DataTransferThrottler startTransfer(TrafficClass c,
+      DataTransferThrottler limit, String storageUuid) {
+    transfers.incrementAndGet(c.ordinal());
+    countClientTransfer(c, storageUuid, 1);
+    // The count is updated before reading the bandwidth, so that a
+    // concurrent reconfiguration which enables the sharing sees it.
+    if (bandwidth != 0) {
+      synchronized (this) {
+        updateShares();
+      }
+    }
+    final DataTransferThrottler t = throttlers[c.ordinal()];
+    return limit == null ? t : new ChainedThrottler(limit, t);
+  }
+
+  /** End a transfer started by {@link #startTransfer}. */
+  void endTransfer(TrafficClass c) {
+    endTransfer(c, null);
+  }
+
+  /**
+   * End a transfer started by
+   * {@link #startTransfer(TrafficClass, DataTransferThrottler, String)}.
+   */
+  void endTransfer(TrafficClass c, String storageUuid) {
+    transfers.decrementAndGet(c.ordinal());
+    countClientTransfer(c, storageUuid, -1);
+    if (bandwidth != 0) {
+      synchronized (this) {
+        updateShares();
+      }
+    }
+  }
+
+  private void countClientTransfer(TrafficClass c, String storageUuid,
+      int delta) {
+    if (!countStorageTransfers || !c.isClient() || storageUuid == null) {
+      return;
+    }
+    AtomicInteger n = clientTransfers.get(storageUuid);
+    if (n == null) {
+      // The entries are few, one per storage, and are never removed.
+      final AtomicInteger created = new AtomicInteger();
+      n = clientTransfers.putIfAbsent(storageUuid, created);
+      if (n == null) {
+        n = created;
+      }
+    }
+    n.addAndGet(delta);
+  }
+
+  /**
+   * @return the number of client reads and writes in progress on a storage,
+   *         or 0 if they are not counted.
+   */
+  int getClientTransfers(String storageUuid) {
+    final AtomicInteger n = clientTransfers.get(storageUuid);
+    return n == null ? 0 : n.get();
+  }
+
+  /**
+   * Change a property listed by {@link #getReconfigurableProperties}.
+   * @param newVal the new value, or null to restore the default.
+   * @throws IllegalArgumentException if the value is not valid.
+   */
+  synchronized void reconfigure(String property, String newVal) {
+    if (property.equals(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY)) {
+      final long bw = newVal == null ?
+          DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_DEFAULT : Long.parseLong(newVal);
+      if (bw < 0) {
+        throw new IllegalArgumentException("Negative bandwidth " + bw);
+      }
+      bandwidth = bw;
+    } else {
+      final TrafficClass c = getClassOfWeightKey(property);
+      final int w = newVal == null ?
+          c.getDefaultWeight() : Integer.parseInt(newVal);
+      if (w <= 0) {
+        throw new IllegalArgumentException("Non-positive weight " + w);
+      }
+      weights[c.ordinal()] = w;
+    }
+    updateShares();
+    LOG.info("Changed " + property + " to " + newVal + ": " + this);
+  }
+
+  private static TrafficClass getClassOfWeightKey(String key) {
+    for (TrafficClass c : CLASSES) {
+      if (c.getWeightKey().equals(key)) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("Unknown property " + key);
+  }
+
+  /**
+   * @return the bandwidth of the transfers of a class, in bytes per second,
+   *         or 0 if they are not throttled.
+   */
+  @VisibleForTesting
+  synchronized long getBandwidth(TrafficClass c) {
+    final ClassThrottler t = throttlers[c.ordinal()];
+    return t.enabled ? t.getBandwidth() : 0;
+  }
+
+  /**
+   * Give each class its share of the bandwidth.  An idle class gets the
+   * share it would have if it became active.
+   */
+  private void updateShares() {
+    final boolean[] active = new boolean[CLASSES.length];
+    long activeWeights = 0;
+    for (int i = 0; i < CLASSES.length; i++) {
+      active[i] = transfers.get(i) > 0;
+      if (active[i]) {
+        activeWeights += weights[i];
+      }
+    }
+    for (int i = 0; i < CLASSES.length; i++) {
+      final ClassThrottler t = throttlers[i];
+      if (bandwidth == 0) {
+        t.enabled = false;
+      } else {
+        final long total = active[i] ?
+            activeWeights : activeWeights + weights[i];
+        t.setBandwidth(Math.max(MIN_CLASS_BANDWIDTH,
+            bandwidth * weights[i] / total));
+        t.enabled = true;
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    final StringBuilder b = new StringBuilder(getClass().getSimpleName())
+        .append("(bandwidth=").append(bandwidth);
+    for (TrafficClass c : CLASSES) {
+      b.append(", ").append(c).append("=").append(getBandwidth(c))
+       .append("/").append(transfers.get(c.ordinal()));
+    }
+    return b.append(")").toString();
+  }
+}
@@ -65,8 +65,10 @@
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsUnsupportedException;
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsVersionException;
+import org.apache.hadoop.hdfs.server.datanode.DataTransferQos.TrafficClass;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.net.NetUtils;
@@ -327,6 +329,7 @@ public void readBlock(final ExtendedBlock block,
         blockSender = new BlockSender(block, blockOffset, length,
             true, false, sendChecksum, datanode, clientTraceFmt,
             cachingStrategy);
+        datanode.data.onBlockRead(block);
       } catch(IOException e) {
         String msg = "opReadBlock " + block + " received exception " + e; 
         LOG.info(msg);
@@ -337,7 +340,16 @@ public void readBlock(final ExtendedBlock block,
       // send op status
       writeSuccessWithChecksumInfo(blockSender, new DataOutputStream(getOutputStream()));
 
-      long read = blockSender.sendBlock(out, baseStream, null); // send data
+      final String storageUuid = blockSender.getStorageUuid();
+      final DataTransferThrottler throttler = datanode.getTransferQos()
+          .startTransfer(TrafficClass.CLIENT_READ, null, storageUuid);
+      final long read;
+      try {
+        read = blockSender.sendBlock(out, baseStream, throttler); // send data
+      } finally {
+        datanode.getTransferQos().endTransfer(TrafficClass.CLIENT_READ,
+            storageUuid);
+      }
 
       if (blockSender.didSendEntireByteRange()) {
         // If we sent the entire range, then we should expect the client
@@ -374,6 +386,12 @@ public void readBlock(final ExtendedBlock block,
        */
       LOG.warn(dnR + ":Got exception while serving " + block + " to "
           + remoteAddress, ioe);
+      // Have the scanner verify the replica if reading it failed.  Errors
+      // writing to the client, e.g. timeouts, say nothing about the replica.
+      if (blockSender != null && blockSender.didReplicaReadFail()
+          && datanode.blockScanner != null) {
+        datanode.blockScanner.markSuspectBlock(block);
+      }
       throw ioe;
     } finally {
       IOUtils.closeStream(blockSender);
@@ -569,8 +587,16 @@ public void writeBlock(final ExtendedBlock block,
       // receive the block and mirror to the next target
       if (blockReceiver != null) {
         String mirrorAddr = (mirrorSock == null) ? null : mirrorNode;
-        blockReceiver.receiveBlock(mirrorOut, mirrorIn, replyOut,
-            mirrorAddr, null, targets);
+        final TrafficClass trafficClass = isDatanode ?
+            TrafficClass.REPLICATION : TrafficClass.CLIENT_WRITE;
+        final DataTransferThrottler throttler = datanode.getTransferQos()
+            .startTransfer(trafficClass, null, storageUuid);
+        try {
+          blockReceiver.receiveBlock(mirrorOut, mirrorIn, replyOut,
+              mirrorAddr, throttler, targets);
+        } finally {
+          datanode.getTransferQos().endTransfer(trafficClass, storageUuid);
+        }
 
         // send close-ack for transfer-RBW/Finalized 
         if (isTransfer) {
@@ -734,8 +760,15 @@ public void copyBlock(final ExtendedBlock block,
       // send status first
       writeSuccessWithChecksumInfo(blockSender, reply);
       // send block content to the target
-      long read = blockSender.sendBlock(reply, baseStream, 
-                                        dataXceiverServer.balanceThrottler);
+      final DataTransferThrottler throttler = datanode.getTransferQos()
+          .startTransfer(TrafficClass.BALANCING,
+              dataXceiverServer.balanceThrottler);
+      final long read;
+      try {
+        read = blockSender.sendBlock(reply, baseStream, throttler);
+      } finally {
+        datanode.getTransferQos().endTransfer(TrafficClass.BALANCING);
+      }
 
       datanode.metrics.incrBytesRead((int) read);
       datanode.metrics.incrBlocksRead();
@@ -859,8 +892,14 @@ public void replaceBlock(final ExtendedBlock block,
           CachingStrategy.newDropBehind());
 
       // receive a block
-      blockReceiver.receiveBlock(null, null, null, null, 
-          dataXceiverServer.balanceThrottler, null);
+      final DataTransferThrottler throttler = datanode.getTransferQos()
+          .startTransfer(TrafficClass.BALANCING,
+              dataXceiverServer.balanceThrottler);
+      try {
+        blockReceiver.receiveBlock(null, null, null, null, throttler, null);
+      } finally {
+        datanode.getTransferQos().endTransfer(TrafficClass.BALANCING);
+      }
                     
       // notify name node
       datanode.notifyNamenodeReceivedBlock(
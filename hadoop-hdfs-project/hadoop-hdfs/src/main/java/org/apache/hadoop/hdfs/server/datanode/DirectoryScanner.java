@@ -19,6 +19,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -26,6 +27,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -61,9 +63,25 @@ public class DirectoryScanner implements Runnable {
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
+  private final int throttleLimitMsPerSec;
+  private final boolean incremental;
+  private final int fullScanPeriod;
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
 
+  /**
+   * Directory listings from the previous pass, used by incremental scans.
+   * Replaced as a whole at the end of each pass, so it never holds
+   * directories which no longer exist.
+   */
+  private Map<File, DirListing> dirListings = null;
+  private long passCount = 0;
+  /** Directories listed and reused in the last pass, for testing */
+  long dirsListed = 0;
+  long dirsReused = 0;
+  /** Times the report compilers slept for the throttle in the last pass */
+  long throttleWaits = 0;
+
   ScanInfoPerBlockPool diffs = new ScanInfoPerBlockPool();
   Map<String, Stats> stats = new HashMap<String, Stats>();
   
@@ -316,6 +334,20 @@ public long getGenStamp() {
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
+    throttleLimitMsPerSec = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT);
+    if (throttleLimitMsPerSec <= 0) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY
+          + " must be positive, but was " + throttleLimitMsPerSec);
+    }
+    incremental = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT);
+    fullScanPeriod = Math.max(1, conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_PERIOD_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_PERIOD_DEFAULT));
 
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
@@ -343,6 +375,11 @@ private void clear() {
     stats.clear();
   }
 
+  /** Forget the cached directory listings, so the next pass is a full one */
+  void clearDirListings() {
+    dirListings = null;
+  }
+
   /**
    * Main program loop for DirectoryScanner
    * Runs "reconcile()" periodically under the masterThread.
@@ -395,6 +432,7 @@ void shutdown() {
       }
     }
     if (!retainDiffs) clear();
+    clearDirListings();
   }
 
   /**
@@ -417,74 +455,76 @@ void reconcile() {
   /**
    * Scan for the differences between disk and in-memory blocks
    * Scan only the "finalized blocks" lists of both disk and memory.
+   *
+   * The comparison works on a copy of the in-memory finalized blocks and
+   * does not hold the dataset lock. The disk report is compiled without
+   * the lock anyway, so every difference is re-checked against the current
+   * state by {@link FsDatasetSpi#checkAndUpdate}, one block at a time.
    */
   void scan() {
     clear();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          Block memBlock = memReport[Math.min(m, memReport.length - 1)];
-          ScanInfo info = blockpoolReport[Math.min(
-              d, blockpoolReport.length - 1)];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            // Block is missing in memory
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          }
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
+      FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        Block memBlock = memReport[Math.min(m, memReport.length - 1)];
+        ScanInfo info = blockpoolReport[Math.min(
+            d, blockpoolReport.length - 1)];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          // Block is missing in memory
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, info);
           d++;
-          m++;
+          continue;
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
           addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+                        memBlock.getBlockId(), info.getVolume());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          statsRecord.missingMemoryBlocks++;
-          addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFileLength() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(diffRecord, statsRecord, info);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        d++;
+        m++;
+      }
+      while (m < memReport.length) {
+        FinalizedReplica current = memReport[m++];
+        addDifference(diffRecord, statsRecord,
+                      current.getBlockId(), current.getVolume());
+      }
+      while (d < blockpoolReport.length) {
+        statsRecord.missingMemoryBlocks++;
+        addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+      }
+      LOG.info(statsRecord.toString());
+    } //end for
   }
 
   /**
@@ -529,14 +569,25 @@ private Map<String, ScanInfo[]> getDiskReport() {
 
     Map<Integer, Future<ScanInfoPerBlockPool>> compilersInProgress =
       new HashMap<Integer, Future<ScanInfoPerBlockPool>>();
+    List<ReportCompiler> compilers = new ArrayList<ReportCompiler>();
+
+    // An incremental pass reuses the listings of directories which have not
+    // changed since the previous pass; every fullScanPeriod passes all the
+    // directories are listed again.
+    boolean fullScan = dirListings == null || passCount % fullScanPeriod == 0;
+    passCount++;
+    Map<File, DirListing> previous = fullScan ? null : dirListings;
+    Map<File, DirListing> current = incremental ?
+        new ConcurrentHashMap<File, DirListing>() : null;
 
     for (int i = 0; i < volumes.size(); i++) {
       if (isValid(dataset, volumes.get(i))) {
-        ReportCompiler reportCompiler =
-          new ReportCompiler(volumes.get(i));
+        ReportCompiler reportCompiler = new ReportCompiler(volumes.get(i),
+            previous, current, throttleLimitMsPerSec);
         Future<ScanInfoPerBlockPool> result = 
           reportCompileThreadPool.submit(reportCompiler);
         compilersInProgress.put(i, result);
+        compilers.add(reportCompiler);
       }
     }
     
@@ -546,10 +597,25 @@ private Map<String, ScanInfo[]> getDiskReport() {
         dirReports[report.getKey()] = report.getValue().get();
       } catch (Exception ex) {
         LOG.error("Error compiling report", ex);
+        dirListings = null;
         // Propagate ex to DataBlockScanner to deal with
         throw new RuntimeException(ex);
       }
     }
+    dirListings = current;
+    dirsListed = 0;
+    dirsReused = 0;
+    throttleWaits = 0;
+    for (ReportCompiler compiler : compilers) {
+      dirsListed += compiler.dirsListed;
+      dirsReused += compiler.dirsReused;
+      throttleWaits += compiler.throttleWaits;
+    }
+    if (incremental) {
+      LOG.info((fullScan ? "Full" : "Incremental") + " scan listed "
+          + dirsListed + " directories and reused the listings of "
+          + dirsReused + " unchanged directories");
+    }
 
     // Compile consolidated report for all the volumes
     ScanInfoPerBlockPool list = new ScanInfoPerBlockPool();
@@ -568,18 +634,75 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
         && metaFile.endsWith(Block.METADATA_EXTENSION);
   }
 
+  /**
+   * The blocks and subdirectories found in a single directory, as of the
+   * time it was listed.
+   */
+  private static class DirListing {
+    /**
+     * Directory modification times may have a granularity as coarse as
+     * two seconds, so a listing taken within that window of the last
+     * modification might miss a change that did not bump the time.
+     */
+    private static final long MTIME_GRANULARITY_MS = 2000;
+
+    private final long modTime;
+    private final long listTime;
+    private final List<ScanInfo> blocks;
+    private final List<File> subdirs;
+
+    DirListing(long modTime, long listTime, List<ScanInfo> blocks,
+        List<File> subdirs) {
+      this.modTime = modTime;
+      this.listTime = listTime;
+      this.blocks = blocks;
+      this.subdirs = subdirs;
+    }
+
+    /**
+     * A listing is still current if the directory has not been modified
+     * since it was taken. Changes to the length of a block file do not
+     * modify its directory, so those are only noticed by full scans.
+     */
+    boolean isCurrent(File dir) {
+      long mtime = dir.lastModified();
+      return mtime != 0 && mtime == modTime
+          && listTime - modTime > MTIME_GRANULARITY_MS;
+    }
+  }
+
   private static class ReportCompiler 
   implements Callable<ScanInfoPerBlockPool> {
-    private FsVolumeSpi volume;
+    private final FsVolumeSpi volume;
+    private final Map<File, DirListing> previous;
+    private final Map<File, DirListing> current;
+    private final int throttleLimitMsPerSec;
+    private long throttlePeriodStart;
+    int dirsListed = 0;
+    int dirsReused = 0;
+    int throttleWaits = 0;
 
-    public ReportCompiler(FsVolumeSpi volume) {
+    /**
+     * @param volume the volume to compile the report for
+     * @param previous listings to reuse for unchanged directories, or null
+     *                 to list every directory
+     * @param current map to record this pass's listings in, or null
+     * @param throttleLimitMsPerSec milliseconds per second the compiler may
+     *                 spend listing directories
+     */
+    public ReportCompiler(FsVolumeSpi volume, Map<File, DirListing> previous,
+        Map<File, DirListing> current, int throttleLimitMsPerSec) {
       this.volume = volume;
+      this.previous = previous;
+      this.current = current;
+      this.throttleLimitMsPerSec = throttleLimitMsPerSec;
     }
 
     @Override
     public ScanInfoPerBlockPool call() throws Exception {
       String[] bpList = volume.getBlockPoolList();
       ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
+      throttlePeriodStart = Time.monotonicNow();
       for (String bpid : bpList) {
         LinkedList<ScanInfo> report = new LinkedList<ScanInfo>();
         File bpFinalizedDir = volume.getFinalizedDir(bpid);
@@ -590,16 +713,61 @@ public ScanInfoPerBlockPool call() throws Exception {
 
     /** Compile list {@link ScanInfo} for the blocks in the directory <dir> */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
-        LinkedList<ScanInfo> report) {
+        LinkedList<ScanInfo> report) throws InterruptedException {
+      DirListing listing = previous == null ? null : previous.get(dir);
+      if (listing != null && listing.isCurrent(dir)) {
+        dirsReused++;
+      } else {
+        listing = listDirectory(vol, dir);
+        if (listing == null) {
+          // Ignore this directory and proceed.
+          return report;
+        }
+        dirsListed++;
+        throttle();
+      }
+      if (current != null) {
+        current.put(dir, listing);
+      }
+      report.addAll(listing.blocks);
+      for (File subdir : listing.subdirs) {
+        compileReport(vol, subdir, report);
+      }
+      return report;
+    }
+
+    /**
+     * Sleep for the rest of the current second once the compiler has used
+     * up its share of it.
+     */
+    private void throttle() throws InterruptedException {
+      if (throttleLimitMsPerSec >= 1000) {
+        return;
+      }
+      long elapsed = Time.monotonicNow() - throttlePeriodStart;
+      if (elapsed >= throttleLimitMsPerSec) {
+        if (elapsed < 1000) {
+          throttleWaits++;
+          Thread.sleep(1000 - elapsed);
+        }
+        throttlePeriodStart = Time.monotonicNow();
+      }
+    }
+
+    /** List the blocks and subdirectories of the directory <dir> */
+    private DirListing listDirectory(FsVolumeSpi vol, File dir) {
+      long listTime = Time.now();
+      long modTime = dir.lastModified();
       File[] files;
       try {
         files = FileUtil.listFiles(dir);
       } catch (IOException ioe) {
         LOG.warn("Exception occured while compiling report: ", ioe);
-        // Ignore this directory and proceed.
-        return report;
+        return null;
       }
       Arrays.sort(files);
+      List<ScanInfo> blocks = new ArrayList<ScanInfo>();
+      List<File> subdirs = new ArrayList<File>();
       /*
        * Assumption: In the sorted list of files block file appears immediately
        * before block metadata file. This is true for the current naming
@@ -608,13 +776,13 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
        */
       for (int i = 0; i < files.length; i++) {
         if (files[i].isDirectory()) {
-          compileReport(vol, files[i], report);
+          subdirs.add(files[i]);
           continue;
         }
         if (!Block.isBlockFilename(files[i])) {
           if (isBlockMetaFile("blk_", files[i].getName())) {
             long blockId = Block.getBlockId(files[i].getName());
-            report.add(new ScanInfo(blockId, null, files[i], vol));
+            blocks.add(new ScanInfo(blockId, null, files[i], vol));
           }
           continue;
         }
@@ -632,9 +800,9 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
             break;
           }
         }
-        report.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+        blocks.add(new ScanInfo(blockId, blockFile, metaFile, vol));
       }
-      return report;
+      return new DirListing(modTime, listTime, blocks, subdirs);
     }
   }
 }
@@ -281,6 +281,20 @@ public String recoverClose(ExtendedBlock b, long newGS, long expectedBlockLen
    */
   public List<Long> getCacheReport(String bpid);
 
+  /**
+   * Returns the number of reads served from each cached block of a block
+   * pool since the previous call.  Blocks which were not read are left out.
+   * @param   bpid Block Pool Id
+   * @return  a map from block ID to the number of reads.
+   */
+  public Map<Long, Long> getAndResetCacheHits(String bpid);
+
+  /**
+   * Notify the dataset that a client has started to read a block.
+   * @param b the block being read
+   */
+  public void onBlockRead(ExtendedBlock b);
+
   /** Does the dataset contain the block? */
   public boolean contains(ExtendedBlock block);
 
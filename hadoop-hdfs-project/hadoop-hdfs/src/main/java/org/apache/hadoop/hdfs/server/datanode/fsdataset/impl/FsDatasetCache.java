@@ -28,6 +28,7 @@
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -63,6 +64,12 @@ private static final class Value {
     final State state;
     final MappableBlock mappableBlock;
 
+    /**
+     * Reads served from this block since the last cache report.  Protected
+     * by the FsDatasetCache lock.
+     */
+    long hits;
+
     Value(MappableBlock mappableBlock, State state) {
       this.mappableBlock = mappableBlock;
       this.state = state;
@@ -236,6 +243,33 @@ synchronized List<Long> getCachedBlocks(String bpid) {
     return blocks;
   }
 
+  /**
+   * Count a read of the given block, if it is currently cached.
+   */
+  synchronized void recordRead(String bpid, long blockId) {
+    Value value = mappableBlockMap.get(new ExtendedBlockId(blockId, bpid));
+    if (value != null && value.state.shouldAdvertise()) {
+      value.hits++;
+    }
+  }
+
+  /**
+   * @return The number of reads served from each cached block of the block
+   * pool since the previous call.  Blocks which were not read are left out.
+   */
+  synchronized Map<Long, Long> getAndResetCacheHits(String bpid) {
+    Map<Long, Long> hits = new HashMap<Long, Long>();
+    for (Entry<ExtendedBlockId, Value> entry : mappableBlockMap.entrySet()) {
+      Value value = entry.getValue();
+      if (value.hits > 0 &&
+          entry.getKey().getBlockPoolId().equals(bpid)) {
+        hits.put(entry.getKey().getBlockId(), value.hits);
+        value.hits = 0;
+      }
+    }
+    return hits;
+  }
+
   /**
    * Attempt to begin caching a block.
    */
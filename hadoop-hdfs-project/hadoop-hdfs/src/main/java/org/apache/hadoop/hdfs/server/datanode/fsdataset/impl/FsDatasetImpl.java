@@ -1038,6 +1038,16 @@ public List<Long> getCacheReport(String bpid) {
     return cacheManager.getCachedBlocks(bpid);
   }
 
+  @Override // FsDatasetSpi
+  public Map<Long, Long> getAndResetCacheHits(String bpid) {
+    return cacheManager.getAndResetCacheHits(bpid);
+  }
+
+  @Override // FsDatasetSpi
+  public void onBlockRead(ExtendedBlock b) {
+    cacheManager.recordRead(b.getBlockPoolId(), b.getBlockId());
+  }
+
   @Override
   public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
     Map<DatanodeStorage, BlockListAsLongs> blockReportsMap =
@@ -1053,25 +1063,34 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
       uc.put(v.getStorageID(), new ArrayList<ReplicaInfo>());
     }
 
-    synchronized(this) {
-      for (ReplicaInfo b : volumeMap.replicas(bpid)) {
-        switch(b.getState()) {
-          case FINALIZED:
-            finalized.get(b.getVolume().getStorageID()).add(b);
-            break;
-          case RBW:
-          case RWR:
-            uc.get(b.getVolume().getStorageID()).add(b);
-            break;
-          case RUR:
-            ReplicaUnderRecovery rur = (ReplicaUnderRecovery)b;
-            uc.get(rur.getVolume().getStorageID()).add(rur.getOriginalReplica());
-            break;
-          case TEMPORARY:
-            break;
-          default:
-            assert false : "Illegal ReplicaInfo state.";
-        }
+    // Only hold the dataset lock while copying the replica references, and
+    // sort them into storages afterwards.  A replica added or removed in the
+    // meantime is reported as of the snapshot, which is no different from
+    // generating the report slightly earlier.
+    for (ReplicaInfo b : volumeMap.snapshot(bpid)) {
+      final String storageID = b.getVolume().getStorageID();
+      final ArrayList<ReplicaInfo> finalizedList = finalized.get(storageID);
+      final ArrayList<ReplicaInfo> ucList = uc.get(storageID);
+      if (finalizedList == null) {
+        // the volume has been removed since the report was started
+        continue;
+      }
+      switch(b.getState()) {
+        case FINALIZED:
+          finalizedList.add(b);
+          break;
+        case RBW:
+        case RWR:
+          ucList.add(b);
+          break;
+        case RUR:
+          ReplicaUnderRecovery rur = (ReplicaUnderRecovery)b;
+          ucList.add(rur.getOriginalReplica());
+          break;
+        case TEMPORARY:
+          break;
+        default:
+          assert false : "Illegal ReplicaInfo state.";
       }
     }
 
@@ -1089,10 +1108,13 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
    * Get the list of finalized blocks from in-memory blockmap for a block pool.
    */
   @Override
-  public synchronized List<FinalizedReplica> getFinalizedBlocks(String bpid) {
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid) {
+    // Only hold the dataset lock while copying the replica references; the
+    // replicas themselves are copied afterwards.
+    final ReplicaInfo[] replicas = volumeMap.snapshot(bpid);
     ArrayList<FinalizedReplica> finalized =
-        new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
-    for (ReplicaInfo b : volumeMap.replicas(bpid)) {
+        new ArrayList<FinalizedReplica>(replicas.length);
+    for (ReplicaInfo b : replicas) {
       if(b.getState() == ReplicaState.FINALIZED) {
         finalized.add(new FinalizedReplica((FinalizedReplica)b));
       }
@@ -197,6 +197,25 @@ Collection<ReplicaInfo> replicas(String bpid) {
     return m != null ? m.values() : null;
   }
 
+  /**
+   * Copy the replicas of the given block pool into a new array.
+   * Unlike {@link #replicas(String)}, this method is synchronized, and only
+   * holds the mutex for as long as it takes to copy the references.  The
+   * returned replicas are still shared with the map, so any mutable field
+   * should be read once and may already be stale.
+   * 
+   * @param bpid block pool id
+   * @return the replicas belonging to the block pool, possibly empty
+   */
+  ReplicaInfo[] snapshot(String bpid) {
+    checkBlockPool(bpid);
+    synchronized(mutex) {
+      Map<Long, ReplicaInfo> m = map.get(bpid);
+      return m != null ? m.values().toArray(new ReplicaInfo[m.size()])
+          : new ReplicaInfo[0];
+    }
+  }
+
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
     synchronized(mutex) {
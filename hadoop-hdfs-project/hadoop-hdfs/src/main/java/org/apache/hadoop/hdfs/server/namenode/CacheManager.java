@@ -23,6 +23,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_DIRECTIVES_NUM_RESPONSES_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_POOLS_NUM_RESPONSES;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_POOLS_NUM_RESPONSES_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT;
 
@@ -34,9 +36,11 @@
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -157,6 +161,12 @@ public final class CacheManager {
    */
   private final long scanIntervalMs;
 
+  /**
+   * Half-life of the cache hit counts in milliseconds, or 0 if cache hits
+   * are ignored.
+   */
+  private final long hitsHalfLifeMs;
+
   /**
    * All cached blocks.
    */
@@ -201,6 +211,9 @@ public PersistState(CacheManagerSection section,
     scanIntervalMs = conf.getLong(
         DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS,
         DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT);
+    hitsHalfLifeMs = conf.getLong(
+        DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS,
+        DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS_DEFAULT);
     float cachedBlocksPercent = conf.getFloat(
           DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT,
           DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT);
@@ -231,7 +244,7 @@ public void startMonitorThread() {
     try {
       if (this.monitor == null) {
         this.monitor = new CacheReplicationMonitor(namesystem, this,
-            scanIntervalMs, crmLock);
+            scanIntervalMs, hitsHalfLifeMs, crmLock);
         this.monitor.start();
       }
     } finally {
@@ -894,7 +907,8 @@ public void setCachedLocations(LocatedBlock block) {
   }
 
   public final void processCacheReport(final DatanodeID datanodeID,
-      final List<Long> blockIds) throws IOException {
+      final List<Long> blockIds, final List<Long> hitCounts)
+      throws IOException {
     namesystem.writeLock();
     final long startTime = Time.monotonicNow();
     final long endTime;
@@ -906,7 +920,7 @@ public final void processCacheReport(final DatanodeID datanodeID,
             "processCacheReport from dead or unregistered datanode: " +
             datanode);
       }
-      processCacheReportImpl(datanode, blockIds);
+      processCacheReportImpl(datanode, blockIds, hitCounts);
     } finally {
       endTime = Time.monotonicNow();
       namesystem.writeUnlock();
@@ -923,13 +937,16 @@ public final void processCacheReport(final DatanodeID datanodeID,
   }
 
   private void processCacheReportImpl(final DatanodeDescriptor datanode,
-      final List<Long> blockIds) {
+      final List<Long> blockIds, final List<Long> hitCounts) {
     CachedBlocksList cached = datanode.getCached();
     cached.clear();
     CachedBlocksList cachedList = datanode.getCached();
     CachedBlocksList pendingCachedList = datanode.getPendingCached();
+    Iterator<Long> hitIter = hitCounts == null ? null : hitCounts.iterator();
+    Map<Long, Long> cacheHits = new HashMap<Long, Long>();
     for (Iterator<Long> iter = blockIds.iterator(); iter.hasNext(); ) {
       long blockId = iter.next();
+      long hits = hitIter == null ? 0 : hitIter.next();
       CachedBlock cachedBlock =
           new CachedBlock(blockId, (short)0, false);
       CachedBlock prevCachedBlock = cachedBlocks.get(cachedBlock);
@@ -949,7 +966,12 @@ private void processCacheReportImpl(final DatanodeDescriptor datanode,
       if (cachedBlock.isPresent(pendingCachedList)) {
         pendingCachedList.remove(cachedBlock);
       }
+      if (hits > 0) {
+        cachedBlock.addHits(hits);
+        cacheHits.put(blockId, hits);
+      }
     }
+    datanode.setCacheHits(cacheHits);
   }
 
   /**
@@ -54,6 +54,12 @@ public final class CachedBlock implements Element,
    */
   private short replicationAndMark;
 
+  /**
+   * Reads served from the cached replicas of this block, decayed over time
+   * by the CacheReplicationMonitor.
+   */
+  private float hits;
+
   /**
    * Used to implement the CachedBlocksList.
    *
@@ -105,6 +111,22 @@ public short getReplication() {
     return (short) (replicationAndMark >>> 1);
   }
 
+  public float getHits() {
+    return hits;
+  }
+
+  public void addHits(long count) {
+    hits += count;
+  }
+
+  /**
+   * Scale down the hit count, so that old reads count for less than recent
+   * ones.
+   */
+  public void decayHits(float factor) {
+    hits *= factor;
+  }
+
   /**
    * Return true if this CachedBlock is present on the given list.
    */
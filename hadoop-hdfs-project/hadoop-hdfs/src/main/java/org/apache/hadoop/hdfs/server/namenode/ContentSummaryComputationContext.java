@@ -28,6 +28,7 @@ public class ContentSummaryComputationContext {
   private Content.Counts counts = null;
   private long nextCountLimit = 0;
   private long limitPerRun = 0;
+  private long sleepMicroSec = 0;
   private long yieldCount = 0;
 
   /**
@@ -38,19 +39,22 @@ public class ContentSummaryComputationContext {
    * @param limitPerRun allowed number of operations in one
    *        locking period. 0 or a negative number means
    *        no limit (i.e. no yielding)
+   * @param sleepMicroSec how long to stay out of the locks each time
+   *        they are relinquished, in microseconds
    */
   public ContentSummaryComputationContext(FSDirectory dir,
-      FSNamesystem fsn, long limitPerRun) {
+      FSNamesystem fsn, long limitPerRun, long sleepMicroSec) {
     this.dir = dir;
     this.fsn = fsn;
     this.limitPerRun = limitPerRun;
     this.nextCountLimit = limitPerRun;
+    this.sleepMicroSec = sleepMicroSec;
     this.counts = Content.Counts.newInstance();
   }
 
   /** Constructor for blocking computation. */
   public ContentSummaryComputationContext() {
-    this(null, null, 0);
+    this(null, null, 0, 0);
   }
 
   /** Return current yield count */
@@ -101,7 +105,7 @@ public boolean yield() {
     fsn.readUnlock();
 
     try {
-      Thread.sleep(1);
+      Thread.sleep(sleepMicroSec / 1000, (int)(sleepMicroSec % 1000) * 1000);
     } catch (InterruptedException ie) {
     } finally {
       // reacquire
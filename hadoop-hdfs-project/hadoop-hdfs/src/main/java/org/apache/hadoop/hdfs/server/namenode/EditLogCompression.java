@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+
+/**
+ * Handles the compression of edit log files.
+ *
+ * A compressed edit log has the {@link
+ * org.apache.hadoop.hdfs.protocol.LayoutFlags#COMPRESSED_EDITS} layout flag,
+ * and its header ends with the class name of the codec.  The edits follow
+ * as chunks, one per flush of the log, each made of:
+ * <ul>
+ *   <li>the length of the uncompressed edits (int)</li>
+ *   <li>the length of the compressed edits (int)</li>
+ *   <li>the compressed edits</li>
+ * </ul>
+ * The edits of a chunk are compressed on their own, so that the log can be
+ * read up to the last complete chunk after a crash.  Like in an uncompressed
+ * log, the preallocated space after the last chunk is filled with
+ * OP_INVALID, which reads as a chunk length of -1.
+ */
+@InterfaceAudience.Private
+class EditLogCompression {
+  /** The chunk length read from the preallocated space of the log. */
+  private static final int END_OF_CHUNKS = -1;
+  /** The length of the chunk header. */
+  static final int CHUNK_HEADER_LENGTH = 8;
+  /**
+   * The largest number of uncompressed bytes in a chunk.  Larger flushes are
+   * split, so that a corrupt length cannot make the reader allocate a huge
+   * buffer.
+   */
+  static final int MAX_CHUNK_LENGTH = 16 * 1024 * 1024;
+
+  private final CompressionCodec codec;
+
+  private EditLogCompression(CompressionCodec codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Create a compression instance based on the user's configuration.
+   * @return the compression, or null if the edits are not compressed.
+   * @throws IOException if the specified codec is not available.
+   */
+  static EditLogCompression createCompression(Configuration conf)
+      throws IOException {
+    if (!conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_COMPRESS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_COMPRESS_DEFAULT)) {
+      return null;
+    }
+    return createCompression(conf, conf.get(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_COMPRESSION_CODEC_KEY,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_COMPRESSION_CODEC_DEFAULT));
+  }
+
+  private static EditLogCompression createCompression(Configuration conf,
+      String codecClassName) throws IOException {
+    CompressionCodecFactory factory = new CompressionCodecFactory(conf);
+    CompressionCodec codec = factory.getCodecByClassName(codecClassName);
+    if (codec == null) {
+      throw new IOException("Not a supported codec: " + codecClassName);
+    }
+    return new EditLogCompression(codec);
+  }
+
+  /**
+   * Read the codec at the end of the header of a compressed edit log.
+   * @throws IOException if the codec is not available or the underlying IO
+   * fails.
+   */
+  static EditLogCompression readHeader(DataInput in) throws IOException {
+    return createCompression(new Configuration(), Text.readString(in));
+  }
+
+  /** Write the codec at the end of the header of a compressed edit log. */
+  void writeHeader(DataOutput out) throws IOException {
+    Text.writeString(out, codec.getClass().getCanonicalName());
+  }
+
+  CompressionCodec getCodec() {
+    return codec;
+  }
+
+  /** Compresses the chunks of a log being written. */
+  class ChunkCompressor {
+    private final Compressor compressor = CodecPool.getCompressor(codec);
+    private final DataOutputBuffer chunks = new DataOutputBuffer();
+    private final CompressionOutputStream out;
+
+    ChunkCompressor() throws IOException {
+      out = compressor == null ? codec.createOutputStream(chunks)
+          : codec.createOutputStream(chunks, compressor);
+    }
+
+    /**
+     * Compress edits into chunks.
+     * @param edits the edits to compress.
+     * @return a buffer holding the chunks, valid until the next call.
+     */
+    DataOutputBuffer compress(DataOutputBuffer edits) throws IOException {
+      chunks.reset();
+      for (int off = 0; off < edits.getLength(); ) {
+        final int length = Math.min(edits.getLength() - off, MAX_CHUNK_LENGTH);
+        final int start = chunks.getLength();
+        chunks.writeInt(length);
+        chunks.writeInt(0); // the compressed length, set below
+        out.resetState();
+        out.write(edits.getData(), off, length);
+        out.finish();
+        off += length;
+
+        final int compressedLength =
+            chunks.getLength() - start - CHUNK_HEADER_LENGTH;
+        final byte[] data = chunks.getData();
+        data[start + 4] = (byte)(compressedLength >>> 24);
+        data[start + 5] = (byte)(compressedLength >>> 16);
+        data[start + 6] = (byte)(compressedLength >>> 8);
+        data[start + 7] = (byte)compressedLength;
+      }
+      return chunks;
+    }
+
+    void close() {
+      CodecPool.returnCompressor(compressor);
+    }
+  }
+
+  /**
+   * Wrap the stream of the chunks of a log into a stream of the edits.
+   * The stream ends at the first incomplete chunk.  A chunk which cannot be
+   * decompressed causes an IOException; reading again resumes with the next
+   * chunk.
+   */
+  InputStream unwrapInputStream(DataInputStream in) {
+    return new ChunkInputStream(in);
+  }
+
+  private class ChunkInputStream extends InputStream {
+    private final DataInputStream in;
+    private final Decompressor decompressor =
+        CodecPool.getDecompressor(codec);
+
+    private byte[] compressed = new byte[0];
+    /** The edits of the current chunk. */
+    private byte[] edits = new byte[0];
+    private int length = 0;
+    private int pos = 0;
+    private boolean eof = false;
+
+    ChunkInputStream(DataInputStream in) {
+      this.in = in;
+    }
+
+    /** @return false at the end of the chunks. */
+    private boolean nextChunk() throws IOException {
+      final int compressedLength;
+      try {
+        length = in.readInt();
+        if (length == END_OF_CHUNKS) {
+          eof = true;
+          return false;
+        }
+        compressedLength = in.readInt();
+        if (length <= 0 || length > MAX_CHUNK_LENGTH || compressedLength <= 0
+            || compressedLength > 2 * MAX_CHUNK_LENGTH) {
+          eof = true;
+          throw new IOException("Invalid edit log chunk lengths: " + length
+              + " uncompressed, " + compressedLength + " compressed");
+        }
+        if (compressed.length < compressedLength) {
+          compressed = new byte[compressedLength];
+        }
+        in.readFully(compressed, 0, compressedLength);
+      } catch (EOFException e) {
+        // The last chunk was not completely written.
+        eof = true;
+        return false;
+      }
+
+      pos = 0;
+      if (edits.length < length) {
+        edits = new byte[length];
+      }
+      if (decompressor != null) {
+        decompressor.reset();
+      }
+      final InputStream bytes =
+          new ByteArrayInputStream(compressed, 0, compressedLength);
+      try {
+        IOUtils.readFully(decompressor == null ? codec.createInputStream(bytes)
+            : codec.createInputStream(bytes, decompressor),
+            edits, 0, length);
+      } catch (IOException e) {
+        // Skip the chunk.
+        pos = length;
+        throw new IOException("Failed to decompress an edit log chunk of "
+            + compressedLength + " bytes", e);
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (pos == length) {
+        if (eof || !nextChunk()) {
+          return -1;
+        }
+      }
+      return edits[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (pos == length) {
+        if (eof || !nextChunk()) {
+          return -1;
+        }
+      }
+      final int n = Math.min(len, length - pos);
+      System.arraycopy(edits, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+      CodecPool.returnDecompressor(decompressor);
+      in.close();
+    }
+  }
+}
@@ -48,6 +48,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.protobuf.ByteString;
 
 /**
  * An implementation of the abstract class {@link EditLogInputStream}, which
@@ -72,6 +73,10 @@ static private enum State {
   private FSEditLogOp.Reader reader = null;
   private FSEditLogLoader.PositionTrackingInputStream tracker = null;
   private DataInputStream dataIn = null;
+  /** The compression of the log, or null if it is not compressed. */
+  private EditLogCompression compression = null;
+  /** Whether the reader has read up to lastTxId in a compressed log. */
+  private boolean reachedLastTxId = false;
   static final Log LOG = LogFactory.getLog(EditLogInputStream.class);
   
   /**
@@ -124,6 +129,28 @@ public static EditLogInputStream fromUrl(
     return new EditLogFileInputStream(new URLLog(connectionFactory, url),
         startTxId, endTxId, inProgress);
   }
+
+  /**
+   * Open an EditLogInputStream for edits which have already been read into
+   * memory, e.g. from the edit cache of a JournalNode.
+   *
+   * @param name
+   *          a description of where the edits came from
+   * @param data
+   *          the edits, starting with an edit log header
+   * @param startTxId
+   *          the first txid in the data
+   * @param endTxId
+   *          the last txid to read; any later edits in the data are ignored
+   * @param inProgress
+   *          whether the edits belong to an in-progress log
+   * @return a stream from which edits may be read
+   */
+  public static EditLogInputStream fromByteString(String name,
+      ByteString data, long startTxId, long endTxId, boolean inProgress) {
+    return new EditLogFileInputStream(new ByteStringLog(name, data),
+        startTxId, endTxId, inProgress);
+  }
   
   private EditLogFileInputStream(LogSource log,
       long firstTxId, long lastTxId,
@@ -151,12 +178,22 @@ private void init() throws LogHeaderCorruptException, IOException {
       }
       if (LayoutVersion.supports(Feature.ADD_LAYOUT_FLAGS, logVersion)) {
         try {
-          LayoutFlags.read(dataIn);
+          LayoutFlags flags = LayoutFlags.read(dataIn);
+          if (flags.contains(LayoutFlags.COMPRESSED_EDITS)) {
+            compression = EditLogCompression.readHeader(dataIn);
+          }
         } catch (EOFException eofe) {
           throw new LogHeaderCorruptException("EOF while reading layout " +
               "flags from log");
         }
       }
+      if (compression != null) {
+        // The reader works on the uncompressed edits, so the positions of
+        // the stream are offsets in the uncompressed edits.
+        tracker = new FSEditLogLoader.PositionTrackingInputStream(
+            new BufferedInputStream(compression.unwrapInputStream(dataIn)));
+        dataIn = new DataInputStream(tracker);
+      }
       reader = new FSEditLogOp.Reader(dataIn, tracker, logVersion);
       reader.setMaxOpSize(maxOpSize);
       state = State.OPEN;
@@ -199,6 +236,9 @@ private FSEditLogOp nextOpImpl(boolean skipBrokenEdits) throws IOException {
       Preconditions.checkState(state != State.UNINIT);
       return nextOpImpl(skipBrokenEdits);
     case OPEN:
+      if (reachedLastTxId) {
+        break; // return null
+      }
       op = reader.readOp(skipBrokenEdits);
       if ((op != null) && (op.hasTransactionId())) {
         long txId = op.getTransactionId();
@@ -218,6 +258,13 @@ private FSEditLogOp nextOpImpl(boolean skipBrokenEdits) throws IOException {
           // we were supposed to read out of the stream.
           // So we force an EOF on all subsequent reads.
           //
+          // The positions in a compressed log are not file offsets, so
+          // remember instead that the end was reached.
+          //
+          if (compression != null) {
+            reachedLastTxId = true;
+            return op;
+          }
           long skipAmt = log.length() - tracker.getPos();
           if (skipAmt > 0) {
             if (LOG.isDebugEnabled()) {
@@ -445,6 +492,31 @@ public String getName() {
     }
   }
 
+  private static class ByteStringLog implements LogSource {
+    private final String name;
+    private final ByteString data;
+
+    public ByteStringLog(String name, ByteString data) {
+      this.name = name;
+      this.data = data;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return data.newInput();
+    }
+
+    @Override
+    public long length() {
+      return data.size();
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+
   @Override
   public void setMaxOpSize(int maxOpSize) {
     this.maxOpSize = maxOpSize;
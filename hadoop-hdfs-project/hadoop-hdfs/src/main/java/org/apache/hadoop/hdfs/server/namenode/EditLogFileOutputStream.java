@@ -33,6 +33,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.LayoutFlags;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IOUtils;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -52,6 +53,10 @@ public class EditLogFileOutputStream extends EditLogOutputStream {
   private EditsDoubleBuffer doubleBuf;
   static ByteBuffer fill = ByteBuffer.allocateDirect(MIN_PREALLOCATION_LENGTH);
   private boolean shouldSyncWritesAndSkipFsync = false;
+  /** The compression of the log, or null if it is not compressed. */
+  private final EditLogCompression compression;
+  /** Compresses the edits once the header is written by {@link #create}. */
+  private EditLogCompression.ChunkCompressor compressor;
 
   private static boolean shouldSkipFsyncForTests = false;
 
@@ -79,6 +84,7 @@ public EditLogFileOutputStream(Configuration conf, File name, int size)
     shouldSyncWritesAndSkipFsync = conf.getBoolean(
             DFSConfigKeys.DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH,
             DFSConfigKeys.DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT);
+    compression = EditLogCompression.createCompression(conf);
 
     file = name;
     doubleBuf = new EditsDoubleBuffer(size);
@@ -118,9 +124,13 @@ public void writeRaw(byte[] bytes, int offset, int length) throws IOException {
   public void create() throws IOException {
     fc.truncate(0);
     fc.position(0);
-    writeHeader(doubleBuf.getCurrentBuf());
+    releaseCompressor();
+    writeHeader(doubleBuf.getCurrentBuf(), compression);
     setReadyToFlush();
     flush();
+    if (compression != null) {
+      compressor = compression.new ChunkCompressor();
+    }
   }
 
   /**
@@ -132,8 +142,25 @@ public void create() throws IOException {
    */
   @VisibleForTesting
   public static void writeHeader(DataOutputStream out) throws IOException {
+    writeHeader(out, null);
+  }
+
+  private static void writeHeader(DataOutputStream out,
+      EditLogCompression compression) throws IOException {
     out.writeInt(HdfsConstants.LAYOUT_VERSION);
-    LayoutFlags.write(out);
+    if (compression == null) {
+      LayoutFlags.write(out);
+    } else {
+      LayoutFlags.write(out, LayoutFlags.COMPRESSED_EDITS);
+      compression.writeHeader(out);
+    }
+  }
+
+  private void releaseCompressor() {
+    if (compressor != null) {
+      compressor.close();
+      compressor = null;
+    }
   }
 
   @Override
@@ -160,6 +187,7 @@ public void close() throws IOException {
       fp.close();
       fp = null;
     } finally {
+      releaseCompressor();
       IOUtils.cleanup(FSNamesystem.LOG, fc, fp);
       doubleBuf = null;
       fc = null;
@@ -175,6 +203,7 @@ public void abort() throws IOException {
     }
     IOUtils.cleanup(LOG, fp);
     fp = null;
+    releaseCompressor();
   }
 
   /**
@@ -199,8 +228,16 @@ public void flushAndSync(boolean durable) throws IOException {
       LOG.info("Nothing to flush");
       return;
     }
-    preallocate(); // preallocate file if necessary
-    doubleBuf.flushTo(fp);
+    if (compressor == null) {
+      preallocate(doubleBuf.getReadyBuf().getLength());
+      doubleBuf.flushTo(fp);
+    } else {
+      final DataOutputBuffer chunks =
+          compressor.compress(doubleBuf.getReadyBuf());
+      preallocate(chunks.getLength());
+      fp.write(chunks.getData(), 0, chunks.getLength());
+      doubleBuf.getReadyBuf().reset();
+    }
     if (durable && !shouldSkipFsyncForTests && !shouldSyncWritesAndSkipFsync) {
       fc.force(false); // metadata updates not needed
     }
@@ -214,11 +251,11 @@ public boolean shouldForceSync() {
     return doubleBuf.shouldForceSync();
   }
 
-  private void preallocate() throws IOException {
+  /** Preallocate the file if necessary to write length more bytes. */
+  private void preallocate(int length) throws IOException {
     long position = fc.position();
     long size = fc.size();
-    int bufSize = doubleBuf.getReadyBuf().getLength();
-    long need = bufSize - (size - position);
+    long need = length - (size - position);
     if (need <= 0) {
       return;
     }
@@ -48,6 +48,13 @@ public interface FSClusterStats {
    * @return Number of datanodes that are both alive and not decommissioned.
    */
   public int getNumDatanodesInService();
+
+  /**
+   * Indicates how long datanodes take to write to disk.
+   * @return the mean packet write latency in microseconds of the datanodes
+   *         which reported one, or 0 if none did.
+   */
+  public long getAvgWriteLatencyMicros();
 }
     
     
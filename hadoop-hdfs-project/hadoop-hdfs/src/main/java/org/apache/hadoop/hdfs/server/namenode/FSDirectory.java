@@ -121,6 +121,7 @@ private static INodeDirectorySnapshottable createRoot(FSNamesystem namesystem) {
   private final int maxDirItems;
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
+  private final long contentSleepMicroSec; // sleep between runs
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
 
@@ -180,6 +181,9 @@ public int getWriteHoldCount() {
     this.contentCountLimit = conf.getInt(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_DEFAULT);
+    this.contentSleepMicroSec = conf.getLong(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY,
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT);
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -1298,12 +1302,16 @@ void unprotectedConcat(String target, String [] srcs, long timestamp)
    * @param src Path of a directory to delete
    * @param collectedBlocks Blocks under the deleted directory
    * @param removedINodes INodes that should be removed from {@link #inodeMap}
+   * @param detachedDirs Directories which were unlinked from the namespace
+   *                     but not destroyed yet. The caller must destroy them
+   *                     and collect their blocks and inodes.
    * @param logRetryCache Whether to record RPC IDs in editlog to support retry
    *                      cache rebuilding.
    * @return true on successful deletion; else false
    */
   boolean delete(String src, BlocksMapUpdateInfo collectedBlocks,
-      List<INode> removedINodes, boolean logRetryCache) throws IOException {
+      List<INode> removedINodes, List<INodeDirectory> detachedDirs,
+      boolean logRetryCache) throws IOException {
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* FSDirectory.delete: " + src);
     }
@@ -1325,7 +1333,7 @@ boolean delete(String src, BlocksMapUpdateInfo collectedBlocks,
             new ArrayList<INodeDirectorySnapshottable>();
         checkSnapshot(targetNode, snapshottableDirs);
         filesRemoved = unprotectedDelete(inodesInPath, collectedBlocks,
-            removedINodes, now);
+            removedINodes, detachedDirs, now);
         if (snapshottableDirs.size() > 0) {
           // There are some snapshottable directories without snapshots to be
           // deleted. Need to update the SnapshotManager.
@@ -1403,7 +1411,7 @@ void unprotectedDelete(String src, long mtime) throws UnresolvedLinkException,
         normalizePath(src), false);
     final long filesRemoved = deleteAllowed(inodesInPath, src) ? 
         unprotectedDelete(inodesInPath, collectedBlocks, 
-            removedINodes, mtime) : -1;
+            removedINodes, null, mtime) : -1;
     if (filesRemoved >= 0) {
       getFSNamesystem().removePathAndBlocks(src, collectedBlocks, 
           removedINodes);
@@ -1416,11 +1424,15 @@ void unprotectedDelete(String src, long mtime) throws UnresolvedLinkException,
    * @param iip the inodes resolved from the path
    * @param collectedBlocks blocks collected from the deleted path
    * @param removedINodes inodes that should be removed from {@link #inodeMap}
+   * @param detachedDirs if not null, a deleted directory which is in no
+   *                     snapshot is only unlinked and added to this list,
+   *                     instead of being destroyed under the lock
    * @param mtime the time the inode is removed
    * @return the number of inodes deleted; 0 if no inodes are deleted.
    */ 
   long unprotectedDelete(INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
-      List<INode> removedINodes, long mtime) throws QuotaExceededException {
+      List<INode> removedINodes, List<INodeDirectory> detachedDirs,
+      long mtime) throws QuotaExceededException {
     assert hasWriteLock();
 
     // check if target node exists
@@ -1449,7 +1461,12 @@ long unprotectedDelete(INodesInPath iip, BlocksMapUpdateInfo collectedBlocks,
     
     // collect block
     if (!targetNode.isInLatestSnapshot(latestSnapshot)) {
-      targetNode.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+      if (detachedDirs != null && targetNode.isDirectory()
+          && !targetNode.isReference()) {
+        detachedDirs.add(targetNode.asDirectory());
+      } else {
+        targetNode.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+      }
     } else {
       Quota.Counts counts = targetNode.cleanSubtree(Snapshot.CURRENT_STATE_ID,
           latestSnapshot, collectedBlocks, removedINodes, true);
@@ -2335,7 +2352,7 @@ ContentSummary getContentSummary(String src)
         ContentSummaryComputationContext cscc =
 
             new ContentSummaryComputationContext(this, getFSNamesystem(),
-            contentCountLimit);
+            contentCountLimit, contentSleepMicroSec);
         ContentSummary cs = targetNode.computeAndConvertContentSummary(cscc);
         yieldCount += cscc.getYieldCount();
         return cs;
@@ -1422,6 +1422,12 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     journalSet.selectInputStreams(streams, fromTxId, inProgressOk);
   }
 
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns) {
+    journalSet.selectInputStreams(streams, fromTxId, inProgressOk,
+        onlyDurableTxns);
+  }
+
   public Collection<EditLogInputStream> selectInputStreams(
       long fromTxId, long toAtLeastTxId) throws IOException {
     return selectInputStreams(fromTxId, toAtLeastTxId, null, true);
@@ -1437,8 +1443,24 @@ public Collection<EditLogInputStream> selectInputStreams(
   public synchronized Collection<EditLogInputStream> selectInputStreams(
       long fromTxId, long toAtLeastTxId, MetaRecoveryContext recovery,
       boolean inProgressOk) throws IOException {
+    return selectInputStreams(fromTxId, toAtLeastTxId, recovery, inProgressOk,
+        false);
+  }
+
+  /**
+   * Select a list of input streams.
+   *
+   * @param fromTxId first transaction in the selected streams
+   * @param toAtLeast the selected streams must contain this transaction
+   * @param inProgessOk set to true if in-progress streams are OK
+   * @param onlyDurableTxns set to true if only the edits of in-progress
+   *        streams which are known to be durable may be read
+   */
+  public synchronized Collection<EditLogInputStream> selectInputStreams(
+      long fromTxId, long toAtLeastTxId, MetaRecoveryContext recovery,
+      boolean inProgressOk, boolean onlyDurableTxns) throws IOException {
     List<EditLogInputStream> streams = new ArrayList<EditLogInputStream>();
-    selectInputStreams(streams, fromTxId, inProgressOk);
+    selectInputStreams(streams, fromTxId, inProgressOk, onlyDurableTxns);
 
     try {
       checkForGaps(streams, fromTxId, toAtLeastTxId, inProgressOk);
@@ -36,6 +36,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_ASYNC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_ASYNC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
@@ -103,17 +105,21 @@
 import java.net.InetAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -174,6 +180,7 @@
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.datatransfer.ReplaceDatanodeOnFailure;
@@ -376,6 +383,7 @@ private void logAuditEvent(boolean succeeded,
 
   static final int DEFAULT_MAX_CORRUPT_FILEBLOCKS_RETURNED = 100;
   static int BLOCK_DELETION_INCREMENT = 1000;
+  static int INODE_DELETION_INCREMENT = 1000;
   private final boolean isPermissionEnabled;
   private final UserGroupInformation fsOwner;
   private final String fsOwnerShortUserName;
@@ -414,6 +422,8 @@ private void logAuditEvent(boolean succeeded,
   Daemon nnrmthread = null; // NamenodeResourceMonitor thread
 
   Daemon nnEditLogRoller = null; // NameNodeEditLogRoller thread
+
+  Daemon blockRemoverThread = null; // BlockRemover thread
   /**
    * When an active namenode will roll its own edit log, in # edits
    */
@@ -422,6 +432,10 @@ private void logAuditEvent(boolean succeeded,
    * Check interval of an active namenode's edit log roller thread 
    */
   private final int editLogRollerInterval;
+  /**
+   * Whether the blocks of deleted files are removed by a background thread
+   */
+  private final boolean asyncBlockDeletion;
 
   private volatile boolean hasResourcesAvailable = false;
   private volatile boolean fsRunning = true;
@@ -445,6 +459,7 @@ private void logAuditEvent(boolean succeeded,
 
   private final long minBlockSize;         // minimum block size
   private final long maxBlocksPerFile;     // maximum # of blocks per file
+  private final int snapshotDiffListingLimit; // entries per diff listing
 
   /**
    * The global generation stamp for legacy blocks with randomly
@@ -742,6 +757,12 @@ public static FSNamesystem loadFromDisk(Configuration conf)
           DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT);
       this.maxBlocksPerFile = conf.getLong(DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_KEY,
           DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_DEFAULT);
+      this.snapshotDiffListingLimit = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_LIST_SNAPSHOT_DIFF_NUM_RESPONSES,
+          DFSConfigKeys.DFS_NAMENODE_LIST_SNAPSHOT_DIFF_NUM_RESPONSES_DEFAULT);
+      Preconditions.checkArgument(snapshotDiffListingLimit > 0,
+          DFSConfigKeys.DFS_NAMENODE_LIST_SNAPSHOT_DIFF_NUM_RESPONSES
+          + " must be positive");
       this.accessTimePrecision = conf.getLong(DFS_NAMENODE_ACCESSTIME_PRECISION_KEY,
           DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT);
       this.supportAppends = conf.getBoolean(DFS_SUPPORT_APPEND_KEY, DFS_SUPPORT_APPEND_DEFAULT);
@@ -762,6 +783,9 @@ public static FSNamesystem loadFromDisk(Configuration conf)
       this.editLogRollerInterval = conf.getInt(
           DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS,
           DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS_DEFAULT);
+      this.asyncBlockDeletion = conf.getBoolean(
+          DFS_NAMENODE_BLOCK_DELETION_ASYNC_KEY,
+          DFS_NAMENODE_BLOCK_DELETION_ASYNC_DEFAULT);
       this.inodeId = new INodeId();
       
       // For testing purposes, allow the DT secret manager to be started regardless
@@ -1037,6 +1061,11 @@ void startActiveServices() throws IOException {
           editLogRollerThreshold, editLogRollerInterval));
       nnEditLogRoller.start();
 
+      if (asyncBlockDeletion) {
+        blockRemoverThread = new Daemon(new BlockRemover());
+        blockRemoverThread.start();
+      }
+
       cacheManager.startMonitorThread();
       blockManager.getDatanodeManager().setShouldSendCachingCommands(true);
     } finally {
@@ -1083,6 +1112,13 @@ void stopActiveServices() {
         ((NameNodeEditLogRoller)nnEditLogRoller.getRunnable()).stop();
         nnEditLogRoller.interrupt();
       }
+      if (blockRemoverThread != null) {
+        // Let the remover finish the blocks already queued in the background,
+        // an increment per hold of the write lock, rather than holding the
+        // lock here for all of them. Later deletes remove their own blocks.
+        ((BlockRemover)blockRemoverThread.getRunnable()).drainAndStop();
+        blockRemoverThread = null;
+      }
       if (dir != null && dir.fsImage != null) {
         if (dir.fsImage.editLog != null) {
           dir.fsImage.editLog.close();
@@ -3260,11 +3296,13 @@ private FSPermissionChecker getPermissionChecker()
   /**
    * Remove a file/directory from the namespace.
    * <p>
-   * For large directories, deletion is incremental. The blocks under
-   * the directory are collected and deleted a small number at a time holding
-   * the {@link FSNamesystem} lock.
+   * For large directories, deletion is incremental. A directory which is in
+   * no snapshot is only unlinked while holding the {@link FSNamesystem} lock.
+   * Its inodes are then destroyed, and its blocks collected and deleted, a
+   * small number at a time holding the lock.
    * <p>
-   * For small directory or file the deletion is done in one shot.
+   * For a file, or a directory in a snapshot, the deletion is done in one
+   * shot.
    * 
    * @see ClientProtocol#delete(String, boolean) for description of exceptions
    */
@@ -3274,6 +3312,7 @@ private boolean deleteInternal(String src, boolean recursive,
              IOException {
     BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
     List<INode> removedINodes = new ChunkedArrayList<INode>();
+    List<INodeDirectory> detachedDirs = new ArrayList<INodeDirectory>(1);
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
@@ -3291,7 +3330,8 @@ private boolean deleteInternal(String src, boolean recursive,
             FsAction.ALL, false);
       }
       // Unlink the target directory from directory tree
-      if (!dir.delete(src, collectedBlocks, removedINodes, logRetryCache)) {
+      if (!dir.delete(src, collectedBlocks, removedINodes, detachedDirs,
+          logRetryCache)) {
         return false;
       }
       ret = true;
@@ -3300,7 +3340,6 @@ private boolean deleteInternal(String src, boolean recursive,
     }
     getEditLog().logSync(); 
     removeBlocks(collectedBlocks); // Incremental deletion of blocks
-    collectedBlocks.clear();
     dir.writeLock();
     try {
       dir.removeFromInodeMap(removedINodes);
@@ -3308,6 +3347,9 @@ private boolean deleteInternal(String src, boolean recursive,
       dir.writeUnlock();
     }
     removedINodes.clear();
+    for (INodeDirectory detached : detachedDirs) {
+      destroyDetached(detached);
+    }
     if (NameNode.stateChangeLog.isDebugEnabled()) {
       NameNode.stateChangeLog.debug("DIR* Namesystem.delete: "
         + src +" is removed");
@@ -3315,17 +3357,72 @@ private boolean deleteInternal(String src, boolean recursive,
     return ret;
   }
 
+  /**
+   * Destroy a directory which has been unlinked from the namespace, along
+   * with everything under it. The write lock is dropped and reacquired every
+   * INODE_DELETION_INCREMENT inodes, and the inodes and blocks collected
+   * while holding it are removed before the next increment.
+   *
+   * Inodes with snapshot data and references are destroyed as a whole, as
+   * they would be by {@link INode#destroyAndCollectBlocks}.
+   */
+  private void destroyDetached(INodeDirectory root) {
+    final Deque<INode> pending = new ArrayDeque<INode>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      final BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
+      final List<INode> removedINodes = new ChunkedArrayList<INode>();
+      writeLock();
+      try {
+        for (int i = 0; i < INODE_DELETION_INCREMENT && !pending.isEmpty();
+            i++) {
+          final INode inode = pending.pop();
+          if (inode.isDirectory() && !inode.isReference()
+              && !inode.asDirectory().isWithSnapshot()) {
+            final INodeDirectory d = inode.asDirectory();
+            for (INode child : d.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+              pending.push(child);
+            }
+            d.clear();
+            removedINodes.add(d);
+          } else {
+            inode.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+          }
+        }
+        dir.writeLock();
+        try {
+          dir.removeFromInodeMap(removedINodes);
+        } finally {
+          dir.writeUnlock();
+        }
+      } finally {
+        writeUnlock();
+      }
+      removeBlocks(collectedBlocks);
+    }
+  }
+
   /**
    * From the given list, incrementally remove the blocks from blockManager
    * Writelock is dropped and reacquired every BLOCK_DELETION_INCREMENT to
    * ensure that other waiters on the lock can get in. See HDFS-2938
    * 
+   * If {@link DFSConfigKeys#DFS_NAMENODE_BLOCK_DELETION_ASYNC_KEY} is set, the
+   * blocks are handed to the {@link BlockRemover} instead and this method
+   * returns immediately.
+   * 
    * @param blocks
    *          An instance of {@link BlocksMapUpdateInfo} which contains a list
-   *          of blocks that need to be removed from blocksMap
+   *          of blocks that need to be removed from blocksMap. The caller
+   *          must not use it afterwards.
    */
   void removeBlocks(BlocksMapUpdateInfo blocks) {
     List<Block> toDeleteList = blocks.getToDeleteList();
+    Daemon remover = blockRemoverThread;
+    if (remover != null &&
+        ((BlockRemover)remover.getRunnable()).add(toDeleteList)) {
+      return;
+    }
     Iterator<Block> iter = toDeleteList.iterator();
     while (iter.hasNext()) {
       writeLock();
@@ -3337,6 +3434,146 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
         writeUnlock();
       }
     }
+    toDeleteList.clear();
+  }
+
+  /**
+   * Removes the blocks of deleted files and snapshots from the block manager
+   * in the background, so that a large delete returns to the client as soon
+   * as its edits are synced. Like {@link #removeBlocks(BlocksMapUpdateInfo)},
+   * it removes at most BLOCK_DELETION_INCREMENT blocks per hold of the write
+   * lock. The blocks are only consumed while holding the write lock.
+   */
+  class BlockRemover implements Runnable {
+    private final Queue<Iterator<Block>> queue =
+        new LinkedList<Iterator<Block>>();
+    private long numPending = 0;
+    private boolean paused = false;
+    /** Whether to exit once the queue is empty. */
+    private boolean draining = false;
+    private volatile boolean shouldRun = true;
+
+    /**
+     * Queue blocks for removal.
+     * @return false if the remover is stopping and the caller has to remove
+     *         the blocks itself.
+     */
+    synchronized boolean add(List<Block> blocks) {
+      if (draining) {
+        return false;
+      }
+      if (!blocks.isEmpty()) {
+        queue.add(blocks.iterator());
+        numPending += blocks.size();
+        notifyAll();
+      }
+      return true;
+    }
+
+    /** @return the number of blocks which are still to be removed. */
+    synchronized long getNumPending() {
+      return numPending;
+    }
+
+    private synchronized Iterator<Block> peek() throws InterruptedException {
+      while (shouldRun && (paused || queue.isEmpty())) {
+        if (draining && queue.isEmpty()) {
+          shouldRun = false;
+          break;
+        }
+        wait();
+      }
+      return queue.peek();
+    }
+
+    synchronized void setPaused(boolean paused) {
+      this.paused = paused;
+      notifyAll();
+    }
+
+    /**
+     * Remove up to BLOCK_DELETION_INCREMENT blocks.
+     * @return true if there may be more blocks to remove.
+     */
+    private boolean removeIncrement() {
+      assert hasWriteLock();
+      int removed = 0;
+      synchronized (this) {
+        while (removed < BLOCK_DELETION_INCREMENT && !queue.isEmpty()) {
+          final Iterator<Block> iter = queue.peek();
+          for (; removed < BLOCK_DELETION_INCREMENT && iter.hasNext();
+              removed++) {
+            blockManager.removeBlock(iter.next());
+          }
+          if (!iter.hasNext()) {
+            queue.remove();
+          }
+        }
+        numPending -= removed;
+        return !queue.isEmpty();
+      }
+    }
+
+
+    @Override
+    public void run() {
+      while (fsRunning && shouldRun) {
+        try {
+          if (peek() == null) {
+            continue;
+          }
+          writeLock();
+          try {
+            if (shouldRun) {
+              removeIncrement();
+            }
+          } finally {
+            writeUnlock();
+          }
+        } catch (InterruptedException e) {
+          FSNamesystem.LOG.info(BlockRemover.class.getSimpleName()
+              + " was interrupted, exiting");
+          break;
+        } catch (Exception e) {
+          FSNamesystem.LOG.error("Swallowing exception in "
+              + BlockRemover.class.getSimpleName() + ":", e);
+        }
+      }
+    }
+
+    /**
+     * Remove the blocks which are already queued, then exit. No more blocks
+     * may be added.
+     */
+    synchronized void drainAndStop() {
+      draining = true;
+      paused = false;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Stop or resume the {@link BlockRemover}, so that tests can observe the
+   * blocks it has not removed yet.
+   */
+  @VisibleForTesting
+  void setBlockRemoverPaused(boolean paused) {
+    final Daemon remover = blockRemoverThread;
+    if (remover != null) {
+      ((BlockRemover)remover.getRunnable()).setPaused(paused);
+    }
+  }
+
+  /**
+   * @return the number of blocks of deleted files which are still to be
+   *         removed by the {@link BlockRemover}.
+   */
+  @Metric({"BlocksPendingRemoval",
+      "Number of blocks of deleted files not yet removed from the blocks map"})
+  public long getBlocksPendingRemoval() {
+    final Daemon remover = blockRemoverThread;
+    return remover == null? 0:
+        ((BlockRemover)remover.getRunnable()).getNumPending();
   }
   
   /**
@@ -4192,15 +4429,15 @@ String getRegistrationID() {
    */
   HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
       StorageReport[] reports, long cacheCapacity, long cacheUsed,
-      int xceiverCount, int xmitsInProgress, int failedVolumes)
-        throws IOException {
+      int xceiverCount, int xmitsInProgress, int failedVolumes,
+      long writeLatencyMicros) throws IOException {
     readLock();
     try {
       final int maxTransfer = blockManager.getMaxReplicationStreams()
           - xmitsInProgress;
       DatanodeCommand[] cmds = blockManager.getDatanodeManager().handleHeartbeat(
           nodeReg, reports, blockPoolId, cacheCapacity, cacheUsed,
-          xceiverCount, maxTransfer, failedVolumes);
+          xceiverCount, maxTransfer, failedVolumes, writeLatencyMicros);
       return new HeartbeatResponse(cmds, createHaStatusHeartbeat());
     } finally {
       readUnlock();
@@ -5524,6 +5761,12 @@ public long getScheduledReplicationBlocks() {
     return blockManager.getScheduledReplicationBlocksCount();
   }
 
+  @Metric({"ReplicationEtaSeconds", "Estimated seconds until all the " +
+      "under-replicated blocks are replicated, or -1 if unknown"})
+  public long getReplicationEtaSeconds() {
+    return blockManager.getReplicationEtaSeconds();
+  }
+
   @Metric
   public long getPendingDeletionBlocks() {
     return blockManager.getPendingDeletionBlocksCount();
@@ -6853,6 +7096,11 @@ public int getNumDatanodesInService() {
     return getNumLiveDataNodes() - getNumDecomLiveDataNodes();
   }
 
+  @Override // FSClusterStats
+  public long getAvgWriteLatencyMicros() {
+    return datanodeStatistics.getAvgWriteLatencyMicros();
+  }
+
   public SnapshotManager getSnapshotManager() {
     return snapshotManager;
   }
@@ -7065,6 +7313,52 @@ SnapshotDiffReport getSnapshotDiffReport(String path,
         Collections.<DiffReportEntry> emptyList());
   }
   
+  /**
+   * Get a page of the difference between two snapshots (or between a
+   * snapshot and the current status) of a snapshottable directory.  The
+   * read lock is only held while the page is computed, so a caller listing
+   * a large difference page by page lets other operations in between.
+   * 
+   * @param path The full path of the snapshottable directory.
+   * @param fromSnapshot Name of the snapshot to calculate the diff from. Null
+   *          or empty string indicates the current tree.
+   * @param toSnapshot Name of the snapshot to calculated the diff to. Null or
+   *          empty string indicates the current tree.
+   * @param startAfter The last path of the previous page, or null for the
+   *          first page.
+   * @return A page of the report about the difference.
+   * @see #getSnapshotDiffReport(String, String, String)
+   */
+  SnapshotDiffReportListing getSnapshotDiffReportListing(String path,
+      String fromSnapshot, String toSnapshot, byte[] startAfter)
+      throws IOException {
+    final byte[][] startAfterPath = startAfter == null? null
+        : startAfter.length == 0? new byte[0][]
+        : DFSUtil.bytes2byteArray(startAfter, (byte)Path.SEPARATOR_CHAR);
+    SnapshotDiffInfo diffs = null;
+    checkOperation(OperationCategory.READ);
+    final FSPermissionChecker pc = getPermissionChecker();
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      if (isPermissionEnabled) {
+        checkSubtreeReadPermission(pc, path, fromSnapshot);
+        checkSubtreeReadPermission(pc, path, toSnapshot);
+      }
+      diffs = snapshotManager.diff(path, fromSnapshot, toSnapshot,
+          startAfterPath, snapshotDiffListingLimit);
+    } finally {
+      readUnlock();
+    }
+
+    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+      logAuditEvent(true, "computeSnapshotDiff", null, null, null);
+    }
+    return diffs != null ? diffs.generateListing()
+        : new SnapshotDiffReportListing(
+            Collections.<DiffReportEntry> emptyList(), null, false);
+  }
+
   private void checkSubtreeReadPermission(final FSPermissionChecker pc,
       final String snapshottablePath, final String snapshot)
           throws AccessControlException, UnresolvedLinkException {
@@ -7119,7 +7413,6 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
     getEditLog().logSync();
 
     removeBlocks(collectedBlocks);
-    collectedBlocks.clear();
 
     if (auditLog.isInfoEnabled() && isExternalInvocation()) {
       String rootPath = Snapshot.getSnapshotPath(snapshotRoot, snapshotName);
@@ -93,25 +93,8 @@ public void doGet(final HttpServletRequest request,
           .getAttribute(JspHelper.CURRENT_CONF);
       final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
       
-      if (UserGroupInformation.isSecurityEnabled() && 
-          !isValidRequestor(context, request.getUserPrincipal().getName(), conf)) {
-        response.sendError(HttpServletResponse.SC_FORBIDDEN, 
-            "Only Namenode, Secondary Namenode, and administrators may access " +
-            "this servlet");
-        LOG.warn("Received non-NN/SNN/administrator request for image or edits from " 
-            + request.getUserPrincipal().getName() + " at " + request.getRemoteHost());
-        return;
-      }
-      
-      String myStorageInfoString = nnImage.getStorage().toColonSeparatedString();
-      String theirStorageInfoString = parsedParams.getStorageInfoString();
-      if (theirStorageInfoString != null &&
-          !myStorageInfoString.equals(theirStorageInfoString)) {
-        response.sendError(HttpServletResponse.SC_FORBIDDEN,
-            "This namenode has storage info " + myStorageInfoString + 
-            " but the secondary expected " + theirStorageInfoString);
-        LOG.warn("Received an invalid request file transfer request " +
-            "from a secondary with storage info " + theirStorageInfoString);
+      if (!checkRequest(context, request, response, conf, nnImage,
+          parsedParams)) {
         return;
       }
       
@@ -230,6 +213,102 @@ private void serveFile(File file) throws IOException {
     }
   }
   
+  /**
+   * Receives an image which a checkpointer uploads while it saves it, see
+   * {@link StreamingImageUpload}.
+   */
+  @Override
+  protected void doPut(final HttpServletRequest request,
+      final HttpServletResponse response) throws ServletException, IOException {
+    try {
+      ServletContext context = getServletContext();
+      final FSImage nnImage = NameNodeHttpServer.getFsImageFromContext(context);
+      final GetImageParams parsedParams = new GetImageParams(request, response);
+      final Configuration conf = (Configuration) context
+          .getAttribute(JspHelper.CURRENT_CONF);
+      final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+
+      if (!checkRequest(context, request, response, conf, nnImage,
+          parsedParams)) {
+        return;
+      }
+      if (!parsedParams.isPutImage()) {
+        throw new IOException("Only images can be uploaded");
+      }
+
+      final long txid = parsedParams.getTxId();
+      if (!currentlyDownloadingCheckpoints.add(txid)) {
+        response.sendError(HttpServletResponse.SC_CONFLICT,
+            "Another checkpointer is already in the process of uploading a" +
+            " checkpoint made at transaction ID " + txid);
+        return;
+      }
+      try {
+        if (nnImage.getStorage().findImageFile(txid) != null) {
+          response.sendError(HttpServletResponse.SC_CONFLICT,
+              "Another checkpointer already uploaded an checkpoint " +
+              "for txid " + txid);
+          return;
+        }
+
+        long start = now();
+        MD5Hash digest = StreamingImageUpload.receive(request.getInputStream(),
+            nnImage.getStorage(), txid);
+        nnImage.saveDigestAndRenameCheckpointImage(txid, digest);
+
+        if (metrics != null) { // Metrics non-null only when used inside name node
+          long elapsed = now() - start;
+          metrics.addPutImage(elapsed);
+        }
+
+        // Now that we have a new checkpoint, we might be able to
+        // remove some old ones.
+        nnImage.purgeOldStorage();
+      } finally {
+        currentlyDownloadingCheckpoints.remove(txid);
+      }
+    } catch (Throwable t) {
+      String errMsg = "PutImage failed. " + StringUtils.stringifyException(t);
+      response.sendError(HttpServletResponse.SC_GONE, errMsg);
+      throw new IOException(errMsg);
+    } finally {
+      response.getOutputStream().close();
+    }
+  }
+
+  /**
+   * Check that the requestor may transfer images and edits, and that it
+   * has the storage info of this namenode.
+   * @return false if the request was rejected.
+   */
+  private static boolean checkRequest(ServletContext context,
+      HttpServletRequest request, HttpServletResponse response,
+      Configuration conf, FSImage nnImage, GetImageParams parsedParams)
+      throws IOException {
+    if (UserGroupInformation.isSecurityEnabled() && 
+        !isValidRequestor(context, request.getUserPrincipal().getName(), conf)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, 
+          "Only Namenode, Secondary Namenode, and administrators may access " +
+          "this servlet");
+      LOG.warn("Received non-NN/SNN/administrator request for image or edits from " 
+          + request.getUserPrincipal().getName() + " at " + request.getRemoteHost());
+      return false;
+    }
+    
+    String myStorageInfoString = nnImage.getStorage().toColonSeparatedString();
+    String theirStorageInfoString = parsedParams.getStorageInfoString();
+    if (theirStorageInfoString != null &&
+        !myStorageInfoString.equals(theirStorageInfoString)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN,
+          "This namenode has storage info " + myStorageInfoString + 
+          " but the secondary expected " + theirStorageInfoString);
+      LOG.warn("Received an invalid request file transfer request " +
+          "from a secondary with storage info " + theirStorageInfoString);
+      return false;
+    }
+    return true;
+  }
+
   public static void setFileNameHeaders(HttpServletResponse response,
       File file) {
     response.setHeader(CONTENT_DISPOSITION, "attachment; filename=" +
@@ -344,6 +423,13 @@ static String getParamStringToPutImage(long txid,
       storage.toColonSeparatedString();
   }
 
+
+  static String getParamStringToStreamImage(long txid, Storage storage) {
+    return "putimage=1" +
+      "&" + TXID_PARAM + "=" + txid +
+      "&" + STORAGEINFO_PARAM + "=" +
+      storage.toColonSeparatedString();
+  }
   
   static class GetImageParams {
     private boolean isGetImage;
@@ -612,6 +612,9 @@ ContentSummaryComputationContext computeDirectoryContentSummary(
 
       long lastYieldCount = summary.getYieldCount();
       child.computeContentSummary(summary);
+      // Relinquish and reacquire locks if necessary, so that a directory
+      // with many files does not hold the locks until all are counted.
+      summary.yield();
 
       // Check whether the computation was paused in the subtree.
       // The counts may be off, but traversing the rest of children
@@ -33,6 +33,7 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.qjournal.client.QuorumJournalManager;
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
@@ -246,6 +247,17 @@ public void apply(JournalAndStream jas) throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxId, boolean inProgressOk) {
+    selectInputStreams(streams, fromTxId, inProgressOk, false);
+  }
+
+  /**
+   * As {@link #selectInputStreams(Collection, long, boolean)}, but if
+   * onlyDurableTxns is set, unfinalized streams only include the edits which
+   * are known to be durable. Only a {@link QuorumJournalManager} can tell
+   * this, so unfinalized streams are not read from other journals then.
+   */
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns) {
     final PriorityQueue<EditLogInputStream> allStreams = 
         new PriorityQueue<EditLogInputStream>(64,
             EDIT_LOG_INPUT_STREAM_COMPARATOR);
@@ -255,7 +267,14 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
         continue;
       }
       try {
-        jas.getManager().selectInputStreams(allStreams, fromTxId, inProgressOk);
+        JournalManager jm = jas.getManager();
+        if (jm instanceof QuorumJournalManager) {
+          ((QuorumJournalManager)jm).selectInputStreams(allStreams, fromTxId,
+              inProgressOk, onlyDurableTxns);
+        } else {
+          jm.selectInputStreams(allStreams, fromTxId,
+              inProgressOk && !onlyDurableTxns);
+        }
       } catch (IOException ioe) {
         LOG.warn("Unable to determine input streams from " + jas.getManager() +
             ". Skipping.", ioe);
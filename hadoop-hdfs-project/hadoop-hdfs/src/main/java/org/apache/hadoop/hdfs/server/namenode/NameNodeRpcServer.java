@@ -84,6 +84,7 @@
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnregisteredNodeException;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
@@ -968,11 +969,11 @@ public DatanodeRegistration registerDatanode(DatanodeRegistration nodeReg)
   public HeartbeatResponse sendHeartbeat(DatanodeRegistration nodeReg,
       StorageReport[] report, long dnCacheCapacity, long dnCacheUsed,
       int xmitsInProgress, int xceiverCount,
-      int failedVolumes) throws IOException {
+      int failedVolumes, long writeLatencyMicros) throws IOException {
     verifyRequest(nodeReg);
     return namesystem.handleHeartbeat(nodeReg, report,
         dnCacheCapacity, dnCacheUsed, xceiverCount, xmitsInProgress,
-        failedVolumes);
+        failedVolumes, writeLatencyMicros);
   }
 
   @Override // DatanodeProtocol
@@ -1001,13 +1002,15 @@ public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
 
   @Override
   public DatanodeCommand cacheReport(DatanodeRegistration nodeReg,
-      String poolId, List<Long> blockIds) throws IOException {
+      String poolId, List<Long> blockIds, List<Long> hitCounts)
+      throws IOException {
     verifyRequest(nodeReg);
     if (blockStateChangeLog.isDebugEnabled()) {
       blockStateChangeLog.debug("*BLOCK* NameNode.cacheReport: "
            + "from " + nodeReg + " " + blockIds.size() + " blocks");
     }
-    namesystem.getCacheManager().processCacheReport(nodeReg, blockIds);
+    namesystem.getCacheManager().processCacheReport(nodeReg, blockIds,
+        hitCounts);
     return null;
   }
 
@@ -1246,6 +1249,17 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
     return report;
   }
 
+  @Override
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String earlierSnapshotName,
+      String laterSnapshotName, byte[] startAfter) throws IOException {
+    SnapshotDiffReportListing listing =
+        namesystem.getSnapshotDiffReportListing(snapshotRoot,
+            earlierSnapshotName, laterSnapshotName, startAfter);
+    metrics.incrSnapshotDiffReportOps();
+    return listing;
+  }
+
   @Override
   public long addCacheDirective(
       CacheDirectiveInfo path, EnumSet<CacheFlag> flags) throws IOException {
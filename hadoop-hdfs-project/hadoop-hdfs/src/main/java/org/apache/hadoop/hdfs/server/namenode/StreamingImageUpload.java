@@ -0,0 +1,385 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeFile;
+import org.apache.hadoop.hdfs.server.namenode.TransferFsImage.HttpGetFailedException;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.apache.hadoop.hdfs.util.MD5FileUtils;
+import org.apache.hadoop.hdfs.web.URLConnectionFactory;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.authentication.client.AuthenticationException;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Uploads a checkpoint to a NameNode with an HTTP PUT while the checkpoint
+ * is being saved, so that saving and transferring the image overlap.
+ *
+ * The upload reads the checkpoint file of the first image directory as it
+ * grows, and ends when {@link #saveFinished} reports that the save is over.
+ * The body of the request is made of:
+ * <ul>
+ *   <li>chunks of the image, each made of its length (int) and its
+ *       bytes</li>
+ *   <li>a length of 0</li>
+ *   <li>the MD5 digest of the image</li>
+ * </ul>
+ * The receiving NameNode writes the chunks to its storage as they arrive,
+ * see {@link #receive}, and only keeps the image if the stream is complete
+ * and the digest matches.
+ *
+ * Before the image is read, an OPTIONS request checks that the NameNode
+ * accepts uploads at all, so that one running an older version fails the
+ * upload at once instead of after the whole image was sent.
+ */
+@InterfaceAudience.Private
+public class StreamingImageUpload implements Callable<Void> {
+  private static final Log LOG = LogFactory.getLog(StreamingImageUpload.class);
+
+  /** How long to wait for the saver to write more of the image. */
+  private static final long POLL_INTERVAL_MS = 100;
+  /** The largest chunk accepted by the receiver. */
+  private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+  private final URL fsName;
+  private final Configuration conf;
+  private final NNStorage storage;
+  private final long txid;
+  /** The file the image is saved to, and its name after the save. */
+  private final File ckptFile;
+  private final File imageFile;
+
+  private boolean saveDone = false;
+  private boolean saveSucceeded = false;
+
+  /**
+   * Prepare the upload of an image which is about to be saved.  This must be
+   * called before the save starts.
+   *
+   * @param fsName the http address of the NameNode to upload to
+   * @param storage the storage the image is saved to
+   * @param txid the transaction ID of the image
+   */
+  public StreamingImageUpload(URL fsName, Configuration conf,
+      NNStorage storage, long txid) throws IOException {
+    this.fsName = fsName;
+    this.conf = conf;
+    this.storage = storage;
+    this.txid = txid;
+
+    Iterator<StorageDirectory> it = storage.dirIterator(NameNodeDirType.IMAGE);
+    if (!it.hasNext()) {
+      throw new IOException("No image directories available!");
+    }
+    StorageDirectory sd = it.next();
+    ckptFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
+    imageFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE, txid);
+    // The file is read while it is written, so a file left by an earlier
+    // attempt must not be taken for the new image.
+    if (ckptFile.exists() && !ckptFile.delete()) {
+      throw new IOException("Unable to delete old checkpoint " + ckptFile);
+    }
+  }
+
+  /**
+   * Report the end of the save.  If the save failed, the upload is aborted.
+   */
+  public synchronized void saveFinished(boolean succeeded) {
+    saveDone = true;
+    saveSucceeded = succeeded;
+    notifyAll();
+  }
+
+  /**
+   * Wait for the save to finish, for at most the given time.
+   * @return whether the save is over.
+   * @throws IOException if the save failed.
+   */
+  private synchronized boolean waitForSave(long ms) throws IOException {
+    if (!saveDone && ms > 0) {
+      try {
+        wait(ms);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while uploading image "
+            + "with txid " + txid);
+      }
+    }
+    if (saveDone && !saveSucceeded) {
+      throw new IOException("Saving the image with txid " + txid + " failed");
+    }
+    return saveDone;
+  }
+
+  /** Open the image once the saver has created it. */
+  private InputStream openImage() throws IOException {
+    while (true) {
+      boolean done = waitForSave(0);
+      File file = done ? imageFile : ckptFile;
+      if (file.exists()) {
+        try {
+          // Let the saver rename the file while it is open.
+          return NativeIO.getShareDeleteFileInputStream(file);
+        } catch (FileNotFoundException e) {
+          // It was just renamed.
+        }
+      } else if (done) {
+        throw new IOException("The image with txid " + txid
+            + " was not saved to " + imageFile);
+      }
+      waitForSave(POLL_INTERVAL_MS);
+    }
+  }
+
+  /**
+   * Upload the image.
+   * @throws IOException if the save or the upload failed.
+   */
+  @Override
+  public Void call() throws IOException {
+    checkAcceptsUploads();
+    long startTime = Time.monotonicNow();
+    InputStream in = openImage();
+    HttpURLConnection connection = null;
+    boolean success = false;
+    try {
+      URL url = new URL(fsName, "/getimage?" +
+          GetImageServlet.getParamStringToStreamImage(txid, storage));
+      LOG.info("Uploading image with txid " + txid + " to " + url);
+      connection = openConnection(url, "PUT");
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      connection.setChunkedStreamingMode(getChunkSize(conf));
+      DataOutputStream out = new DataOutputStream(
+          connection.getOutputStream());
+
+      DataTransferThrottler throttler = GetImageServlet.getThrottler(conf);
+      MessageDigest digester = MD5Hash.getDigester();
+      byte[] buf = new byte[getChunkSize(conf)];
+      long sent = 0;
+      while (true) {
+        // Check the end of the save before reading, so that the bytes
+        // written before its end are all read.
+        boolean done = waitForSave(0);
+        int num = in.read(buf);
+        if (num > 0) {
+          out.writeInt(num);
+          out.write(buf, 0, num);
+          digester.update(buf, 0, num);
+          sent += num;
+          if (throttler != null) {
+            throttler.throttle(num);
+          }
+        } else if (done) {
+          break;
+        } else {
+          waitForSave(POLL_INTERVAL_MS);
+        }
+      }
+
+      MD5Hash digest = new MD5Hash(digester.digest());
+      MD5Hash savedDigest = MD5FileUtils.readStoredMd5ForFile(imageFile);
+      if (!digest.equals(savedDigest)) {
+        throw new IOException("Uploaded image " + imageFile + " has digest "
+            + digest + " but the saved image has digest " + savedDigest);
+      }
+      out.writeInt(0);
+      digest.write(out);
+      out.close();
+
+      if (connection.getResponseCode() == HttpServletResponse.SC_CONFLICT) {
+        // A previous attempt to upload this checkpoint succeeded even though
+        // we thought it failed.
+        LOG.info("Image upload with txid " + txid + " conflicted with a " +
+            "previous image upload to the same NameNode. Continuing...");
+      } else if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new HttpGetFailedException("Image upload to " + url +
+            " failed with status code " + connection.getResponseCode() +
+            "\nResponse message:\n" + connection.getResponseMessage(),
+            connection);
+      }
+      success = true;
+
+      double xferSec = Math.max(
+          ((float)(Time.monotonicNow() - startTime)) / 1000.0, 0.001);
+      LOG.info(String.format("Uploaded image with txid %d to namenode at %s"
+          + ": %d bytes in %.2fs", txid, fsName, sent, xferSec));
+    } finally {
+      IOUtils.cleanup(LOG, in);
+      if (!success && connection != null) {
+        // Drop the connection, so that the receiver sees an incomplete
+        // stream.
+        connection.disconnect();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check that the NameNode accepts streamed uploads, which older versions
+   * answer with 405 Method Not Allowed only once the upload is complete.
+   */
+  private void checkAcceptsUploads() throws IOException {
+    URL url = new URL(fsName, "/getimage");
+    HttpURLConnection connection = openConnection(url, "OPTIONS");
+    try {
+      String allow = connection.getHeaderField("Allow");
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK ||
+          allow == null || !allow.contains("PUT")) {
+        throw new HttpGetFailedException("NameNode at " + fsName +
+            " does not accept streamed image uploads: status code " +
+            connection.getResponseCode() + ", allowed methods " + allow,
+            connection);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private HttpURLConnection openConnection(URL url, String method)
+      throws IOException {
+    URLConnectionFactory connectionFactory =
+        URLConnectionFactory.newDefaultURLConnectionFactory(conf);
+    HttpURLConnection connection;
+    try {
+      connection = (HttpURLConnection) connectionFactory.openConnection(url,
+          UserGroupInformation.isSecurityEnabled());
+    } catch (AuthenticationException e) {
+      throw new IOException(e);
+    }
+    int timeout = conf.getInt(DFSConfigKeys.DFS_IMAGE_TRANSFER_TIMEOUT_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_TIMEOUT_DEFAULT);
+    if (timeout > 0) {
+      connection.setConnectTimeout(timeout);
+      connection.setReadTimeout(timeout);
+    }
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  /** The size of the chunks sent, which the receiver must accept. */
+  private static int getChunkSize(Configuration conf) {
+    return Math.min(MAX_CHUNK_SIZE, conf.getInt(
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY,
+        DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_DEFAULT));
+  }
+
+  /**
+   * Receive an uploaded image into the checkpoint files of the storage.
+   * The files are deleted if the upload is incomplete or corrupt.
+   *
+   * @param stream the body of the upload request
+   * @return the digest of the image
+   */
+  static MD5Hash receive(InputStream stream, NNStorage storage, long txid)
+      throws IOException {
+    String fileName = NNStorage.getCheckpointImageFileName(txid);
+    List<File> files = storage.getFiles(NameNodeDirType.IMAGE, fileName);
+    List<File> openFiles = Lists.newArrayList();
+    List<FileOutputStream> outputStreams = Lists.newArrayList();
+    for (File f : files) {
+      try {
+        outputStreams.add(new FileOutputStream(f));
+        openFiles.add(f);
+      } catch (IOException ioe) {
+        LOG.warn("Unable to receive image into " + f, ioe);
+        storage.reportErrorOnFile(f);
+      }
+    }
+    if (outputStreams.isEmpty()) {
+      throw new IOException("Unable to receive image into any storage " +
+          "directory");
+    }
+
+    boolean success = false;
+    try {
+      DataInputStream in = new DataInputStream(stream);
+      MessageDigest digester = MD5Hash.getDigester();
+      byte[] buf = new byte[0];
+      while (true) {
+        int num = in.readInt();
+        if (num == 0) {
+          break;
+        }
+        if (num < 0 || num > MAX_CHUNK_SIZE) {
+          throw new IOException("Invalid image chunk length " + num);
+        }
+        if (buf.length < num) {
+          buf = new byte[num];
+        }
+        in.readFully(buf, 0, num);
+        digester.update(buf, 0, num);
+        for (FileOutputStream fos : outputStreams) {
+          fos.write(buf, 0, num);
+        }
+      }
+      MD5Hash advertisedDigest = new MD5Hash();
+      advertisedDigest.readFields(in);
+      MD5Hash computedDigest = new MD5Hash(digester.digest());
+      if (!computedDigest.equals(advertisedDigest)) {
+        throw new IOException("Received image with txid " + txid +
+            " has digest " + computedDigest + " but the uploader sent " +
+            advertisedDigest);
+      }
+      for (FileOutputStream fos : outputStreams) {
+        fos.getChannel().force(true);
+      }
+      success = true;
+      return computedDigest;
+    } finally {
+      for (FileOutputStream fos : outputStreams) {
+        IOUtils.cleanup(LOG, fos);
+      }
+      if (!success) {
+        for (File f : openFiles) {
+          if (f.exists() && !f.delete()) {
+            LOG.warn("Unable to delete incomplete image " + f);
+          }
+        }
+      }
+    }
+  }
+}
@@ -35,6 +35,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.ha.ServiceFailedException;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.HAUtil;
 import org.apache.hadoop.hdfs.server.namenode.CheckpointConf;
@@ -42,6 +43,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.SaveNamespaceCancelledException;
+import org.apache.hadoop.hdfs.server.namenode.StreamingImageUpload;
 import org.apache.hadoop.hdfs.server.namenode.TransferFsImage;
 import org.apache.hadoop.hdfs.util.Canceler;
 import org.apache.hadoop.security.SecurityUtil;
@@ -55,12 +57,15 @@
  * Thread which runs inside the NN when it's in Standby state,
  * periodically waking up to take a checkpoint of the namespace.
  * When it takes a checkpoint, it saves it to its local
- * storage and then uploads it to the remote NameNode.
+ * storage and uploads it to the remote NameNode. Unless
+ * {@link DFSConfigKeys#DFS_IMAGE_TRANSFER_STREAMING_KEY} is false, the
+ * upload streams the image while it is being saved.
  */
 @InterfaceAudience.Private
 public class StandbyCheckpointer {
   private static final Log LOG = LogFactory.getLog(StandbyCheckpointer.class);
   private static final long PREVENT_AFTER_CANCEL_MS = 2*60*1000L;
+  private final Configuration conf;
   private final CheckpointConf checkpointConf;
   private final FSNamesystem namesystem;
   private long lastCheckpointTime;
@@ -79,6 +84,7 @@ public class StandbyCheckpointer {
   public StandbyCheckpointer(Configuration conf, FSNamesystem ns)
       throws IOException {
     this.namesystem = ns;
+    this.conf = conf;
     this.checkpointConf = new CheckpointConf(conf); 
     this.thread = new CheckpointerThread();
     this.uploadThreadFactory = new ThreadFactoryBuilder().setDaemon(true)
@@ -144,6 +150,7 @@ public void stop() throws IOException {
   private void doCheckpoint() throws InterruptedException, IOException {
     assert canceler != null;
     final long txid;
+    Future<Void> streamingUpload = null;
     
     namesystem.writeLockInterruptibly();
     try {
@@ -163,13 +170,42 @@ private void doCheckpoint() throws InterruptedException, IOException {
         return;
       }
 
-      img.saveNamespace(namesystem, canceler);
+      StreamingImageUpload imageUpload = null;
+      if (conf.getBoolean(DFSConfigKeys.DFS_IMAGE_TRANSFER_STREAMING_KEY,
+          DFSConfigKeys.DFS_IMAGE_TRANSFER_STREAMING_DEFAULT)) {
+        // Upload the image to the active while it is saved
+        imageUpload = new StreamingImageUpload(activeNNAddress, conf,
+            img.getStorage(), thisCheckpointTxId);
+        ExecutorService executor =
+            Executors.newSingleThreadExecutor(uploadThreadFactory);
+        streamingUpload = executor.submit(imageUpload);
+        executor.shutdown();
+      }
+      boolean saved = false;
+      try {
+        img.saveNamespace(namesystem, canceler);
+        saved = true;
+      } finally {
+        if (imageUpload != null) {
+          imageUpload.saveFinished(saved);
+        }
+      }
       txid = img.getStorage().getMostRecentCheckpointTxId();
       assert txid == thisCheckpointTxId : "expected to save checkpoint at txid=" +
         thisCheckpointTxId + " but instead saved at txid=" + txid;
     } finally {
       namesystem.writeUnlock();
     }
+
+    if (streamingUpload != null) {
+      try {
+        streamingUpload.get();
+        return;
+      } catch (ExecutionException e) {
+        LOG.warn("Streaming upload of the image with txid " + txid +
+            " failed, asking the active to download it instead", e.getCause());
+      }
+    }
     
     // Upload the saved checkpoint back to the active
     // Do this in a separate thread to avoid blocking transition to active
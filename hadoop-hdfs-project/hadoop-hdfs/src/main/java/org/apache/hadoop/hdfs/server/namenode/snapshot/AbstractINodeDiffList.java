@@ -123,7 +123,9 @@ public final Quota.Counts deleteSnapshotDiff(final int snapshot,
   final D addDiff(int latestSnapshotId, N currentINode)
       throws QuotaExceededException {
     currentINode.addSpaceConsumed(1, 0, true);
-    return addLast(createDiff(latestSnapshotId, currentINode));
+    final D diff = addLast(createDiff(latestSnapshotId, currentINode));
+    INodeDirectorySnapshottable.diffAdded(currentINode);
+    return diff;
   }
 
   /** Append the diff at the end of the list. */
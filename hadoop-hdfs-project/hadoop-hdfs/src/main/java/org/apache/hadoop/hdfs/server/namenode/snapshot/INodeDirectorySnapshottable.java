@@ -23,9 +23,11 @@
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -36,6 +38,7 @@
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.server.namenode.Content;
 import org.apache.hadoop.hdfs.server.namenode.ContentSummaryComputationContext;
@@ -119,12 +122,30 @@ public int compare(INode left, INode right) {
      */
     private final Map<INodeDirectory, ChildrenDiff> dirDiffMap = 
         new HashMap<INodeDirectory, ChildrenDiff>();
+    /**
+     * Stop computing the difference once this many entries have been
+     * collected; no limit if it is not positive.
+     */
+    private final int limit;
+    /** The number of report entries collected so far */
+    private int numEntries = 0;
+    /**
+     * Relative path of the last inode whose difference has been collected if
+     * the computation stopped at {@link #limit}, otherwise null.
+     */
+    private byte[][] lastPath = null;
     
     SnapshotDiffInfo(INodeDirectorySnapshottable snapshotRoot, Snapshot start,
         Snapshot end) {
+      this(snapshotRoot, start, end, -1);
+    }
+
+    SnapshotDiffInfo(INodeDirectorySnapshottable snapshotRoot, Snapshot start,
+        Snapshot end, int limit) {
       this.snapshotRoot = snapshotRoot;
       this.from = start;
       this.to = end;
+      this.limit = limit;
     }
     
     /** Add a dir-diff pair */
@@ -132,23 +153,53 @@ private void addDirDiff(INodeDirectory dir, byte[][] relativePath,
         ChildrenDiff diff) {
       dirDiffMap.put(dir, diff);
       diffMap.put(dir, relativePath);
+      numEntries += 1 + diff.getList(ListType.CREATED).size()
+          + diff.getList(ListType.DELETED).size();
     }
     
     /** Add a modified file */ 
     private void addFileDiff(INodeFile file, byte[][] relativePath) {
       diffMap.put(file, relativePath);
+      numEntries++;
+    }
+
+    /** @return true if no more difference should be collected. */
+    private boolean isFull() {
+      return limit > 0 && numEntries >= limit;
     }
     
     /** @return True if {@link #from} is earlier than {@link #to} */
     private boolean isFromEarlier() {
       return Snapshot.ID_COMPARATOR.compare(from, to) < 0;
     }
+
+    /** @return the earlier one of {@link #from} and {@link #to} */
+    private Snapshot getEarlier() {
+      return isFromEarlier()? from: to;
+    }
     
     /**
      * Generate a {@link SnapshotDiffReport} based on detailed diff information.
      * @return A {@link SnapshotDiffReport} describing the difference
      */
     public SnapshotDiffReport generateReport() {
+      return new SnapshotDiffReport(snapshotRoot.getFullPathName(),
+          Snapshot.getSnapshotName(from), Snapshot.getSnapshotName(to),
+          generateEntries());
+    }
+
+    /**
+     * Generate a page of the difference, which ends at the last inode
+     * collected by this computation.
+     * @return A {@link SnapshotDiffReportListing} with the collected entries
+     */
+    public SnapshotDiffReportListing generateListing() {
+      return new SnapshotDiffReportListing(generateEntries(),
+          lastPath == null? null: DFSUtil.byteArray2bytes(lastPath),
+          lastPath != null);
+    }
+
+    private List<DiffReportEntry> generateEntries() {
       List<DiffReportEntry> diffReportList = new ArrayList<DiffReportEntry>();
       for (INode node : diffMap.keySet()) {
         diffReportList.add(new DiffReportEntry(DiffType.MODIFY, diffMap
@@ -160,9 +211,7 @@ public SnapshotDiffReport generateReport() {
           diffReportList.addAll(subList);
         }
       }
-      return new SnapshotDiffReport(snapshotRoot.getFullPathName(),
-          Snapshot.getSnapshotName(from), Snapshot.getSnapshotName(to),
-          diffReportList);
+      return diffReportList;
     }
   }
 
@@ -183,6 +232,14 @@ ReadOnlyList<Snapshot> getSnapshotsByNames() {
   /** Number of snapshots allowed. */
   private int snapshotQuota = SNAPSHOT_LIMIT;
 
+  /**
+   * Ids of the inodes in this subtree, current or only in snapshots, which
+   * have recorded snapshot diffs.  The diff computation visits only these
+   * inodes and their ancestors.  It is collected lazily by the first diff
+   * computation and may contain inodes which have been deleted or moved.
+   */
+  private Set<Long> changedINodeIds = null;
+
   public INodeDirectorySnapshottable(INodeDirectory dir) {
     super(dir, true, dir.getFeatures());
     // add snapshot feature if the original directory does not have it
@@ -372,12 +429,30 @@ public ContentSummaryComputationContext computeContentSummary(
    * @param from The name of the start point of the comparison. Null indicating
    *          the current tree.
    * @param to The name of the end point. Null indicating the current tree.
+   * @param inodeMap Used to look up the inodes with recorded changes.
    * @return The difference between the start/end points.
    * @throws SnapshotException If there is no snapshot matching the starting
    *           point, or if endSnapshotName is not null but cannot be identified
    *           as a previous snapshot.
    */
-  SnapshotDiffInfo computeDiff(final String from, final String to)
+  SnapshotDiffInfo computeDiff(final String from, final String to,
+      final INodeMap inodeMap) throws SnapshotException {
+    return computeDiff(from, to, inodeMap, null, -1);
+  }
+
+  /**
+   * Compute a part of the difference between two snapshots (or a snapshot and
+   * the current directory) of the directory.  Inodes are visited in the order
+   * of their relative paths; the computation resumes after the inode at
+   * startAfter and stops once limit report entries have been collected.
+   * 
+   * @param startAfter Relative path of the last inode of the previous part.
+   *          Null to start from the beginning.
+   * @param limit The number of entries to collect; no limit if not positive.
+   * @see #computeDiff(String, String, INodeMap)
+   */
+  SnapshotDiffInfo computeDiff(final String from, final String to,
+      final INodeMap inodeMap, final byte[][] startAfter, final int limit)
       throws SnapshotException {
     Snapshot fromSnapshot = getSnapshotByName(from);
     Snapshot toSnapshot = getSnapshotByName(to);
@@ -386,8 +461,10 @@ SnapshotDiffInfo computeDiff(final String from, final String to)
       return null;
     }
     SnapshotDiffInfo diffs = new SnapshotDiffInfo(this, fromSnapshot,
-        toSnapshot);
-    computeDiffRecursively(this, new ArrayList<byte[]>(), diffs);
+        toSnapshot, limit);
+    final Set<Long> changed = getChangedINodes(diffs.getEarlier(), inodeMap);
+    computeDiffRecursively(this, new ArrayList<byte[]>(), diffs, changed,
+        startAfter);
     return diffs;
   }
   
@@ -412,42 +489,174 @@ private Snapshot getSnapshotByName(String snapshotName)
     }
     return s;
   }
+
+  /**
+   * Record that a snapshot diff has been added to the given inode, so that
+   * the diff computation of every snapshottable ancestor visits it.
+   */
+  static void diffAdded(INode inode) {
+    for (INodeDirectory dir = inode.isDirectory()? inode.asDirectory()
+        : inode.getParent(); dir != null; dir = dir.getParent()) {
+      if (dir.isSnapshottable()) {
+        ((INodeDirectorySnapshottable)dir).addChangedINode(inode.getId());
+      }
+    }
+  }
+
+  private synchronized void addChangedINode(long id) {
+    if (changedINodeIds != null) {
+      changedINodeIds.add(id);
+    }
+  }
+
+  /**
+   * Collect the ids of the inodes under the given node which have snapshot
+   * diffs, including inodes only present in snapshots.  Subtrees under
+   * references are skipped since the diff computation walks them in full.
+   */
+  private static void collectChangedINodes(INode node, Set<Long> ids) {
+    if (node.isReference()) {
+      return;
+    }
+    if (node.isFile()) {
+      if (node.asFile().isWithSnapshot()) {
+        ids.add(node.getId());
+      }
+    } else if (node.isDirectory()) {
+      final INodeDirectory dir = node.asDirectory();
+      for (INode child : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+        collectChangedINodes(child, ids);
+      }
+      final DirectoryWithSnapshotFeature sf =
+          dir.getDirectoryWithSnapshotFeature();
+      if (sf != null) {
+        ids.add(dir.getId());
+        for (DirectoryDiff d : sf.getDiffs()) {
+          for (INode deleted : d.getChildrenDiff().getList(ListType.DELETED)) {
+            collectChangedINodes(deleted, ids);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the inodes which may have changed after the given snapshot: the
+   * inodes with a snapshot diff recorded after it and all their ancestors.
+   * The first call walks the whole subtree to find the inodes with snapshot
+   * diffs; later ones only look at those inodes.
+   *
+   * @return the ids of the inodes which may have changed.
+   */
+  private synchronized Set<Long> getChangedINodes(Snapshot earlier,
+      INodeMap inodeMap) {
+    if (changedINodeIds == null) {
+      changedINodeIds = new HashSet<Long>();
+      collectChangedINodes(this, changedINodeIds);
+    }
+    final Set<Long> changed = new HashSet<Long>();
+    for (Iterator<Long> i = changedINodeIds.iterator(); i.hasNext(); ) {
+      final INode inode = inodeMap.get(i.next());
+      final int lastSnapshotId;
+      if (inode == null) {
+        i.remove();
+        continue;
+      } else if (inode.isFile() && inode.asFile().isWithSnapshot()) {
+        lastSnapshotId = inode.asFile().getDiffs().getLastSnapshotId();
+      } else if (inode.isDirectory() && inode.asDirectory().isWithSnapshot()) {
+        lastSnapshotId = inode.asDirectory().getDiffs().getLastSnapshotId();
+      } else {
+        i.remove();
+        continue;
+      }
+      if (earlier != null && Snapshot.ID_INTEGER_COMPARATOR.compare(
+          lastSnapshotId, earlier.getId()) < 0) {
+        // nothing recorded after the earlier snapshot
+        continue;
+      }
+      for (INode n = inode; n != null && changed.add(n.getId());
+          n = n.getParent()) {
+        if (n.getId() == getId()) {
+          break;
+        }
+      }
+    }
+    return changed;
+  }
   
   /**
    * Recursively compute the difference between snapshots under a given
-   * directory/file.
+   * directory/file.  Only the children in the changed set and references are
+   * visited; all the inodes below a reference are visited since a renamed
+   * inode may be reached through a different path in a snapshot.
    * @param node The directory/file under which the diff is computed. 
    * @param parentPath Relative path (corresponding to the snapshot root) of 
    *                   the node's parent.
    * @param diffReport data structure used to store the diff.
+   * @param changed The inodes which may have changed. Null to visit all.
+   * @param startAfter Relative path of the last inode visited by a previous
+   *          computation if it is at or under this node, otherwise null.
+   * @return false if the computation stopped since the limit was reached.
    */
-  private void computeDiffRecursively(INode node, List<byte[]> parentPath,
-      SnapshotDiffInfo diffReport) {
+  private boolean computeDiffRecursively(INode node, List<byte[]> parentPath,
+      SnapshotDiffInfo diffReport, Set<Long> changed, byte[][] startAfter) {
     ChildrenDiff diff = new ChildrenDiff();
     byte[][] relativePath = parentPath.toArray(new byte[parentPath.size()][]);
+    // the node itself has been visited if it is on the path of startAfter
+    final boolean visited = startAfter != null;
     if (node.isDirectory()) {
       INodeDirectory dir = node.asDirectory();
       DirectoryWithSnapshotFeature sf = dir.getDirectoryWithSnapshotFeature();
       if (sf != null) {
         boolean change = sf.computeDiffBetweenSnapshots(diffReport.from,
             diffReport.to, diff, dir);
-        if (change) {
+        if (change && !visited) {
           diffReport.addDirDiff(dir, relativePath, diff);
         }
       }
+      if (!visited && diffReport.isFull()) {
+        diffReport.lastPath = relativePath;
+        return false;
+      }
       ReadOnlyList<INode> children = dir.getChildrenList(
           diffReport.isFromEarlier() ? Snapshot.getSnapshotId(diffReport.to) : 
             Snapshot.getSnapshotId(diffReport.from));
-      for (INode child : children) {
+      int start = 0;
+      if (visited && parentPath.size() < startAfter.length) {
+        // resume from the child on the path of startAfter
+        final byte[] name = startAfter[parentPath.size()];
+        final int i = ReadOnlyList.Util.binarySearch(children, name);
+        if (i >= 0) {
+          final INode child = children.get(i);
+          parentPath.add(name);
+          final boolean more = computeDiffRecursively(child, parentPath,
+              diffReport, child.isReference()? null: changed, startAfter);
+          parentPath.remove(parentPath.size() - 1);
+          if (!more) {
+            return false;
+          }
+          start = i + 1;
+        } else {
+          start = -i - 1;
+        }
+      }
+      for (int i = start; i < children.size(); i++) {
+        final INode child = children.get(i);
         final byte[] name = child.getLocalNameBytes();
         if (diff.searchIndex(ListType.CREATED, name) < 0
-            && diff.searchIndex(ListType.DELETED, name) < 0) {
+            && diff.searchIndex(ListType.DELETED, name) < 0
+            && (changed == null || child.isReference()
+                || changed.contains(child.getId()))) {
           parentPath.add(name);
-          computeDiffRecursively(child, parentPath, diffReport);
+          final boolean more = computeDiffRecursively(child, parentPath,
+              diffReport, child.isReference()? null: changed, null);
           parentPath.remove(parentPath.size() - 1);
+          if (!more) {
+            return false;
+          }
         }
       }
-    } else if (node.isFile() && node.asFile().isWithSnapshot()) {
+    } else if (node.isFile() && node.asFile().isWithSnapshot() && !visited) {
       INodeFile file = node.asFile();
       Snapshot earlierSnapshot = diffReport.isFromEarlier() ? diffReport.from
           : diffReport.to;
@@ -457,8 +666,13 @@ private void computeDiffRecursively(INode node, List<byte[]> parentPath,
           laterSnapshot);
       if (change) {
         diffReport.addFileDiff(file, relativePath);
+        if (diffReport.isFull()) {
+          diffReport.lastPath = relativePath;
+          return false;
+        }
       }
     }
+    return true;
   }
   
   /**
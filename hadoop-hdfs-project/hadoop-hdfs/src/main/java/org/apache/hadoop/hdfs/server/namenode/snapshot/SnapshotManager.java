@@ -361,6 +361,19 @@ public SnapshottableDirectoryStatus[] getSnapshottableDirListing(
    */
   public SnapshotDiffInfo diff(final String path, final String from,
       final String to) throws IOException {
+    return diff(path, from, to, null, -1);
+  }
+
+  /**
+   * Compute a part of the difference between two snapshots of a directory,
+   * or between a snapshot of the directory and its current tree.
+   * @param startAfter relative path of the last inode visited by the previous
+   *          part, or null to start from the beginning.
+   * @param limit the number of entries to collect; no limit if not positive.
+   */
+  public SnapshotDiffInfo diff(final String path, final String from,
+      final String to, final byte[][] startAfter, final int limit)
+      throws IOException {
     if ((from == null || from.isEmpty())
         && (to == null || to.isEmpty())) {
       // both fromSnapshot and toSnapshot indicate the current tree
@@ -373,7 +386,8 @@ public SnapshotDiffInfo diff(final String path, final String from,
     final INodeDirectorySnapshottable snapshotRoot = INodeDirectorySnapshottable
         .valueOf(inodesInPath.getLastINode(), path);
     
-    return snapshotRoot.computeDiff(from, to);
+    return snapshotRoot.computeDiff(from, to, fsdir.getINodeMap(),
+        startAfter, limit);
   }
   
   public void clearSnapshottableDirs() {
@@ -20,8 +20,6 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -54,6 +52,7 @@
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.permission.AclStatus;
+import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.StorageType;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
@@ -97,6 +96,7 @@
 import org.apache.hadoop.hdfs.web.resources.RecursiveParam;
 import org.apache.hadoop.hdfs.web.resources.RenameOptionSetParam;
 import org.apache.hadoop.hdfs.web.resources.RenewerParam;
+import org.apache.hadoop.hdfs.web.resources.StartAfterParam;
 import org.apache.hadoop.hdfs.web.resources.ReplicationParam;
 import org.apache.hadoop.hdfs.web.resources.TokenArgumentParam;
 import org.apache.hadoop.hdfs.web.resources.UriFsPathParam;
@@ -108,9 +108,11 @@
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.security.token.TokenIdentifier;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Charsets;
 import com.sun.jersey.spi.container.ResourceFilters;
 
 /** Web-hdfs NameNode implementation. */
@@ -121,7 +123,9 @@ public class NamenodeWebHdfsMethods {
 
   private static final UriFsPathParam ROOT = new UriFsPathParam("");
   
-  private static final ThreadLocal<String> REMOTE_ADDRESS = new ThreadLocal<String>(); 
+  private static final ThreadLocal<String> REMOTE_ADDRESS = new ThreadLocal<String>();
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory(); 
 
   /** @return the remote client address. */
   public static String getRemoteAddress() {
@@ -630,10 +634,12 @@ public Response getRoot(
       @QueryParam(RenewerParam.NAME) @DefaultValue(RenewerParam.DEFAULT)
           final RenewerParam renewer,
       @QueryParam(BufferSizeParam.NAME) @DefaultValue(BufferSizeParam.DEFAULT)
-          final BufferSizeParam bufferSize
+          final BufferSizeParam bufferSize,
+      @QueryParam(StartAfterParam.NAME) @DefaultValue(StartAfterParam.DEFAULT)
+          final StartAfterParam startAfter
       ) throws IOException, InterruptedException {
     return get(ugi, delegation, username, doAsUser, ROOT, op,
-        offset, length, renewer, bufferSize);
+        offset, length, renewer, bufferSize, startAfter);
   }
 
   /** Handle HTTP GET request. */
@@ -658,11 +664,13 @@ public Response get(
       @QueryParam(RenewerParam.NAME) @DefaultValue(RenewerParam.DEFAULT)
           final RenewerParam renewer,
       @QueryParam(BufferSizeParam.NAME) @DefaultValue(BufferSizeParam.DEFAULT)
-          final BufferSizeParam bufferSize
+          final BufferSizeParam bufferSize,
+      @QueryParam(StartAfterParam.NAME) @DefaultValue(StartAfterParam.DEFAULT)
+          final StartAfterParam startAfter
       ) throws IOException, InterruptedException {
 
     init(ugi, delegation, username, doAsUser, path, op,
-        offset, length, renewer, bufferSize);
+        offset, length, renewer, bufferSize, startAfter);
 
     return ugi.doAs(new PrivilegedExceptionAction<Response>() {
       @Override
@@ -670,7 +678,8 @@ public Response run() throws IOException, URISyntaxException {
         REMOTE_ADDRESS.set(request.getRemoteAddr());
         try {
           return get(ugi, delegation, username, doAsUser,
-              path.getAbsolutePath(), op, offset, length, renewer, bufferSize);
+              path.getAbsolutePath(), op, offset, length, renewer, bufferSize,
+              startAfter);
         } finally {
           REMOTE_ADDRESS.set(null);
         }
@@ -688,7 +697,8 @@ private Response get(
       final OffsetParam offset,
       final LengthParam length,
       final RenewerParam renewer,
-      final BufferSizeParam bufferSize
+      final BufferSizeParam bufferSize,
+      final StartAfterParam startAfter
       ) throws IOException, URISyntaxException {
     final NameNode namenode = (NameNode)context.getAttribute("name.node");
     final NamenodeProtocols np = namenode.getRpcServer();
@@ -724,6 +734,13 @@ private Response get(
       final StreamingOutput streaming = getListingStream(np, fullpath);
       return Response.ok(streaming).type(MediaType.APPLICATION_JSON).build();
     }
+    case LISTSTATUS_BATCH:
+    {
+      final DirectoryListing listing = getDirectoryListing(np, fullpath,
+          DFSUtil.string2Bytes(startAfter.getValue()));
+      final StreamingOutput streaming = getListingBatchStream(listing);
+      return Response.ok(streaming).type(MediaType.APPLICATION_JSON).build();
+    }
     case GETCONTENTSUMMARY:
     {
       final ContentSummary contentsummary = np.getContentSummary(fullpath);
@@ -777,6 +794,27 @@ private static DirectoryListing getDirectoryListing(final NamenodeProtocols np,
     return listing;
   }
   
+  private static JsonGenerator createJsonGenerator(final OutputStream out
+      ) throws IOException {
+    final JsonGenerator g = JSON_FACTORY.createJsonGenerator(out,
+        JsonEncoding.UTF8);
+    // the container closes the response stream
+    g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    return g;
+  }
+
+  /** Write the entries of a listing as a FileStatuses Json object. */
+  private static void writeFileStatuses(final JsonGenerator g,
+      final HdfsFileStatus[] statuses) throws IOException {
+    g.writeObjectFieldStart(FileStatus.class.getSimpleName() + "es");
+    g.writeArrayFieldStart(FileStatus.class.getSimpleName());
+    for (HdfsFileStatus s : statuses) {
+      JsonUtil.writeFileStatus(g, s);
+    }
+    g.writeEndArray();
+    g.writeEndObject();
+  }
+
   private static StreamingOutput getListingStream(final NamenodeProtocols np, 
       final String p) throws IOException {
     // allows exceptions like FNF or ACE to prevent http response of 200 for
@@ -791,27 +829,25 @@ private static StreamingOutput getListingStream(final NamenodeProtocols np,
     return new StreamingOutput() {
       @Override
       public void write(final OutputStream outstream) throws IOException {
-        final PrintWriter out = new PrintWriter(new OutputStreamWriter(
-            outstream, Charsets.UTF_8));
-        out.println("{\"" + FileStatus.class.getSimpleName() + "es\":{\""
-            + FileStatus.class.getSimpleName() + "\":[");
+        final JsonGenerator g = createJsonGenerator(outstream);
+        g.writeStartObject();
+        g.writeObjectFieldStart(FileStatus.class.getSimpleName() + "es");
+        g.writeArrayFieldStart(FileStatus.class.getSimpleName());
 
         try {
           // restore remote user's ugi
           ugi.doAs(new PrivilegedExceptionAction<Void>() {
             @Override
             public Void run() throws IOException {
-              long n = 0;
               for (DirectoryListing dirList = firstDirList; ;
                    dirList = getDirectoryListing(np, p, dirList.getLastName())
               ) {
-                // send each segment of the directory listing
+                // send each segment of the directory listing, only one
+                // segment is held in memory at a time
                 for (HdfsFileStatus s : dirList.getPartialListing()) {
-                  if (n++ > 0) {
-                    out.println(',');
-                  }
-                  out.print(JsonUtil.toJsonString(s, false));
+                  JsonUtil.writeFileStatus(g, s);
                 }
+                g.flush();
                 // stop if last segment
                 if (!dirList.hasMore()) {
                   break;
@@ -824,13 +860,38 @@ public Void run() throws IOException {
           throw new IOException(e);
         }
         
-        out.println();
-        out.println("]}}");
-        out.flush();
+        g.writeEndArray();
+        g.writeEndObject();
+        g.writeEndObject();
+        g.close();
       }
     };
   }
 
+  /**
+   * Stream one segment of a directory listing, for clients which page through
+   * large directories with the {@link StartAfterParam}.
+   */
+  private static StreamingOutput getListingBatchStream(
+      final DirectoryListing listing) {
+    return new StreamingOutput() {
+      @Override
+      public void write(final OutputStream outstream) throws IOException {
+        final JsonGenerator g = createJsonGenerator(outstream);
+        g.writeStartObject();
+        g.writeObjectFieldStart(DirectoryListing.class.getSimpleName());
+        g.writeObjectFieldStart("partialListing");
+        writeFileStatuses(g, listing.getPartialListing());
+        g.writeEndObject();
+        g.writeNumberField("remainingEntries", listing.getRemainingEntries());
+        g.writeEndObject();
+        g.writeEndObject();
+        g.close();
+      }
+    };
+  }
+
+
   /** Handle HTTP DELETE request for the root. */
   @DELETE
   @Path("/")
@@ -102,6 +102,8 @@ public DatanodeRegistration registerDatanode(DatanodeRegistration registration
    * @param xmitsInProgress number of transfers from this datanode to others
    * @param xceiverCount number of active transceiver threads
    * @param failedVolumes number of failed volumes
+   * @param writeLatencyMicros mean time in microseconds the datanode took
+   *        to write a packet to disk recently, or 0 if unknown
    * @throws IOException on error
    */
   @Idempotent
@@ -111,7 +113,9 @@ public HeartbeatResponse sendHeartbeat(DatanodeRegistration registration,
                                        long dnCacheUsed,
                                        int xmitsInProgress,
                                        int xceiverCount,
-                                       int failedVolumes) throws IOException;
+                                       int failedVolumes,
+                                       long writeLatencyMicros)
+      throws IOException;
 
   /**
    * blockReport() tells the NameNode about all the locally-stored blocks.
@@ -144,12 +148,15 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
    * @param            The datanode registration.
    * @param poolId     The block pool ID for the blocks.
    * @param blockIds   A list of block IDs.
+   * @param hitCounts  The number of reads served from each of the blocks
+   *                   since the previous cache report, or null if unknown.
    * @return           The DatanodeCommand.
    * @throws IOException
    */
   @Idempotent
   public DatanodeCommand cacheReport(DatanodeRegistration registration,
-      String poolId, List<Long> blockIds) throws IOException;
+      String poolId, List<Long> blockIds, List<Long> hitCounts)
+      throws IOException;
 
   /**
    * blockReceivedAndDeleted() allows the DataNode to tell the NameNode about
@@ -32,6 +32,7 @@
 import org.apache.hadoop.security.token.TokenIdentifier;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.StringUtils;
+import org.codehaus.jackson.JsonGenerator;
 import org.mortbay.util.ajax.JSON;
 
 import java.io.ByteArrayInputStream;
@@ -214,6 +215,32 @@ public static String toJsonString(final HdfsFileStatus status,
     return includeType ? toJsonString(FileStatus.class, m): JSON.toString(m);
   }
 
+  /**
+   * Write a HdfsFileStatus object as a Json object, without building an
+   * intermediate map.  The fields are in the same order as in
+   * {@link #toJsonString(HdfsFileStatus, boolean)}.
+   */
+  public static void writeFileStatus(final JsonGenerator g,
+      final HdfsFileStatus status) throws IOException {
+    g.writeStartObject();
+    g.writeNumberField("accessTime", status.getAccessTime());
+    g.writeNumberField("blockSize", status.getBlockSize());
+    g.writeNumberField("childrenNum", status.getChildrenNum());
+    g.writeNumberField("fileId", status.getFileId());
+    g.writeStringField("group", status.getGroup());
+    g.writeNumberField("length", status.getLen());
+    g.writeNumberField("modificationTime", status.getModificationTime());
+    g.writeStringField("owner", status.getOwner());
+    g.writeStringField("pathSuffix", status.getLocalName());
+    g.writeStringField("permission", toString(status.getPermission()));
+    g.writeNumberField("replication", status.getReplication());
+    if (status.isSymlink()) {
+      g.writeStringField("symlink", status.getSymlink());
+    }
+    g.writeStringField("type", PathType.valueOf(status).toString());
+    g.writeEndObject();
+  }
+
   /** Convert a Json map to a HdfsFileStatus object. */
   public static HdfsFileStatus toFileStatus(final Map<?, ?> json, boolean includesType) {
     if (json == null) {
@@ -0,0 +1,341 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.web;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An output stream which uploads a new file as several parts in parallel.
+ *
+ * Each part is one block long and is written to its own file, over its own
+ * connection.  The first part is the target file itself, the others are
+ * hidden files in the same directory.  Up to a given number of parts are
+ * uploaded at the same time.  When the stream is closed, the other parts are
+ * concatenated to the target file on the NameNode, which only moves their
+ * blocks.  The names of the other parts are unique to the stream, and they
+ * are never created over an existing file.
+ *
+ * If any part fails, the target file is deleted along with the other parts,
+ * rather than leaving a file which holds only some of the blocks.
+ */
+class ParallelBlockOutputStream extends OutputStream {
+  static final Log LOG = LogFactory.getLog(ParallelBlockOutputStream.class);
+
+  /** Creates the files of the parts and puts them together. */
+  interface PartFileSystem {
+    /**
+     * Create the file of a part other than the first one.  It must fail if
+     * the file exists.
+     */
+    OutputStream createPart(Path part) throws IOException;
+
+    void concat(Path target, Path[] parts) throws IOException;
+
+    boolean delete(Path path, boolean recursive) throws IOException;
+  }
+
+  /** The number of buffers queued for each part. */
+  private static final int QUEUE_CAPACITY = 16;
+  /** How long a failed stream waits for the uploads to stop. */
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+  /** Marks the end of the data of a part. */
+  private static final byte[] END_OF_PART = new byte[0];
+
+  /** A part of the file being uploaded. */
+  private class Part implements Callable<Void> {
+    final Path path;
+    final OutputStream out;
+    final BlockingQueue<byte[]> queue =
+        new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+    Future<Void> upload;
+    /** The bytes written to the part, including the buffered ones. */
+    long size = 0;
+    boolean ended = false;
+
+    Part(Path path, OutputStream out) {
+      this.path = path;
+      this.out = out;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      IOException error = null;
+      boolean outClosed = false;
+      try {
+        // Keep taking the buffers after a failure so that the writer never
+        // blocks on a full queue.
+        for (byte[] b = queue.take(); b != END_OF_PART; b = queue.take()) {
+          if (error == null) {
+            try {
+              out.write(b);
+            } catch (IOException e) {
+              error = e;
+            }
+          }
+        }
+        if (error == null) {
+          out.close();
+          outClosed = true;
+        }
+      } finally {
+        if (!outClosed) {
+          IOUtils.cleanup(LOG, out);
+        }
+        uploads.release();
+      }
+      if (error != null) {
+        throw error;
+      }
+      return null;
+    }
+
+    void put(byte[] b) throws IOException {
+      if (upload.isDone()) {
+        await();
+        throw new IOException("Upload of " + path + " ended early");
+      }
+      try {
+        queue.put(b);
+      } catch (InterruptedException e) {
+        throw (IOException)new InterruptedIOException(
+            "Interrupted while writing " + path).initCause(e);
+      }
+    }
+
+    void end() throws IOException {
+      if (!ended) {
+        put(END_OF_PART);
+        ended = true;
+      }
+    }
+
+    void await() throws IOException {
+      try {
+        upload.get();
+      } catch (InterruptedException e) {
+        throw (IOException)new InterruptedIOException(
+            "Interrupted while waiting for " + path).initCause(e);
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        }
+        throw new IOException("Failed to upload " + path, cause);
+      }
+    }
+  }
+
+  private final PartFileSystem fs;
+  private final Path target;
+  /** Makes the names of the parts unique to this stream. */
+  private final String partPrefix;
+  private final long partSize;
+  private final ExecutorService executor;
+  /** Bounds the number of parts uploaded at the same time. */
+  private final Semaphore uploads;
+  private final List<Part> parts = new ArrayList<Part>();
+
+  private final byte[] buf;
+  private int count = 0;
+  private boolean closed = false;
+  private boolean failed = false;
+
+  /**
+   * @param fs          Creates and concatenates the parts.
+   * @param target      The file to write.
+   * @param out         The stream of the target file, which is the first part.
+   * @param partSize    The length of the parts, the block size of the file.
+   * @param bufferSize  The size of the buffers handed to the uploads.
+   * @param connections The number of parts uploaded at the same time.
+   */
+  ParallelBlockOutputStream(PartFileSystem fs, Path target, OutputStream out,
+      long partSize, int bufferSize, int connections) throws IOException {
+    this.fs = fs;
+    this.target = target;
+    this.partPrefix = "." + target.getName() + "._PART_"
+        + UUID.randomUUID() + "_";
+    this.partSize = partSize;
+    this.buf = new byte[bufferSize];
+    this.executor = Executors.newFixedThreadPool(connections,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("WebHdfs parallel write #%d").build());
+    this.uploads = new Semaphore(connections);
+    acquireUpload();
+    startPart(target, out);
+  }
+
+  /** The path of the i-th part, i > 0. */
+  private Path getPartPath(int i) {
+    return new Path(target.getParent(), partPrefix + i);
+  }
+
+  private void acquireUpload() throws IOException {
+    try {
+      uploads.acquire();
+    } catch (InterruptedException e) {
+      throw (IOException)new InterruptedIOException(
+          "Interrupted while waiting for an upload of " + target).initCause(e);
+    }
+  }
+
+  private void startPart(Path path, OutputStream out) {
+    final Part part = new Part(path, out);
+    parts.add(part);
+    part.upload = executor.submit(part);
+  }
+
+  private Part current() {
+    return parts.get(parts.size() - 1);
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      current().put(Arrays.copyOf(buf, count));
+      count = 0;
+    }
+  }
+
+  private void nextPart() throws IOException {
+    current().end();
+    acquireUpload();
+    final Path path = getPartPath(parts.size());
+    final OutputStream out;
+    try {
+      out = fs.createPart(path);
+    } catch (IOException e) {
+      uploads.release();
+      throw e;
+    }
+    startPart(path, out);
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    write(new byte[]{(byte)b}, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len)
+      throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (failed) {
+      throw new IOException("An earlier write to " + target + " failed");
+    }
+    try {
+      while (len > 0) {
+        if (current().size == partSize) {
+          nextPart();
+        }
+        final Part part = current();
+        final int n = (int)Math.min(Math.min(len, buf.length - count),
+            partSize - part.size);
+        System.arraycopy(b, off, buf, count, n);
+        count += n;
+        part.size += n;
+        off += n;
+        len -= n;
+        if (count == buf.length || part.size == partSize) {
+          flushBuffer();
+        }
+      }
+    } catch (IOException e) {
+      failed = true;
+      throw e;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    boolean success = false;
+    try {
+      if (failed) {
+        throw new IOException("An earlier write to " + target + " failed");
+      }
+      flushBuffer();
+      current().end();
+      for (Part part : parts) {
+        part.await();
+      }
+      if (parts.size() > 1) {
+        final Path[] srcs = new Path[parts.size() - 1];
+        for (int i = 0; i < srcs.length; i++) {
+          srcs[i] = parts.get(i + 1).path;
+        }
+        fs.concat(target, srcs);
+      }
+      success = true;
+    } finally {
+      executor.shutdownNow();
+      if (!success) {
+        abort();
+      }
+    }
+  }
+
+  /** Stop the uploads and delete the target and the other parts. */
+  private void abort() {
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MS,
+          TimeUnit.MILLISECONDS)) {
+        LOG.warn("Uploads of " + target + " did not stop in "
+            + SHUTDOWN_TIMEOUT_MS + "ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Part part : parts) {
+      // Parts which never got a thread still hold their stream.
+      if (!part.upload.isDone()) {
+        IOUtils.cleanup(LOG, part.out);
+      }
+      try {
+        fs.delete(part.path, false);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete " + part.path, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.web;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.io.IOUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An input stream which reads a file with several ranged requests in
+ * parallel.
+ *
+ * The file is split into chunks.  While the application reads a chunk, the
+ * following chunks are fetched concurrently, each one over its own
+ * connection, and they are handed to the application in file order.  Seeking
+ * keeps the chunks already fetched if the new position falls in one of them.
+ */
+class ParallelRangeInputStream extends FSInputStream {
+  /** Opens a connection to read a range of the file. */
+  interface RangeOpener {
+    /**
+     * @param offset  The offset of the range in the file.
+     * @param length  The length of the range.
+     * @return        A stream returning the bytes of the range.
+     */
+    InputStream open(long offset, long length) throws IOException;
+  }
+
+  /** A chunk of the file which is being fetched. */
+  private static class Fetch {
+    final long start;
+    final int length;
+    final Future<byte[]> data;
+
+    Fetch(long start, int length, Future<byte[]> data) {
+      this.start = start;
+      this.length = length;
+      this.data = data;
+    }
+  }
+
+  private final RangeOpener opener;
+  private final long fileLength;
+  private final int chunkSize;
+  private final int connections;
+  private final ExecutorService executor;
+
+  /** The chunks being fetched, in file order. */
+  private final Deque<Fetch> fetches = new ArrayDeque<Fetch>();
+  /** The offset of the next chunk to fetch. */
+  private long nextFetch = 0;
+
+  private byte[] chunk;
+  private long chunkStart;
+  private long pos = 0;
+  private boolean closed = false;
+
+  ParallelRangeInputStream(RangeOpener opener, long fileLength, int chunkSize,
+      int connections) {
+    this.opener = opener;
+    this.fileLength = fileLength;
+    this.chunkSize = chunkSize;
+    this.connections = connections;
+    this.executor = Executors.newFixedThreadPool(connections,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("WebHdfs parallel read #%d").build());
+  }
+
+  private Fetch fetch(final long start) {
+    final int length = (int)Math.min(chunkSize, fileLength - start);
+    return new Fetch(start, length, executor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        final byte[] data = new byte[length];
+        final InputStream in = opener.open(start, length);
+        try {
+          IOUtils.readFully(in, data, 0, length);
+        } finally {
+          in.close();
+        }
+        return data;
+      }
+    }));
+  }
+
+  private void cancelFetches() {
+    for (Fetch f : fetches) {
+      f.data.cancel(true);
+    }
+    fetches.clear();
+  }
+
+  /**
+   * Make the chunk containing the current position available.
+   * @return false if the position is at the end of the file.
+   */
+  private boolean ensureChunk() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (pos >= fileLength) {
+      return false;
+    }
+    if (chunk != null && pos >= chunkStart
+        && pos < chunkStart + chunk.length) {
+      return true;
+    }
+    // Drop the fetched chunks which end before the position, and start
+    // over if the position is not in a fetched chunk.
+    while (!fetches.isEmpty()
+        && fetches.peek().start + fetches.peek().length <= pos) {
+      fetches.poll().data.cancel(true);
+    }
+    if (fetches.isEmpty() || fetches.peek().start > pos) {
+      cancelFetches();
+      nextFetch = pos;
+    }
+    fillFetches();
+
+    final Fetch f = fetches.poll();
+    try {
+      chunk = f.data.get();
+      chunkStart = f.start;
+    } catch (InterruptedException e) {
+      throw (IOException)new InterruptedIOException(
+          "Interrupted while reading at offset " + f.start).initCause(e);
+    } catch (ExecutionException e) {
+      chunk = null;
+      cancelFetches();
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw new IOException("Failed to read at offset " + f.start, cause);
+    }
+    // Keep all the connections busy while the chunk is read.
+    fillFetches();
+    return true;
+  }
+
+  private void fillFetches() {
+    while (fetches.size() < connections && nextFetch < fileLength) {
+      final Fetch f = fetch(nextFetch);
+      fetches.add(f);
+      nextFetch += f.length;
+    }
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    if (!ensureChunk()) {
+      return -1;
+    }
+    final int b = chunk[(int)(pos - chunkStart)] & 0xff;
+    pos++;
+    return b;
+  }
+
+  @Override
+  public synchronized int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureChunk()) {
+      return -1;
+    }
+    final int start = (int)(pos - chunkStart);
+    final int n = Math.min(len, chunk.length - start);
+    System.arraycopy(chunk, start, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public synchronized void seek(long target) throws IOException {
+    if (target < 0) {
+      throw new EOFException("Cannot seek to negative offset " + target);
+    }
+    pos = target;
+  }
+
+  @Override
+  public synchronized long getPos() throws IOException {
+    return pos;
+  }
+
+  @Override
+  public boolean seekToNewSource(long targetPos) throws IOException {
+    return false;
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    if (chunk != null && pos >= chunkStart
+        && pos < chunkStart + chunk.length) {
+      return (int)(chunkStart + chunk.length - pos);
+    }
+    return 0;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      cancelFetches();
+      chunk = null;
+      executor.shutdownNow();
+    }
+  }
+}
@@ -23,6 +23,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
@@ -32,6 +33,7 @@
 import java.security.PrivilegedExceptionAction;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
 import javax.ws.rs.core.MediaType;
@@ -49,12 +51,14 @@
 import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.AclEntry;
 import org.apache.hadoop.fs.permission.AclStatus;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.HAUtil;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
@@ -84,6 +88,7 @@
 import org.apache.hadoop.hdfs.web.resources.RenameOptionSetParam;
 import org.apache.hadoop.hdfs.web.resources.RenewerParam;
 import org.apache.hadoop.hdfs.web.resources.ReplicationParam;
+import org.apache.hadoop.hdfs.web.resources.StartAfterParam;
 import org.apache.hadoop.hdfs.web.resources.TokenArgumentParam;
 import org.apache.hadoop.hdfs.web.resources.UserParam;
 import org.apache.hadoop.io.Text;
@@ -117,6 +122,9 @@ public class WebHdfsFileSystem extends FileSystem
   /** Default connection factory may be overridden in tests to use smaller timeout values */
   protected URLConnectionFactory connectionFactory;
 
+  /** The minimum size of the buffers handed to parallel uploads. */
+  private static final int PARALLEL_WRITE_BUFFER_SIZE = 64 << 10;
+
   /** Delegation token kind */
   public static final Text TOKEN_KIND = new Text("WEBHDFS delegation");
   protected TokenAspect<WebHdfsFileSystem> tokenAspect;
@@ -128,6 +136,9 @@ public class WebHdfsFileSystem extends FileSystem
   private Path workingDir;
   private InetSocketAddress nnAddrs[];
   private int currentNNAddrIndex;
+  private int parallelReadConnections;
+  private int parallelReadChunkSize;
+  private int parallelWriteConnections;
 
   /**
    * Return the protocol scheme for the FileSystem.
@@ -164,6 +175,15 @@ public synchronized void initialize(URI uri, Configuration conf
     UserParam.setUserPattern(conf.get(DFSConfigKeys.DFS_WEBHDFS_USER_PATTERN_KEY, DFSConfigKeys.DFS_WEBHDFS_USER_PATTERN_DEFAULT));
     connectionFactory = URLConnectionFactory
         .newDefaultURLConnectionFactory(conf);
+    parallelReadConnections = conf.getInt(
+        DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CONNECTIONS_KEY,
+        DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CONNECTIONS_DEFAULT);
+    parallelReadChunkSize = conf.getInt(
+        DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CHUNK_SIZE_KEY,
+        DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CHUNK_SIZE_DEFAULT);
+    parallelWriteConnections = conf.getInt(
+        DFSConfigKeys.DFS_WEBHDFS_PARALLEL_WRITE_CONNECTIONS_KEY,
+        DFSConfigKeys.DFS_WEBHDFS_PARALLEL_WRITE_CONNECTIONS_DEFAULT);
     initializeTokenAspect();
 
 
@@ -872,6 +892,40 @@ public FSDataOutputStream create(final Path f, final FsPermission permission,
       final long blockSize, final Progressable progress) throws IOException {
     statistics.incrementWriteOps(1);
 
+    final FSDataOutputStream out = createSingle(f, permission, overwrite,
+        bufferSize, replication, blockSize);
+    if (parallelWriteConnections <= 1) {
+      return out;
+    }
+    // Upload each block over its own connection and concatenate them on
+    // close.  The streams of the parts already count the bytes written.
+    final ParallelBlockOutputStream.PartFileSystem parts =
+        new ParallelBlockOutputStream.PartFileSystem() {
+      @Override
+      public OutputStream createPart(Path part) throws IOException {
+        return createSingle(part, permission, false, bufferSize, replication,
+            blockSize);
+      }
+
+      @Override
+      public void concat(Path target, Path[] srcs) throws IOException {
+        WebHdfsFileSystem.this.concat(target, srcs);
+      }
+
+      @Override
+      public boolean delete(Path path, boolean recursive) throws IOException {
+        return WebHdfsFileSystem.this.delete(path, recursive);
+      }
+    };
+    return new FSDataOutputStream(new ParallelBlockOutputStream(parts, f, out,
+        blockSize, Math.max(bufferSize, PARALLEL_WRITE_BUFFER_SIZE),
+        parallelWriteConnections), null);
+  }
+
+  private FSDataOutputStream createSingle(final Path f,
+      final FsPermission permission, final boolean overwrite,
+      final int bufferSize, final short replication, final long blockSize
+      ) throws IOException {
     final HttpOpParam.Op op = PutOpParam.Op.CREATE;
     return new FsPathRunner(op, f,
         new PermissionParam(applyUMask(permission)),
@@ -907,6 +961,22 @@ public FSDataInputStream open(final Path f, final int buffersize
     statistics.incrementReadOps(1);
     final HttpOpParam.Op op = GetOpParam.Op.OPEN;
     final URL url = toUrl(op, f, new BufferSizeParam(buffersize));
+    if (parallelReadConnections > 1) {
+      final long fileLength = getHdfsFileStatus(f).getLen();
+      if (fileLength > parallelReadChunkSize) {
+        return new FSDataInputStream(new ParallelRangeInputStream(
+            new ParallelRangeInputStream.RangeOpener() {
+              @Override
+              public InputStream open(long offset, long length)
+                  throws IOException {
+                final URL rangeUrl = new URL(url + "&"
+                    + new OffsetParam(offset) + "&" + new LengthParam(length));
+                return new URLRunner(op, rangeUrl, false).run()
+                    .conn.getInputStream();
+              }
+            }, fileLength, parallelReadChunkSize, parallelReadConnections));
+      }
+    }
     return new FSDataInputStream(new OffsetUrlInputStream(
         new OffsetUrlOpener(url), new OffsetUrlOpener(null)));
   }
@@ -998,6 +1068,62 @@ public FileStatus[] listStatus(final Path f) throws IOException {
     return statuses;
   }
 
+  /**
+   * List the statuses of the files/directories in the given path one segment
+   * at a time, so that neither the NameNode nor the client holds the whole
+   * listing of a large directory in memory.
+   *
+   * @param f given path
+   * @return an iterator over the statuses of the files/directories
+   * @throws IOException
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(final Path f)
+      throws IOException {
+    statistics.incrementReadOps(1);
+    return new RemoteIterator<FileStatus>() {
+      private Object[] entries = null;
+      private int i = 0;
+      private String startAfter = "";
+      private boolean hasMore = true;
+
+      /** Fetch the next segment of the listing. */
+      private void fetch() throws IOException {
+        final HttpOpParam.Op op = GetOpParam.Op.LISTSTATUS_BATCH;
+        final Map<?, ?> json = run(op, f, new StartAfterParam(startAfter));
+        final Map<?, ?> listing = (Map<?, ?>)json.get(
+            DirectoryListing.class.getSimpleName());
+        final Map<?, ?> partial = (Map<?, ?>)listing.get("partialListing");
+        final Map<?, ?> rootmap = (Map<?, ?>)partial.get(
+            FileStatus.class.getSimpleName() + "es");
+        entries = (Object[])rootmap.get(FileStatus.class.getSimpleName());
+        i = 0;
+        hasMore = (Long)listing.get("remainingEntries") > 0
+            && entries.length > 0;
+        if (entries.length > 0) {
+          startAfter = (String)((Map<?, ?>)entries[entries.length - 1])
+              .get("pathSuffix");
+        }
+      }
+
+      @Override
+      public boolean hasNext() throws IOException {
+        if (entries == null || (i == entries.length && hasMore)) {
+          fetch();
+        }
+        return i < entries.length;
+      }
+
+      @Override
+      public FileStatus next() throws IOException {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more entry in " + f);
+        }
+        final Map<?, ?> m = (Map<?, ?>)entries[i++];
+        return makeQualified(JsonUtil.toFileStatus(m, false), f);
+      }
+    };
+  }
+
   @Override
   public Token<DelegationTokenIdentifier> getDelegationToken(
       final String renewer) throws IOException {
@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.client.ShortCircuitCache;
+import org.apache.hadoop.hdfs.client.ShortCircuitCache.ShortCircuitReplicaCreator;
+import org.apache.hadoop.hdfs.client.ShortCircuitReplica;
+import org.apache.hadoop.hdfs.client.ShortCircuitReplicaInfo;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * This class benchmarks the short-circuit replica cache on its own, without
+ * a cluster.  A number of threads repeatedly look up and release replicas
+ * from a fixed working set of blocks, which is what concurrent short-circuit
+ * readers do when opening block readers.  Each thread count is run against
+ * a cache with a single shard and against a cache with the configured number
+ * of shards, and the resulting opens per second are printed.
+ */
+public class BenchmarkShortCircuitCache extends Configured implements Tool {
+  private static final String BP_ID = "benchmark_bp";
+
+  private File dataFile;
+  private File metaFile;
+
+  private void createFiles(File dir) throws IOException {
+    dataFile = new File(dir, "data");
+    FileOutputStream fos = new FileOutputStream(dataFile);
+    try {
+      fos.write(1);
+    } finally {
+      fos.close();
+    }
+    metaFile = new File(dir, "meta");
+    DataOutputStream dos =
+        new DataOutputStream(new FileOutputStream(metaFile));
+    try {
+      BlockMetadataHeader.writeHeader(dos, new BlockMetadataHeader((short)1,
+          DataChecksum.newDataChecksum(DataChecksum.Type.NULL, 4)));
+    } finally {
+      dos.close();
+    }
+  }
+
+  private double runCase(final int numShards, int numThreads,
+      final int numBlocks, final long opsPerThread) throws Exception {
+    // Keep the whole working set cached, so that we measure lookups rather
+    // than file opens.
+    final ShortCircuitCache cache = new ShortCircuitCache(numBlocks,
+        10000000, 1, 10000000, 1, 10000000, numShards);
+    final AtomicLong failures = new AtomicLong(0);
+    Thread threads[] = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final long seed = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          for (long i = 0; i < opsPerThread; i++) {
+            final ExtendedBlockId key =
+                new ExtendedBlockId(random.nextInt(numBlocks), BP_ID);
+            ShortCircuitReplicaInfo info = cache.fetchOrCreate(key,
+                new ShortCircuitReplicaCreator() {
+              @Override
+              public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
+                try {
+                  return new ShortCircuitReplicaInfo(
+                      new ShortCircuitReplica(key,
+                          new FileInputStream(dataFile),
+                          new FileInputStream(metaFile),
+                          cache, Time.monotonicNow()));
+                } catch (IOException e) {
+                  return new ShortCircuitReplicaInfo();
+                }
+              }
+            });
+            if ((info == null) || (info.getReplica() == null)) {
+              failures.incrementAndGet();
+            } else {
+              info.getReplica().unref();
+            }
+          }
+        }
+      };
+    }
+    long start = Time.monotonicNow();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = Math.max(Time.monotonicNow() - start, 1);
+    cache.close();
+    if (failures.get() > 0) {
+      System.err.println(failures.get() + " lookups failed with " +
+          numShards + " shard(s) and " + numThreads + " thread(s)");
+    }
+    return (numThreads * opsPerThread) / (elapsed / 1000.0);
+  }
+
+  private static void printUsage() {
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.err.println("Usage: shortcircuitcache [#reps]");
+    System.err.println("Config properties:\n" +
+      "  shortcircuitcache.blocks:\tnumber of distinct blocks (1024)\n" +
+      "  shortcircuitcache.ops:\tlookups per thread (1000000)\n" +
+      "  shortcircuitcache.threads:\tcomma separated thread counts to " +
+      "try (1,2,4,8,16,32,64)\n" +
+      "  " + DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_KEY +
+      ":\tnumber of shards to compare with a single shard (" +
+      DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_DEFAULT +
+      ")\n");
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    int reps = 1;
+    if (args.length == 1) {
+      try {
+        reps = Integer.parseInt(args[0]);
+      } catch (NumberFormatException e) {
+        printUsage();
+        return -1;
+      }
+    } else if (args.length > 1) {
+      printUsage();
+      return -1;
+    }
+    Configuration conf = getConf();
+    int numBlocks = conf.getInt("shortcircuitcache.blocks", 1024);
+    long ops = conf.getLong("shortcircuitcache.ops", 1000000);
+    int[] threadCounts = conf.getInts("shortcircuitcache.threads");
+    if (threadCounts.length == 0) {
+      threadCounts = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+    }
+    int numShards = conf.getInt(
+        DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_KEY,
+        DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_CACHE_SHARDS_DEFAULT);
+
+    File dir = new File(System.getProperty("test.build.data", "/tmp"),
+        "BenchmarkShortCircuitCache");
+    dir.mkdirs();
+    try {
+      createFiles(dir);
+      for (int threads : threadCounts) {
+        for (int shards : new int[] { 1, numShards }) {
+          for (int i = 0; i < reps; i++) {
+            double opsPerSec = runCase(shards, threads, numBlocks, ops);
+            System.out.println(String.format(
+                "shards=%-3d threads=%-3d rep=%d: %.0f opens/s",
+                shards, threads, i, opsPerSec));
+          }
+        }
+      }
+    } finally {
+      FileUtil.fullyDelete(dir);
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HdfsConfiguration(),
+        new BenchmarkShortCircuitCache(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.logging.impl.Log4JLogger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Level;
+
+/**
+ * This class benchmarks the HDFS client write path against a MiniDFSCluster.
+ * Each repetition writes the same amount of data with packet buffer pooling
+ * disabled and enabled, for each configured number of outstanding packets,
+ * and prints the resulting throughput.
+ */
+public class BenchmarkWriteThroughput extends Configured implements Tool {
+
+  private int bufferSize;
+
+  private double writeFile(FileSystem fs, Path f, long total)
+      throws IOException {
+    byte[] data = new byte[bufferSize];
+    long start = Time.now();
+    OutputStream out = fs.create(f, true);
+    try {
+      for (long size = 0; size < total; size += bufferSize) {
+        out.write(data);
+      }
+    } finally {
+      out.close();
+    }
+    long elapsed = Math.max(Time.now() - start, 1);
+    fs.delete(f, false);
+    return (total / (1024.0 * 1024.0)) / (elapsed / 1000.0);
+  }
+
+  private void runCase(MiniDFSCluster cluster, boolean pool, int window,
+      long total, int reps) throws IOException {
+    Configuration conf = new Configuration(cluster.getConfiguration(0));
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_POOL_ENABLED_KEY,
+        pool);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_KEY,
+        window);
+    // Use a separate client context so each case gets its own packet pool.
+    conf.set(DFSConfigKeys.DFS_CLIENT_CONTEXT,
+        "BenchmarkWriteThroughput_" + pool + "_" + window);
+    FileSystem fs = FileSystem.newInstance(cluster.getURI(), conf);
+    try {
+      Path f = new Path("/benchmarkWriteThroughput");
+      for (int i = 0; i < reps; i++) {
+        double mbps = writeFile(fs, f, total);
+        System.out.println(String.format(
+            "pool=%-5s outstandingPackets=%-4d rep=%d: %.2f MB/s",
+            pool, window, i, mbps));
+      }
+    } finally {
+      fs.close();
+    }
+  }
+
+  private static void printUsage() {
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.err.println("Usage: dfswritethroughput [#reps]");
+    System.err.println("Config properties:\n" +
+      "  dfswritethroughput.file.size:\tsize of each write (1GB)\n" +
+      "  dfswritethroughput.buffer.size:\tbuffer size for write (64k)\n" +
+      "  dfswritethroughput.windows:\tcomma separated outstanding " +
+      "packet counts to try (20,80,320)\n");
+  }
+
+  @Override
+  public int run(String[] args) throws IOException {
+    // silence the minidfs cluster
+    Log hadoopLog = LogFactory.getLog("org");
+    if (hadoopLog instanceof Log4JLogger) {
+      ((Log4JLogger) hadoopLog).getLogger().setLevel(Level.WARN);
+    }
+    int reps = 1;
+    if (args.length == 1) {
+      try {
+        reps = Integer.parseInt(args[0]);
+      } catch (NumberFormatException e) {
+        printUsage();
+        return -1;
+      }
+    } else if (args.length > 1) {
+      printUsage();
+      return -1;
+    }
+    Configuration conf = getConf();
+    long size = conf.getLong("dfswritethroughput.file.size",
+        1024L * 1024 * 1024);
+    bufferSize = conf.getInt("dfswritethroughput.buffer.size", 64 * 1024);
+    int[] windows = conf.getInts("dfswritethroughput.windows");
+    if (windows.length == 0) {
+      windows = new int[] { 20, 80, 320 };
+    }
+
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+      cluster.waitActive();
+      for (int window : windows) {
+        runCase(cluster, false, window, size, reps);
+        runCase(cluster, true, window, size, reps);
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HdfsConfiguration(),
+        new BenchmarkWriteThroughput(), args);
+    System.exit(res);
+  }
+}
@@ -18,11 +18,14 @@
 package org.apache.hadoop.hdfs;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -66,6 +69,49 @@ public void testCloseTwice() throws IOException {
     dos.close();
   }
 
+  /**
+   * Packet buffers should be returned to the client context's pool once
+   * acknowledged, and the pool should never hold more buffers than the
+   * writer was allowed to have outstanding.  Once the writer is closed, the
+   * pool drops its buffers.
+   */
+  @Test
+  public void testPacketBuffersArePooled() throws IOException {
+    final int maxOutstanding = 4;
+    Configuration conf = new Configuration(cluster.getConfiguration(0));
+    conf.set(DFSConfigKeys.DFS_CLIENT_CONTEXT, "testPacketBuffersArePooled");
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_MAX_OUTSTANDING_PACKETS_KEY,
+        maxOutstanding);
+    FileSystem fs = FileSystem.newInstance(cluster.getURI(), conf);
+    try {
+      ClientContext context =
+          ((DistributedFileSystem) fs).getClient().getClientContext();
+      ByteBufferPool pool = context.getPacketBufferPool();
+      Map<?, ?> pooled = (Map<?, ?>) Whitebox.getInternalState(pool,
+          "buffers");
+      byte[] data = new byte[4 * 1024 * 1024];
+      FSDataOutputStream out =
+          fs.create(new Path("/testPacketBuffersArePooled"));
+      try {
+        for (int i = 0; i < 3; i++) {
+          out.write(data);
+          out.hflush();
+        }
+        Assert.assertTrue("expected acknowledged packet buffers in the pool",
+            pooled.size() > 0);
+        // The queue may overrun by one packet, plus the packet being filled.
+        Assert.assertTrue("pool grew to " + pooled.size() + " buffers",
+            pooled.size() <= maxOutstanding + 2);
+      } finally {
+        out.close();
+      }
+      // The pool only keeps the buffers of open streams.
+      Assert.assertEquals(0, context.getPacketPoolCachedBytes());
+    } finally {
+      fs.close();
+    }
+  }
+
   @AfterClass
   public static void tearDown() {
     cluster.shutdown();
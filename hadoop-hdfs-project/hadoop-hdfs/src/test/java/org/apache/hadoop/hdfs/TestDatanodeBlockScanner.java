@@ -498,4 +498,30 @@ public void testDuplicateScans() throws Exception {
       cluster.shutdown();
     }
   }
+
+  @Test
+  public void testSuspectBlockIsVerifiedAgain() throws Exception {
+    long startTime = Time.now();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(new Configuration())
+        .numDataNodes(1).build();
+    FileSystem fs = null;
+    try {
+      fs = cluster.getFileSystem();
+      DataNode dataNode = cluster.getDataNodes().get(0);
+      int infoPort = dataNode.getInfoPort();
+      Path fileName = new Path("/testSuspectBlock");
+      DFSTestUtil.createFile(fs, fileName, 1024, (short) 1, 1000L);
+      // A new block is verified soon after it is written.
+      long scanTime = waitForVerification(infoPort, fs, fileName, 1,
+          startTime, TIMEOUT);
+
+      ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, fileName);
+      dataNode.getBlockScanner().markSuspectBlock(block);
+      assertTrue(waitForVerification(infoPort, fs, fileName, -1, scanTime + 1,
+          TIMEOUT) > scanTime);
+    } finally {
+      IOUtils.closeStream(fs);
+      cluster.shutdown();
+    }
+  }
 }
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.junit.Test;
+
+public class TestDatanodeLatencyTracker {
+  private static final long HALF_LIFE = 1000;
+  private static final long SLOW_THRESHOLD = 100;
+
+  /** A tracker with a clock controlled by the test. */
+  private static class ManualClockTracker extends DatanodeLatencyTracker {
+    private long now = 0;
+
+    ManualClockTracker() {
+      super(HALF_LIFE, SLOW_THRESHOLD);
+    }
+
+    @Override
+    long monotonicNow() {
+      return now;
+    }
+  }
+
+  private static DatanodeInfo[] getDatanodes(int n) {
+    DatanodeInfo[] nodes = new DatanodeInfo[n];
+    for (int i = 0; i < n; i++) {
+      nodes[i] = DFSTestUtil.getDatanodeInfo("1.1.1." + (i + 1));
+    }
+    return nodes;
+  }
+
+  @Test
+  public void testScoreDecays() {
+    final ManualClockTracker tracker = new ManualClockTracker();
+    final DatanodeInfo[] nodes = getDatanodes(2);
+    assertEquals(0.0, tracker.getScore(nodes[0]), 0.0);
+
+    for (int i = 0; i < 20; i++) {
+      tracker.recordLatency(nodes[0], 400);
+      tracker.recordLatency(nodes[1], 10);
+    }
+    assertEquals(400.0, tracker.getScore(nodes[0]), 1.0);
+    assertTrue(tracker.isSlow(nodes[0]));
+    assertFalse(tracker.isSlow(nodes[1]));
+
+    // half of the score is forgotten every half-life
+    tracker.now += HALF_LIFE;
+    assertEquals(200.0, tracker.getScore(nodes[0]), 1.0);
+    assertTrue(tracker.isSlow(nodes[0]));
+    tracker.now += 2 * HALF_LIFE;
+    assertEquals(50.0, tracker.getScore(nodes[0]), 1.0);
+    assertFalse(tracker.isSlow(nodes[0]));
+  }
+
+  @Test
+  public void testErrorMakesSlow() {
+    final ManualClockTracker tracker = new ManualClockTracker();
+    final DatanodeInfo[] nodes = getDatanodes(1);
+    tracker.recordLatency(nodes[0], 5);
+    tracker.recordError(nodes[0]);
+    assertTrue(tracker.isSlow(nodes[0]));
+    // good reads bring the score back down
+    for (int i = 0; i < 10; i++) {
+      tracker.recordLatency(nodes[0], 5);
+    }
+    assertFalse(tracker.isSlow(nodes[0]));
+  }
+
+  @Test
+  public void testSortByLatency() {
+    final ManualClockTracker tracker = new ManualClockTracker();
+    final DatanodeInfo[] nodes = getDatanodes(4);
+    // no slow node: the order is kept and no copy is made
+    tracker.recordLatency(nodes[0], 50);
+    assertSame(nodes, tracker.sortByLatency(nodes));
+
+    tracker.recordError(nodes[0]);
+    tracker.recordError(nodes[0]);
+    tracker.recordError(nodes[2]);
+    final DatanodeInfo[] sorted = tracker.sortByLatency(nodes);
+    assertArrayEquals(
+        new DatanodeInfo[] { nodes[1], nodes[3], nodes[2], nodes[0] },
+        sorted);
+  }
+
+  /**
+   * A reader should avoid the closest replica once that DataNode is slow,
+   * and use it again once enough time has passed.
+   */
+  @Test(timeout=120000)
+  public void testReadAvoidsSlowDatanode() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_ENABLED_KEY,
+        true);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_HALF_LIFE_MS_KEY,
+        HALF_LIFE);
+    conf.setLong(
+        DFSConfigKeys.DFS_CLIENT_READ_LATENCY_SORT_SLOW_THRESHOLD_MS_KEY,
+        10 * 1000);
+    conf.set(DFSConfigKeys.DFS_CLIENT_CONTEXT, "testReadAvoidsSlowDatanode");
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Path file = new Path("/testReadAvoidsSlowDatanode");
+      DFSTestUtil.createFile(fs, file, 4096, (short)3, 0xBEEFL);
+      DFSTestUtil.waitReplication(fs, file, (short)3);
+
+      final LocatedBlock block = DFSTestUtil.getAllBlocks(fs, file).get(0);
+      final DatanodeInfo first = block.getLocations()[0];
+      final DatanodeLatencyTracker tracker = ClientContext.get(
+          "testReadAvoidsSlowDatanode", new DFSClient.Conf(conf))
+          .getDatanodeLatencyTracker();
+      tracker.recordError(first);
+      assertTrue(tracker.isSlow(first));
+
+      HdfsDataInputStream in = (HdfsDataInputStream)fs.open(file);
+      try {
+        assertTrue(in.read() >= 0);
+        final DatanodeInfo current = in.getCurrentDatanode();
+        assertNotNull(current);
+        assertFalse(first.equals(current));
+      } finally {
+        in.close();
+      }
+
+      // The score decays: after a few half-lives the replica order given
+      // by the NameNode is used again.
+      Thread.sleep(5 * HALF_LIFE);
+      assertFalse(tracker.isSlow(first));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
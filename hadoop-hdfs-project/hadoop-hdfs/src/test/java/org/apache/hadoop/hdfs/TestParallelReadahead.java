@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.internal.util.reflection.Whitebox;
+
+/**
+ * Tests that sequential reads served by parallel readahead return the same
+ * data as the regular read path, across block boundaries, seeks and
+ * DataNode failures.
+ */
+public class TestParallelReadahead {
+  private static final int BLOCK_SIZE = 256 * 1024;
+  private static final int SEGMENT_SIZE = 48 * 1024;
+  private static final int FILE_LEN = 5 * BLOCK_SIZE + 12345;
+
+  private static MiniDFSCluster cluster;
+  private static FileSystem fs;
+  private static byte[] expected;
+  private static final Path FILE = new Path("/testParallelReadahead");
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENTS_KEY,
+        4);
+    conf.setInt(
+        DFSConfigKeys.DFS_CLIENT_READ_PARALLEL_READAHEAD_SEGMENT_SIZE_KEY,
+        SEGMENT_SIZE);
+    conf.set(DFSConfigKeys.DFS_CLIENT_CONTEXT, "testParallelReadahead");
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+
+    expected = new byte[FILE_LEN];
+    new Random(0xFEEDL).nextBytes(expected);
+    FSDataOutputStream out = fs.create(FILE);
+    try {
+      out.write(expected);
+    } finally {
+      out.close();
+    }
+    DFSTestUtil.waitReplication(fs, FILE, (short) 3);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private static void readFully(FSDataInputStream in, byte[] buf, int off,
+      int len, int chunk) throws IOException {
+    while (len > 0) {
+      int n = in.read(buf, off, Math.min(chunk, len));
+      if (n < 0) {
+        throw new IOException("premature EOF");
+      }
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testSequentialRead() throws IOException {
+    // Use read sizes which do not line up with segments or blocks.
+    for (int chunk : new int[] { 1000, 4096, 100 * 1024 }) {
+      FSDataInputStream in = fs.open(FILE);
+      try {
+        byte[] actual = new byte[FILE_LEN];
+        readFully(in, actual, 0, FILE_LEN, chunk);
+        assertArrayEquals(expected, actual);
+        assertEquals(-1, in.read());
+        DFSInputStream dfsIn = (DFSInputStream) in.getWrappedStream();
+        assertEquals(FILE_LEN, dfsIn.getReadStatistics().getTotalBytesRead());
+        // Every segment takes the next replica rotation, so this counts the
+        // segments scheduled; nearly the whole file should have gone
+        // through readahead.
+        Object readahead = Whitebox.getInternalState(dfsIn,
+            "parallelReadahead");
+        int scheduled = (Integer) Whitebox.getInternalState(readahead,
+            "replicaRotation");
+        assertTrue("only " + scheduled + " segments were read ahead",
+            scheduled >= FILE_LEN / SEGMENT_SIZE - 1);
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testByteBufferRead() throws IOException {
+    FSDataInputStream in = fs.open(FILE);
+    try {
+      ByteBuffer buf = ByteBuffer.allocate(FILE_LEN);
+      while (buf.hasRemaining()) {
+        ByteBuffer window = buf.slice();
+        window.limit(Math.min(window.remaining(), 7777));
+        int n = in.read(window);
+        if (n < 0) {
+          break;
+        }
+        buf.position(buf.position() + n);
+      }
+      assertArrayEquals(expected, buf.array());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testSeekDuringReadahead() throws IOException {
+    FSDataInputStream in = fs.open(FILE);
+    try {
+      byte[] actual = new byte[30000];
+      readFully(in, actual, 0, 10000, 4096);
+      // forward into a prefetched segment's range, backwards, and far ahead
+      for (long target : new long[] { 20000, 5000, 3L * BLOCK_SIZE - 7 }) {
+        in.seek(target);
+        readFully(in, actual, 0, actual.length, 3000);
+        for (int i = 0; i < actual.length; i++) {
+          assertEquals("at offset " + (target + i),
+              expected[(int) target + i], actual[i]);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testReadWithDeadDataNode() throws IOException {
+    FSDataInputStream in = fs.open(FILE);
+    MiniDFSCluster.DataNodeProperties dn = null;
+    try {
+      byte[] actual = new byte[FILE_LEN];
+      readFully(in, actual, 0, BLOCK_SIZE, 4096);
+      // Segments rotate across replicas, so some of the following ones are
+      // bound to start on the stopped DataNode.
+      dn = cluster.stopDataNode(0);
+      readFully(in, actual, BLOCK_SIZE, FILE_LEN - BLOCK_SIZE, 4096);
+      assertArrayEquals(expected, actual);
+    } finally {
+      IOUtils.closeStream(in);
+      if (dn != null) {
+        cluster.restartDataNode(dn, true);
+        cluster.waitActive();
+      }
+    }
+  }
+}
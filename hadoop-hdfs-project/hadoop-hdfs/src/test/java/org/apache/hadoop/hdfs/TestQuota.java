@@ -772,7 +772,7 @@ public void testSpaceCommands() throws Exception {
       assertEquals(c.getSpaceConsumed(),
           (sizeFactorA + sizeFactorB + sizeFactorC) * fileSpace);
 
-      assertEquals(20, cluster.getNamesystem().getFSDirectory().getYieldCount());
+      assertEquals(27, cluster.getNamesystem().getFSDirectory().getYieldCount());
     } finally {
       cluster.shutdown();
     }
@@ -983,7 +983,7 @@ public void testMultipleFilesSmallerThanOneBlock() throws Exception {
         exceededQuota = true;
       }
       assertTrue("Quota not exceeded", exceededQuota);
-      assertEquals(2, cluster.getNamesystem().getFSDirectory().getYieldCount());
+      assertEquals(40, cluster.getNamesystem().getFSDirectory().getYieldCount());
     } finally {
       cluster.shutdown();
     }
@@ -20,12 +20,15 @@
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.client.ShortCircuitCache;
+import org.apache.hadoop.hdfs.client.ShortCircuitCache.CacheVisitor;
 import org.apache.hadoop.hdfs.client.ShortCircuitCache.ShortCircuitReplicaCreator;
 import org.apache.hadoop.hdfs.client.ShortCircuitReplica;
 import org.apache.hadoop.hdfs.client.ShortCircuitReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.net.unix.TemporarySocketDirectory;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.DataChecksum;
@@ -40,6 +43,8 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TestShortCircuitCache {
   static final Log LOG = LogFactory.getLog(TestShortCircuitCache.class);
@@ -343,4 +348,97 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
     }
     cache.close();
   }
+
+  @Test(timeout=60000)
+  public void testNumShardsIsCapped() throws Exception {
+    // Each shard must be able to hold at least one mmap and one replica.
+    ShortCircuitCache cache =
+        new ShortCircuitCache(64, 10000000, 1, 10000000, 1, 10000, 8);
+    Assert.assertEquals(1, cache.getNumShards());
+    cache.close();
+    cache = new ShortCircuitCache(3, 10000000, 64, 10000000, 1, 10000, 8);
+    Assert.assertEquals(3, cache.getNumShards());
+    cache.close();
+    // A size of 0 leaves every shard with no room, as intended.
+    cache = new ShortCircuitCache(64, 10000000, 0, 10000000, 1, 10000, 8);
+    Assert.assertEquals(8, cache.getNumShards());
+    cache.close();
+    cache = ShortCircuitCache.fromConf(new Configuration());
+    Assert.assertEquals(1, cache.getNumShards());
+    cache.close();
+  }
+
+  @Test(timeout=60000)
+  public void testShardedCache() throws Exception {
+    final ShortCircuitCache cache =
+        new ShortCircuitCache(64, 10000000, 64, 10000000, 1, 10000, 4);
+    Assert.assertEquals(4, cache.getNumShards());
+    final int NUM_THREADS = 4;
+    final int BLOCKS_PER_THREAD = 8;
+    final TestFileDescriptorPair pairs[] =
+        new TestFileDescriptorPair[NUM_THREADS * BLOCKS_PER_THREAD];
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i] = new TestFileDescriptorPair();
+    }
+    // Load the replicas from several threads at once.
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    Thread threads[] = new Thread[NUM_THREADS];
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int first = t * BLOCKS_PER_THREAD;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = first; i < first + BLOCKS_PER_THREAD; i++) {
+            ShortCircuitReplicaInfo info = cache.fetchOrCreate(
+                new ExtendedBlockId(i, "test_bp1"),
+                new SimpleReplicaCreator(i, cache, pairs[i]));
+            if ((info == null) || (info.getReplica() == null)) {
+              failed.set(true);
+              return;
+            }
+            info.getReplica().unref();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertFalse(failed.get());
+    // The visitor sees the contents of all the shards.
+    cache.accept(new CacheVisitor() {
+      @Override
+      public void visit(int numOutstandingMmaps,
+          Map<ExtendedBlockId, ShortCircuitReplica> replicas,
+          Map<ExtendedBlockId, InvalidToken> failedLoads,
+          Map<Long, ShortCircuitReplica> evictable,
+          Map<Long, ShortCircuitReplica> evictableMmapped) {
+        Assert.assertEquals(pairs.length, replicas.size());
+        Assert.assertEquals(pairs.length, evictable.size());
+        for (int i = 0; i < pairs.length; i++) {
+          Assert.assertTrue(replicas.containsKey(
+              new ExtendedBlockId(i, "test_bp1")));
+        }
+      }
+    });
+    // Cached replicas are found again without re-creating them.
+    for (int i = 0; i < pairs.length; i++) {
+      final Integer iVal = new Integer(i);
+      ShortCircuitReplicaInfo info = cache.fetchOrCreate(
+          new ExtendedBlockId(i, "test_bp1"),
+            new ShortCircuitReplicaCreator() {
+        @Override
+        public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
+          Assert.fail("expected to use existing entry for " + iVal);
+          return null;
+        }
+      });
+      info.getReplica().unref();
+    }
+    cache.close();
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i].close();
+    }
+  }
 }
@@ -20,6 +20,7 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.lang.SystemUtils;
 import org.apache.commons.logging.Log;
@@ -101,4 +102,40 @@ public void testAllocateSlots() throws Exception {
     stream.close();
     FileUtil.fullyDelete(path);
   }
+
+  @Test(timeout=60000)
+  public void testAllocateSlotsInBatch() throws Exception {
+    File path = new File(TEST_BASE, "testAllocateSlotsInBatch");
+    path.mkdirs();
+    SharedFileDescriptorFactory factory =
+        new SharedFileDescriptorFactory("shm_", path.getAbsolutePath());
+    FileInputStream stream = factory.createDescriptor(4096);
+    ShortCircuitSharedMemorySegment shm =
+        new ShortCircuitSharedMemorySegment(stream);
+    List<Slot> slots = shm.allocateSlots(10);
+    Assert.assertEquals(10, slots.size());
+    for (int i = 0; i < slots.size(); i++) {
+      Assert.assertEquals(i, slots.get(i).getIndex());
+    }
+    // Free a slot at the start of the segment.  The next allocation
+    // continues after the last slot handed out.
+    slots.remove(0).close();
+    Slot next = shm.allocateNextSlot();
+    Assert.assertEquals(10, next.getIndex());
+    slots.add(next);
+    // Ask for more slots than are left.  We get all the free ones,
+    // including the one which was freed.
+    List<Slot> rest = shm.allocateSlots(1000);
+    Assert.assertEquals(4096 / 64 - 10, rest.size());
+    Assert.assertEquals(0, rest.get(rest.size() - 1).getIndex());
+    slots.addAll(rest);
+    Assert.assertTrue(shm.allocateSlots(5).isEmpty());
+    Assert.assertNull(shm.allocateNextSlot());
+    shm.close();
+    for (Slot slot : slots) {
+      slot.close();
+    }
+    stream.close();
+    FileUtil.fullyDelete(path);
+  }
 }
@@ -38,8 +38,10 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 
 import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public class TestIPCLoggerChannel {
   private static final Log LOG = LogFactory.getLog(
@@ -177,4 +179,52 @@ public void testStopSendingEditsWhenOutOfSync() throws Exception {
 
     ch.sendEdits(3L, 3L, 1, FAKE_DATA).get();
   }
+
+  /**
+   * With several outstanding batches allowed, later batches are sent while
+   * an earlier one is still waiting for its ack, but other calls wait for
+   * all of them.
+   */
+  @Test(timeout=10000)
+  public void testPipelinedBatches() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_QJOURNAL_MAX_OUTSTANDING_BATCHES_KEY, 3);
+    ch = new IPCLoggerChannel(conf, FAKE_NSINFO, JID, FAKE_ADDR) {
+      @Override
+      protected QJournalProtocol getProxy() throws IOException {
+        return mockProxy;
+      }
+    };
+    ch.setEpoch(1);
+
+    DelayAnswer delayer = new DelayAnswer(LOG) {
+      @Override
+      protected Object passThrough(InvocationOnMock invocation) {
+        return null;
+      }
+    };
+    Mockito.doAnswer(delayer).when(mockProxy).journal(
+        Mockito.<RequestInfo>any(),
+        Mockito.eq(1L), Mockito.eq(1L),
+        Mockito.eq(1), Mockito.same(FAKE_DATA));
+
+    ListenableFuture<Void> first = ch.sendEdits(1L, 1L, 1, FAKE_DATA);
+    delayer.waitForCall();
+    ListenableFuture<Void> second = ch.sendEdits(1L, 2L, 1, FAKE_DATA);
+    ListenableFuture<Void> third = ch.sendEdits(1L, 3L, 1, FAKE_DATA);
+    second.get();
+    third.get();
+    assertFalse(first.isDone());
+    assertEquals(1, ch.getOutstandingBatches());
+
+    ListenableFuture<Void> finalize = ch.finalizeLogSegment(1L, 3L);
+    Thread.sleep(100);
+    Mockito.verify(mockProxy, Mockito.never()).finalizeLogSegment(
+        Mockito.<RequestInfo>any(), Mockito.anyLong(), Mockito.anyLong());
+
+    delayer.proceed();
+    first.get();
+    finalize.get();
+    assertEquals(0, ch.getOutstandingBatches());
+    assertEquals(0, ch.getLagTxns());
+  }
 }
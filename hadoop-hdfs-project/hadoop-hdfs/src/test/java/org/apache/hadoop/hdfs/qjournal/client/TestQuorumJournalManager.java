@@ -917,9 +917,60 @@ public void testSelectInputStreamsNotOnBoundary() throws Exception {
     
     ArrayList<EditLogInputStream> streams = new ArrayList<EditLogInputStream>();
     qjm.selectInputStreams(streams, 25, false);
-    
+
     verifyEdits(streams, 25, 50);
   }
+
+  /**
+   * A reader which asks for durable edits only reads the in-progress segment
+   * from the edit cache of the JournalNodes. Once the JournalNodes have
+   * restarted and lost their cache, it reads the edit log files instead.
+   */
+  @Test
+  public void testSelectInputStreamsFromEditCache() throws Exception {
+    QuorumJournalManager readerQjm = closeLater(createSpyingQJM());
+    List<EditLogInputStream> streams = Lists.newArrayList();
+
+    writeSegment(cluster, qjm, 1, 3, true);
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 4, 3, false);
+    readerQjm.selectInputStreams(streams, 5, true, true);
+    try {
+      assertEquals(1, streams.size());
+      assertTrue(streams.get(0).getName().contains("edit cache"));
+      verifyEdits(streams, 5, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    // Nothing new to read.
+    readerQjm.selectInputStreams(streams, 7, true, true);
+    assertEquals(0, streams.size());
+
+    writeTxns(stm, 7, 3);
+    readerQjm.selectInputStreams(streams, 7, true, true);
+    try {
+      assertEquals(1, streams.size());
+      assertTrue(streams.get(0).getName().contains("edit cache"));
+      verifyEdits(streams, 7, 9);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    for (int i = 0; i < cluster.getNumNodes(); i++) {
+      cluster.restartJournalNode(i);
+    }
+    readerQjm.selectInputStreams(streams, 4, true, true);
+    try {
+      assertEquals(1, streams.size());
+      assertFalse(streams.get(0).getName().contains("edit cache"));
+      verifyEdits(streams, 4, 9);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+  }
   
   
   private QuorumJournalManager createSpyingQJM()
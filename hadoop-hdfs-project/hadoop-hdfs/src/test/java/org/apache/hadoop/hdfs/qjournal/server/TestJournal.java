@@ -28,6 +28,7 @@
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.RequestInfo;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProtoOrBuilder;
 import org.apache.hadoop.hdfs.qjournal.server.Journal;
@@ -126,6 +127,26 @@ public void testMaintainCommittedTxId() throws Exception {
     assertEquals(3, journal.getCommittedTxnIdForTests());    
   }
   
+  @Test (timeout = 10000)
+  public void testGetJournaledEdits() throws Exception {
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1);
+    journal.journal(makeRI(2), 1, 1, 3, QJMTestUtil.createTxnData(1, 3));
+    journal.journal(makeRI(3), 1, 4, 2, QJMTestUtil.createTxnData(4, 2));
+    GetJournaledEditsResponseProto resp = journal.getJournaledEdits(2, 10);
+    assertEquals(1, resp.getFromTxId());
+    assertEquals(5, resp.getTxnCount());
+
+    // A new writer may replace the edits which were not committed.
+    journal.newEpoch(FAKE_NSINFO, 2);
+    try {
+      journal.getJournaledEdits(2, 10);
+      fail("Edit cache should have been cleared by the new epoch");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains("No edits are cached", ioe);
+    }
+  }
+
   @Test (timeout = 10000)
   public void testRestartJournal() throws Exception {
     journal.newEpoch(FAKE_NSINFO, 1);
@@ -345,6 +366,64 @@ public void testStartLogSegmentWhenAlreadyExists() throws Exception {
 
   }
   
+  /**
+   * A batch which arrives before the batch in front of it waits for that
+   * batch, and the earlier batch leaves its fsync to the later one.
+   */
+  @Test (timeout = 10000)
+  public void testOutOfOrderBatches() throws Exception {
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1);
+
+    final Exception[] thrown = new Exception[1];
+    Thread second = new Thread() {
+      @Override
+      public void run() {
+        try {
+          journal.journal(makeRI(3), 1, 4, 3,
+              QJMTestUtil.createTxnData(4, 3));
+        } catch (Exception e) {
+          thrown[0] = e;
+        }
+      }
+    };
+    second.start();
+    while (second.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, journal.getHighestWrittenTxId());
+
+    journal.journal(makeRI(2), 1, 1, 3,
+        QJMTestUtil.createTxnData(1, 3));
+    second.join();
+    if (thrown[0] != null) {
+      throw thrown[0];
+    }
+    assertEquals(6, journal.getHighestWrittenTxId());
+    assertEquals(1,
+        journal.getMetricsForTests().batchesGroupSynced.value());
+
+    journal.finalizeLogSegment(makeRI(4), 1, 6);
+    assertEquals(6, journal.getHighestWrittenTxId());
+  }
+
+  /**
+   * A batch is rejected if the batch in front of it does not arrive.
+   */
+  @Test (timeout = 10000)
+  public void testMissingBatch() throws Exception {
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1);
+    try {
+      journal.journal(makeRI(3), 1, 4, 3,
+          QJMTestUtil.createTxnData(4, 3));
+      fail("Did not reject a batch with a gap before it");
+    } catch (JournalOutOfSyncException e) {
+      GenericTestUtils.assertExceptionContains(
+          "Can't write txid 4 expecting nextTxId=1", e);
+    }
+  }
+
   private static RequestInfo makeRI(int serial) {
     return new RequestInfo(JID, 1, serial, 0);
   }
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import static org.apache.hadoop.hdfs.qjournal.QJMTestUtil.createTxnData;
+import static org.apache.hadoop.hdfs.qjournal.QJMTestUtil.verifyEdits;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TestJournaledEditsCache {
+  private static final int BATCH_SIZE = 3;
+
+  /** Store the batch of txns starting at the given txid. */
+  private static int storeBatch(JournaledEditsCache cache, int firstTxId)
+      throws Exception {
+    byte[] records = createTxnData(firstTxId, BATCH_SIZE);
+    cache.storeEdits(records, firstTxId, firstTxId + BATCH_SIZE - 1);
+    return records.length;
+  }
+
+  private static void verifyResponse(GetJournaledEditsResponseProto resp,
+      int fromTxId, int lastTxId) throws IOException {
+    assertEquals(fromTxId, resp.getFromTxId());
+    assertEquals(lastTxId - fromTxId + 1, resp.getTxnCount());
+    EditLogInputStream elis = EditLogFileInputStream.fromByteString("test",
+        resp.getEditLog(), fromTxId, lastTxId, true);
+    try {
+      verifyEdits(Lists.newArrayList(elis), fromTxId, lastTxId);
+    } finally {
+      elis.close();
+    }
+  }
+
+  private static void assertNotCached(JournaledEditsCache cache, long txid,
+      String message) {
+    try {
+      cache.retrieveEdits(txid, 100);
+      fail("Txid " + txid + " should not be cached");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains(message, ioe);
+    }
+  }
+
+  @Test
+  public void testRetrieveEdits() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    assertNotCached(cache, 1, "No edits are cached");
+
+    storeBatch(cache, 1);
+    storeBatch(cache, 4);
+    // Edits which have not been flushed are not returned.
+    assertEquals(0, cache.retrieveEdits(1, 100).getTxnCount());
+    assertFalse(cache.retrieveEdits(1, 100).hasEditLog());
+
+    cache.setFlushedTxId(3);
+    verifyResponse(cache.retrieveEdits(2, 100), 1, 3);
+    cache.setFlushedTxId(6);
+    verifyResponse(cache.retrieveEdits(2, 100), 1, 6);
+    verifyResponse(cache.retrieveEdits(5, 100), 4, 6);
+    assertEquals(0, cache.retrieveEdits(7, 100).getTxnCount());
+
+    // Whole batches are returned until maxTxns have been added.
+    verifyResponse(cache.retrieveEdits(2, 1), 1, 3);
+    verifyResponse(cache.retrieveEdits(2, 2), 1, 3);
+    verifyResponse(cache.retrieveEdits(2, 3), 1, 6);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    // All these batches serialize to the same size.
+    int batchBytes = createTxnData(10, BATCH_SIZE).length;
+    JournaledEditsCache cache = new JournaledEditsCache(3 * batchBytes);
+    for (int txid = 10; txid < 10 + 5 * BATCH_SIZE; txid += BATCH_SIZE) {
+      assertEquals(batchBytes, storeBatch(cache, txid));
+    }
+    cache.setFlushedTxId(24);
+    assertEquals(3 * batchBytes, cache.getSize());
+    assertEquals(16, cache.getLowestTxId());
+    assertNotCached(cache, 15, "no longer cached");
+    verifyResponse(cache.retrieveEdits(16, 100), 16, 24);
+
+    // The newest batch is kept even if it is larger than the capacity.
+    cache = new JournaledEditsCache(1);
+    storeBatch(cache, 1);
+    storeBatch(cache, 4);
+    cache.setFlushedTxId(6);
+    assertEquals(4, cache.getLowestTxId());
+    verifyResponse(cache.retrieveEdits(4, 100), 4, 6);
+  }
+
+  @Test
+  public void testDiscontiguousEdits() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    storeBatch(cache, 1);
+    cache.setFlushedTxId(3);
+    storeBatch(cache, 10);
+    assertEquals(10, cache.getLowestTxId());
+    assertNotCached(cache, 3, "no longer cached");
+    assertEquals(0, cache.retrieveEdits(10, 100).getTxnCount());
+    cache.setFlushedTxId(12);
+    verifyResponse(cache.retrieveEdits(10, 100), 10, 12);
+
+    cache.clear();
+    assertNotCached(cache, 10, "No edits are cached");
+  }
+}
@@ -462,6 +462,21 @@ void testBalancer1Internal(Configuration conf) throws Exception {
         new String[] {RACK0, RACK1});
   }
   
+  /**
+   * Test balancing with a single concurrent move per datanode, where the
+   * block moves are serialized at every node, and with progress reports.
+   */
+  @Test(timeout=100000)
+  public void testBalancerWithOneConcurrentMove() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    initConf(conf);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY, 1);
+    conf.setLong(DFSConfigKeys.DFS_BALANCER_PROGRESS_REPORT_INTERVAL_KEY,
+        100L);
+    oneNodeTest(conf, false);
+  }
+
   @Test(timeout=100000)
   public void testBalancer2() throws Exception {
     testBalancer2Internal(new HdfsConfiguration());
@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.server.namenode.FSClusterStats;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * This class evaluates block placement policies against a synthetic cluster,
+ * without starting a NameNode or any DataNodes.
+ *
+ * A fraction of the datanodes is made hot: they carry a much higher
+ * background load of transfers than the others. Blocks are then placed one
+ * after another. Every placement counts as an active transfer at each of
+ * its targets until the next simulated heartbeat, when the datanodes report
+ * their background load plus the transfers received since the previous
+ * heartbeat. For each policy the tool prints the share of replicas that
+ * landed on hot datanodes, the busiest datanode relative to the average,
+ * the number of blocks whose replicas ended up on a single rack, and the
+ * time spent per placement.
+ */
+public class BlockPlacementSimulator extends Configured implements Tool {
+  private static final long BLOCK_SIZE = 128L * 1024 * 1024;
+  private static final long CAPACITY = 1L << 50;
+
+  private int numRacks;
+  private int nodesPerRack;
+  private int numBlocks;
+  private int replication;
+  private double hotFraction;
+  private int hotLoad;
+  private int coldLoad;
+  private int blocksPerHeartbeat;
+  private double localWriterFraction;
+  private long seed;
+
+  /** The synthetic cluster used for one run */
+  private class SimulatedCluster implements FSClusterStats {
+    final NetworkTopology topology = new NetworkTopology();
+    final DatanodeDescriptor[] datanodes;
+    final int[] backgroundLoad;
+    final int[] transfers;
+    final long[] replicas;
+    final Map<DatanodeDescriptor, Integer> indices =
+        new HashMap<DatanodeDescriptor, Integer>();
+
+    SimulatedCluster(Random random) {
+      final int n = numRacks * nodesPerRack;
+      final String[] racks = new String[n];
+      for (int i = 0; i < n; i++) {
+        racks[i] = "/rack" + (i / nodesPerRack);
+      }
+      datanodes = DFSTestUtil.toDatanodeDescriptor(
+          DFSTestUtil.createDatanodeStorageInfos(racks));
+      backgroundLoad = new int[n];
+      transfers = new int[n];
+      replicas = new long[n];
+      for (int i = 0; i < n; i++) {
+        topology.add(datanodes[i]);
+        indices.put(datanodes[i], i);
+        backgroundLoad[i] = random.nextDouble() < hotFraction?
+            hotLoad: coldLoad;
+      }
+      heartbeat();
+    }
+
+    /** Every datanode reports its current load and usage. */
+    void heartbeat() {
+      for (int i = 0; i < datanodes.length; i++) {
+        final long used = replicas[i] * BLOCK_SIZE;
+        datanodes[i].getStorageInfos()[0].setUtilizationForTesting(
+            CAPACITY, used, CAPACITY - used, used);
+        datanodes[i].updateHeartbeat(
+            BlockManagerTestUtil.getStorageReportsForDatanode(datanodes[i]),
+            0L, 0L, backgroundLoad[i] + transfers[i], 0);
+        // the transfers have completed and were reported to the namenode
+        for (; transfers[i] > 0; transfers[i]--) {
+          datanodes[i].decrementBlocksScheduled();
+        }
+      }
+    }
+
+    void placed(DatanodeStorageInfo[] targets) {
+      DatanodeStorageInfo.incrementBlocksScheduled(targets);
+      for (DatanodeStorageInfo t : targets) {
+        final int i = indexOf(t.getDatanodeDescriptor());
+        transfers[i]++;
+        replicas[i]++;
+      }
+    }
+
+    int indexOf(DatanodeDescriptor dn) {
+      return indices.get(dn);
+    }
+
+    boolean isHot(int i) {
+      return backgroundLoad[i] == hotLoad;
+    }
+
+    @Override
+    public int getTotalLoad() {
+      int total = 0;
+      for (DatanodeDescriptor dn : datanodes) {
+        total += dn.getXceiverCount();
+      }
+      return total;
+    }
+
+    @Override
+    public boolean isAvoidingStaleDataNodesForWrite() {
+      return false;
+    }
+
+    @Override
+    public int getNumDatanodesInService() {
+      return datanodes.length;
+    }
+
+    @Override
+    public long getAvgWriteLatencyMicros() {
+      // the simulated datanodes do not report write latencies
+      return 0;
+    }
+  }
+
+  private void simulate(Class<? extends BlockPlacementPolicy> policyClass) {
+    final Random random = new Random(seed);
+    final SimulatedCluster cluster = new SimulatedCluster(random);
+    final Configuration conf = new HdfsConfiguration(getConf());
+    conf.setClass(DFSConfigKeys.DFS_BLOCK_REPLICATOR_CLASSNAME_KEY,
+        policyClass, BlockPlacementPolicy.class);
+    final BlockPlacementPolicy policy =
+        BlockPlacementPolicy.getInstance(conf, cluster, cluster.topology);
+
+    int singleRackBlocks = 0;
+    long elapsed = 0;
+    for (int b = 0; b < numBlocks; b++) {
+      final Node writer = random.nextDouble() < localWriterFraction?
+          cluster.datanodes[random.nextInt(cluster.datanodes.length)]: null;
+      final long start = Time.monotonicNow();
+      final DatanodeStorageInfo[] targets = policy.chooseTarget("/sim",
+          replication, writer, new ArrayList<DatanodeStorageInfo>(), false,
+          new HashSet<Node>(), BLOCK_SIZE, StorageType.DEFAULT);
+      elapsed += Time.monotonicNow() - start;
+      cluster.placed(targets);
+
+      final Set<String> racks = new HashSet<String>();
+      for (DatanodeStorageInfo t : targets) {
+        racks.add(t.getDatanodeDescriptor().getNetworkLocation());
+      }
+      if (racks.size() < Math.min(2, Math.min(replication, numRacks))) {
+        singleRackBlocks++;
+      }
+      if ((b + 1) % blocksPerHeartbeat == 0) {
+        cluster.heartbeat();
+      }
+    }
+
+    long total = 0, onHot = 0, max = 0;
+    int numHot = 0;
+    for (int i = 0; i < cluster.replicas.length; i++) {
+      total += cluster.replicas[i];
+      max = Math.max(max, cluster.replicas[i]);
+      if (cluster.isHot(i)) {
+        numHot++;
+        onHot += cluster.replicas[i];
+      }
+    }
+    final double mean = (double)total / cluster.replicas.length;
+    System.out.println(String.format(
+        "%-30s hot nodes=%d/%d replicas on hot nodes=%.2f%% "
+        + "max/mean replicas=%.2f single-rack blocks=%d %.1f us/block",
+        policyClass.getSimpleName(), numHot, cluster.replicas.length,
+        total == 0? 0.0: 100.0 * onHot / total, max / mean,
+        singleRackBlocks, 1000.0 * elapsed / Math.max(numBlocks, 1)));
+  }
+
+  private static void printUsage() {
+    ToolRunner.printGenericCommandUsage(System.err);
+    System.err.println("Usage: blockplacementsimulator");
+    System.err.println("Config properties:\n" +
+      "  blockplacementsimulator.racks:\tnumber of racks (20)\n" +
+      "  blockplacementsimulator.nodes.per.rack:\tdatanodes per rack (20)\n" +
+      "  blockplacementsimulator.blocks:\tblocks to place (100000)\n" +
+      "  blockplacementsimulator.replication:\treplicas per block (3)\n" +
+      "  blockplacementsimulator.hot.fraction:\tfraction of hot " +
+      "datanodes (0.1)\n" +
+      "  blockplacementsimulator.hot.load:\tbackground transfers on a " +
+      "hot datanode (12)\n" +
+      "  blockplacementsimulator.cold.load:\tbackground transfers on " +
+      "other datanodes (2)\n" +
+      "  blockplacementsimulator.blocks.per.heartbeat:\tplacements " +
+      "between heartbeats (400)\n" +
+      "  blockplacementsimulator.local.writer.fraction:\tfraction of " +
+      "blocks written from a datanode (0.5)\n" +
+      "  blockplacementsimulator.seed:\trandom seed (0)\n" +
+      "  " + DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_KEY
+      + ":\tcandidates sampled by the load aware policy (2)\n");
+  }
+
+  @Override
+  public int run(String[] args) {
+    if (args.length != 0) {
+      printUsage();
+      return -1;
+    }
+    final Configuration conf = getConf();
+    numRacks = conf.getInt("blockplacementsimulator.racks", 20);
+    nodesPerRack = conf.getInt("blockplacementsimulator.nodes.per.rack", 20);
+    numBlocks = conf.getInt("blockplacementsimulator.blocks", 100000);
+    replication = conf.getInt("blockplacementsimulator.replication", 3);
+    hotFraction = conf.getFloat("blockplacementsimulator.hot.fraction", 0.1f);
+    hotLoad = conf.getInt("blockplacementsimulator.hot.load", 12);
+    coldLoad = conf.getInt("blockplacementsimulator.cold.load", 2);
+    blocksPerHeartbeat = conf.getInt(
+        "blockplacementsimulator.blocks.per.heartbeat", 400);
+    localWriterFraction = conf.getFloat(
+        "blockplacementsimulator.local.writer.fraction", 0.5f);
+    seed = conf.getLong("blockplacementsimulator.seed", 0L);
+
+    simulate(BlockPlacementPolicyDefault.class);
+    simulate(BlockPlacementPolicyLoadAware.class);
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HdfsConfiguration(),
+        new BlockPlacementSimulator(), args);
+    System.exit(res);
+  }
+}
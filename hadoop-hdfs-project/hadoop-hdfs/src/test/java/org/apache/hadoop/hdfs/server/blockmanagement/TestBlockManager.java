@@ -525,6 +525,42 @@ public void testHighestPriReplSrcChosenDespiteMaxReplLimit() throws Exception {
             UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY));
   }
 
+  /**
+   * Test that the source of a replication is the node with the least
+   * replication work in flight.
+   */
+  @Test
+  public void testSourceChosenByReplicationLoad() throws Exception {
+    long blockId = 42;         // arbitrary
+    Block aBlock = new Block(blockId, 0, 0);
+    List<DatanodeDescriptor> origNodes = Arrays.asList(nodes.get(0),
+        nodes.get(3));
+    addBlockOnNodes(blockId, origNodes);
+
+    List<DatanodeDescriptor> cntNodes = new LinkedList<DatanodeDescriptor>();
+    List<DatanodeStorageInfo> liveNodes = new LinkedList<DatanodeStorageInfo>();
+    DatanodeDescriptor[] target = { nodes.get(1) };
+    for (int i = 0; i < 2; i++) {
+      bm.pendingReplications.increment(new Block(100 + i), nodes.get(0),
+          target);
+    }
+    for (int i = 0; i < NUM_TEST_ITERS; i++) {
+      assertEquals(nodes.get(3), bm.chooseSourceDatanode(aBlock, cntNodes,
+          liveNodes, new NumberReplicas(),
+          UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED));
+    }
+
+    for (int i = 0; i < 3; i++) {
+      bm.pendingReplications.increment(new Block(200 + i), nodes.get(3),
+          target);
+    }
+    for (int i = 0; i < NUM_TEST_ITERS; i++) {
+      assertEquals(nodes.get(0), bm.chooseSourceDatanode(aBlock, cntNodes,
+          liveNodes, new NumberReplicas(),
+          UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED));
+    }
+  }
+
   @Test
   public void testSafeModeIBR() throws Exception {
     DatanodeDescriptor node = spy(nodes.get(0));
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.FSClusterStats;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBlockPlacementPolicyLoadAware {
+  private static final int BLOCK_SIZE = 1024;
+  private static final long CAPACITY =
+      4 * HdfsConstants.MIN_BLOCKS_FOR_WRITE * BLOCK_SIZE;
+  private static final String[] RACKS = {
+      "/r1", "/r1", "/r1", "/r1", "/r2", "/r2", "/r2", "/r2" };
+  /** One busy datanode per rack */
+  private static final int[] XCEIVERS = { 6, 3, 3, 3, 6, 3, 3, 3 };
+
+  private DatanodeStorageInfo[] storages;
+  private DatanodeDescriptor[] dataNodes;
+  private BlockPlacementPolicy policy;
+
+  private static void updateHeartbeat(DatanodeDescriptor dn, long remaining,
+      int xceiverCount) {
+    updateHeartbeat(dn, remaining, xceiverCount, 0L);
+  }
+
+  private static void updateHeartbeat(DatanodeDescriptor dn, long remaining,
+      int xceiverCount, long writeLatencyMicros) {
+    dn.getStorageInfos()[0].setUtilizationForTesting(
+        CAPACITY, CAPACITY - remaining, remaining, CAPACITY - remaining);
+    dn.updateHeartbeat(BlockManagerTestUtil.getStorageReportsForDatanode(dn),
+        0L, 0L, xceiverCount, 0, writeLatencyMicros);
+  }
+
+  @Before
+  public void setup() {
+    storages = DFSTestUtil.createDatanodeStorageInfos(RACKS);
+    dataNodes = DFSTestUtil.toDatanodeDescriptor(storages);
+    final NetworkTopology cluster = new NetworkTopology();
+    for (DatanodeDescriptor dn : dataNodes) {
+      cluster.add(dn);
+    }
+    for (int i = 0; i < dataNodes.length; i++) {
+      updateHeartbeat(dataNodes[i], CAPACITY, XCEIVERS[i]);
+    }
+
+    final Configuration conf = new HdfsConfiguration();
+    conf.setClass(DFSConfigKeys.DFS_BLOCK_REPLICATOR_CLASSNAME_KEY,
+        BlockPlacementPolicyLoadAware.class, BlockPlacementPolicy.class);
+    // sample every datanode, so that the choice is deterministic
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_CONSIDERLOAD_CANDIDATES_KEY,
+        dataNodes.length);
+    final FSClusterStats stats = new FSClusterStats() {
+      @Override
+      public int getTotalLoad() {
+        int total = 0;
+        for (DatanodeDescriptor dn : dataNodes) {
+          total += dn.getXceiverCount();
+        }
+        return total;
+      }
+
+      @Override
+      public boolean isAvoidingStaleDataNodesForWrite() {
+        return false;
+      }
+
+      @Override
+      public int getNumDatanodesInService() {
+        return dataNodes.length;
+      }
+
+      @Override
+      public long getAvgWriteLatencyMicros() {
+        long total = 0;
+        int reported = 0;
+        for (DatanodeDescriptor dn : dataNodes) {
+          if (dn.getWriteLatencyMicros() > 0) {
+            total += dn.getWriteLatencyMicros();
+            reported++;
+          }
+        }
+        return reported == 0? 0 : total / reported;
+      }
+    };
+    policy = BlockPlacementPolicy.getInstance(conf, stats, cluster);
+    assertTrue(policy instanceof BlockPlacementPolicyLoadAware);
+  }
+
+  private DatanodeStorageInfo[] chooseTarget(int numOfReplicas, Node writer) {
+    return policy.chooseTarget("/file", numOfReplicas, writer,
+        new ArrayList<DatanodeStorageInfo>(), false, new HashSet<Node>(),
+        BLOCK_SIZE, StorageType.DEFAULT);
+  }
+
+  /**
+   * Busy datanodes are still within twice the average load, so the default
+   * policy would use them; the load aware policy should avoid them while
+   * still spreading the replicas over both racks.
+   */
+  @Test
+  public void testAvoidBusyNodes() {
+    for (int i = 0; i < 50; i++) {
+      final DatanodeStorageInfo[] targets = chooseTarget(3, null);
+      assertEquals(3, targets.length);
+      final Set<String> racks = new HashSet<String>();
+      for (DatanodeStorageInfo t : targets) {
+        assertFalse(t.getDatanodeDescriptor() == dataNodes[0]);
+        assertFalse(t.getDatanodeDescriptor() == dataNodes[4]);
+        racks.add(t.getDatanodeDescriptor().getNetworkLocation());
+      }
+      assertEquals(2, racks.size());
+    }
+  }
+
+  /** The writer's own datanode is still preferred for the first replica. */
+  @Test
+  public void testLocalNodeStillPreferred() {
+    final DatanodeStorageInfo[] targets = chooseTarget(3, dataNodes[0]);
+    assertEquals(3, targets.length);
+    assertEquals(storages[0], targets[0]);
+    for (int i = 1; i < targets.length; i++) {
+      assertFalse(targets[i].getDatanodeDescriptor() == dataNodes[4]);
+    }
+  }
+
+  /** Blocks scheduled and used space both count toward the load. */
+  @Test
+  public void testLoad() {
+    final double avgLoad = 3.75;
+    final double idle = BlockPlacementPolicyLoadAware.getLoad(
+        dataNodes[1].getStorageInfos()[0], avgLoad, 0L, 1.0);
+
+    dataNodes[1].incrementBlocksScheduled();
+    final double scheduled = BlockPlacementPolicyLoadAware.getLoad(
+        dataNodes[1].getStorageInfos()[0], avgLoad, 0L, 1.0);
+    assertTrue(scheduled > idle);
+
+    updateHeartbeat(dataNodes[2], CAPACITY / 2, XCEIVERS[2]);
+    final double half = BlockPlacementPolicyLoadAware.getLoad(
+        dataNodes[2].getStorageInfos()[0], avgLoad, 0L, 1.0);
+    assertEquals(idle + 0.5, half, 1e-9);
+
+    // the fuller storage is avoided once the other candidates are as busy
+    for (int i = 0; i < dataNodes.length; i++) {
+      if (i != 2) {
+        updateHeartbeat(dataNodes[i], CAPACITY, XCEIVERS[2]);
+      }
+    }
+    for (int i = 0; i < 20; i++) {
+      for (DatanodeStorageInfo t : chooseTarget(3, null)) {
+        assertFalse(t.getDatanodeDescriptor() == dataNodes[2]);
+      }
+    }
+  }
+
+  /**
+   * With equal transfers, datanodes which report a high write latency are
+   * avoided, while datanodes which report none count as average.
+   */
+  @Test
+  public void testAvoidSlowNodes() {
+    for (int i = 0; i < dataNodes.length; i++) {
+      final long latency = i == 1 || i == 5? 20000L : i % 2 == 0? 1000L : 0L;
+      updateHeartbeat(dataNodes[i], CAPACITY, XCEIVERS[1], latency);
+    }
+    final double avgLoad = XCEIVERS[1];
+    final long avgLatency = (2 * 20000L + 4 * 1000L) / 6;
+    final DatanodeStorageInfo slow = dataNodes[1].getStorageInfos()[0];
+    final DatanodeStorageInfo fast = dataNodes[0].getStorageInfos()[0];
+    final DatanodeStorageInfo unknown = dataNodes[3].getStorageInfos()[0];
+    final double unweighted =
+        BlockPlacementPolicyLoadAware.getLoad(fast, avgLoad, avgLatency, 0);
+    assertEquals(unweighted,
+        BlockPlacementPolicyLoadAware.getLoad(slow, avgLoad, avgLatency, 0),
+        1e-9);
+    assertEquals(unweighted + 1.0,
+        BlockPlacementPolicyLoadAware.getLoad(unknown, avgLoad, avgLatency, 1),
+        1e-9);
+    assertTrue(
+        BlockPlacementPolicyLoadAware.getLoad(slow, avgLoad, avgLatency, 1) >
+        BlockPlacementPolicyLoadAware.getLoad(fast, avgLoad, avgLatency, 1));
+
+    for (int i = 0; i < 50; i++) {
+      for (DatanodeStorageInfo t : chooseTarget(3, null)) {
+        assertFalse(t.getDatanodeDescriptor() == dataNodes[1]);
+        assertFalse(t.getDatanodeDescriptor() == dataNodes[5]);
+      }
+    }
+  }
+}
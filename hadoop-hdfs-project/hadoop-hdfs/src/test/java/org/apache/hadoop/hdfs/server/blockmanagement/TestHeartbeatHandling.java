@@ -18,17 +18,21 @@
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
@@ -239,4 +243,35 @@ public void testHeartbeatBlockRecovery() throws Exception {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Datanodes report how long they take to write packets to disk, and the
+   * namenode averages the reported latencies.
+   */
+  @Test
+  public void testWriteLatency() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(2).build();
+    try {
+      cluster.waitActive();
+      final FSNamesystem namesystem = cluster.getNamesystem();
+      assertEquals(0, namesystem.getAvgWriteLatencyMicros());
+
+      DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/file"),
+          1024 * 1024, (short)2, 0L);
+      long total = 0;
+      for (DataNode dn : cluster.getDataNodes()) {
+        DataNodeTestUtils.triggerHeartbeat(dn);
+        final DatanodeDescriptor dd = NameNodeAdapter.getDatanode(namesystem,
+            DataNodeTestUtils.getDNRegistrationForBP(dn,
+                namesystem.getBlockPoolId()));
+        assertTrue(dd.getWriteLatencyMicros() > 0);
+        total += dd.getWriteLatencyMicros();
+      }
+      assertEquals(total / 2, namesystem.getAvgWriteLatencyMicros());
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
@@ -150,6 +150,46 @@ public void testPendingReplication() {
     pendingReplications.stop();
   }
   
+  /**
+   * Test that the replications in flight from each source are tracked, and
+   * that completing one yields a throughput estimate.
+   */
+  @Test
+  public void testSourceLoad() throws Exception {
+    PendingReplicationBlocks pendingReplications =
+        new PendingReplicationBlocks(TIMEOUT * 1000);
+    DatanodeDescriptor[] nodes = DatanodeStorageInfo.toDatanodeDescriptors(
+        DFSTestUtil.createDatanodeStorageInfos(3));
+    Block b1 = new Block(1, 1024, 0);
+    Block b2 = new Block(2, 1024, 0);
+    pendingReplications.increment(b1, nodes[0],
+        new DatanodeDescriptor[] { nodes[1] });
+    pendingReplications.increment(b2, nodes[0],
+        new DatanodeDescriptor[] { nodes[1], nodes[2] });
+    assertEquals(2, pendingReplications.getInFlight(nodes[0]));
+    assertEquals(0, pendingReplications.getInFlight(nodes[1]));
+    assertEquals(0.0, pendingReplications.getThroughput(nodes[0]), 0.0);
+
+    Thread.sleep(10);
+    pendingReplications.decrement(b1, nodes[1]);
+    assertEquals(1, pendingReplications.getCompletedReplications());
+    assertEquals(1, pendingReplications.getInFlight(nodes[0]));
+    double throughput = pendingReplications.getThroughput(nodes[0]);
+    assertTrue(throughput > 0 && throughput <= 1024.0 / 10);
+    // without observations of its own, a node gets the average
+    assertEquals(throughput, pendingReplications.getThroughput(nodes[1]), 0.0);
+
+    // a replica which was not pending does not count
+    pendingReplications.decrement(b1, nodes[1]);
+    assertEquals(1, pendingReplications.getCompletedReplications());
+
+    // the source is busy until the last target has the block
+    pendingReplications.decrement(b2, nodes[1]);
+    assertEquals(1, pendingReplications.getInFlight(nodes[0]));
+    pendingReplications.remove(b2);
+    assertEquals(0, pendingReplications.getInFlight(nodes[0]));
+  }
+
   /**
    * Test if DatanodeProtocol#blockReceivedAndDeleted can correctly update the
    * pending replications. Also make sure the blockReceivedAndDeleted call is
@@ -510,6 +510,15 @@ public List<Long> getCacheReport(String bpid) {
     return new LinkedList<Long>();
   }
 
+  @Override // FsDatasetSpi
+  public Map<Long, Long> getAndResetCacheHits(String bpid) {
+    return new HashMap<Long, Long>();
+  }
+
+  @Override // FsDatasetSpi
+  public void onBlockRead(ExtendedBlock b) {
+  }
+
   @Override // FSDatasetMBean
   public long getCapacity() {
     return storage.getCapacity();
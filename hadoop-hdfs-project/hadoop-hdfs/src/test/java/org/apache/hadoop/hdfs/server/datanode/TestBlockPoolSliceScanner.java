@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataTransferQos.TrafficClass;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestBlockPoolSliceScanner {
+  /**
+   * The blocks of each volume are scanned, and the scan rate of a volume
+   * only drops while clients use that volume.
+   */
+  @Test(timeout=120000)
+  public void testScanRatePerVolume() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 100);
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, 100);
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      // 10 blocks, which the datanode spreads over its volumes.
+      DFSTestUtil.createFile(fs, new Path("/file"), 1000, (short) 1, 0);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      final DataNode dn = cluster.getDataNodes().get(0);
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return dn.blockScanner.isInitialized(bpid)
+              && dn.blockScanner.getBPScanner(bpid).getTotalScans() >= 10;
+        }
+      }, 500, 60000);
+
+      final List<? extends FsVolumeSpi> volumes =
+          dn.getFSDataset().getVolumes();
+      assertEquals(2, volumes.size());
+      final String busy = volumes.get(0).getStorageID();
+      final String idle = volumes.get(1).getStorageID();
+      final BlockPoolSliceScanner scanner = dn.blockScanner.getBPScanner(bpid);
+      final long maxRate = scanner.getScanRate(idle);
+      assertTrue(maxRate > 0);
+      assertEquals(maxRate, scanner.getScanRate(busy));
+
+      final DataTransferQos qos = dn.getTransferQos();
+      qos.startTransfer(TrafficClass.CLIENT_READ, null, busy);
+      try {
+        assertTrue(scanner.getScanRate(busy) < maxRate);
+        assertEquals(maxRate, scanner.getScanRate(idle));
+      } finally {
+        qos.endTransfer(TrafficClass.CLIENT_READ, busy);
+      }
+      assertEquals(maxRate, scanner.getScanRate(busy));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
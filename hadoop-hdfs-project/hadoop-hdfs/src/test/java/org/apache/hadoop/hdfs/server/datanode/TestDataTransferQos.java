@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.ReconfigurationException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataTransferQos.TrafficClass;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
+import org.junit.Test;
+
+public class TestDataTransferQos {
+  private static final long MB = 1024 * 1024;
+
+  @Test
+  public void testDisabledByDefault() {
+    final DataTransferQos qos = new DataTransferQos(new Configuration());
+    for (TrafficClass c : TrafficClass.values()) {
+      assertEquals(0, qos.getBandwidth(c));
+      final DataTransferThrottler t = qos.startTransfer(c, null);
+      assertNotNull(t);
+      // Must return at once.
+      t.throttle(100 * MB);
+      qos.endTransfer(c);
+    }
+  }
+
+  @Test
+  public void testShares() {
+    final Configuration conf = new Configuration();
+    conf.setLong(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY, 100 * MB);
+    final DataTransferQos qos = new DataTransferQos(conf);
+
+    // An idle class gets the share it would have when it starts.
+    assertEquals(100 * MB, qos.getBandwidth(TrafficClass.REPLICATION));
+
+    qos.startTransfer(TrafficClass.REPLICATION, null);
+    assertEquals(100 * MB, qos.getBandwidth(TrafficClass.REPLICATION));
+    assertEquals(80 * MB, qos.getBandwidth(TrafficClass.CLIENT_READ));
+
+    qos.startTransfer(TrafficClass.CLIENT_READ, null);
+    qos.startTransfer(TrafficClass.CLIENT_READ, null);
+    assertEquals(20 * MB, qos.getBandwidth(TrafficClass.REPLICATION));
+    assertEquals(80 * MB, qos.getBandwidth(TrafficClass.CLIENT_READ));
+    // The throttler rounds the bandwidth to bytes per period.
+    assertEquals(100 * MB * 40 / 90,
+        qos.getBandwidth(TrafficClass.CLIENT_WRITE), 2);
+
+    // The share goes back to replication when the reads are over.
+    qos.endTransfer(TrafficClass.CLIENT_READ);
+    assertEquals(20 * MB, qos.getBandwidth(TrafficClass.REPLICATION));
+    qos.endTransfer(TrafficClass.CLIENT_READ);
+    assertEquals(100 * MB, qos.getBandwidth(TrafficClass.REPLICATION));
+    qos.endTransfer(TrafficClass.REPLICATION);
+  }
+
+  @Test
+  public void testReconfigure() {
+    final DataTransferQos qos = new DataTransferQos(new Configuration());
+    qos.reconfigure(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY,
+        String.valueOf(10 * MB));
+    assertEquals(10 * MB, qos.getBandwidth(TrafficClass.SCANNING));
+
+    qos.startTransfer(TrafficClass.SCANNING, null);
+    qos.startTransfer(TrafficClass.BALANCING, null);
+    assertEquals(5 * MB, qos.getBandwidth(TrafficClass.SCANNING));
+    qos.reconfigure(TrafficClass.BALANCING.getWeightKey(), "15");
+    assertEquals(10 * MB / 4, qos.getBandwidth(TrafficClass.SCANNING));
+    // Back to the default weight.
+    qos.reconfigure(TrafficClass.BALANCING.getWeightKey(), null);
+    assertEquals(5 * MB, qos.getBandwidth(TrafficClass.SCANNING));
+
+    for (String bad : new String[]{"0", "-1", "x"}) {
+      try {
+        qos.reconfigure(TrafficClass.BALANCING.getWeightKey(), bad);
+        fail("Weight " + bad + " should be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    assertEquals(5 * MB, qos.getBandwidth(TrafficClass.SCANNING));
+
+    qos.reconfigure(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY, "0");
+    assertEquals(0, qos.getBandwidth(TrafficClass.SCANNING));
+  }
+
+  @Test
+  public void testChainedThrottler() {
+    final Configuration conf = new Configuration();
+    conf.setLong(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY, 100 * MB);
+    final DataTransferQos qos = new DataTransferQos(conf);
+    final DataTransferThrottler balancer = new DataTransferThrottler(MB);
+    final DataTransferThrottler t =
+        qos.startTransfer(TrafficClass.BALANCING, balancer);
+    assertEquals(MB, t.getBandwidth());
+    t.setBandwidth(2 * MB);
+    assertEquals(2 * MB, balancer.getBandwidth());
+    qos.endTransfer(TrafficClass.BALANCING);
+  }
+
+  @Test
+  public void testClientTransfersPerStorage() {
+    final DataTransferQos qos = new DataTransferQos(new Configuration());
+    qos.startTransfer(TrafficClass.CLIENT_READ, null, "s1");
+    qos.startTransfer(TrafficClass.CLIENT_WRITE, null, "s1");
+    qos.startTransfer(TrafficClass.REPLICATION, null, "s2");
+    qos.startTransfer(TrafficClass.CLIENT_READ, null);
+    assertEquals(2, qos.getClientTransfers("s1"));
+    // Only client transfers are counted.
+    assertEquals(0, qos.getClientTransfers("s2"));
+
+    qos.endTransfer(TrafficClass.CLIENT_READ, "s1");
+    assertEquals(1, qos.getClientTransfers("s1"));
+    qos.endTransfer(TrafficClass.CLIENT_WRITE, "s1");
+    assertEquals(0, qos.getClientTransfers("s1"));
+    qos.endTransfer(TrafficClass.REPLICATION, "s2");
+    qos.endTransfer(TrafficClass.CLIENT_READ);
+  }
+
+  @Test
+  public void testNoStorageCountsWithoutScanner() {
+    final Configuration conf = new Configuration();
+    conf.setInt(DFS_DATANODE_SCAN_PERIOD_HOURS_KEY, -1);
+    final DataTransferQos qos = new DataTransferQos(conf);
+    qos.startTransfer(TrafficClass.CLIENT_READ, null, "s1");
+    assertEquals(0, qos.getClientTransfers("s1"));
+    qos.endTransfer(TrafficClass.CLIENT_READ, "s1");
+  }
+
+  @Test
+  public void testEnableWhileTransfersRun() {
+    final DataTransferQos qos = new DataTransferQos(new Configuration());
+    // Transfers started while the sharing is disabled are still counted.
+    qos.startTransfer(TrafficClass.CLIENT_READ, null);
+    qos.reconfigure(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY,
+        String.valueOf(100 * MB));
+    assertEquals(100 * MB, qos.getBandwidth(TrafficClass.CLIENT_READ));
+    assertEquals(100 * MB * 10 / 50,
+        qos.getBandwidth(TrafficClass.REPLICATION), 2);
+    qos.endTransfer(TrafficClass.CLIENT_READ);
+    assertEquals(100 * MB, qos.getBandwidth(TrafficClass.REPLICATION));
+  }
+
+  /**
+   * Change the sharing on a running datanode and check that the transfers
+   * still work.
+   */
+  @Test
+  public void testReconfigureDataNode() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      final DataNode dn = cluster.getDataNodes().get(0);
+      assertTrue(dn.isPropertyReconfigurable(
+          DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY));
+
+      dn.reconfigureProperty(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY,
+          String.valueOf(100 * MB));
+      assertEquals(String.valueOf(100 * MB),
+          dn.getConf().get(DFS_DATANODE_IO_QOS_BANDWIDTHPERSEC_KEY));
+      assertEquals(100 * MB,
+          dn.getTransferQos().getBandwidth(TrafficClass.CLIENT_WRITE));
+
+      try {
+        dn.reconfigureProperty(TrafficClass.CLIENT_READ.getWeightKey(), "0");
+        fail("A weight of 0 should be rejected");
+      } catch (ReconfigurationException e) {
+        // expected
+      }
+
+      final FileSystem fs = cluster.getFileSystem();
+      final Path p = new Path("/testReconfigureDataNode");
+      DFSTestUtil.createFile(fs, p, 4 * MB, (short)1, 0L);
+      assertEquals(4 * MB, DFSTestUtil.readFile(fs, p).length());
+      assertSame(dn, cluster.getDataNodes().get(0));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
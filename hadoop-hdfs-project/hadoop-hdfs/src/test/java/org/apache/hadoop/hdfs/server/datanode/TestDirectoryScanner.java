@@ -353,6 +353,122 @@ public void runTest(int parallelism) throws Exception {
     }
   }
 
+  /** Set the modification time of every directory under dir to mtime */
+  private static int setDirModTimes(File dir, long mtime) {
+    int dirs = 1;
+    for (File f : dir.listFiles()) {
+      if (f.isDirectory()) {
+        dirs += setDirModTimes(f, mtime);
+      }
+    }
+    assertTrue(dir.setLastModified(mtime));
+    return dirs;
+  }
+
+  @Test
+  public void testIncrementalScan() throws Exception {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_PERIOD_KEY,
+        100);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile("/tmp/t1", 10000);
+      long totalBlocks = 100;
+
+      // Pretend nothing has changed for a while, so that the modification
+      // times can be trusted.
+      long mtime = System.currentTimeMillis() - 60 * 1000;
+      int dirs = 0;
+      for (FsVolumeSpi vol : fds.getVolumes()) {
+        dirs += setDirModTimes(vol.getFinalizedDir(bpid), mtime);
+      }
+
+      // The first pass lists every directory
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertEquals(dirs, scanner.dirsListed);
+      assertEquals(0, scanner.dirsReused);
+
+      // Nothing changed, so the second pass lists nothing
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertEquals(0, scanner.dirsListed);
+      assertEquals(dirs, scanner.dirsReused);
+
+      // Deleting a block file modifies its directory, which is listed again
+      long blockId = deleteBlockFile();
+      scan(totalBlocks, 1, 0, 1, 0, 0);
+      assertEquals(1, scanner.dirsListed);
+      totalBlocks--;
+      verifyDeletion(blockId);
+
+      // So does adding one
+      blockId = createBlockMetaFile();
+      totalBlocks++;
+      scan(totalBlocks, 1, 0, 0, 1, 0);
+      verifyAddition(blockId, DEFAULT_GEN_STAMP, 0);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // Without the cached listings the next pass is a full one again
+      scanner.clearDirListings();
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+      assertEquals(dirs, scanner.dirsListed);
+      assertEquals(0, scanner.dirsReused);
+    } finally {
+      scanner.shutdown();
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testThrottledScan() throws Exception {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        1);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile("/tmp/t1", 1000);
+      // Enough empty directories that listing them takes longer than the
+      // one millisecond per second the compilers are allowed
+      for (FsVolumeSpi vol : fds.getVolumes()) {
+        File finalizedDir = vol.getFinalizedDir(bpid);
+        for (int i = 0; i < 200; i++) {
+          assertTrue(new File(finalizedDir, "subdir" + i).mkdir());
+        }
+      }
+      long blockId = deleteMetaFile();
+      scan(10, 1, 1, 0, 0, 1);
+      assertTrue("The scan was not throttled", scanner.throttleWaits > 0);
+      verifyGenStamp(blockId, GenerationStamp.GRANDFATHER_GENERATION_STAMP);
+      scanner.shutdown();
+
+      // The same scan without the throttle never waits
+      conf.setInt(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+          1000);
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+      scan(10, 0, 0, 0, 0, 0);
+      assertEquals(0, scanner.throttleWaits);
+    } finally {
+      scanner.shutdown();
+      cluster.shutdown();
+    }
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -158,7 +158,7 @@ private static void setHeartbeatResponse(DatanodeCommand[] cmds)
     doReturn(response).when(spyNN).sendHeartbeat(
         (DatanodeRegistration) any(),
         (StorageReport[]) any(), anyLong(), anyLong(),
-        anyInt(), anyInt(), anyInt());
+        anyInt(), anyInt(), anyInt(), anyLong());
   }
 
   private static DatanodeCommand[] cacheBlock(HdfsBlockLocation loc) {
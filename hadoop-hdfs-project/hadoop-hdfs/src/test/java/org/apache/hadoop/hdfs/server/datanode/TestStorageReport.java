@@ -101,7 +101,7 @@ public void testStorageReportHasStorageTypeAndState() throws IOException {
     Mockito.verify(nnSpy).sendHeartbeat(
         any(DatanodeRegistration.class),
         captor.capture(),
-        anyLong(), anyLong(), anyInt(), anyInt(), anyInt());
+        anyLong(), anyLong(), anyInt(), anyInt(), anyInt(), anyLong());
 
     StorageReport[] reports = captor.getValue();
 
@@ -17,12 +17,14 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -107,4 +109,25 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  @Test
+  public void testSnapshot() {
+    // Test 1: unknown block pool gives an empty snapshot
+    assertEquals(0, map.snapshot("BP-UNKNOWN").length);
+
+    // Test 2: the snapshot holds the replicas present when it was taken
+    ReplicaInfo[] snapshot = map.snapshot(bpid);
+    assertEquals(1, snapshot.length);
+    assertEquals(block.getBlockId(), snapshot[0].getBlockId());
+
+    // Test 3: later changes to the map do not affect the snapshot
+    map.add(bpid, new FinalizedReplica(new Block(5678, 5678, 5678),
+        null, null));
+    map.remove(bpid, block);
+    assertEquals(1, snapshot.length);
+    assertEquals(block.getBlockId(), snapshot[0].getBlockId());
+    snapshot = map.snapshot(bpid);
+    assertEquals(1, snapshot.length);
+    assertEquals(5678, snapshot[0].getBlockId());
+  }
 }
@@ -96,6 +96,10 @@ public static void abortEditLogs(NameNode nn) {
     FSEditLog el = nn.getFSImage().getEditLog();
     el.abortCurrentLogSegment();
   }
+
+  public static long getCurSegmentTxId(NameNode nn) {
+    return nn.getFSImage().getEditLog().getCurSegmentTxId();
+  }
   
   /**
    * Get the internal RPC server instance.
@@ -114,7 +118,7 @@ public static HeartbeatResponse sendHeartBeat(DatanodeRegistration nodeReg,
       DatanodeDescriptor dd, FSNamesystem namesystem) throws IOException {
     return namesystem.handleHeartbeat(nodeReg,
         BlockManagerTestUtil.getStorageReportsForDatanode(dd),
-        dd.getCacheCapacity(), dd.getCacheRemaining(), 0, 0, 0);
+        dd.getCacheCapacity(), dd.getCacheRemaining(), 0, 0, 0, 0L);
   }
 
   public static boolean setReplication(final FSNamesystem ns,
@@ -21,6 +21,7 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CACHEREPORT_INTERVAL_MSEC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.protocol.CachePoolInfo.RELATIVE_EXPIRY_NEVER;
 import static org.apache.hadoop.test.GenericTestUtils.assertExceptionContains;
@@ -59,6 +60,7 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.LogVerificationAppender;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.CacheDirective;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo.Expiration;
@@ -843,7 +845,8 @@ public Boolean get() {
     String bpid = cluster.getNamesystem().getBlockPoolId();
     LinkedList<Long> bogusBlockIds = new LinkedList<Long> ();
     bogusBlockIds.add(999999L);
-    nnRpc.cacheReport(dn0.getDNRegistrationForBP(bpid), bpid, bogusBlockIds);
+    nnRpc.cacheReport(dn0.getDNRegistrationForBP(bpid), bpid, bogusBlockIds,
+        null);
 
     Path rootDir = helper.getDefaultWorkingDirectory(dfs);
     // Create the pool
@@ -1210,6 +1213,162 @@ public void testLimit() throws Exception {
             .setPath(path1).build(), EnumSet.of(CacheFlag.FORCE));
   }
 
+  /**
+   * When a cache pool's limit cannot hold all of its directives, the
+   * directive whose blocks were read recently should stay cached, and the
+   * cold one should be uncached, even though it was added first.
+   */
+  @Test(timeout=120000)
+  public void testEvictColdDirective() throws Exception {
+    final String poolName = "poolofheat";
+    final CachePoolInfo poolInfo =
+        new CachePoolInfo(poolName).setLimit(2*BLOCK_SIZE);
+    dfs.addCachePool(poolInfo);
+    final Path coldPath = new Path("/cold");
+    final Path hotPath = new Path("/hot");
+    DFSTestUtil.createFile(dfs, coldPath, BLOCK_SIZE, (short)1, 0x9496);
+    DFSTestUtil.createFile(dfs, hotPath, BLOCK_SIZE, (short)1, 0x9497);
+    dfs.addCacheDirective(new CacheDirectiveInfo.Builder()
+        .setPool(poolName).setPath(coldPath).build());
+    final long hotId = dfs.addCacheDirective(new CacheDirectiveInfo.Builder()
+        .setPool(poolName).setPath(hotPath).build());
+    waitForCachePoolStats(dfs,
+        2*BLOCK_SIZE, 2*BLOCK_SIZE,
+        2, 2,
+        poolInfo, "testEvictColdDirective:0");
+
+    // Read the hot file until the NameNode has counted the cache hits.
+    final FSNamesystem namesystem = namenode.getNamesystem();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          DFSTestUtil.readFile(dfs, hotPath);
+        } catch (IOException e) {
+          fail("Failed to read " + hotPath + ": " + e);
+        }
+        namesystem.readLock();
+        try {
+          for (CacheDirective directive :
+              namesystem.getCacheManager().getCacheDirectives()) {
+            if (directive.getId() == hotId) {
+              return directive.getHits() > 0;
+            }
+          }
+          return false;
+        } finally {
+          namesystem.readUnlock();
+        }
+      }
+    }, 500, 60000);
+
+    // Bring the limit down: the cold file should get uncached.
+    poolInfo.setLimit(BLOCK_SIZE);
+    dfs.modifyCachePool(poolInfo);
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, BLOCK_SIZE,
+        1, 1,
+        new CacheDirectiveInfo.Builder().setPath(hotPath).build(),
+        "testEvictColdDirective:hot");
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, 0,
+        1, 0,
+        new CacheDirectiveInfo.Builder().setPath(coldPath).build(),
+        "testEvictColdDirective:cold");
+    waitForCachedBlocks(namenode, 1, 1, "testEvictColdDirective:1");
+  }
+
+  private float getDirectiveHits(long id) {
+    final FSNamesystem namesystem = namenode.getNamesystem();
+    namesystem.readLock();
+    try {
+      for (CacheDirective directive :
+          namesystem.getCacheManager().getCacheDirectives()) {
+        if (directive.getId() == id) {
+          return directive.getHits();
+        }
+      }
+      return 0;
+    } finally {
+      namesystem.readUnlock();
+    }
+  }
+
+  /**
+   * A directive added while a hot directive fills its pool should stay
+   * uncached, and get cached once the hot directive went cold.
+   */
+  @Test(timeout=120000)
+  public void testNewDirectiveReplacesColdDirective() throws Exception {
+    cluster.shutdown();
+    conf = createCachingConf();
+    conf.setLong(DFS_NAMENODE_PATH_BASED_CACHE_HITS_HALF_LIFE_MS, 4000);
+    cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATANODES).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+    proto = cluster.getNameNodeRpc();
+    namenode = cluster.getNameNode();
+
+    final String poolName = "poolofchange";
+    final CachePoolInfo poolInfo =
+        new CachePoolInfo(poolName).setLimit(BLOCK_SIZE);
+    dfs.addCachePool(poolInfo);
+    final Path hotPath = new Path("/hot");
+    final Path newPath = new Path("/new");
+    DFSTestUtil.createFile(dfs, hotPath, BLOCK_SIZE, (short)1, 0x9498);
+    DFSTestUtil.createFile(dfs, newPath, BLOCK_SIZE, (short)1, 0x9499);
+    final long hotId = dfs.addCacheDirective(new CacheDirectiveInfo.Builder()
+        .setPool(poolName).setPath(hotPath).build());
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, BLOCK_SIZE,
+        1, 1,
+        new CacheDirectiveInfo.Builder().setPath(hotPath).build(),
+        "testNewDirectiveReplacesColdDirective:0");
+
+    // Read the hot file until it is well ahead of a new directive.
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          DFSTestUtil.readFile(dfs, hotPath);
+        } catch (IOException e) {
+          fail("Failed to read " + hotPath + ": " + e);
+        }
+        return getDirectiveHits(hotId) > 8;
+      }
+    }, 200, 60000);
+
+    // The new directive does not fit while the hot one is read.
+    dfs.addCacheDirective(new CacheDirectiveInfo.Builder()
+        .setPool(poolName).setPath(newPath).build(),
+        EnumSet.of(CacheFlag.FORCE));
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, 0,
+        1, 0,
+        new CacheDirectiveInfo.Builder().setPath(newPath).build(),
+        "testNewDirectiveReplacesColdDirective:new");
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, BLOCK_SIZE,
+        1, 1,
+        new CacheDirectiveInfo.Builder().setPath(hotPath).build(),
+        "testNewDirectiveReplacesColdDirective:hot");
+
+    // Once the hot file is no longer read, the new directive takes its place.
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, BLOCK_SIZE,
+        1, 1,
+        new CacheDirectiveInfo.Builder().setPath(newPath).build(),
+        "testNewDirectiveReplacesColdDirective:new:1");
+    waitForCacheDirectiveStats(dfs,
+        BLOCK_SIZE, 0,
+        1, 0,
+        new CacheDirectiveInfo.Builder().setPath(hotPath).build(),
+        "testNewDirectiveReplacesColdDirective:hot:1");
+    waitForCachedBlocks(namenode, 1, 1,
+        "testNewDirectiveReplacesColdDirective:1");
+  }
+
   @Test(timeout=30000)
   public void testMaxRelativeExpiry() throws Exception {
     // Test that negative and really big max expirations can't be set during add
@@ -19,13 +19,18 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 import org.apache.hadoop.test.PathUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.DeleteOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.OpInstanceCache;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.junit.After;
@@ -41,6 +46,8 @@ public class TestEditLogFileOutputStream {
       .getTestDir(TestEditLogFileOutputStream.class);
   private static final File TEST_EDITS = new File(TEST_DIR,
       "testEditLogFileOutput.log");
+  private static final File TEST_UNCOMPRESSED_EDITS = new File(TEST_DIR,
+      "testEditLogFileOutputUncompressed.log");
   final static int MIN_PREALLOCATION_LENGTH = EditLogFileOutputStream.MIN_PREALLOCATION_LENGTH;
 
   private Configuration conf;
@@ -57,6 +64,8 @@ public static void disableFsync() {
   public void deleteEditsFile() {
     if (TEST_EDITS.exists())
       TEST_EDITS.delete();
+    if (TEST_UNCOMPRESSED_EDITS.exists())
+      TEST_UNCOMPRESSED_EDITS.delete();
   }
 
   @Before
@@ -157,4 +166,76 @@ public void testEditLogFileOutputStreamAbortAbort() throws IOException {
       IOUtils.cleanup(null, editLogStream);
     }
   }
+
+  /**
+   * Write transactions 1 to numTxns, flushing every txnsPerFlush
+   * transactions, and close the log.
+   */
+  private static void writeDeletes(Configuration conf, File file,
+      int numTxns, int txnsPerFlush) throws IOException {
+    final OpInstanceCache cache = new OpInstanceCache();
+    EditLogFileOutputStream elos = new EditLogFileOutputStream(conf, file, 0);
+    try {
+      elos.create();
+      for (long txid = 1; txid <= numTxns; txid++) {
+        DeleteOp op = DeleteOp.getInstance(cache);
+        op.setTransactionId(txid);
+        op.setPath("/user/foo/some/deep/directory/file." + txid);
+        op.setTimestamp(txid);
+        elos.write(op);
+        if (txid % txnsPerFlush == 0) {
+          elos.setReadyToFlush();
+          elos.flushAndSync(true);
+        }
+      }
+      elos.close();
+      elos = null;
+    } finally {
+      IOUtils.cleanup(null, elos);
+    }
+  }
+
+  /** Read the transactions of a log and check they are 1 to lastTxId. */
+  private static void checkTransactions(EditLogFileInputStream elis,
+      long lastTxId) throws IOException {
+    try {
+      for (long txid = 1; txid <= lastTxId; txid++) {
+        assertEquals(txid, elis.nextOp().getTransactionId());
+      }
+      assertNull(elis.nextOp());
+    } finally {
+      elis.close();
+    }
+  }
+
+  /**
+   * Tests that a compressed log is smaller than the uncompressed one, and can
+   * be read back, also up to the last complete flush after a crash.
+   */
+  @Test
+  public void testCompressedEdits() throws IOException {
+    final int numTxns = 100;
+    final int txnsPerFlush = 20;
+    writeDeletes(conf, TEST_UNCOMPRESSED_EDITS, numTxns, txnsPerFlush);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_COMPRESS_KEY, true);
+    writeDeletes(conf, TEST_EDITS, numTxns, txnsPerFlush);
+    assertTrue(TEST_EDITS.length() < TEST_UNCOMPRESSED_EDITS.length());
+
+    checkTransactions(new EditLogFileInputStream(TEST_EDITS), numTxns);
+    checkTransactions(new EditLogFileInputStream(TEST_EDITS, 1, 50, false), 50);
+    assertEquals(numTxns,
+        EditLogFileInputStream.validateEditLog(TEST_EDITS).getEndTxId());
+
+    // Lose the end of the last flush, as in a crash.
+    RandomAccessFile raf = new RandomAccessFile(TEST_EDITS, "rw");
+    try {
+      raf.setLength(raf.length() - 10);
+    } finally {
+      raf.close();
+    }
+    checkTransactions(new EditLogFileInputStream(TEST_EDITS),
+        numTxns - txnsPerFlush);
+    assertEquals(numTxns - txnsPerFlush,
+        EditLogFileInputStream.validateEditLog(TEST_EDITS).getEndTxId());
+  }
 }
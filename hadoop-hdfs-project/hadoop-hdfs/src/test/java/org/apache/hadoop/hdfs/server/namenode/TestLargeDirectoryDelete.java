@@ -29,10 +29,13 @@
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 
 /**
  * Ensure during large directory delete, namenode does not block until the 
@@ -59,11 +62,11 @@ private void createFile(final String fileName, final long filelen) throws IOExce
   }
   
   /** Create a large number of directories and files */
-  private void createFiles() throws IOException {
+  private void createFiles(int totalBlocks) throws IOException {
     Random rand = new Random();
     // Create files in a directory with random depth
     // ranging from 0-10.
-    for (int i = 0; i < TOTAL_BLOCKS; i+=100) {
+    for (int i = 0; i < totalBlocks; i+=100) {
       String filename = "/root/";
       int dirs = rand.nextInt(10);  // Depth of the directory
       for (int j=i; j >=(i-dirs); j--) {
@@ -138,6 +141,7 @@ protected void execute() throws Throwable {
     
     final long start = Time.now();
     FSNamesystem.BLOCK_DELETION_INCREMENT = 1;
+    FSNamesystem.INODE_DELETION_INCREMENT = 100;
     mc.getFileSystem().delete(new Path("/root"), true); // recursive delete
     final long end = Time.now();
     threads[0].endThread();
@@ -211,14 +215,100 @@ public synchronized void endThread() {
   
   @Test
   public void largeDelete() throws Throwable {
+    final int blockIncrement = FSNamesystem.BLOCK_DELETION_INCREMENT;
+    final int inodeIncrement = FSNamesystem.INODE_DELETION_INCREMENT;
     mc = new MiniDFSCluster.Builder(CONF).build();
     try {
       mc.waitActive();
       Assert.assertNotNull("No Namenode in cluster", mc.getNameNode());
-      createFiles();
+      createFiles(TOTAL_BLOCKS);
       Assert.assertEquals(TOTAL_BLOCKS, getBlockCount());
       runThreads();
     } finally {
+      FSNamesystem.BLOCK_DELETION_INCREMENT = blockIncrement;
+      FSNamesystem.INODE_DELETION_INCREMENT = inodeIncrement;
+      mc.shutdown();
+    }
+  }
+
+  /**
+   * With asynchronous block deletion the delete may return before the
+   * blocks are removed from the blocks map; they are all removed later.
+   */
+  @Test
+  public void largeDeleteAsync() throws Throwable {
+    final Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_ASYNC_KEY, true);
+    final int blockIncrement = FSNamesystem.BLOCK_DELETION_INCREMENT;
+    final int inodeIncrement = FSNamesystem.INODE_DELETION_INCREMENT;
+    mc = new MiniDFSCluster.Builder(conf).build();
+    try {
+      mc.waitActive();
+      final FSNamesystem fsn = mc.getNamesystem();
+      final int inodes = fsn.dir.getInodeMapSize();
+      createFiles(TOTAL_BLOCKS / 10);
+      Assert.assertEquals(TOTAL_BLOCKS / 10, getBlockCount());
+      // Destroy the deleted inodes a few at a time
+      FSNamesystem.INODE_DELETION_INCREMENT = 3;
+      FSNamesystem.BLOCK_DELETION_INCREMENT = 1;
+      // Keep the remover from catching up before the delete returns
+      fsn.setBlockRemoverPaused(true);
+      Assert.assertTrue(mc.getFileSystem().delete(new Path("/root"), true));
+      Assert.assertEquals(TOTAL_BLOCKS / 10, fsn.getBlocksPendingRemoval());
+      Assert.assertEquals(TOTAL_BLOCKS / 10, getBlockCount());
+      Assert.assertFalse(mc.getFileSystem().exists(new Path("/root")));
+      Assert.assertEquals(inodes, fsn.dir.getInodeMapSize());
+      fsn.setBlockRemoverPaused(false);
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return getBlockCount() == 0;
+        }
+      }, 100, 60000);
+      Assert.assertEquals(0, fsn.getBlocksPendingRemoval());
+    } finally {
+      FSNamesystem.BLOCK_DELETION_INCREMENT = blockIncrement;
+      FSNamesystem.INODE_DELETION_INCREMENT = inodeIncrement;
+      mc.shutdown();
+    }
+  }
+
+  /**
+   * Leaving the active state does not wait for the blocks of earlier deletes
+   * to be removed; the remover finishes them in the background.
+   */
+  @Test
+  public void largeDeleteAsyncStopActive() throws Throwable {
+    final Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_BLOCK_DELETION_ASYNC_KEY, true);
+    final int blockIncrement = FSNamesystem.BLOCK_DELETION_INCREMENT;
+    mc = new MiniDFSCluster.Builder(conf).build();
+    try {
+      mc.waitActive();
+      final FSNamesystem fsn = mc.getNamesystem();
+      createFiles(TOTAL_BLOCKS / 10);
+      FSNamesystem.BLOCK_DELETION_INCREMENT = 1;
+      fsn.setBlockRemoverPaused(true);
+      Assert.assertTrue(mc.getFileSystem().delete(new Path("/root"), true));
+      Assert.assertEquals(TOTAL_BLOCKS / 10, getBlockCount());
+
+      // Holding the write lock keeps the remover from making progress, so
+      // stopActiveServices would never return if it drained the queue.
+      fsn.writeLock();
+      try {
+        fsn.stopActiveServices();
+        Assert.assertEquals(TOTAL_BLOCKS / 10, getBlockCount());
+      } finally {
+        fsn.writeUnlock();
+      }
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return getBlockCount() == 0;
+        }
+      }, 100, 60000);
+    } finally {
+      FSNamesystem.BLOCK_DELETION_INCREMENT = blockIncrement;
       mc.shutdown();
     }
   }
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeFile;
+import org.apache.hadoop.hdfs.util.MD5FileUtils;
+import org.apache.hadoop.http.HttpServer2;
+import org.apache.hadoop.http.HttpServerFunctionalTest;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.io.Files;
+
+public class TestStreamingImageUpload {
+  private static final File TEST_DIR =
+      PathUtils.getTestDir(TestStreamingImageUpload.class);
+  private static final long TXID = 1000;
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  /** The storage of the uploading checkpointer. */
+  private NNStorage storage;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY, 1024);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    cluster.waitActive();
+
+    File dir = new File(TEST_DIR, "checkpointer");
+    FileUtil.fullyDelete(dir);
+    new File(dir, "current").mkdirs();
+    storage = new NNStorage(conf, Collections.singletonList(dir.toURI()),
+        Collections.<URI>emptyList());
+    storage.setStorageInfo(cluster.getNameNode().getFSImage().getStorage());
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private URL getActiveAddress() throws Exception {
+    return new URL("http://" +
+        NetUtils.getHostPortString(cluster.getNameNode().getHttpAddress()));
+  }
+
+  private NNStorage getActiveStorage() {
+    return cluster.getNameNode().getFSImage().getStorage();
+  }
+
+  /**
+   * Save an image in two parts, checking that the upload streams the image
+   * while it grows, and that the active gets the complete image.
+   */
+  @Test(timeout = 60000)
+  public void testUploadWhileSaving() throws Exception {
+    StreamingImageUpload upload = new StreamingImageUpload(getActiveAddress(),
+        conf, storage, TXID);
+    Future<Void> future = executor.submit(upload);
+
+    byte[] image = new byte[100 * 1024];
+    new Random().nextBytes(image);
+    StorageDirectory sd = storage.getStorageDir(0);
+    File ckpt = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, TXID);
+    FileOutputStream out = new FileOutputStream(ckpt);
+    try {
+      out.write(image, 0, image.length / 2);
+      out.flush();
+      Thread.sleep(500);
+      out.write(image, image.length / 2, image.length - image.length / 2);
+    } finally {
+      out.close();
+    }
+    File imageFile = NNStorage.getImageFile(sd, TXID);
+    MD5FileUtils.saveMD5File(imageFile, MD5Hash.digest(image));
+    FileUtil.replaceFile(ckpt, imageFile);
+    upload.saveFinished(true);
+    future.get();
+
+    File received = getActiveStorage().findImageFile(TXID);
+    assertNotNull(received);
+    assertArrayEquals(image, Files.toByteArray(received));
+    assertEquals(MD5Hash.digest(image),
+        MD5FileUtils.readStoredMd5ForFile(received));
+  }
+
+  /**
+   * If the save fails, the upload fails and the active drops the partial
+   * image.
+   */
+  @Test(timeout = 60000)
+  public void testSaveFailure() throws Exception {
+    StreamingImageUpload upload = new StreamingImageUpload(getActiveAddress(),
+        conf, storage, TXID);
+    Future<Void> future = executor.submit(upload);
+
+    byte[] image = new byte[100 * 1024];
+    new Random().nextBytes(image);
+    File ckpt = NNStorage.getStorageFile(storage.getStorageDir(0),
+        NameNodeFile.IMAGE_NEW, TXID);
+    FileOutputStream out = new FileOutputStream(ckpt);
+    try {
+      out.write(image);
+    } finally {
+      out.close();
+    }
+    upload.saveFinished(false);
+    try {
+      future.get();
+      fail("The upload of a failed save should fail");
+    } catch (ExecutionException e) {
+      GenericTestUtils.assertExceptionContains("failed", e.getCause());
+    }
+
+    assertNull(getActiveStorage().findImageFile(TXID));
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        for (StorageDirectory sd :
+            getActiveStorage().dirIterable(NameNodeDirType.IMAGE)) {
+          if (NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, TXID)
+              .exists()) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }, 100, 10000);
+  }
+
+  /** Serves GETs only, like the servlet of an older NameNode. */
+  public static class GetOnlyServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+    }
+  }
+
+  /**
+   * A NameNode which does not accept uploads fails the upload before the
+   * image is sent, rather than after the whole image has been saved.
+   */
+  @Test(timeout = 60000)
+  public void testUploadRejected() throws Exception {
+    HttpServer2 server = HttpServerFunctionalTest.createServer("hdfs");
+    try {
+      server.addServlet("getimage", "/getimage", GetOnlyServlet.class);
+      server.start();
+      StreamingImageUpload upload = new StreamingImageUpload(
+          HttpServerFunctionalTest.getServerURL(server), conf, storage, TXID);
+      Future<Void> future = executor.submit(upload);
+
+      // Start a save which does not finish.
+      File ckpt = NNStorage.getStorageFile(storage.getStorageDir(0),
+          NameNodeFile.IMAGE_NEW, TXID);
+      FileOutputStream out = new FileOutputStream(ckpt);
+      try {
+        out.write(new byte[1024]);
+        try {
+          future.get(10, TimeUnit.SECONDS);
+          fail("The upload should have been rejected");
+        } catch (ExecutionException e) {
+          GenericTestUtils.assertExceptionContains("does not accept",
+              e.getCause());
+        }
+      } finally {
+        out.close();
+      }
+      assertTrue(ckpt.exists());
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testChunkSizeIsCapped() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_TRANSFER_CHUNKSIZE_KEY,
+        64 * 1024 * 1024);
+    testUploadWhileSaving();
+  }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode.ha;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -33,6 +34,7 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
@@ -104,6 +106,54 @@ public void testTailer() throws IOException, InterruptedException,
     }
   }
   
+  /**
+   * With a quorum journal, the standby can read the edits of the segment
+   * which the active is still writing.
+   */
+  @Test(timeout=60000)
+  public void testTailerInProgress() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    HAUtil.setAllowStandbyReads(conf, true);
+
+    MiniQJMHACluster qjmCluster = new MiniQJMHACluster.Builder(conf).build();
+    try {
+      MiniDFSCluster cluster = qjmCluster.getDfsCluster();
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      final NameNode nn1 = cluster.getNameNode(0);
+      final NameNode nn2 = cluster.getNameNode(1);
+      final long segmentTxId = NameNodeAdapter.getCurSegmentTxId(nn1);
+
+      for (int i = 0; i < DIRS_TO_MAKE; i++) {
+        NameNodeAdapter.mkdirs(nn1, getDirPath(i),
+            new PermissionStatus("test","test", new FsPermission((short)00755)),
+            true);
+      }
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          try {
+            return NameNodeAdapter.getFileInfo(nn2,
+                getDirPath(DIRS_TO_MAKE - 1), false) != null;
+          } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+          }
+        }
+      }, 100, (int)NN_LAG_TIMEOUT);
+      for (int i = 0; i < DIRS_TO_MAKE; i++) {
+        assertTrue(NameNodeAdapter.getFileInfo(nn2,
+            getDirPath(i), false).isDir());
+      }
+      // The edits were read without rolling the active's edit log.
+      assertEquals(segmentTxId, NameNodeAdapter.getCurSegmentTxId(nn1));
+    } finally {
+      qjmCluster.shutdown();
+    }
+  }
+  
   @Test
   public void testNN0TriggersLogRolls() throws Exception {
     testStandbyTriggersLogRolls(0);
@@ -22,14 +22,19 @@
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
@@ -60,6 +65,9 @@ public class TestSnapshotDiffReport {
   @Before
   public void setUp() throws Exception {
     conf = new Configuration();
+    // list the diff reports in small pages
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_LIST_SNAPSHOT_DIFF_NUM_RESPONSES,
+        2);
     cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
         .format(true).build();
     cluster.waitActive();
@@ -173,6 +181,21 @@ private void verifyDiffReport(Path dir, String from, String to,
             new DiffReportEntry(DiffType.DELETE, entry.getRelativePath())));
       }
     }
+    verifyDiffReportListing(dir, from, to, report);
+    verifyDiffReportListing(dir, to, from, inverseReport);
+  }
+
+  /** check that listing the diff report page by page gives the same entries */
+  private void verifyDiffReportListing(Path dir, String from, String to,
+      SnapshotDiffReport report) throws IOException {
+    final List<DiffReportEntry> listed = new ArrayList<DiffReportEntry>();
+    final RemoteIterator<DiffReportEntry> iter =
+        hdfs.listSnapshotDiffReport(dir, from, to);
+    while (iter.hasNext()) {
+      listed.add(iter.next());
+    }
+    assertEquals(report.getDiffList().size(), listed.size());
+    assertTrue(listed.containsAll(report.getDiffList()));
   }
   
   /** Test the computation and representation of diff between snapshots */
@@ -329,5 +352,55 @@ public void testDiffReport2() throws Exception {
         new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("")),
         new DiffReportEntry(DiffType.DELETE, DFSUtil.string2Bytes("subsub1")));
   }
+
+  /**
+   * Changes made after a diff report has been computed, and the changes
+   * loaded from the fsimage after a restart, should show up in later diff
+   * reports.
+   */
+  @Test (timeout=60000)
+  public void testDiffReportWithLaterChanges() throws Exception {
+    final Path deep = new Path(sub1, "a/b/c");
+    final Path file = new Path(deep, "file");
+    final Path other = new Path(sub1, "other");
+    DFSTestUtil.createFile(hdfs, file, BLOCKSIZE, REPLICATION_1, seed);
+    for (int i = 0; i < 10; i++) {
+      DFSTestUtil.createFile(hdfs, new Path(other, "f" + i), BLOCKSIZE,
+          REPLICATION_1, seed);
+    }
+    hdfs.allowSnapshot(sub1);
+    hdfs.createSnapshot(sub1, "s0");
+    hdfs.setReplication(file, REPLICATION);
+    hdfs.createSnapshot(sub1, "s1");
+    verifyDiffReport(sub1, "s0", "s1",
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("a/b/c/file")));
+
+    DFSTestUtil.createFile(hdfs, new Path(deep, "file2"), BLOCKSIZE,
+        REPLICATION_1, seed);
+    hdfs.setReplication(new Path(other, "f3"), REPLICATION);
+    hdfs.delete(new Path(other, "f5"), false);
+    hdfs.createSnapshot(sub1, "s2");
+    final DiffReportEntry[] s1s2 = {
+        new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("a/b/c")),
+        new DiffReportEntry(DiffType.CREATE,
+            DFSUtil.string2Bytes("a/b/c/file2")),
+        new DiffReportEntry(DiffType.MODIFY, DFSUtil.string2Bytes("other")),
+        new DiffReportEntry(DiffType.DELETE,
+            DFSUtil.string2Bytes("other/f5")),
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("other/f3")) };
+    verifyDiffReport(sub1, "s1", "s2", s1s2);
+
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    hdfs.saveNamespace();
+    hdfs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    cluster.restartNameNode(true);
+    hdfs = cluster.getFileSystem();
+    verifyDiffReport(sub1, "s1", "s2", s1s2);
+    verifyDiffReport(sub1, "s0", "s1",
+        new DiffReportEntry(DiffType.MODIFY,
+            DFSUtil.string2Bytes("a/b/c/file")));
+  }
   
 }
\ No newline at end of file
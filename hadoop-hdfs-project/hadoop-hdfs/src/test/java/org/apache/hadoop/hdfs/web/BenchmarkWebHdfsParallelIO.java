@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.web;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.Time;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * This class benchmarks webhdfs:// reads and writes with a single connection
+ * and with several connections per stream.  It starts a MiniDFSCluster, then
+ * writes a file and reads it back once for each number of connections, and
+ * prints the throughput of both.  Everything runs on the loopback interface,
+ * so the numbers show the overhead of the parallel streams rather than the
+ * gain over a link with a high latency.
+ */
+public class BenchmarkWebHdfsParallelIO extends Configured implements Tool {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private static void printThroughput(String op, int connections, long bytes,
+      long millis) {
+    System.out.println(String.format(
+        "%s with %d connection(s): %d MB in %d ms, %.2f MB/s", op,
+        connections, bytes >> 20, millis,
+        (bytes / 1048576.0) / (millis / 1000.0)));
+  }
+
+  private static long write(FileSystem fs, Path p, long fileSize)
+      throws IOException {
+    final byte[] data = new byte[BUFFER_SIZE];
+    final long start = Time.monotonicNow();
+    final FSDataOutputStream out = fs.create(p, true);
+    try {
+      for (long remaining = fileSize; remaining > 0; ) {
+        final int n = (int)Math.min(remaining, data.length);
+        out.write(data, 0, n);
+        remaining -= n;
+      }
+    } finally {
+      out.close();
+    }
+    return Time.monotonicNow() - start;
+  }
+
+  private static long read(FileSystem fs, Path p) throws IOException {
+    final byte[] data = new byte[BUFFER_SIZE];
+    final long start = Time.monotonicNow();
+    final FSDataInputStream in = fs.open(p);
+    try {
+      while (in.read(data) != -1) {
+      }
+    } finally {
+      in.close();
+    }
+    return Time.monotonicNow() - start;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: BenchmarkWebHdfsParallelIO "
+          + "<file size in MB> <block size in MB> <connections>");
+      return 1;
+    }
+    final long fileSize = Long.parseLong(args[0]) << 20;
+    final long blockSize = Long.parseLong(args[1]) << 20;
+    final int connections = Integer.parseInt(args[2]);
+
+    final Configuration conf = new Configuration(getConf());
+    conf.setBoolean(DFSConfigKeys.DFS_WEBHDFS_ENABLED_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    try {
+      cluster.waitActive();
+      final String uri = WebHdfsFileSystem.SCHEME + "://"
+          + conf.get(DFSConfigKeys.DFS_NAMENODE_HTTP_ADDRESS_KEY);
+      for (int c : new int[]{1, connections}) {
+        final Configuration clientConf = new Configuration(conf);
+        clientConf.setInt(
+            DFSConfigKeys.DFS_WEBHDFS_PARALLEL_WRITE_CONNECTIONS_KEY, c);
+        clientConf.setInt(
+            DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CONNECTIONS_KEY, c);
+        final FileSystem fs = FileSystem.newInstance(new URI(uri), clientConf);
+        try {
+          final Path p = new Path("/benchmarkWebHdfsParallelIO");
+          printThroughput("WRITE", c, fileSize, write(fs, p, fileSize));
+          printThroughput("READ", c, fileSize, read(fs, p));
+          fs.delete(p, false);
+        } finally {
+          fs.close();
+        }
+      }
+    } finally {
+      cluster.shutdown();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new BenchmarkWebHdfsParallelIO(), args));
+  }
+}
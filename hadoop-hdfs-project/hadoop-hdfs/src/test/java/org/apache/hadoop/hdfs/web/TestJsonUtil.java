@@ -22,6 +22,7 @@
 import static org.apache.hadoop.fs.permission.FsAction.*;
 import static org.apache.hadoop.hdfs.server.namenode.AclTestHelpers.*;
 
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,8 @@
 import org.apache.hadoop.hdfs.server.namenode.INodeId;
 import org.apache.hadoop.util.Time;
 import org.junit.Assert;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.junit.Test;
 import org.mortbay.util.ajax.JSON;
 
@@ -71,6 +74,27 @@ public void testHdfsFileStatus() {
     Assert.assertEquals(fstatus, fs2);
   }
   
+  @Test
+  public void testWriteFileStatus() throws Exception {
+    final long now = Time.now();
+    final HdfsFileStatus[] statuses = {
+        new HdfsFileStatus(1001L, false, 3, 1L << 26, now, now + 10,
+            new FsPermission((short) 0644), "user", "group", null,
+            DFSUtil.string2Bytes("foo"), 16386, 0),
+        new HdfsFileStatus(0L, false, 0, 0, now, now,
+            new FsPermission((short) 0777), "user", "group",
+            DFSUtil.string2Bytes("/a/b"), DFSUtil.string2Bytes("l\"i\u00f1k"),
+            16387, 0) };
+    for (HdfsFileStatus status : statuses) {
+      final StringWriter out = new StringWriter();
+      final JsonGenerator g = new JsonFactory().createJsonGenerator(out);
+      JsonUtil.writeFileStatus(g, status);
+      g.close();
+      // same Json as the map based conversion
+      Assert.assertEquals(JsonUtil.toJsonString(status, false), out.toString());
+    }
+  }
+
   @Test
   public void testToDatanodeInfoWithoutSecurePort() throws Exception {
     Map<String, Object> response = new HashMap<String, Object>();
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class TestParallelBlockOutputStream {
+  private static final int PART_SIZE = 1000;
+  private static final Random RANDOM = new Random();
+
+  /** Keeps the files in memory, and fails the writes to a given part. */
+  private static class MemoryPartFileSystem
+      implements ParallelBlockOutputStream.PartFileSystem {
+    final Map<Path, ByteArrayOutputStream> files =
+        new TreeMap<Path, ByteArrayOutputStream>();
+    /** The number of the part which fails, or -1 for none. */
+    int failingPart = -1;
+    private int created = 0;
+
+    synchronized OutputStream create(Path path) throws IOException {
+      if (files.containsKey(path)) {
+        throw new FileAlreadyExistsException(path + " exists");
+      }
+      final boolean fail = created == failingPart;
+      created++;
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      files.put(path, out);
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          if (fail) {
+            throw new IOException("Injected failure");
+          }
+          out.write(b);
+        }
+      };
+    }
+
+    @Override
+    public OutputStream createPart(Path part) throws IOException {
+      return create(part);
+    }
+
+    @Override
+    public synchronized void concat(Path target, Path[] parts)
+        throws IOException {
+      final ByteArrayOutputStream out = files.get(target);
+      for (Path part : parts) {
+        out.write(files.remove(part).toByteArray());
+      }
+    }
+
+    @Override
+    public synchronized boolean delete(Path path, boolean recursive) {
+      return files.remove(path) != null;
+    }
+  }
+
+  private static byte[] write(MemoryPartFileSystem fs, Path target,
+      int length) throws IOException {
+    final byte[] data = new byte[length];
+    RANDOM.nextBytes(data);
+    final OutputStream out = new ParallelBlockOutputStream(fs, target,
+        fs.create(target), PART_SIZE, 300, 3);
+    try {
+      for (int off = 0; off < length; off += 777) {
+        out.write(data, off, Math.min(777, length - off));
+      }
+    } finally {
+      out.close();
+    }
+    return data;
+  }
+
+  @Test
+  public void testWrite() throws IOException {
+    final MemoryPartFileSystem fs = new MemoryPartFileSystem();
+    final Path target = new Path("/dir/file");
+    final byte[] data = write(fs, target, 5 * PART_SIZE + 123);
+    assertEquals(1, fs.files.size());
+    assertArrayEquals(data, fs.files.get(target).toByteArray());
+  }
+
+  @Test
+  public void testExistingFilesAreKept() throws IOException {
+    final MemoryPartFileSystem fs = new MemoryPartFileSystem();
+    final Path target = new Path("/dir/file");
+    // A file named like a part of an earlier upload
+    final Path other = new Path("/dir/.file._PART_1");
+    fs.create(other).write(1);
+    write(fs, target, 3 * PART_SIZE);
+    assertEquals(2, fs.files.size());
+    assertEquals(1, fs.files.get(other).size());
+  }
+
+  @Test
+  public void testPartFailure() throws IOException {
+    // The target file itself is part 0.
+    for (int failingPart = 0; failingPart < 6; failingPart++) {
+      final MemoryPartFileSystem fs = new MemoryPartFileSystem();
+      fs.failingPart = failingPart;
+      try {
+        write(fs, new Path("/dir/file"), 5 * PART_SIZE + 123);
+        fail("The write of part " + failingPart + " should have failed");
+      } catch (IOException e) {
+        // expected
+      }
+      // Neither the file nor any of its parts is left behind.
+      assertTrue(fs.files.keySet().toString(), fs.files.isEmpty());
+    }
+  }
+}
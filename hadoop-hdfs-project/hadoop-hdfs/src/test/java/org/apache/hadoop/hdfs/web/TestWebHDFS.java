@@ -29,8 +29,10 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -145,6 +147,79 @@ static void largeFileTest(final long fileLength) throws Exception {
     }
   }
 
+  /** Test reading and writing files with several connections. */
+  @Test(timeout=300000)
+  public void testParallelReadWrite() throws Exception {
+    final Configuration conf = WebHdfsTestUtil.createConf();
+    final int blockSize = 64 << 10;
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(DFSConfigKeys.DFS_WEBHDFS_PARALLEL_WRITE_CONNECTIONS_KEY, 3);
+    conf.setInt(DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CONNECTIONS_KEY, 3);
+    conf.setInt(DFSConfigKeys.DFS_WEBHDFS_PARALLEL_READ_CHUNK_SIZE_KEY,
+        10000);
+
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3)
+        .build();
+    try {
+      cluster.waitActive();
+      final FileSystem fs = WebHdfsTestUtil.getWebHdfsFileSystem(conf,
+          WebHdfsFileSystem.SCHEME);
+      final Path dir = new Path("/test/parallel");
+      Assert.assertTrue(fs.mkdirs(dir));
+
+      // a partial last block, whole blocks only, and a single block
+      final int[] lengths = {5 * blockSize + 12345, 3 * blockSize, 1000};
+      for (int length : lengths) {
+        final byte[] expected = new byte[length];
+        RANDOM.nextBytes(expected);
+        final Path p = new Path(dir, "file" + length);
+        final FSDataOutputStream out = fs.create(p);
+        try {
+          // odd sized writes which straddle the block boundaries
+          for (int off = 0; off < length; off += 7777) {
+            out.write(expected, off, Math.min(7777, length - off));
+          }
+        } finally {
+          out.close();
+        }
+        Assert.assertEquals(length, fs.getFileStatus(p).getLen());
+        // only the file itself is left in the directory
+        Assert.assertEquals(1, fs.listStatus(dir).length);
+
+        final byte[] actual = new byte[length];
+        final FSDataInputStream in = fs.open(p);
+        try {
+          in.readFully(actual);
+          Assert.assertArrayEquals(expected, actual);
+          Assert.assertEquals(-1, in.read());
+
+          // seek back, then forward past the chunks being fetched
+          final int[] offsets = {length / 3, 10, length - 1, length / 2};
+          for (int offset : offsets) {
+            in.seek(offset);
+            Assert.assertEquals(offset, in.getPos());
+            final int n = Math.min(20000, length - offset);
+            in.readFully(actual, 0, n);
+            for (int i = 0; i < n; i++) {
+              Assert.assertEquals(expected[offset + i], actual[i]);
+            }
+          }
+          in.readFully(length / 4, actual, 0, 100);
+          for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(expected[length / 4 + i], actual[i]);
+          }
+        } finally {
+          in.close();
+        }
+        Assert.assertTrue(fs.delete(p, false));
+      }
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   static void checkData(long offset, long remaining, int n,
       byte[] actual, byte[] expected) {
     if (RANDOM.nextInt(100) == 0) {
@@ -253,6 +328,15 @@ public Void run() throws IOException, URISyntaxException {
               Assert.assertTrue(fs.createNewFile(p));
             }
             Assert.assertEquals(listLimit*3, fs.listStatus(d).length);
+
+            // page through the directory, listLimit entries at a time
+            final RemoteIterator<FileStatus> it =
+                ((WebHdfsFileSystem)fs).listStatusIterator(d);
+            for (int i=0; i < listLimit*3; i++) {
+              Assert.assertTrue(it.hasNext());
+              Assert.assertEquals("file-"+i, it.next().getPath().getName());
+            }
+            Assert.assertFalse(it.hasNext());
             return null;
           }
         });
@@ -18,6 +18,7 @@
 
 package org.apache.hadoop.test;
 
+import org.apache.hadoop.hdfs.BenchmarkShortCircuitCache;
 import org.apache.hadoop.hdfs.BenchmarkThroughput;
 import org.apache.hadoop.util.ProgramDriver;
 
@@ -37,6 +38,8 @@ public HdfsTestDriver(ProgramDriver pgd) {
     try {
       pgd.addClass("dfsthroughput", BenchmarkThroughput.class, 
           "measure hdfs throughput");
+      pgd.addClass("shortcircuitcache", BenchmarkShortCircuitCache.class,
+          "measure short-circuit replica cache lookups per second");
       pgd.addClass("minidfscluster", MiniDFSClusterManager.class, 
           "Run a single-process mini DFS cluster");
     } catch(Throwable e) {